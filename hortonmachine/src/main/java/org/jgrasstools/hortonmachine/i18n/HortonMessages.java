@@ -126,6 +126,7 @@ public class HortonMessages {
     public static final String OMSKRIGING_pA_DESCRIPTION = "The range if the models runs with the gaussian variogram.";
     public static final String OMSKRIGING_pS_DESCRIPTION = "The sill if the models runs with the gaussian variogram.";
     public static final String OMSKRIGING_pNug_DESCRIPTION = "Is the nugget if the models runs with the gaussian variogram.";
+    public static final String OMSKRIGING_pMaxThreads_DESCRIPTION = "Max threads to use, the points to interpolate are split among them (default 1).";
     public static final String OMSKRIGING_outGrid_DESCRIPTION = "The interpolated gridded data (for mode 2 and 3.";
     public static final String OMSKRIGING_outData_DESCRIPTION = "The interpolated data (for mode 0 and 1).";
 
@@ -143,6 +144,7 @@ public class HortonMessages {
     public static final String OMSNETNUMBERING_inNet_DESCRIPTION = "The map of the network.";
     public static final String OMSNETNUMBERING_inPoints_DESCRIPTION = "The monitoringpoints vector map.";
     public static final String OMSNETNUMBERING_pThres_DESCRIPTION = "Threshold value on tca map.";
+    public static final String OMSNETNUMBERING_pMaxThreads_DESCRIPTION = "Max threads to use, links and hillslopes are labelled in parallel (default 1).";
     public static final String OMSNETNUMBERING_fPointId_DESCRIPTION = "The name of the node id field in mode 2.";
     public static final String OMSNETNUMBERING_outNetnum_DESCRIPTION = "The map of netnumbering";
     public static final String OMSNETNUMBERING_outBasins_DESCRIPTION = "The map of subbasins";
@@ -173,6 +175,9 @@ public class HortonMessages {
     public static final String OMSPITFILLER_AUTHORNAMES = "David Tarboton, Andrea Antonello";
     public static final String OMSPITFILLER_AUTHORCONTACTS = "http://www.neng.usu.edu/cee/faculty/dtarb/tardem.html#programs, http://www.hydrologis.com";
     public static final String OMSPITFILLER_inElev_DESCRIPTION = "The map of digital elevation model (DEM).";
+    public static final String OMSPITFILLER_doPriorityFlood_DESCRIPTION = "Use the priority-flood algorithm, faster on large DEMs (default false).";
+    public static final String OMSPITFILLER_doEpsilon_DESCRIPTION = "In priority-flood mode, raise filled cells by a minimal amount instead of leaving flat areas (default false).";
+    public static final String OMSPITFILLER_pMaxThreads_DESCRIPTION = "Max threads to use in priority-flood mode, the DEM is processed in tiles, the epsilon mode always uses one (default 1).";
     public static final String OMSPITFILLER_outPit_DESCRIPTION = "The depitted elevation map.";
 
     public static final String OMSSKYVIEW_DESCRIPTION = "Calculates the skyview factor.";
@@ -185,6 +190,10 @@ public class HortonMessages {
     public static final String OMSSKYVIEW_AUTHORNAMES = "Daniele Andreis and Riccardo Rigon";
     public static final String OMSSKYVIEW_AUTHORCONTACTS = "http://www.ing.unitn.it/dica/hp/?user=rigon";
     public static final String OMSSKYVIEW_inElev_DESCRIPTION = "The map of the elevation.";
+    public static final String OMSSKYVIEW_doHorizonCache_DESCRIPTION = "Use the precalculated horizon angles of the dem instead of ray tracing the shadows (default false).";
+    public static final String OMSSKYVIEW_pHorizonSectors_DESCRIPTION = "The number of azimuth sectors of the horizon angles (default 72).";
+    public static final String OMSSKYVIEW_inHorizonFile_DESCRIPTION = "The optional file in which the horizon angles are persisted, it is read if it fits the dem, else it is (re)created.";
+    public static final String OMSSKYVIEW_pMaxThreads_DESCRIPTION = "Max threads to use for the calculation of the horizon angles (default 1).";
     public static final String OMSSKYVIEW_outSky_DESCRIPTION = "The map of skyview factor.";
 
     public static final String OMSSHALSTAB_DESCRIPTION = "A version of the OmsShalstab stability model.";
@@ -275,6 +284,7 @@ public class HortonMessages {
     public static final String OMSSPLITSUBBASINS_inFlow_DESCRIPTION = "The map of flow direction.";
     public static final String OMSSPLITSUBBASINS_inHack_DESCRIPTION = "The map of hack.";
     public static final String OMSSPLITSUBBASINS_pHackorder_DESCRIPTION = "The maximum hack order to consider for basin split.";
+    public static final String OMSSPLITSUBBASINS_pMaxThreads_DESCRIPTION = "Max threads to use, the hillslopes are labelled in parallel (default 1).";
     public static final String OMSSPLITSUBBASINS_outNetnum_DESCRIPTION = "The map of numbered network.";
     public static final String OMSSPLITSUBBASINS_outSubbasins_DESCRIPTION = "The map of subbasins.";
 
@@ -385,6 +395,10 @@ public class HortonMessages {
     public static final String OMSHILLSHADE_pMinDiffuse_DESCRIPTION = "The minimum value of diffuse insolation between 0 to 1 (default is 0).";
     public static final String OMSHILLSHADE_pAzimuth_DESCRIPTION = "The value of the azimuth (default is 360).";
     public static final String OMSHILLSHADE_pElev_DESCRIPTION = "The sun elevation (default is 90).";
+    public static final String OMSHILLSHADE_doHorizonCache_DESCRIPTION = "Use the precalculated horizon angles of the dem instead of ray tracing the shadows (default false).";
+    public static final String OMSHILLSHADE_pHorizonSectors_DESCRIPTION = "The number of azimuth sectors of the horizon angles (default 72).";
+    public static final String OMSHILLSHADE_inHorizonFile_DESCRIPTION = "The optional file in which the horizon angles are persisted, it is read if it fits the dem, else it is (re)created.";
+    public static final String OMSHILLSHADE_pMaxThreads_DESCRIPTION = "Max threads to use for the shadows and the horizon angles (default 1).";
     public static final String OMSHILLSHADE_outHill_DESCRIPTION = "The map of hillshade.";
 
     public static final String OMSEPANETPROJECTFILESGENERATOR_DESCRIPTION = "Generates the base shapefiles for an epanet run.";
@@ -569,6 +583,10 @@ public class HortonMessages {
     public static final String OMSINSOLATION_inElev_DESCRIPTION = "The map of the elevation.";
     public static final String OMSINSOLATION_tStartDate_DESCRIPTION = "The first day of the simulation.";
     public static final String OMSINSOLATION_tEndDate_DESCRIPTION = "The last day of the simulation.";
+    public static final String OMSINSOLATION_doHorizonCache_DESCRIPTION = "Use the precalculated horizon angles of the dem instead of ray tracing the shadows (default false).";
+    public static final String OMSINSOLATION_pHorizonSectors_DESCRIPTION = "The number of azimuth sectors of the horizon angles (default 72).";
+    public static final String OMSINSOLATION_inHorizonFile_DESCRIPTION = "The optional file in which the horizon angles are persisted, it is read if it fits the dem, else it is (re)created.";
+    public static final String OMSINSOLATION_pMaxThreads_DESCRIPTION = "Max threads to use for the shadows and the horizon angles (default 1).";
     public static final String OMSINSOLATION_outIns_DESCRIPTION = "The map of total insolation.";
 
     public static final String OMSMELTONNUMBER_DESCRIPTION = "Melton number calculator";
@@ -710,6 +728,28 @@ public class HortonMessages {
     public static final String OMSBASINSHAPE_inBasins_DESCRIPTION = "The map of the numbered basins.";
     public static final String OMSBASINSHAPE_outBasins_DESCRIPTION = "The extracted basins vector map.";
 
+    public static final String OMSBASINDELINEATION_DESCRIPTION = "Runs the chain pitfiller, flowdirections, draindir, tca, extractnetwork and netnumbering in memory, from the elevation model to the subbasins.";
+    public static final String OMSBASINDELINEATION_DOCUMENTATION = "";
+    public static final String OMSBASINDELINEATION_KEYWORDS = "Basin, Geomorphology, OmsPitfiller, OmsFlowDirections, OmsDrainDir, OmsTca, OmsExtractNetwork, OmsNetNumbering";
+    public static final String OMSBASINDELINEATION_LABEL = BASIN;
+    public static final String OMSBASINDELINEATION_NAME = "basindelineation";
+    public static final int OMSBASINDELINEATION_STATUS = 5;
+    public static final String OMSBASINDELINEATION_LICENSE = "General Public License Version 3 (GPLv3)";
+    public static final String OMSBASINDELINEATION_AUTHORNAMES = "Andrea Antonello";
+    public static final String OMSBASINDELINEATION_AUTHORCONTACTS = "http://www.hydrologis.com";
+    public static final String OMSBASINDELINEATION_inElev_DESCRIPTION = "The map of digital elevation model (DEM).";
+    public static final String OMSBASINDELINEATION_doPriorityFlood_DESCRIPTION = "Use the priority-flood algorithm to fill the pits (default false).";
+    public static final String OMSBASINDELINEATION_pLambda_DESCRIPTION = "The direction correction factor of the drainage directions.";
+    public static final String OMSBASINDELINEATION_doLad_DESCRIPTION = "Switch for the drainage directions mode to use: true = LAD (default), false = LTD.";
+    public static final String OMSBASINDELINEATION_pThres_DESCRIPTION = "The threshold on the tca map to extract the network.";
+    public static final String OMSBASINDELINEATION_pMaxThreads_DESCRIPTION = "Max threads to use in the modules of the chain that support it (default 1).";
+    public static final String OMSBASINDELINEATION_outPit_DESCRIPTION = "The depitted elevation map.";
+    public static final String OMSBASINDELINEATION_outFlow_DESCRIPTION = "The map of drainage directions.";
+    public static final String OMSBASINDELINEATION_outTca_DESCRIPTION = "The map of total contributing areas.";
+    public static final String OMSBASINDELINEATION_outNet_DESCRIPTION = "The map of the network.";
+    public static final String OMSBASINDELINEATION_outNetnum_DESCRIPTION = "The map of netnumbering.";
+    public static final String OMSBASINDELINEATION_outBasins_DESCRIPTION = "The map of subbasins.";
+
     public static final String OMSNETWORKATTRIBUTESBUILDER_DESCRIPTION = "Extracts network attributes and the vector network based on a raster network.";
     public static final String OMSNETWORKATTRIBUTESBUILDER_DOCUMENTATION = "";
     public static final String OMSNETWORKATTRIBUTESBUILDER_KEYWORDS = "Network, Vector, FlowDirectionsTC, GC, OmsDrainDir, OmsGradient, OmsSlope";
@@ -854,6 +894,7 @@ public class HortonMessages {
     public static final String OMSDRAINDIR_inFlownet_DESCRIPTION = "The map of flowdirections on the network pixels (considered only in case of LTD method). Remember that in the case of fixed flow calculation the tca has to be recalculated afterwards; the tca output in this case is not corrected.";
     public static final String OMSDRAINDIR_pLambda_DESCRIPTION = "The direction correction factor.";
     public static final String OMSDRAINDIR_doLad_DESCRIPTION = "Switch for the mode to use: true = LAD (default), false = LTD)).";
+    public static final String OMSDRAINDIR_pMaxThreads_DESCRIPTION = "Max threads to use, the cells are sorted by elevation in parallel (default 1).";
     public static final String OMSDRAINDIR_outFlow_DESCRIPTION = "The map of drainage directions.";
     public static final String OMSDRAINDIR_outTca_DESCRIPTION = "The map of total contributing areas.";
 
@@ -945,6 +986,7 @@ public class HortonMessages {
     public static final String OMSFLOWDIRECTIONS_AUTHORNAMES = "David Tarboton, Andrea Antonello";
     public static final String OMSFLOWDIRECTIONS_AUTHORCONTACTS = "http://www.neng.usu.edu/cee/faculty/dtarb/tardem.html#programs, http://www.hydrologis.com, http://www.ing.unitn.it/dica/hp/?user=rigon";
     public static final String OMSFLOWDIRECTIONS_inPit_DESCRIPTION = "The depitted elevation map.";
+    public static final String OMSFLOWDIRECTIONS_pMaxThreads_DESCRIPTION = "Max threads to use, independent flat areas are resolved in parallel (default 1).";
     public static final String OMSFLOWDIRECTIONS_outFlow_DESCRIPTION = "The map of flowdirections.";
 
     public static final String OMSEXTRACTNETWORK_DESCRIPTION = "Extracts the raster network from an elevation model.";
@@ -1038,6 +1080,7 @@ public class HortonMessages {
     public static final String OMSTCA_AUTHORNAMES = "Antonello Andrea";
     public static final String OMSTCA_AUTHORCONTACTS = "http://www.hydrologis.com";
     public static final String OMSTCA_inFlow_DESCRIPTION = "The map of flowdirections.";
+    public static final String OMSTCA_pMaxThreads_DESCRIPTION = "Max threads to use, the work is split by independent sub-basins (default 1).";
     public static final String OMSTCA_outTca_DESCRIPTION = "The map of total contributing areas.";
     public static final String OMSTCA_outLoop_DESCRIPTION = "The vector containing loops, if there are any.";
 
@@ -1247,6 +1290,7 @@ public class HortonMessages {
     public static final String OMSMULTITCA_inPit_DESCRIPTION = "The map of depitted elevation.";
     public static final String OMSMULTITCA_inFlow_DESCRIPTION = "The map of flowdirections.";
     public static final String OMSMULTITCA_inCp9_DESCRIPTION = "The map with the Thopological classes cp9.";
+    public static final String OMSMULTITCA_pMaxThreads_DESCRIPTION = "Max threads to use, the cells are sorted by elevation in parallel (default 1).";
     public static final String OMSMULTITCA_outMultiTca_DESCRIPTION = "The map of total contributing areas.";
 
     public static final String OMSCB_DESCRIPTION = "Calculates the histogram of a set of data contained in a matrix with respect to the set of data contained in another matrix.";
@@ -0,0 +1,223 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.hortonmachine.modules.basin.basindelineation;
+
+import static org.jgrasstools.gears.libs.modules.Variables.TCA;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_AUTHORCONTACTS;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_AUTHORNAMES;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_DOCUMENTATION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_KEYWORDS;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_LABEL;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_LICENSE;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_NAME;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_STATUS;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_doLad_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_doPriorityFlood_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_inElev_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_outBasins_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_outFlow_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_outNet_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_outNetnum_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_outPit_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_outTca_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_pLambda_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_pMaxThreads_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSBASINDELINEATION_pThres_DESCRIPTION;
+
+import oms3.annotations.Author;
+import oms3.annotations.Description;
+import oms3.annotations.Documentation;
+import oms3.annotations.Execute;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.Label;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Out;
+import oms3.annotations.Status;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.JGTModel;
+import org.jgrasstools.hortonmachine.modules.demmanipulation.pitfiller.OmsPitfiller;
+import org.jgrasstools.hortonmachine.modules.geomorphology.draindir.OmsDrainDir;
+import org.jgrasstools.hortonmachine.modules.geomorphology.flow.OmsFlowDirections;
+import org.jgrasstools.hortonmachine.modules.geomorphology.tca.OmsTca;
+import org.jgrasstools.hortonmachine.modules.network.extractnetwork.OmsExtractNetwork;
+import org.jgrasstools.hortonmachine.modules.network.netnumbering.OmsNetNumbering;
+
+/**
+ * The basin delineation chain, from the elevation model to the subbasins, in memory.
+ *
+ * <p>
+ * Every stage gets the coverage produced by the previous one, which keeps its cells
+ * in a single packed array, so the stages read it without conversions. Coverages
+ * that are not outputs of the chain (the D8 flowdirections and the tca of the
+ * drainage directions module) are released as soon as their last consumer has run.
+ * The outputs are the same as running the single modules one after the other.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+@Description(OMSBASINDELINEATION_DESCRIPTION)
+@Documentation(OMSBASINDELINEATION_DOCUMENTATION)
+@Author(name = OMSBASINDELINEATION_AUTHORNAMES, contact = OMSBASINDELINEATION_AUTHORCONTACTS)
+@Keywords(OMSBASINDELINEATION_KEYWORDS)
+@Label(OMSBASINDELINEATION_LABEL)
+@Name(OMSBASINDELINEATION_NAME)
+@Status(OMSBASINDELINEATION_STATUS)
+@License(OMSBASINDELINEATION_LICENSE)
+public class OmsBasinDelineation extends JGTModel {
+    @Description(OMSBASINDELINEATION_inElev_DESCRIPTION)
+    @In
+    public GridCoverage2D inElev = null;
+
+    @Description(OMSBASINDELINEATION_doPriorityFlood_DESCRIPTION)
+    @In
+    public boolean doPriorityFlood = false;
+
+    @Description(OMSBASINDELINEATION_pLambda_DESCRIPTION)
+    @In
+    public double pLambda = 1.0;
+
+    @Description(OMSBASINDELINEATION_doLad_DESCRIPTION)
+    @In
+    public boolean doLad = true;
+
+    @Description(OMSBASINDELINEATION_pThres_DESCRIPTION)
+    @In
+    public double pThres = 0;
+
+    @Description(OMSBASINDELINEATION_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
+    @Description(OMSBASINDELINEATION_outPit_DESCRIPTION)
+    @Out
+    public GridCoverage2D outPit = null;
+
+    @Description(OMSBASINDELINEATION_outFlow_DESCRIPTION)
+    @Out
+    public GridCoverage2D outFlow = null;
+
+    @Description(OMSBASINDELINEATION_outTca_DESCRIPTION)
+    @Out
+    public GridCoverage2D outTca = null;
+
+    @Description(OMSBASINDELINEATION_outNet_DESCRIPTION)
+    @Out
+    public GridCoverage2D outNet = null;
+
+    @Description(OMSBASINDELINEATION_outNetnum_DESCRIPTION)
+    @Out
+    public GridCoverage2D outNetnum = null;
+
+    @Description(OMSBASINDELINEATION_outBasins_DESCRIPTION)
+    @Out
+    public GridCoverage2D outBasins = null;
+
+    @Execute
+    public void process() throws Exception {
+        if (!concatOr(outBasins == null, doReset)) {
+            return;
+        }
+        checkNull(inElev);
+
+        OmsPitfiller pitfiller = new OmsPitfiller();
+        pitfiller.inElev = inElev;
+        pitfiller.doPriorityFlood = doPriorityFlood;
+        pitfiller.pMaxThreads = pMaxThreads;
+        pitfiller.pm = pm;
+        pitfiller.process();
+        if (isCanceled(pm)) {
+            return;
+        }
+        GridCoverage2D pit = pitfiller.outPit;
+        pitfiller = null;
+
+        OmsFlowDirections flowDirections = new OmsFlowDirections();
+        flowDirections.inPit = pit;
+        flowDirections.pMaxThreads = pMaxThreads;
+        flowDirections.pm = pm;
+        flowDirections.process();
+        if (isCanceled(pm)) {
+            return;
+        }
+        GridCoverage2D d8Flow = flowDirections.outFlow;
+        flowDirections = null;
+
+        OmsDrainDir drainDir = new OmsDrainDir();
+        drainDir.inPit = pit;
+        drainDir.inFlow = d8Flow;
+        drainDir.pLambda = pLambda;
+        drainDir.doLad = doLad;
+        drainDir.pMaxThreads = pMaxThreads;
+        drainDir.pm = pm;
+        drainDir.process();
+        if (isCanceled(pm)) {
+            return;
+        }
+        // the D8 directions and the tca of draindir are not needed anymore
+        GridCoverage2D flow = drainDir.outFlow;
+        drainDir = null;
+        d8Flow = null;
+
+        OmsTca tca = new OmsTca();
+        tca.inFlow = flow;
+        tca.pMaxThreads = pMaxThreads;
+        tca.pm = pm;
+        tca.process();
+        if (isCanceled(pm)) {
+            return;
+        }
+        GridCoverage2D tcaCoverage = tca.outTca;
+        tca = null;
+
+        OmsExtractNetwork extractNetwork = new OmsExtractNetwork();
+        extractNetwork.inTca = tcaCoverage;
+        extractNetwork.inFlow = flow;
+        extractNetwork.pMode = TCA;
+        extractNetwork.pThres = pThres;
+        extractNetwork.pm = pm;
+        extractNetwork.process();
+        if (isCanceled(pm)) {
+            return;
+        }
+        GridCoverage2D net = extractNetwork.outNet;
+        extractNetwork = null;
+
+        OmsNetNumbering netNumbering = new OmsNetNumbering();
+        netNumbering.inFlow = flow;
+        netNumbering.inNet = net;
+        netNumbering.pMaxThreads = pMaxThreads;
+        netNumbering.pm = pm;
+        netNumbering.process();
+        if (isCanceled(pm)) {
+            return;
+        }
+
+        outPit = pit;
+        outFlow = flow;
+        outTca = tcaCoverage;
+        outNet = net;
+        outNetnum = netNumbering.outNetnum;
+        outBasins = netNumbering.outBasins;
+    }
+
+}
@@ -36,8 +36,7 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSRESCALEDDISTA
 
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
@@ -56,7 +55,8 @@ import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.jgrasstools.gears.libs.modules.Direction;
-import org.jgrasstools.gears.libs.modules.FlowNode;
+import org.jgrasstools.gears.libs.modules.FlowAccumulationEngine;
+import org.jgrasstools.gears.libs.modules.FlowCursor;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.utils.RegionMap;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
@@ -114,7 +114,8 @@ public class OmsRescaledDistance extends JGTModel {
         yRes = regionMap.getYres();
 
         RenderedImage flowRI = inFlow.getRenderedImage();
-        RandomIter flowIter = RandomIterFactory.create(flowRI, null);
+        int[] flow = FlowAccumulationEngine.readFlow(flowRI);
+        FlowCursor cursor = new FlowCursor(flow, cols, rows);
 
         RenderedImage netRI = inNet.getRenderedImage();
         netIter = RandomIterFactory.create(netRI, null);
@@ -128,7 +129,8 @@ public class OmsRescaledDistance extends JGTModel {
         rescaledIter = RandomIterFactory.createWritable(rescaledWR, null);
 
         pm.beginTask("Find outlets...", rows); //$NON-NLS-1$
-        List<FlowNode> exitsList = new ArrayList<FlowNode>();
+        int exitsNum = 0;
+        int[] exits = new int[64];
         for( int r = 0; r < rows; r++ ) {
             for( int c = 0; c < cols; c++ ) {
                 double netValue = netIter.getSampleDouble(c, r, 0);
@@ -136,18 +138,21 @@ public class OmsRescaledDistance extends JGTModel {
                     // we make sure that we pick only outlets that are on the net
                     continue;
                 }
-                FlowNode flowNode = new FlowNode(flowIter, cols, rows, c, r);
-                if (flowNode.isHeadingOutside()) {
-                    exitsList.add(flowNode);
+                cursor.moveTo(c, r);
+                if (cursor.isHeadingOutside()) {
+                    if (exitsNum == exits.length) {
+                        exits = Arrays.copyOf(exits, exitsNum * 2);
+                    }
+                    exits[exitsNum++] = cursor.getIndex();
                 }
             }
             pm.worked(1);
         }
         pm.done();
 
-        pm.beginTask("Calculate rescaled distance...", exitsList.size());
-        for( FlowNode exitNode : exitsList ) {
-            calculateRescaledDistance(exitNode, xRes);
+        pm.beginTask("Calculate rescaled distance...", exitsNum);
+        for( int i = 0; i < exitsNum; i++ ) {
+            calculateRescaledDistance(cursor, exits[i], xRes);
             pm.worked(1);
         }
         pm.done();
@@ -156,28 +161,50 @@ public class OmsRescaledDistance extends JGTModel {
                 inFlow.getCoordinateReferenceSystem());
     }
 
-    private void calculateRescaledDistance( FlowNode runningNode, double distance ) {
-        runningNode.setValueInMap(rescaledIter, distance);
-        if (runningNode.getEnteringNodes().size() > 0) {
-            List<FlowNode> enteringNodes = runningNode.getEnteringNodes();
-            for( FlowNode enteringNode : enteringNodes ) {
-                double tmpDistance = Direction.forFlow((int) enteringNode.flow).getDistance(xRes, yRes);
+    /**
+     * Propagates the distance upstream from an exit, using an explicit stack
+     * instead of recursion.
+     */
+    private void calculateRescaledDistance( FlowCursor cursor, int exitIndex, double distance ) {
+        int cols = cursor.getCols();
+        int[] enteringBuffer = new int[8];
+        int stackSize = 0;
+        int[] stack = new int[64];
+
+        rescaledIter.setSample(exitIndex % cols, exitIndex / cols, 0, distance);
+        stack[stackSize++] = exitIndex;
+        while( stackSize > 0 ) {
+            int runningIndex = stack[--stackSize];
+            cursor.moveTo(runningIndex);
+            int runningCol = cursor.getCol();
+            int runningRow = cursor.getRow();
+            double runningDistance = rescaledIter.getSampleDouble(runningCol, runningRow, 0);
+
+            int enteringCount = cursor.getEnteringIndexes(enteringBuffer);
+            for( int i = 0; i < enteringCount; i++ ) {
+                int enteringCol = enteringBuffer[i] % cols;
+                int enteringRow = enteringBuffer[i] / cols;
+                int enteringFlow = cursor.moveTo(enteringBuffer[i]).getFlow();
+                double tmpDistance = Direction.forFlow(enteringFlow).getDistance(xRes, yRes);
                 if (elevIter != null) {
-                    double fromElev = enteringNode.getValueFromMap(elevIter);
-                    double toElev = runningNode.getValueFromMap(elevIter);
+                    double fromElev = elevIter.getSampleDouble(enteringCol, enteringRow, 0);
+                    double toElev = elevIter.getSampleDouble(runningCol, runningRow, 0);
                     tmpDistance = NumericsUtilities.pythagoras(tmpDistance, abs(toElev - fromElev));
                 }
 
-                double netValue = enteringNode.getValueFromMap(netIter);
+                double netValue = netIter.getSampleDouble(enteringCol, enteringRow, 0);
                 double newDistance = 0.0;
                 if (isNovalue(netValue)) {
-                    newDistance = distance + tmpDistance * pRatio;
+                    newDistance = runningDistance + tmpDistance * pRatio;
                 } else {
-                    newDistance = distance + tmpDistance;
+                    newDistance = runningDistance + tmpDistance;
                 }
-                calculateRescaledDistance(enteringNode, newDistance);
+                rescaledIter.setSample(enteringCol, enteringRow, 0, newDistance);
+                if (stackSize == stack.length) {
+                    stack = Arrays.copyOf(stack, stackSize * 2);
+                }
+                stack[stackSize++] = enteringBuffer[i];
             }
         }
-
     }
 }
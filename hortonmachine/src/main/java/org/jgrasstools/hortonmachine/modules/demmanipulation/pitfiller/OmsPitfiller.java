@@ -27,8 +27,11 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_LAB
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_LICENSE;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_NAME;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_STATUS;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_doEpsilon_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_doPriorityFlood_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_inElev_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_outPit_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_pMaxThreads_DESCRIPTION;
 
 import java.awt.image.WritableRaster;
 import java.util.HashMap;
@@ -48,6 +51,7 @@ import oms3.annotations.Out;
 import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.GridCursor;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.libs.modules.ModelsSupporter;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
@@ -65,6 +69,18 @@ public class OmsPitfiller extends JGTModel {
     @In
     public GridCoverage2D inElev;
 
+    @Description(OMSPITFILLER_doPriorityFlood_DESCRIPTION)
+    @In
+    public boolean doPriorityFlood = false;
+
+    @Description(OMSPITFILLER_doEpsilon_DESCRIPTION)
+    @In
+    public boolean doEpsilon = false;
+
+    @Description(OMSPITFILLER_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSPITFILLER_outPit_DESCRIPTION)
     @Out
     public GridCoverage2D outPit = null;
@@ -75,6 +91,11 @@ public class OmsPitfiller extends JGTModel {
      * The novalue needed by PitFiller.
      */
     public static final double PITNOVALUE = -1.0;
+
+    /**
+     * The size of the tiles used by the parallel priority-flood.
+     */
+    private static final int PRIORITYFLOOD_TILESIZE = 1024;
     private WritableRandomIter pitIter;
     private RandomIter elevationIter = null;
 
@@ -149,6 +170,11 @@ public class OmsPitfiller extends JGTModel {
         xRes = regionMap.get(CoverageUtilities.XRES);
         yRes = regionMap.get(CoverageUtilities.YRES);
 
+        if (doPriorityFlood) {
+            processPriorityFlood(regionMap);
+            return;
+        }
+
         elevationIter = CoverageUtilities.getRandomIterator(inElev);
 
         // output raster
@@ -193,6 +219,35 @@ public class OmsPitfiller extends JGTModel {
         outPit = CoverageUtilities.buildCoverage("pitfiller", pitRaster, regionMap, inElev.getCoordinateReferenceSystem());
     }
 
+    /**
+     * Fills the pits with the {@link PriorityFloodFiller}.
+     *
+     * <p>The flat output is the same surface of the flooding algorithm, the epsilon one has no flat areas left.</p>
+     */
+    private void processPriorityFlood( HashMap<String, Double> regionMap ) throws Exception {
+        double[] elevation = GridCursor.readElevation(inElev.getRenderedImage());
+        PriorityFloodFiller filler = new PriorityFloodFiller(elevation, nCols, nRows, pm);
+        if (pMaxThreads > 1 && !doEpsilon) {
+            filler.fillTiled(PRIORITYFLOOD_TILESIZE, pMaxThreads);
+        } else {
+            if (pMaxThreads > 1) {
+                pm.message("The epsilon priority-flood runs on a single thread."); //$NON-NLS-1$
+            }
+            filler.fill(doEpsilon);
+        }
+        if (isCanceled(pm)) {
+            return;
+        }
+
+        WritableRaster pitRaster = CoverageUtilities.createDoubleWritableRaster(nCols, nRows, null, null, null);
+        double[] rowValues = new double[nCols];
+        for( int i = 0; i < nRows; i++ ) {
+            System.arraycopy(elevation, i * nCols, rowValues, 0, nCols);
+            pitRaster.setSamples(0, i, nCols, 1, 0, rowValues);
+        }
+        outPit = CoverageUtilities.buildCoverage("pitfiller", pitRaster, regionMap, inElev.getCoordinateReferenceSystem());
+    }
+
     /**
      * Takes the elevation matrix and calculate a matrix with pits filled, using the flooding
      * algorithm.
@@ -0,0 +1,494 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.hortonmachine.modules.demmanipulation.pitfiller;
+
+import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jgrasstools.gears.libs.monitor.IJGTProgressMonitor;
+import org.jgrasstools.gears.utils.DoubleIntMinHeap;
+
+/**
+ * Pit filling by priority-flood.
+ *
+ * <p>
+ * The DEM is flooded inwards from the cells that can drain outside of the valid
+ * area (raster border and cells touching novalues), always processing the lowest
+ * cell of the flood front first. Every cell is visited once, with a cost of
+ * O(n log n). Cells that are reached at a level higher than their elevation are
+ * inside a depression and are raised to that level.
+ * </p>
+ * <p>
+ * Two outputs are supported:
+ * <ul>
+ *  <li>flat: depressions are filled to their spill level, leaving flat areas that
+ *      are resolved later by {@link org.jgrasstools.hortonmachine.modules.geomorphology.flow.OmsFlowDirections}.
+ *      This is the same surface produced by the classic {@link OmsPitfiller} flooding.</li>
+ *  <li>epsilon: every filled cell is raised by the smallest representable amount
+ *      above the cell it was reached from, so that no flat areas remain.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * The tiled parallel version floods every tile independently, labelling the cells
+ * by the tile border cell they were reached from, and then resolves the spill
+ * levels of the labels across the tile edges (Barnes, 2016, Parallel
+ * priority-flood depression filling for trillion cell digital elevation models).
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class PriorityFloodFiller {
+
+    private static final int UNLABELED = -1;
+    private static final int NOVALUE_LABEL = -2;
+    private static final int OCEAN_LABEL = 0;
+
+    private static final int[] DCOL = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] DROW = {0, -1, -1, -1, 0, 1, 1, 1};
+
+    private final double[] elev;
+    private final int cols;
+    private final int rows;
+    private final IJGTProgressMonitor pm;
+
+    /**
+     * Constructor.
+     *
+     * @param elev the elevations packed in row-major order. They are filled in place.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @param pm the progress monitor.
+     */
+    public PriorityFloodFiller( double[] elev, int cols, int rows, IJGTProgressMonitor pm ) {
+        this.elev = elev;
+        this.cols = cols;
+        this.rows = rows;
+        this.pm = pm;
+    }
+
+    /**
+     * Checks if a valid cell drains outside of the valid area, i.e. it lies on the
+     * raster border or touches a novalue.
+     */
+    private boolean isOutletCell( int col, int row ) {
+        if (col == 0 || row == 0 || col == cols - 1 || row == rows - 1) {
+            return true;
+        }
+        for( int k = 0; k < 8; k++ ) {
+            if (isNovalue(elev[(row + DROW[k]) * cols + col + DCOL[k]])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fills the depressions of the whole raster.
+     *
+     * @param doEpsilon if <code>true</code>, filled areas get a minimal gradient instead of being flat.
+     * @return the filled elevation array (the same array passed in the constructor).
+     */
+    public double[] fill( boolean doEpsilon ) {
+        int cellsNum = cols * rows;
+        boolean[] closed = new boolean[cellsNum];
+        DoubleIntMinHeap open = new DoubleIntMinHeap(2 * (cols + rows));
+        IntQueue pit = new IntQueue(1024);
+
+        pm.beginTask("Filling depressions by priority-flood...", rows);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int index = r * cols + c;
+                if (isNovalue(elev[index])) {
+                    closed[index] = true;
+                } else if (isOutletCell(c, r)) {
+                    closed[index] = true;
+                    open.push(elev[index], index);
+                }
+            }
+        }
+
+        int processedRows = 0;
+        int processed = 0;
+        while( !open.isEmpty() || !pit.isEmpty() ) {
+            int current;
+            double level;
+            if (!pit.isEmpty()) {
+                current = pit.poll();
+                level = elev[current];
+            } else {
+                level = open.peekKey();
+                current = open.pop();
+            }
+            int col = current % cols;
+            int row = current / cols;
+            for( int k = 0; k < 8; k++ ) {
+                int c = col + DCOL[k];
+                int r = row + DROW[k];
+                if (c < 0 || c >= cols || r < 0 || r >= rows) {
+                    continue;
+                }
+                int index = r * cols + c;
+                if (closed[index]) {
+                    continue;
+                }
+                closed[index] = true;
+                if (doEpsilon) {
+                    double raised = Math.nextUp(level);
+                    if (elev[index] <= raised) {
+                        elev[index] = raised;
+                    }
+                    open.push(elev[index], index);
+                } else if (elev[index] <= level) {
+                    elev[index] = level;
+                    pit.add(index);
+                } else {
+                    open.push(elev[index], index);
+                }
+            }
+            if (++processed % cols == 0 && processedRows < rows) {
+                processedRows++;
+                pm.worked(1);
+            }
+        }
+        pm.done();
+        return elev;
+    }
+
+    /**
+     * Fills the depressions processing the raster in tiles on multiple threads.
+     *
+     * <p>The result is the same as {@link #fill(boolean)} with flat output.</p>
+     *
+     * @param tileSize the size of the (square) tiles in cells.
+     * @param numThreads the number of threads to use.
+     * @return the filled elevation array (the same array passed in the constructor).
+     * @throws Exception
+     */
+    public double[] fillTiled( final int tileSize, int numThreads ) throws Exception {
+        final int tilesX = (cols + tileSize - 1) / tileSize;
+        final int tilesY = (rows + tileSize - 1) / tileSize;
+        final int tilesNum = tilesX * tilesY;
+
+        // every tile gets a range of labels for its border cells
+        final int[] labelBase = new int[tilesNum + 1];
+        labelBase[0] = OCEAN_LABEL + 1;
+        for( int t = 0; t < tilesNum; t++ ) {
+            int w = Math.min(tileSize, cols - (t % tilesX) * tileSize);
+            int h = Math.min(tileSize, rows - (t / tilesX) * tileSize);
+            int perimeter = (w <= 2 || h <= 2) ? w * h : 2 * (w + h) - 4;
+            labelBase[t + 1] = labelBase[t] + perimeter;
+        }
+        final int labelsNum = labelBase[tilesNum];
+
+        final int[] labels = new int[cols * rows];
+        final List<Map<Long, Double>> tileEdges = new ArrayList<Map<Long, Double>>();
+        for( int t = 0; t < tilesNum; t++ ) {
+            tileEdges.add(null);
+        }
+
+        pm.beginTask("Filling depressions by tiles...", tilesNum);
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for( int t = 0; t < tilesNum; t++ ) {
+                final int tile = t;
+                futures.add(pool.submit(new Callable<Void>(){
+                    public Void call() throws Exception {
+                        int col0 = (tile % tilesX) * tileSize;
+                        int row0 = (tile / tilesX) * tileSize;
+                        int col1 = Math.min(col0 + tileSize, cols);
+                        int row1 = Math.min(row0 + tileSize, rows);
+                        Map<Long, Double> edges = floodTile(col0, row0, col1, row1, labelBase[tile], labels);
+                        tileEdges.set(tile, edges);
+                        synchronized (pm) {
+                            pm.worked(1);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) {
+                future.get();
+            }
+
+            // gather the edges between labels, inside the tiles and across the tile borders
+            Map<Long, Double> allEdges = new HashMap<Long, Double>();
+            for( Map<Long, Double> edges : tileEdges ) {
+                for( Entry<Long, Double> entry : edges.entrySet() ) {
+                    addEdge(allEdges, entry.getKey(), entry.getValue());
+                }
+            }
+            collectTileBorderEdges(tileSize, labels, allEdges);
+
+            final double[] spill = resolveSpillLevels(labelsNum, allEdges);
+
+            // raise every cell to the spill level of its label
+            futures.clear();
+            for( int t = 0; t < tilesNum; t++ ) {
+                final int tile = t;
+                futures.add(pool.submit(new Callable<Void>(){
+                    public Void call() throws Exception {
+                        int col0 = (tile % tilesX) * tileSize;
+                        int row0 = (tile / tilesX) * tileSize;
+                        int col1 = Math.min(col0 + tileSize, cols);
+                        int row1 = Math.min(row0 + tileSize, rows);
+                        for( int r = row0; r < row1; r++ ) {
+                            for( int c = col0; c < col1; c++ ) {
+                                int index = r * cols + c;
+                                int label = labels[index];
+                                if (label > OCEAN_LABEL && elev[index] < spill[label]) {
+                                    elev[index] = spill[label];
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        pm.done();
+        return elev;
+    }
+
+    /**
+     * Floods a single tile from its border, labelling every cell with the seed it was reached from.
+     *
+     * @return the minimum spill elevations between the labels met inside the tile.
+     */
+    private Map<Long, Double> floodTile( int col0, int row0, int col1, int row1, int firstLabel, int[] labels ) {
+        Map<Long, Double> edges = new HashMap<Long, Double>();
+        DoubleIntMinHeap open = new DoubleIntMinHeap(2 * (col1 - col0 + row1 - row0));
+        IntQueue pit = new IntQueue(1024);
+
+        int nextLabel = firstLabel;
+        for( int r = row0; r < row1; r++ ) {
+            for( int c = col0; c < col1; c++ ) {
+                int index = r * cols + c;
+                if (isNovalue(elev[index])) {
+                    labels[index] = NOVALUE_LABEL;
+                } else if (isOutletCell(c, r)) {
+                    labels[index] = OCEAN_LABEL;
+                    open.push(elev[index], index);
+                } else if (c == col0 || r == row0 || c == col1 - 1 || r == row1 - 1) {
+                    labels[index] = nextLabel++;
+                    open.push(elev[index], index);
+                } else {
+                    labels[index] = UNLABELED;
+                }
+            }
+        }
+
+        while( !open.isEmpty() || !pit.isEmpty() ) {
+            int current;
+            double level;
+            if (!pit.isEmpty()) {
+                current = pit.poll();
+                level = elev[current];
+            } else {
+                level = open.peekKey();
+                current = open.pop();
+            }
+            int currentLabel = labels[current];
+            int col = current % cols;
+            int row = current / cols;
+            for( int k = 0; k < 8; k++ ) {
+                int c = col + DCOL[k];
+                int r = row + DROW[k];
+                if (c < col0 || c >= col1 || r < row0 || r >= row1) {
+                    continue;
+                }
+                int index = r * cols + c;
+                int label = labels[index];
+                if (label == NOVALUE_LABEL) {
+                    continue;
+                }
+                if (label != UNLABELED) {
+                    if (label != currentLabel) {
+                        addEdge(edges, edgeKey(currentLabel, label), Math.max(level, elev[index]));
+                    }
+                    continue;
+                }
+                labels[index] = currentLabel;
+                if (elev[index] <= level) {
+                    elev[index] = level;
+                    pit.add(index);
+                } else {
+                    open.push(elev[index], index);
+                }
+            }
+        }
+        return edges;
+    }
+
+    private void collectTileBorderEdges( int tileSize, int[] labels, Map<Long, Double> allEdges ) {
+        // vertical tile borders
+        for( int c = tileSize; c < cols; c += tileSize ) {
+            for( int r = 0; r < rows; r++ ) {
+                for( int dr = -1; dr <= 1; dr++ ) {
+                    checkBorderPair(labels, allEdges, r * cols + c - 1, c, r + dr);
+                }
+            }
+        }
+        // horizontal tile borders
+        for( int r = tileSize; r < rows; r += tileSize ) {
+            for( int c = 0; c < cols; c++ ) {
+                for( int dc = -1; dc <= 1; dc++ ) {
+                    checkBorderPair(labels, allEdges, (r - 1) * cols + c, c + dc, r);
+                }
+            }
+        }
+    }
+
+    private void checkBorderPair( int[] labels, Map<Long, Double> allEdges, int index, int otherCol, int otherRow ) {
+        if (otherCol < 0 || otherCol >= cols || otherRow < 0 || otherRow >= rows) {
+            return;
+        }
+        int otherIndex = otherRow * cols + otherCol;
+        int label = labels[index];
+        int otherLabel = labels[otherIndex];
+        if (label < 0 || otherLabel < 0 || label == otherLabel) {
+            return;
+        }
+        addEdge(allEdges, edgeKey(label, otherLabel), Math.max(elev[index], elev[otherIndex]));
+    }
+
+    /**
+     * Calculates the lowest level at which every label can spill to the outside,
+     * with a priority-flood on the graph of labels.
+     */
+    private double[] resolveSpillLevels( int labelsNum, Map<Long, Double> edges ) {
+        // compressed adjacency lists
+        int[] degree = new int[labelsNum + 1];
+        for( Long key : edges.keySet() ) {
+            degree[(int) (key >>> 32) + 1]++;
+            degree[(int) (key & 0xFFFFFFFFL) + 1]++;
+        }
+        for( int i = 0; i < labelsNum; i++ ) {
+            degree[i + 1] += degree[i];
+        }
+        int[] fill = new int[labelsNum];
+        int[] neighbours = new int[degree[labelsNum]];
+        double[] levels = new double[degree[labelsNum]];
+        for( Entry<Long, Double> entry : edges.entrySet() ) {
+            long key = entry.getKey();
+            int a = (int) (key >>> 32);
+            int b = (int) (key & 0xFFFFFFFFL);
+            double level = entry.getValue();
+            int pos = degree[a] + fill[a]++;
+            neighbours[pos] = b;
+            levels[pos] = level;
+            pos = degree[b] + fill[b]++;
+            neighbours[pos] = a;
+            levels[pos] = level;
+        }
+
+        double[] spill = new double[labelsNum];
+        for( int i = 0; i < labelsNum; i++ ) {
+            spill[i] = Double.POSITIVE_INFINITY;
+        }
+        spill[OCEAN_LABEL] = Double.NEGATIVE_INFINITY;
+        boolean[] done = new boolean[labelsNum];
+        DoubleIntMinHeap open = new DoubleIntMinHeap(labelsNum);
+        open.push(spill[OCEAN_LABEL], OCEAN_LABEL);
+        while( !open.isEmpty() ) {
+            double level = open.peekKey();
+            int label = open.pop();
+            if (done[label]) {
+                continue;
+            }
+            done[label] = true;
+            for( int pos = degree[label]; pos < degree[label + 1]; pos++ ) {
+                int other = neighbours[pos];
+                double otherLevel = Math.max(level, levels[pos]);
+                if (otherLevel < spill[other]) {
+                    spill[other] = otherLevel;
+                    open.push(otherLevel, other);
+                }
+            }
+        }
+        return spill;
+    }
+
+    private static long edgeKey( int label1, int label2 ) {
+        int a = Math.min(label1, label2);
+        int b = Math.max(label1, label2);
+        return ((long) a << 32) | (b & 0xFFFFFFFFL);
+    }
+
+    private static void addEdge( Map<Long, Double> edges, long key, double level ) {
+        Double existing = edges.get(key);
+        if (existing == null || level < existing) {
+            edges.put(key, level);
+        }
+    }
+
+    /**
+     * A growable FIFO queue of ints.
+     */
+    private static class IntQueue {
+        private int[] data;
+        private int head = 0;
+        private int tail = 0;
+        private int size = 0;
+
+        IntQueue( int capacity ) {
+            data = new int[capacity];
+        }
+
+        void add( int value ) {
+            if (size == data.length) {
+                int[] newData = new int[data.length * 2];
+                for( int i = 0; i < size; i++ ) {
+                    newData[i] = data[(head + i) % data.length];
+                }
+                data = newData;
+                head = 0;
+                tail = size;
+            }
+            data[tail] = value;
+            tail = (tail + 1) % data.length;
+            size++;
+        }
+
+        int poll() {
+            int value = data[head];
+            head = (head + 1) % data.length;
+            size--;
+            return value;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
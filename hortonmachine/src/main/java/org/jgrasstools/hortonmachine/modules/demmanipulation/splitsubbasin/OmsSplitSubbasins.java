@@ -32,6 +32,7 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSPLITSUBBASIN
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSPLITSUBBASINS_outNetnum_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSPLITSUBBASINS_outSubbasins_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSPLITSUBBASINS_pHackorder_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSPLITSUBBASINS_pMaxThreads_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
@@ -81,6 +82,10 @@ public class OmsSplitSubbasins extends JGTModel {
     @In
     public Double pHackorder = null;
 
+    @Description(OMSSPLITSUBBASINS_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSSPLITSUBBASINS_outNetnum_DESCRIPTION)
     @Out
     public GridCoverage2D outNetnum = null;
@@ -123,7 +128,7 @@ public class OmsSplitSubbasins extends JGTModel {
 
         WritableRaster netNumberWR = netNumber(flowIter, hacksIter, netIter);
         WritableRandomIter netNumberIter = RandomIterFactory.createWritable(netNumberWR, null);
-        WritableRaster subbasinWR = ModelsEngine.extractSubbasins(flowIter, netIter, netNumberIter, nRows, nCols, pm);
+        WritableRaster subbasinWR = ModelsEngine.extractSubbasins(flowIter, netIter, netNumberIter, nRows, nCols, pMaxThreads, pm);
 
         outNetnum = CoverageUtilities.buildCoverage("netnum", netNumberWR, regionMap, inFlow.getCoordinateReferenceSystem()); //$NON-NLS-1$
         outSubbasins = CoverageUtilities.buildCoverage("subbasins", subbasinWR, regionMap, inFlow.getCoordinateReferenceSystem()); //$NON-NLS-1$
@@ -44,7 +44,6 @@ import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.text.MessageFormat;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -74,7 +73,9 @@ import org.jgrasstools.gears.io.rasterwriter.OmsRasterWriter;
 import org.jgrasstools.gears.io.vectorreader.OmsVectorReader;
 import org.jgrasstools.gears.io.vectorwriter.OmsVectorWriter;
 import org.jgrasstools.gears.libs.exceptions.ModelsIllegalargumentException;
-import org.jgrasstools.gears.libs.modules.FlowNode;
+import org.jgrasstools.gears.libs.modules.FlowAccumulationEngine;
+import org.jgrasstools.gears.libs.modules.FlowCursor;
+import org.jgrasstools.gears.libs.modules.FlowLabellingEngine;
 import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.libs.monitor.IJGTProgressMonitor;
@@ -208,8 +209,7 @@ public class OmsExtractBasin extends JGTModel {
         }
 
         RenderedImage flowRI = inFlow.getRenderedImage();
-        WritableRaster flowWR = CoverageUtilities.renderedImage2WritableRaster(flowRI, false);
-        WritableRandomIter flowIter = RandomIterFactory.createWritable(flowWR, null);
+        int[] flow = FlowAccumulationEngine.readFlow(flowRI);
 
         WritableRaster basinWR = CoverageUtilities.createDoubleWritableRaster(ncols, nrows, null, null, doubleNovalue);
         WritableRandomIter basinIter = RandomIterFactory.createWritable(basinWR, null);
@@ -218,39 +218,31 @@ public class OmsExtractBasin extends JGTModel {
 
         int[] outletColRow = CoverageUtilities.colRowFromCoordinate(outlet, inFlow.getGridGeometry(), null);
 
-        double outletFlow = flowIter.getSampleDouble(outletColRow[0], outletColRow[1], 0);
-        if (isNovalue(outletFlow)) {
+        int outletIndex = outletColRow[1] * ncols + outletColRow[0];
+        if (isNovalue(flow[outletIndex])) {
             throw new IllegalArgumentException("The chosen outlet point doesn't have a valid value.");
         }
 
-        FlowNode runningNode = new FlowNode(flowIter, ncols, nrows, outletColRow[0], outletColRow[1]);
-        runningNode.setValueInMap(basinIter, pValue);
-        outArea++;
-        List<FlowNode> enteringNodes = runningNode.getEnteringNodes();
-
-        boolean alreadyWarned = false;
         pm.beginTask(msg.message("wateroutlet.extracting"), -1);
-        while( enteringNodes.size() > 0 ) {
-            if (pm.isCanceled()) {
-                return;
-            }
-            List<FlowNode> newEnteringNodes = new ArrayList<FlowNode>();
-            for( FlowNode flowNode : enteringNodes ) {
-                if (!alreadyWarned && flowNode.touchesBound()) {
-                    pm.errorMessage(MessageFormat
-                            .format("WARNING: touched boundaries in col/row = {0}/{1}. You might consider to review your processing region.",
-                                    flowNode.col, flowNode.row));
-                    alreadyWarned = true;
-                }
-                flowNode.setValueInMap(basinIter, pValue);
-                outArea++;
+        FlowLabellingEngine engine = new FlowLabellingEngine(flow, ncols, nrows);
+        int[] basinCells = engine.getUpstreamCells(outletIndex);
+        if (pm.isCanceled()) {
+            return;
+        }
 
-                List<FlowNode> newEntering = flowNode.getEnteringNodes();
-                if (newEntering.size() > 0)
-                    newEnteringNodes.addAll(newEntering);
+        FlowCursor cursor = new FlowCursor(flow, ncols, nrows);
+        boolean alreadyWarned = false;
+        for( int i = 0; i < basinCells.length; i++ ) {
+            cursor.moveTo(basinCells[i]);
+            if (i > 0 && !alreadyWarned && cursor.touchesBound()) {
+                pm.errorMessage(MessageFormat.format(
+                        "WARNING: touched boundaries in col/row = {0}/{1}. You might consider to review your processing region.",
+                        cursor.getCol(), cursor.getRow()));
+                alreadyWarned = true;
             }
-            enteringNodes = newEnteringNodes;
+            basinIter.setSample(cursor.getCol(), cursor.getRow(), 0, pValue);
         }
+        outArea += basinCells.length;
         pm.done();
 
         outArea = outArea * xRes * yRes;
@@ -61,6 +61,8 @@ import oms3.annotations.Out;
 import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.Direction;
+import org.jgrasstools.gears.libs.modules.GridCursor;
 import org.jgrasstools.gears.libs.modules.GridNode;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.utils.RegionMap;
@@ -144,17 +146,31 @@ public class OmsAspect extends JGTModel {
      * @return the value of aspect.
      */
     public static double calculateAspect( GridNode node, double radtodeg, boolean doRound ) {
+        return calculateAspect(node.elevation, node.getNorthElev(), node.getSouthElev(), node.getWestElev(),
+                node.getEastElev(), node.xRes, node.yRes, radtodeg, doRound);
+    }
+
+    /**
+     * Calculates the aspect in the current position of a {@link GridCursor}.
+     * 
+     * @param cursor the cursor placed on the cell to use.
+     * @param radtodeg radiants to degrees conversion factor. Use {@link NumericsUtilities#RADTODEG} if you 
+     *                 want degrees, use 1 if you want radiants. 
+     * @param doRound if <code>true</code>, values are round to integer.
+     * @return the value of aspect.
+     */
+    public static double calculateAspect( GridCursor cursor, double radtodeg, boolean doRound ) {
+        return calculateAspect(cursor.getElevation(), cursor.getElevationAt(Direction.N), cursor.getElevationAt(Direction.S),
+                cursor.getElevationAt(Direction.W), cursor.getElevationAt(Direction.E), cursor.getXres(), cursor.getYres(),
+                radtodeg, doRound);
+    }
+
+    private static double calculateAspect( double centralValue, double nValue, double sValue, double wValue, double eValue,
+            double xRes, double yRes, double radtodeg, boolean doRound ) {
         double aspect = doubleNovalue;
         // the value of the x and y derivative
         double aData = 0.0;
         double bData = 0.0;
-        double xRes = node.xRes;
-        double yRes = node.yRes;
-        double centralValue = node.elevation;
-        double nValue = node.getNorthElev();
-        double sValue = node.getSouthElev();
-        double wValue = node.getWestElev();
-        double eValue = node.getEastElev();
 
         if (!isNovalue(centralValue)) {
             boolean sIsNovalue = isNovalue(sValue);
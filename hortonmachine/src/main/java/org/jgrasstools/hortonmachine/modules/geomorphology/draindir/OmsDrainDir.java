@@ -35,6 +35,7 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSDRAINDIR_inPi
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSDRAINDIR_outFlow_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSDRAINDIR_outTca_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSDRAINDIR_pLambda_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSDRAINDIR_pMaxThreads_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
@@ -61,7 +62,8 @@ import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.libs.modules.ModelsSupporter;
 import org.jgrasstools.gears.utils.BitMatrix;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
-import org.jgrasstools.gears.utils.sorting.QuickSortAlgorithm;
+import org.jgrasstools.gears.utils.sorting.ElevationIndexSorter;
+import org.jgrasstools.gears.utils.sorting.ElevationIndexSorter.SortedCells;
 import org.jgrasstools.hortonmachine.i18n.HortonMessageHandler;
 
 @Description(OMSDRAINDIR_DESCRIPTION)
@@ -94,6 +96,10 @@ public class OmsDrainDir extends JGTModel {
     @In
     public boolean doLad = true;
 
+    @Description(OMSDRAINDIR_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSDRAINDIR_outFlow_DESCRIPTION)
     @Out
     public GridCoverage2D outFlow = null;
@@ -129,8 +135,6 @@ public class OmsDrainDir extends JGTModel {
             return;
         }
         checkNull(inFlow, inPit);
-        double[] orderedelev, indexes;
-        int nelev;
 
         HashMap<String, Double> regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inPit);
         cols = regionMap.get(CoverageUtilities.COLS).intValue();
@@ -143,47 +147,35 @@ public class OmsDrainDir extends JGTModel {
         RenderedImage flowRI = inFlow.getRenderedImage();
         WritableRaster flowWR = CoverageUtilities.renderedImage2WritableRaster(flowRI, true);
 
-        RandomIter pitRandomIter = RandomIterFactory.create(pitfillerWR, null);
-
-        // create new matrix
-        orderedelev = new double[cols * rows];
-        indexes = new double[cols * rows];
-
-        nelev = 0;
-        for( int j = 0; j < rows; j++ ) {
-            if (isCanceled(pm)) {
-                return;
-            }
-            for( int i = 0; i < cols; i++ ) {
-                orderedelev[((j) * cols) + i] = pitRandomIter.getSampleDouble(i, j, 0);
-                indexes[((j) * cols) + i] = ((j) * cols) + i + 1;
-                if (!isNovalue(pitRandomIter.getSampleDouble(i, j, 0))) {
-                    nelev = nelev + 1;
-                }
-            }
-        }
-
-        QuickSortAlgorithm t = new QuickSortAlgorithm(pm);
-        t.sort(orderedelev, indexes);
+        // the valid cells from the highest to the lowest
+        ElevationIndexSorter sorter = new ElevationIndexSorter(pMaxThreads, pm);
+        SortedCells sortedCells = sorter.sort(pitfillerRI, true);
+        int nelev = (int) sortedCells.size();
 
         pm.message(msg.message("draindir.initializematrix"));
 
         // Initialize new RasterData and set value
-        WritableRaster tcaWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, Double.class, null, NaN);
-        WritableRaster dirWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, Double.class, null, NaN);
+        // the tca can't be larger than the number of valid cells
+        Class< ? > tcaClass = CoverageUtilities.getIntegerStorageClass(0, nelev, true);
+        WritableRaster tcaWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, tcaClass, null, NaN);
+        WritableRaster dirWR = CoverageUtilities.createFloatWritableRaster(cols, rows, NaN);
 
         // it contains the analyzed cells
         WritableRaster deviationsWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null, null);
         BitMatrix analizedMatrix = new BitMatrix(cols, rows);
 
-        if (doLad) {
-            OrlandiniD8_LAD(indexes, deviationsWR, analizedMatrix, pitfillerWR, flowWR, tcaWR, dirWR, nelev);
-        } else {
-            OrlandiniD8_LTD(indexes, deviationsWR, analizedMatrix, pitfillerWR, flowWR, tcaWR, dirWR, nelev);
-            // only if required executes this method
-            if (inFlownet != null) {
-                newDirections(pitfillerWR, dirWR);
+        try {
+            if (doLad) {
+                OrlandiniD8_LAD(sortedCells, deviationsWR, analizedMatrix, pitfillerWR, flowWR, tcaWR, dirWR, nelev);
+            } else {
+                OrlandiniD8_LTD(sortedCells, deviationsWR, analizedMatrix, pitfillerWR, flowWR, tcaWR, dirWR, nelev);
             }
+        } finally {
+            sortedCells.dispose();
+        }
+        // only if required executes this method
+        if (!doLad && inFlownet != null) {
+            newDirections(pitfillerWR, dirWR);
         }
         if (isCanceled(pm)) {
             return;
@@ -195,15 +187,15 @@ public class OmsDrainDir extends JGTModel {
     /**
      * routine that defines the draining directions
      * 
-     * @param indexes
-     *            vector containing the order of elevation
+     * @param sortedCells
+     *            the valid cells from the highest to the lowest
      * @param deviationsImage
      *            the map containing the deviation
      * @param analizedMatrix 
      * @param nelev
      * @return
      */
-    private void OrlandiniD8_LAD( double[] indexes, WritableRaster deviationsImage, BitMatrix analizedMatrix,
+    private void OrlandiniD8_LAD( SortedCells sortedCells, WritableRaster deviationsImage, BitMatrix analizedMatrix,
             WritableRaster pitImage, WritableRaster flowImage, WritableRaster tcaImage, WritableRaster dirImage, int nelev ) {
         int row, col, ncelle, nr, nc;
         double dev1, dev2, sumdev1, sumdev2, sumdev;
@@ -213,7 +205,8 @@ public class OmsDrainDir extends JGTModel {
          * didren1,dirdren2,sigma
          */
         double[] dati = new double[10];
-        double count, flow;
+        int count;
+        double flow;
 
         double[] u = {xRes, yRes};
         double[] v = {NaN, NaN};
@@ -227,14 +220,17 @@ public class OmsDrainDir extends JGTModel {
         WritableRandomIter deviationRandomIter = RandomIterFactory.createWritable(deviationsImage, null);
         WritableRandomIter dirRandomIter = RandomIterFactory.createWritable(dirImage, null);
 
-        pm.beginTask(msg.message("draindir.orlandinilad"), rows * cols);
-        for( int i = rows * cols - 1; i >= 0; i-- ) {
+        pm.beginTask(msg.message("draindir.orlandinilad"), nelev);
+        // position of the cell in the elevation order of all the cells, novalues being the lowest
+        int i = rows * cols;
+        while( sortedCells.hasNext() ) {
             if (isCanceled(pm)) {
                 return;
             }
-            count = indexes[i] - 1;
-            row = (int) Math.floor(count / cols);
-            col = (int) (count % cols);
+            i--;
+            count = sortedCells.next();
+            row = count / cols;
+            col = count % cols;
             if (!isNovalue(pitRandomIter.getSampleDouble(col, row, 0)) && !isNovalue(flowRandomIter.getSampleDouble(col, row, 0))) {
                 ncelle = ncelle + 1;
                 compose(analizedMatrix, pitRandomIter, tcaRandomIter, dati, u, v, col, row);
@@ -311,15 +307,15 @@ public class OmsDrainDir extends JGTModel {
     /**
      * routine that defines the draining directions
      * 
-     * @param indexes
-     *            vector containing the order of elevation
+     * @param sortedCells
+     *            the valid cells from the highest to the lowest
      * @param deviationsImage
      *            the map containing the deviation
      * @param analizedMatrix
      * @param nelev
      * @return
      */
-    private void OrlandiniD8_LTD( double[] indexes, WritableRaster deviationsImage, BitMatrix analizedMatrix,
+    private void OrlandiniD8_LTD( SortedCells sortedCells, WritableRaster deviationsImage, BitMatrix analizedMatrix,
             WritableRaster pitImage, WritableRaster flowImage, WritableRaster tcaImage, WritableRaster dirImage, int nelev ) {
 
         int row, col, ncelle, nr, nc;
@@ -330,7 +326,8 @@ public class OmsDrainDir extends JGTModel {
          * didren1,dirdren2,sigma
          */
         double[] dati = new double[10];
-        double count, flow;
+        int count;
+        double flow;
         /*
          * it indicates the position of the triangle's vertexes
          */
@@ -349,14 +346,14 @@ public class OmsDrainDir extends JGTModel {
         cols = pitImage.getWidth();
 
         ncelle = 0;
-        pm.beginTask(msg.message("draindir.orlandiniltd"), rows * cols);
-        for( int i = rows * cols - 1; i >= 0; i-- ) {
+        pm.beginTask(msg.message("draindir.orlandiniltd"), nelev);
+        while( sortedCells.hasNext() ) {
             if (isCanceled(pm)) {
                 return;
             }
-            count = indexes[i] - 1;
-            row = (int) Math.floor(count / cols);
-            col = (int) (count % cols);
+            count = sortedCells.next();
+            row = count / cols;
+            col = count % cols;
 
             if (!isNovalue(pitRandomIter.getSampleDouble(col, row, 0)) && !isNovalue(flowRandomIter.getSampleDouble(col, row, 0))) {
                 ncelle = ncelle + 1;
@@ -619,8 +616,7 @@ public class OmsDrainDir extends JGTModel {
 
         WritableRandomIter dirRandomIter = RandomIterFactory.createWritable(dirWR, null);
 
-        WritableRaster modflowImage = CoverageUtilities.createDoubleWritableRaster(pitWR.getWidth(), pitWR.getHeight(), null,
-                null, null);
+        WritableRaster modflowImage = CoverageUtilities.createByteWritableRaster(pitWR.getWidth(), pitWR.getHeight(), null);
         WritableRandomIter modflowRandomIter = RandomIterFactory.createWritable(modflowImage, null);
 
         pm.beginTask("Correcting drainage directions...", rows);
@@ -30,12 +30,19 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSFLOWDIRECTION
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_STATUS;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_inPit_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_outFlow_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_pMaxThreads_DESCRIPTION;
 
-import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -50,6 +57,7 @@ import oms3.annotations.Out;
 import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.GridCursor;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
 import org.jgrasstools.hortonmachine.i18n.HortonMessageHandler;
@@ -67,6 +75,10 @@ public class OmsFlowDirections extends JGTModel {
     @In
     public GridCoverage2D inPit = null;
 
+    @Description(OMSFLOWDIRECTIONS_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSFLOWDIRECTIONS_outFlow_DESCRIPTION)
     @Out
     public GridCoverage2D outFlow = null;
@@ -78,30 +90,36 @@ public class OmsFlowDirections extends JGTModel {
      */
     public static final double FLOWNOVALUE = -1.0;
 
-    private RandomIter pitfillerIter;
-
     // the hydrologic variables
     /* define directions */
     private int[] d1 = new int[]{(int) FLOWNOVALUE, 0, -1, -1, -1, 0, 1, 1, 1};
     private int[] d2 = new int[]{(int) FLOWNOVALUE, 1, 1, 0, -1, -1, -1, 0, 1};
 
-    private int i1, i2, n1, n2, nx, ny;
+    private int nx, ny;
 
-    private int[] is, js, dn;
-
-    private int[][] dir;
-
-    private int ccheck, useww;
+    /**
+     * The offsets of the neighbours in the packed arrays, by direction.
+     */
+    private int[] offsets;
 
-    private int[][] arr;
+    /**
+     * The directions, packed in row-major order.
+     */
+    private int[] dir;
 
-    private double[][] areaw, weight;
+    /**
+     * The position of the flat cells in their flat region, packed in row-major order.
+     */
+    private int[] spos;
 
-    private final double ndv = FLOWNOVALUE;
+    private double[] fact;
 
     private double dx, dy;
 
-    private double[][] elevations;
+    /**
+     * The elevations, packed in row-major order.
+     */
+    private double[] elevations;
 
     @Execute
     public void process() throws Exception {
@@ -115,138 +133,98 @@ public class OmsFlowDirections extends JGTModel {
         dx = regionMap.get(CoverageUtilities.XRES);
         dy = regionMap.get(CoverageUtilities.YRES);
 
-        RenderedImage pitfillerRI = inPit.getRenderedImage();
-        // input iterator
-        pitfillerIter = RandomIterFactory.create(pitfillerRI, null);
-
-        i1 = 0;
-        i2 = 0;
-        n1 = nx;
-        n2 = ny;
-
-        elevations = new double[nx][ny];
-
-        for( int i = 0; i < nx; i++ ) {
-            if (isCanceled(pm)) {
-                return;
-            }
-            for( int j = 0; j < ny; j++ ) {
-                double pitValue = pitfillerIter.getSampleDouble(i, j, 0);
-                if (!isNovalue(pitValue)) {
-                    elevations[i][j] = pitValue;
-                } else {
-                    elevations[i][j] = FLOWNOVALUE;
-                }
+        elevations = GridCursor.readElevation(inPit.getRenderedImage());
+        for( int i = 0; i < elevations.length; i++ ) {
+            if (isNovalue(elevations[i])) {
+                elevations[i] = FLOWNOVALUE;
             }
         }
 
         setdfnoflood();
+        if (isCanceled(pm)) {
+            return;
+        }
 
-        // it is necessary to transpose the dir matrix and than it's possible to
-        // write the output
-        double[][] transposedFlow = new double[dir[0].length][dir.length];
-        for( int i = 0; i < dir[0].length; i++ ) {
+        WritableRaster flowWR = CoverageUtilities.createFloatWritableRaster(nx, ny, null);
+        double[] rowValues = new double[nx];
+        for( int row = 0; row < ny; row++ ) {
             if (isCanceled(pm)) {
                 return;
             }
-            for( int j = 0; j < dir.length; j++ ) {
-                if (dir[j][i] == 0) {
+            for( int col = 0; col < nx; col++ ) {
+                int value = dir[row * nx + col];
+                if (value == 0) {
                     return;
                 }
-                if (dir[j][i] != FLOWNOVALUE) {
-                    transposedFlow[i][j] = dir[j][i];
+                if (value != FLOWNOVALUE) {
+                    rowValues[col] = value;
                 } else {
-                    transposedFlow[i][j] = doubleNovalue;
+                    rowValues[col] = doubleNovalue;
                 }
             }
+            flowWR.setSamples(0, row, nx, 1, 0, rowValues);
         }
 
-        outFlow = CoverageUtilities.buildCoverage("flowdirections", transposedFlow, regionMap,
-                inPit.getCoordinateReferenceSystem(), true);
+        outFlow = CoverageUtilities.buildCoverage("flowdirections", flowWR, regionMap, inPit.getCoordinateReferenceSystem());
     }
 
     /**
      * 
      */
-    private void setdfnoflood() {
+    private void setdfnoflood() throws Exception {
         int n;
-        double[] fact = new double[9];
+        fact = new double[9];
+        offsets = new int[9];
 
-        dir = new int[nx][ny];
+        dir = new int[nx * ny];
 
         pm.message(msg.message("flow.initbound"));
 
         /* Initialize boundaries */
-        for( int i = i1; i < n1; i++ ) {
-            dir[i][i2] = -1;
-            dir[i][n2 - 1] = -1;
+        for( int col = 0; col < nx; col++ ) {
+            dir[col] = -1;
+            dir[(ny - 1) * nx + col] = -1;
         }
-
-        for( int i = i2; i < n2; i++ ) {
-            dir[i1][i] = -1;
-            dir[n1 - 1][i] = -1;
-        }
-        pm.message(msg.message("flow.initpointers"));
-        /* initialize internal pointers */
-        for( int col = (i2 + 1); col < (n2 - 1); col++ ) {
-            if (isCanceled(pm)) {
-                return;
-            }
-            for( int row = (i1 + 1); row < (n1 - 1); row++ ) {
-
-                if (doesntTouchNovalue(col, row)) {
-                    dir[row][col] = 0;
-                } else {
-                    dir[row][col] = -1;
-                }
-
-                // if (elevations[row][col] <= FLOWNOVALUE) {
-                // dir[row][col] = -1;
-                // } else {
-                // dir[row][col] = 0;
-                // }
-            }
+        for( int row = 0; row < ny; row++ ) {
+            dir[row * nx] = -1;
+            dir[row * nx + nx - 1] = -1;
         }
 
-        /* Direction factors */
+        /* Direction factors and neighbour offsets */
         for( int k = 1; k <= 8; k++ ) {
             fact[k] = 1.0 / (Math.sqrt(d1[k] * dy * d1[k] * dy + d2[k] * d2[k] * dx * dx));
+            offsets[k] = d1[k] * nx + d2[k];
         }
 
-        // Compute contrib area using overlayed directions for direction setting
-        ccheck = 0; // dont worry about edge contamination
-        useww = 0; // dont worry about weights
-
-        arr = new int[n2][n1];
-        for( int i = 0; i < arr.length; i++ ) {
-            for( int j = 0; j < arr[0].length; j++ ) {
-                arr[i][j] = 0;
-            }
-        }
-
-        for( int i = (i2 + 1); i < (n2 - 1); i++ ) {
+        pm.message(msg.message("flow.initpointers"));
+        /* initialize internal pointers */
+        for( int row = 1; row < ny - 1; row++ ) {
             if (isCanceled(pm)) {
                 return;
             }
-            for( int j = (i1 + 1); j < (n1 - 1); j++ ) {
-                // This allows for a stream overlay
-                if (dir[j][i] > 0)
-                    darea(i, j);
+            for( int col = 1; col < nx - 1; col++ ) {
+                int index = row * nx + col;
+                if (doesntTouchNovalue(index)) {
+                    dir[index] = 0;
+                } else {
+                    dir[index] = -1;
+                }
             }
         }
 
         pm.message(msg.message("flow.setpos"));
         /* Set positive slope directions */
         n = 0;
-        for( int i = (i2 + 1); i < (n2 - 1); i++ ) {
+        for( int row = 1; row < ny - 1; row++ ) {
             if (isCanceled(pm)) {
                 return;
             }
-            for( int j = (i1 + 1); j < (n1 - 1); j++ ) {
-                if (dir[j][i] == 0) {
-                    if (elevations[j][i] > FLOWNOVALUE) {
-                        set(i, j, fact);
-                        if (dir[j][i] == 0) {
+            for( int col = 1; col < nx - 1; col++ ) {
+                int index = row * nx + col;
+                if (dir[index] == 0) {
+                    if (elevations[index] > FLOWNOVALUE) {
+                        set(index);
+                        if (dir[index] == 0) {
                             n++;
                         }
                     }
@@ -259,153 +237,223 @@ public class OmsFlowDirections extends JGTModel {
          * Now resolve flats following the Procedure of Garbrecht and Martz, Journal of Hydrology,
          * 1997.
          */
-
-        /*
-         * Memory is utilized as follows is, js, dn, s and elev2 are unidimensional arrays storing
-         * information for flats. sloc is a indirect addressing array for accessing these - used
-         * during recursive iteration spos is a grid of pointers for accessing these to facilitate
-         * finding neighbors The routine flatrout is recursive and at each recursion allocates a new
-         * sloc for addressing these arrays and a new elev for keeping track of the elevations for
-         * that recursion level.
-         */
         if (n > 0) {
-            int iter = 1;
-            int[][] spos = new int[nx][ny];
-            dn = new int[n];
-            is = new int[n];
-            js = new int[n];
-            int[] s = new int[n];
-            int[] sloc = new int[n];
-            double[] elev2 = new double[n];
-
+            spos = new int[nx * ny];
+            Arrays.fill(spos, -1);
             /* Put unresolved pixels on stack */
+            int[] flatCells = new int[n];
             int ip = 0;
-            for( int i = i2; i < n2; i++ ) {
-                if (isCanceled(pm)) {
-                    return;
-                }
-                for( int j = i1; j < n1; j++ ) {
-                    spos[j][i] = -1; /* Initialize stack position */
-                    if (dir[j][i] == 0) {
-                        is[ip] = i;
-                        js[ip] = j;
-                        dn[ip] = 0;
-                        sloc[ip] = ip;
-                        /* Initialize the stage 1 array for flat routing */
-                        s[ip] = 1;
-                        spos[j][i] = ip; /* pointer for back tracking */
-                        ip++;
-                    }
+            for( int index = 0; index < dir.length; index++ ) {
+                if (dir[index] == 0) {
+                    flatCells[ip++] = index;
                 }
             }
 
-            flatrout(n, sloc, s, spos, iter, elev2, elev2, fact, n);
-            /* The direction 19 was used to flag pits. Set these to 0 */
-            for( int i = i2; i < n2; i++ ) {
-                if (isCanceled(pm)) {
-                    return;
-                }
-                for( int j = i1; j < n1; j++ ) {
-                    if (dir[j][i] == 19)
-                        dir[j][i] = 0;
+            if (pMaxThreads > 1) {
+                resolveFlatRegions(flatCells);
+            } else {
+                for( ip = 0; ip < n; ip++ ) {
+                    spos[flatCells[ip]] = ip; /* pointer for back tracking */
                 }
+                new FlatRegion(flatCells, 0, n).resolve();
             }
         }
     }
 
-    private boolean doesntTouchNovalue( int col, int row ) {
-        int rows = elevations.length;
-        int cols = elevations[0].length;
-        for( int i = -1; i <= 1; i++ ) {
-            for( int j = -1; j <= 1; j++ ) {
-                int r = row + i;
-                int c = col + j;
-                if (r >= 0 && r < rows && c >= 0 && c < cols) {
-                    if (elevations[r][c] <= FLOWNOVALUE) {
-                        return false;
+    /**
+     * Splits the flat cells in 8-connected regions and resolves them in parallel.
+     * 
+     * <p>Cells of different regions never see each other, so the regions can be
+     * resolved independently. The termination checks of the stage 1 and 2 increments
+     * are evaluated per region, while in the single threaded mode they are evaluated
+     * over all the flats together.</p>
+     * 
+     * @param flatCells the indexes of the flat cells, in row-major order.
+     */
+    private void resolveFlatRegions( int[] flatCells ) throws Exception {
+        int n = flatCells.length;
+        final int[] regionCells = new int[n];
+        final int[] regionStarts = new int[n + 1];
+        int regionsNum = 0;
+        int count = 0;
+        for( int ip = 0; ip < n; ip++ ) {
+            int cell = flatCells[ip];
+            if (spos[cell] != -1) {
+                continue;
+            }
+            int start = count;
+            regionCells[count++] = cell;
+            spos[cell] = 0;
+            int head = start;
+            while( head < count ) {
+                int current = regionCells[head++];
+                for( int k = 1; k <= 8; k++ ) {
+                    int neighbour = current + offsets[k];
+                    if (dir[neighbour] == 0 && spos[neighbour] == -1) {
+                        spos[neighbour] = 0;
+                        regionCells[count++] = neighbour;
                     }
                 }
             }
+            // keep the row-major order of the single threaded mode inside the region
+            Arrays.sort(regionCells, start, count);
+            for( int p = start; p < count; p++ ) {
+                spos[regionCells[p]] = p - start;
+            }
+            regionStarts[regionsNum++] = start;
+        }
+        regionStarts[regionsNum] = count;
+
+        final int finalRegionsNum = regionsNum;
+        final AtomicInteger nextRegion = new AtomicInteger(0);
+        ExecutorService pool = Executors.newFixedThreadPool(pMaxThreads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for( int t = 0; t < pMaxThreads; t++ ) {
+                futures.add(pool.submit(new Callable<Void>(){
+                    public Void call() throws Exception {
+                        int region;
+                        while( (region = nextRegion.getAndIncrement()) < finalRegionsNum ) {
+                            int start = regionStarts[region];
+                            new FlatRegion(regionCells, start, regionStarts[region + 1] - start).resolve();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            pool.shutdown();
         }
-        return true;
     }
 
-    private void flatrout( int n, int[] sloc, int[] s, int[][] spos, int iter, double[] elev1, double[] elev2, double[] fact,
-            int ns ) {
-        int nu, ipp;
-        int[] sloc2;
-        double[] elev3;
-
-        incfall(n, elev1, s, spos, iter, sloc);
-        for( int ip = 0; ip < n; ip++ ) {
-            elev2[sloc[ip]] = (s[sloc[ip]]);
-            s[sloc[ip]] = 0; /* Initialize for pass 2 */
+    private boolean doesntTouchNovalue( int index ) {
+        if (elevations[index] <= FLOWNOVALUE) {
+            return false;
+        }
+        for( int k = 1; k <= 8; k++ ) {
+            if (elevations[index + offsets[k]] <= FLOWNOVALUE) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        incrise(n, elev1, s, spos, iter, sloc);
-        for( int ip = 0; ip < n; ip++ ) {
-            elev2[sloc[ip]] += (s[sloc[ip]]);
+    /**
+     * A set of flat cells resolved together.
+     * 
+     * <p>The cells are stored in a slice of a shared array, the {@link OmsFlowDirections#spos}
+     * of every cell is its position in the slice. The stacks of unresolved cells are
+     * kept as positions in the slice.</p>
+     */
+    private class FlatRegion {
+        private final int[] cells;
+        private final int from;
+        private final int ns;
+        private final int[] s;
+        private final int[] dn;
+
+        FlatRegion( int[] cells, int from, int ns ) {
+            this.cells = cells;
+            this.from = from;
+            this.ns = ns;
+            s = new int[ns];
+            dn = new int[ns];
         }
 
-        nu = 0;
-        for( int ip = 0; ip < n; ip++ ) {
-            set2(is[sloc[ip]], js[sloc[ip]], fact, elev1, elev2, iter, spos, s);
-            if (dir[js[sloc[ip]]][is[sloc[ip]]] == 0)
-                nu++;
+        private int cell( int position ) {
+            return cells[from + position];
         }
 
-        if (nu > 0) {
-            /* Iterate Recursively */
-            /*
-             * Now resolve flats following the Procedure of Garbrecht and Martz, Journal of
-             * Hydrology, 1997.
-             */
-            iter = iter + 1;
-            // printf("Resolving %d Flats, Iteration: %d \n",nu,iter);
-            sloc2 = new int[nu];
-            elev3 = new double[ns];
-
-            /* Initialize elev3 */
+        /**
+         * Iterates the Garbrecht and Martz increments until all the cells have a direction
+         * or no more progress is made.
+         * 
+         * <p>Every iteration works on the cells still unresolved, using the increments of
+         * the previous iteration as elevations.</p>
+         */
+        void resolve() {
+            int[] sloc = new int[ns];
             for( int ip = 0; ip < ns; ip++ ) {
-                elev3[ip] = 0.;
+                sloc[ip] = ip;
+                /* Initialize the stage 1 array for flat routing */
+                s[ip] = 1;
             }
-            /* Put unresolved pixels on new stacks - keeping in same positions */
-            ipp = 0;
-            for( int ip = 0; ip < n; ip++ ) {
-                if (isCanceled(pm)) {
-                    return;
+            int n = ns;
+            int iter = 1;
+            double[] elev2 = new double[ns];
+            double[] elev1 = elev2;
+            while( true ) {
+                incfall(n, elev1, iter, sloc);
+                for( int ip = 0; ip < n; ip++ ) {
+                    elev2[sloc[ip]] = (s[sloc[ip]]);
+                    s[sloc[ip]] = 0; /* Initialize for pass 2 */
+                }
+
+                incrise(n, elev1, iter, sloc);
+                for( int ip = 0; ip < n; ip++ ) {
+                    elev2[sloc[ip]] += (s[sloc[ip]]);
+                }
+
+                int nu = 0;
+                for( int ip = 0; ip < n; ip++ ) {
+                    set2(sloc[ip], elev1, elev2, iter);
+                    if (dir[cell(sloc[ip])] == 0)
+                        nu++;
+                }
+
+                if (nu == 0 || isCanceled(pm)) {
+                    break;
                 }
-                if (dir[js[sloc[ip]]][is[sloc[ip]]] == 0) {
-                    sloc2[ipp] = sloc[ip];
-                    /* Initialize the stage 1 array for flat routing */
-                    s[sloc[ip]] = 1;
-                    ipp++;
-                    // if(ipp > nu)printf("PROBLEM - Stack logic\n");
+                iter = iter + 1;
+                /* Put unresolved pixels on the stack - keeping in same positions */
+                int ipp = 0;
+                for( int ip = 0; ip < n; ip++ ) {
+                    int sp = sloc[ip];
+                    if (dir[cell(sp)] == 0) {
+                        sloc[ipp] = sp;
+                        /* Initialize the stage 1 array for flat routing */
+                        s[sp] = 1;
+                        ipp++;
+                    } else {
+                        s[sp] = -1; /*
+                                     * Used to designate out of remaining flat on higher
+                                     * iterations
+                                     */
+                    }
+                    dn[sp] = 0; /* Reinitialize for next time round. */
+                }
+                n = nu;
+
+                /* the increments of this iteration become the elevations of the next one */
+                double[] recycled = elev1 != elev2 ? elev1 : null;
+                elev1 = elev2;
+                if (recycled == null) {
+                    elev2 = new double[ns];
                 } else {
-                    s[sloc[ip]] = -1; /*
-                                         * Used to designate out of remaining flat on higher
-                                         * iterations
-                                         */
+                    Arrays.fill(recycled, 0.0);
+                    elev2 = recycled;
                 }
-                dn[sloc[ip]] = 0; /* Reinitialize for next time round. */
             }
-            flatrout(nu, sloc2, s, spos, iter, elev2, elev3, fact, ns);
-        } /* end if nu > 0 */
 
-    }
+            /* The direction 19 was used to flag pits. Set these to 0 */
+            for( int ip = 0; ip < ns; ip++ ) {
+                if (dir[cell(ip)] == 19)
+                    dir[cell(ip)] = 0;
+            }
+        }
 
-    /**
-     * @param i
-     * @param j
-     * @param fact
-     * @param elev1
-     * @param elev2
-     * @param iter
-     * @param spos
-     * @param s
-     */
-    private void set2( int i, int j, double[] fact, double[] elev1, double[] elev2, int iter, int[][] spos, int[] s ) {
-        /*
+        /**
          * This function sets directions based upon secondary elevations for assignment of flow
          * directions across flats according to Garbrecht and Martz scheme. There are two
          * possibilities: A. The neighbor is outside the flat set B. The neighbor is in the flat
@@ -414,297 +462,190 @@ public class OmsFlowDirections extends JGTModel {
          * downwards slope to such neighbors, and if the previous elevation increment had 0 slope
          * then a flow direction can be assigned.
          */
+        private void set2( int sp, double[] elev1, double[] elev2, int iter ) {
+            double slope, slope2, smax, ed;
+            int spn;
+            int index = cell(sp);
+            smax = 0.;
+            for( int k = 1; k <= 8; k++ ) {
+                int nIndex = index + offsets[k];
+                spn = spos[nIndex];
+                if (iter <= 1) {
+                    ed = elevations[index] - elevations[nIndex];
+                } else {
+                    ed = elev1[sp] - elev1[spn];
+                }
+                slope = fact[k] * ed;
+                if (spn < 0 || s[spn] < 0) {
+                    /* The neighbor is outside the flat set. */
+                    ed = 0.;
+                } else {
+                    ed = elev2[spn];
+                }
+                slope2 = fact[k] * (elev2[sp] - ed);
+                if (slope2 > smax && slope >= 0.) /*
+                                                     * Only if latest iteration slope is positive and
+                                                     * previous iteration slope flat
+                                                     */
+                {
+                    smax = slope2;
+                    dir[index] = k;
+                }
+            } /* End of for */
+        }
 
-        double slope, slope2, smax, ed;
-        int spn, sp;
-        int in, jn;
-        smax = 0.;
-        sp = spos[j][i];
-        for( int k = 1; k <= 8; k++ ) {
-            jn = j + d2[k];
-            in = i + d1[k];
-            spn = spos[jn][in];
-            if (iter <= 1) {
-                ed = elevations[j][i] - elevations[jn][in];
-            } else {
-                ed = elev1[sp] - elev1[spn];
-            }
-            slope = fact[k] * ed;
-            if (spn < 0 || s[spn] < 0) {
-                /* The neighbor is outside the flat set. */
-                ed = 0.;
-            } else {
-                ed = elev2[spn];
-            }
-            slope2 = fact[k] * (elev2[sp] - ed);
-            if (slope2 > smax && slope >= 0.) /*
-                                                 * Only if latest iteration slope is positive and
-                                                 * previous iteration slope flat
-                                                 */
-            {
-                smax = slope2;
-                dir[j][i] = k;
-            }
-        } /* End of for */
-
-    }
-
-    /**
-     * @param n
-     * @param elev1
-     * @param s
-     * @param spos
-     * @param iter
-     * @param sloc
-     */
-    private void incrise( int n, double[] elev1, int[] s2, int[][] spos, int iter, int[] sloc ) {
-        /*
+        /**
          * This routine implements stage 2 drainage away from higher ground dn is used to flag
          * pixels still being incremented
          */
-        int done = 0, ninc, nincold, spn;
-        double ed;
-        int i, j, in, jn;
-        nincold = 0;
+        private void incrise( int n, double[] elev1, int iter, int[] sloc ) {
+            int done = 0, ninc, nincold, spn;
+            double ed;
+            nincold = 0;
 
-        while( done < 1 ) {
-            if (isCanceled(pm)) {
-                return;
-            }
-            done = 1;
-            ninc = 0;
-            for( int ip = 0; ip < n; ip++ ) {
-                if (isCanceled(pm)) {
-                    return;
-                }
-                for( int k = 1; k <= 8; k++ ) {
-                    j = js[sloc[ip]];
-                    i = is[sloc[ip]];
-                    jn = j + d2[k];
-                    in = i + d1[k];
-                    spn = spos[jn][in];
-
-                    if (iter <= 1) {
-                        ed = elevations[j][i] - elevations[jn][in];
-                    } else {
-                        ed = elev1[sloc[ip]] - elev1[spn];
-                    }
-                    if (ed < 0.) {
-                        dn[sloc[ip]] = 1;
-                    }
-                    if (spn >= 0) {
-                        if (s2[spn] > 0) {
-                            dn[sloc[ip]] = 1;
-                        }
-                    }
-                }
-            }
-            for( int ip = 0; ip < n; ip++ ) {
+            while( done < 1 ) {
                 if (isCanceled(pm)) {
                     return;
                 }
-                s2[sloc[ip]] = s2[sloc[ip]] + dn[sloc[ip]];
-                ninc = ninc + dn[sloc[ip]];
-                if (dn[sloc[ip]] == 0) {
-                    done = 0; /*
-                                 * if still some not being incremented continue looping
-                                 */
-                }
-
-            }
-            // printf("incrise %d %d\n",ninc,n);
-            if (ninc == nincold) {
                 done = 1;
-            } /*
-                 * If there are no new cells incremented stop - this is the case when a flat has no
-                 * higher ground around it.
-                 */
-            nincold = ninc;
-        }
-
-    }
-
-    /**
-     * @param n
-     * @param elev1
-     * @param s
-     * @param spos
-     * @param iter
-     * @param sloc
-     */
-    private void incfall( int n, double[] elev1, int[] s1, int[][] spos, int iter, int[] sloc ) {
-        /* This routine implements drainage towards lower areas - stage 1 */
-        int done = 0, donothing, ninc, nincold, spn;
-        int st = 1, i, j, in, jn;
-        double ed;
-        nincold = -1;
-
-        while( done < 1 ) {
-            if (isCanceled(pm)) {
-                return;
-            }
-            done = 1;
-            ninc = 0;
-            for( int ip = 0; ip < n; ip++ ) {
-                /*
-                 * if adjacent to same level or lower that drains or adjacent to pixel with s1 < st
-                 * and dir not set do nothing
-                 */
-                donothing = 0;
-                j = js[sloc[ip]];
-                i = is[sloc[ip]];
-                for( int k = 1; k <= 8; k++ ) {
-                    jn = j + d2[k];
-                    in = i + d1[k];
-                    spn = spos[jn][in];
-                    if (iter <= 1) {
-                        ed = elevations[j][i] - elevations[jn][in];
-                    } else {
-                        ed = elev1[sloc[ip]] - elev1[spn];
-                    }
-                    if (ed >= 0. && dir[jn][in] != 0)
-                        donothing = 1; /* If neighbor drains */
-                    if (spn >= 0) /* if neighbor is in flat */
-                    {
-                        /* If neighbor is not being */
-                        if (s1[spn] >= 0 && s1[spn] < st && dir[jn][in] == 0) {
-                            donothing = 1; /* Incremented */
-                        }
-                    }
-                }
-
-                if (donothing == 0) {
-                    s1[sloc[ip]]++;
-                    ninc++;
-                    done = 0;
-                }
-            } /* End of loop over all flats */
-            st = st + 1;
-            // printf("Incfall %d %d \n",ninc,n);
-            if (ninc == nincold) {
-                done = 1;
-                // printf("There are pits remaining, direction will not be
-                // set\n");
-                /* Set the direction of these pits to 19 to flag them */
-                for( int ip = 0; ip < n; ip++ ) /* loop 2 over all flats */
-                {
-                    /*
-                     * if adjacent to same level or lower that drains or adjacent to pixel with s1 <
-                     * st and dir not set do nothing
-                     */
-                    donothing = 0;
-                    j = js[sloc[ip]];
-                    i = is[sloc[ip]];
+                ninc = 0;
+                for( int ip = 0; ip < n; ip++ ) {
+                    int index = cell(sloc[ip]);
                     for( int k = 1; k <= 8; k++ ) {
-                        jn = j + d2[k];
-                        in = i + d1[k];
-                        spn = spos[jn][in];
+                        int nIndex = index + offsets[k];
+                        spn = spos[nIndex];
+
                         if (iter <= 1) {
-                            ed = elevations[j][i] - elevations[jn][in];
+                            ed = elevations[index] - elevations[nIndex];
                         } else {
                             ed = elev1[sloc[ip]] - elev1[spn];
                         }
-                        if (ed >= 0. && dir[jn][in] != 0)
-                            donothing = 1; /* If neighbor drains */
-                        if (spn >= 0) /* if neighbor is in flat */
-                        {
-                            /* If neighbor is not being */
-                            if (s1[spn] >= 0 && s1[spn] < st && dir[jn][in] == 0)
-                                donothing = 1; /* Incremented */
+                        if (ed < 0.) {
+                            dn[sloc[ip]] = 1;
+                        }
+                        if (spn >= 0) {
+                            if (s[spn] > 0) {
+                                dn[sloc[ip]] = 1;
+                            }
                         }
                     }
-                    if (donothing == 0) {
-                        dir[j][i] = 19;
-                        /* printf("%d %d\n",i,j); */
+                }
+                for( int ip = 0; ip < n; ip++ ) {
+                    s[sloc[ip]] = s[sloc[ip]] + dn[sloc[ip]];
+                    ninc = ninc + dn[sloc[ip]];
+                    if (dn[sloc[ip]] == 0) {
+                        done = 0; /*
+                                   * if still some not being incremented continue looping
+                                   */
                     }
-                } /* End of loop 2 over all flats */
+                }
+                if (ninc == nincold) {
+                    done = 1;
+                } /*
+                   * If there are no new cells incremented stop - this is the case when a flat has no
+                   * higher ground around it.
+                   */
+                nincold = ninc;
             }
-            nincold = ninc;
-        } /* End of while done loop */
-
-    }
+        }
 
-    /**
-     * @param i
-     * @param j
-     */
-    private void darea( int i, int j ) {
-        int in, jn, con = 0;
-        /*
-         * con is a flag that signifies possible contaminatin of area due to edge effects
+        /**
+         * This routine implements drainage towards lower areas - stage 1
          */
-        if (i != 0 && i != ny - 1 && j != 0 && j != nx - 1 && dir[j][i] > -1)
-        /* not on boundary */
-        {
-            if (arr[j][i] == 0) // not touched yet
-            {
-                arr[j][i] = 1;
-                if (useww == 1)
-                    areaw[j][i] = weight[j][i];
-                for( int k = 1; k <= 8; k++ ) {
-                    in = i + d1[k];
-                    jn = j + d2[k];
+        private void incfall( int n, double[] elev1, int iter, int[] sloc ) {
+            int done = 0, ninc, nincold;
+            int st = 1;
+            nincold = -1;
 
+            while( done < 1 ) {
+                if (isCanceled(pm)) {
+                    return;
+                }
+                done = 1;
+                ninc = 0;
+                for( int ip = 0; ip < n; ip++ ) {
                     /*
-                     * test if neighbor drains towards cell excluding boundaryies
+                     * if adjacent to same level or lower that drains or adjacent to pixel with s1 < st
+                     * and dir not set do nothing
                      */
-                    if (dir[jn][in] > 0 && (dir[jn][in] - k == 4 || dir[jn][in] - k == -4)) {
-                        darea(in, jn);
-                        if (arr[jn][in] < 0)
-                            con = -1;
-                        else
-                            arr[j][i] = arr[j][i] + arr[jn][in];
-                        if (useww == 1) {
-                            if (areaw[jn][in] <= ndv || areaw[j][i] <= ndv) {
-                                areaw[j][i] = ndv;
-                            } else
-                                areaw[j][i] = areaw[j][i] + areaw[jn][in];
+                    if (!isIncrementBlocked(sloc[ip], elev1, iter, st)) {
+                        s[sloc[ip]]++;
+                        ninc++;
+                        done = 0;
+                    }
+                } /* End of loop over all flats */
+                st = st + 1;
+                if (ninc == nincold) {
+                    done = 1;
+                    /* There are pits remaining, set the direction of these pits to 19 to flag them */
+                    for( int ip = 0; ip < n; ip++ ) {
+                        if (!isIncrementBlocked(sloc[ip], elev1, iter, st)) {
+                            dir[cell(sloc[ip])] = 19;
                         }
                     }
-                    if (dir[jn][in] < 0)
-                        con = -1;
                 }
-                if (con == -1 && ccheck == 1) {
-                    arr[j][i] = -1;
-                    if (useww == 1)
-                        areaw[j][i] = ndv;
+                nincold = ninc;
+            } /* End of while done loop */
+        }
+
+        /**
+         * Checks if a cell is adjacent to same level or lower that drains or adjacent to a pixel
+         * with s1 < st and dir not set.
+         */
+        private boolean isIncrementBlocked( int sp, double[] elev1, int iter, int st ) {
+            int index = cell(sp);
+            boolean donothing = false;
+            for( int k = 1; k <= 8; k++ ) {
+                int nIndex = index + offsets[k];
+                int spn = spos[nIndex];
+                double ed;
+                if (iter <= 1) {
+                    ed = elevations[index] - elevations[nIndex];
+                } else {
+                    ed = elev1[sp] - elev1[spn];
+                }
+                if (ed >= 0. && dir[nIndex] != 0)
+                    donothing = true; /* If neighbor drains */
+                if (spn >= 0) /* if neighbor is in flat */
+                {
+                    /* If neighbor is not being incremented */
+                    if (s[spn] >= 0 && s[spn] < st && dir[nIndex] == 0) {
+                        donothing = true;
+                    }
                 }
             }
-        } else
-            arr[j][i] = -1;
+            return donothing;
+        }
     }
 
     /**
-     * @param i
-     * @param j
-     * @param fact
+     * @param index the packed index of the cell.
      */
-    private void set( int i, int j, double[] fact ) {
+    private void set( int index ) {
         double slope, smax;
-        int amax, in, jn, aneigh = -1;
+        int amax, nIndex, aneigh = -1;
 
-        dir[j][i] = 0; /* This necessary for repeat passes after level raised */
+        dir[index] = 0; /* This necessary for repeat passes after level raised */
         smax = 0.;
         amax = 0;
 
         for( int k = 1; k <= 8; k = k + 2 ) // examine adjacent cells first
         {
-            in = i + d1[k];
-            jn = j + d2[k];
-            if (elevations[jn][in] <= FLOWNOVALUE) {
+            nIndex = index + offsets[k];
+            if (elevations[nIndex] <= FLOWNOVALUE) {
                 continue;
             }
 
-            if (dir[j][i] != -1) {
-                slope = fact[k] * (elevations[j][i] - elevations[jn][in]);
+            if (dir[index] != -1) {
+                slope = fact[k] * (elevations[index] - elevations[nIndex]);
 
                 if (aneigh > amax && slope >= 0.) {
                     amax = aneigh;
-                    if (Math.abs(dir[jn][in] - k) != 4)
-                        dir[j][i] = k; // Dont set opposing pointers
+                    if (Math.abs(dir[nIndex] - k) != 4)
+                        dir[index] = k; // Dont set opposing pointers
                 } else if (slope > smax && amax <= 0) {
                     smax = slope;
-                    dir[j][i] = k;
+                    dir[index] = k;
 
                 }
             }
@@ -712,19 +653,17 @@ public class OmsFlowDirections extends JGTModel {
 
         for( int k = 2; k <= 8; k = k + 2 ) // examine diagonal cells
         {
-            in = i + d1[k];
-            jn = j + d2[k];
-            /* if(elev[jn][in] <= mval) dir[j][i] = -1; */
-            if (elevations[jn][in] <= FLOWNOVALUE) {
+            nIndex = index + offsets[k];
+            if (elevations[nIndex] <= FLOWNOVALUE) {
                 continue;
             }
-            if (dir[j][i] != -1) {
-                slope = fact[k] * (elevations[j][i] - elevations[jn][in]);
+            if (dir[index] != -1) {
+                slope = fact[k] * (elevations[index] - elevations[nIndex]);
                 if (slope > smax && amax <= 0) // still need amax check to
                 // prevent crossing
                 {
                     smax = slope;
-                    dir[j][i] = k;
+                    dir[index] = k;
 
                 }
             }
@@ -47,10 +47,7 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSLEASTCOSTFLOW
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSLEASTCOSTFLOWDIRECTIONS_outTca_DESCRIPTION;
 
 import java.awt.image.WritableRaster;
-import java.util.List;
-import java.util.TreeSet;
 
-import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.WritableRandomIter;
 
 import oms3.annotations.Author;
@@ -67,10 +64,10 @@ import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.jgrasstools.gears.libs.modules.Direction;
-import org.jgrasstools.gears.libs.modules.GridNode;
-import org.jgrasstools.gears.libs.modules.GridNodeElevationToLeastComparator;
+import org.jgrasstools.gears.libs.modules.GridCursor;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.utils.BitMatrix;
+import org.jgrasstools.gears.utils.DoubleIntMinHeap;
 import org.jgrasstools.gears.utils.RegionMap;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
 import org.jgrasstools.hortonmachine.modules.geomorphology.aspect.OmsAspect;
@@ -122,7 +119,17 @@ public class OmsLeastCostFlowDirections extends JGTModel {
 
     private WritableRandomIter flowIter;
 
-    private TreeSet<GridNode> orderedNodes;
+    /**
+     * The cells to process, ordered by elevation. The heap values are positions in
+     * {@link #queuedCells}, negated so that cells with the same elevation are
+     * extracted last in, first out.
+     */
+    private DoubleIntMinHeap orderedCells;
+    private int[] queuedCells;
+    private int queuedCellsNum;
+
+    private double[] elevation;
+    private GridCursor cursor;
 
     private WritableRandomIter tcaIter;
     private WritableRandomIter slopeIter;
@@ -146,7 +153,8 @@ public class OmsLeastCostFlowDirections extends JGTModel {
         double xRes = regionMap.getXres();
         double yRes = regionMap.getYres();
 
-        RandomIter elevationIter = CoverageUtilities.getRandomIterator(inElev);
+        elevation = GridCursor.readElevation(inElev.getRenderedImage());
+        cursor = new GridCursor(elevation, cols, rows, xRes, yRes);
 
         WritableRaster flowWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null, doubleNovalue);
         flowIter = CoverageUtilities.getWritableRandomIterator(flowWR);
@@ -169,7 +177,9 @@ public class OmsLeastCostFlowDirections extends JGTModel {
             aspectIter = CoverageUtilities.getWritableRandomIterator(aspectWR);
         }
 
-        orderedNodes = new TreeSet<GridNode>(new GridNodeElevationToLeastComparator());
+        orderedCells = new DoubleIntMinHeap(2 * (cols + rows));
+        queuedCells = new int[cols * rows];
+        queuedCellsNum = 0;
         assignedFlowsMap = new BitMatrix(cols, rows);
 
         pm.beginTask("Check for potential outlets...", cols);
@@ -179,14 +189,14 @@ public class OmsLeastCostFlowDirections extends JGTModel {
                 return;
             }
             for( int r = 0; r < rows; r++ ) {
-                GridNode node = new GridNode(elevationIter, cols, rows, xRes, yRes, c, r);
-                if (!node.isValid()) {
+                cursor.moveTo(c, r);
+                if (!cursor.isValid()) {
                     nonValidCellsNum++;
                     assignedFlowsMap.mark(c, r);
                     continue;
                 }
-                if (node.touchesBound()) {
-                    orderedNodes.add(node);
+                if (cursor.touchesBound()) {
+                    enqueue(cursor.getIndex());
                     if (doExcludeBorder) {
                         assignedFlowsMap.mark(c, r);
                     } else {
@@ -199,61 +209,64 @@ public class OmsLeastCostFlowDirections extends JGTModel {
         pm.done();
 
         pm.beginTask("Extract flowdirections...", (rows * cols - nonValidCellsNum));
-        GridNode lowestNode = null;
-        while( (lowestNode = orderedNodes.pollFirst()) != null ) {
+        int[] surroundingCells = new int[8];
+        while( !orderedCells.isEmpty() ) {
+            int lowestCell = dequeue();
+            int lowestCol = lowestCell % cols;
+            int lowestRow = lowestCell / cols;
             /*
              * set the current cell as marked. If it is an alone one,
              * it will stay put as an outlet (if we do not mark it, it 
              * might get overwritten. Else il will be redundantly set 
              * later again.
              */
-            assignedFlowsMap.mark(lowestNode.col, lowestNode.row);
+            assignedFlowsMap.mark(lowestCol, lowestRow);
 
-            List<GridNode> surroundingNodes = lowestNode.getSurroundingNodes();
+            cursor.moveTo(lowestCell).getSurroundingIndexes(surroundingCells);
 
             /*
              * vertical and horiz cells, if they exist, are 
              * set to flow inside the current cell and added to the 
              * list of cells to process.
              */
-            GridNode e = surroundingNodes.get(0);
-            if (nodeOk(e)) {
-                // flow in current and get added to the list of nodes to process by elevation
+            int e = surroundingCells[0];
+            if (cellOk(e)) {
+                // flow in current and get added to the list of cells to process by elevation
                 // order
-                setNodeValues(e, E.getEnteringFlow());
+                setCellValues(e, E.getEnteringFlow());
             }
-            GridNode n = surroundingNodes.get(2);
-            if (nodeOk(n)) {
-                setNodeValues(n, N.getEnteringFlow());
+            int n = surroundingCells[2];
+            if (cellOk(n)) {
+                setCellValues(n, N.getEnteringFlow());
             }
-            GridNode w = surroundingNodes.get(4);
-            if (nodeOk(w)) {
-                setNodeValues(w, W.getEnteringFlow());
+            int w = surroundingCells[4];
+            if (cellOk(w)) {
+                setCellValues(w, W.getEnteringFlow());
             }
-            GridNode s = surroundingNodes.get(6);
-            if (nodeOk(s)) {
-                setNodeValues(s, S.getEnteringFlow());
+            int s = surroundingCells[6];
+            if (cellOk(s)) {
+                setCellValues(s, S.getEnteringFlow());
             }
 
             /*
              * diagonal cells are processed only if they are valid and 
              * they are not steeper than their attached vertical and horiz cells.
              */
-            GridNode en = surroundingNodes.get(1);
-            if (nodeOk(en) && assignFlowDirection(lowestNode, en, e, n)) {
-                setNodeValues(en, EN.getEnteringFlow());
+            int en = surroundingCells[1];
+            if (cellOk(en) && assignFlowDirection(lowestCell, en, e, n)) {
+                setCellValues(en, EN.getEnteringFlow());
             }
-            GridNode nw = surroundingNodes.get(3);
-            if (nodeOk(nw) && assignFlowDirection(lowestNode, nw, n, w)) {
-                setNodeValues(nw, NW.getEnteringFlow());
+            int nw = surroundingCells[3];
+            if (cellOk(nw) && assignFlowDirection(lowestCell, nw, n, w)) {
+                setCellValues(nw, NW.getEnteringFlow());
             }
-            GridNode ws = surroundingNodes.get(5);
-            if (nodeOk(ws) && assignFlowDirection(lowestNode, ws, w, s)) {
-                setNodeValues(ws, WS.getEnteringFlow());
+            int ws = surroundingCells[5];
+            if (cellOk(ws) && assignFlowDirection(lowestCell, ws, w, s)) {
+                setCellValues(ws, WS.getEnteringFlow());
             }
-            GridNode se = surroundingNodes.get(7);
-            if (nodeOk(se) && assignFlowDirection(lowestNode, se, s, e)) {
-                setNodeValues(se, SE.getEnteringFlow());
+            int se = surroundingCells[7];
+            if (cellOk(se) && assignFlowDirection(lowestCell, se, s, e)) {
+                setCellValues(se, SE.getEnteringFlow());
             }
         }
         pm.done();
@@ -268,17 +281,28 @@ public class OmsLeastCostFlowDirections extends JGTModel {
             outAspect = CoverageUtilities.buildCoverage("aspect", aspectWR, regionMap, crs);
     }
 
-    private void setNodeValues( GridNode node, int enteringFlow ) {
-        int col = node.col;
-        int row = node.row;
+    private void enqueue( int index ) {
+        queuedCells[queuedCellsNum] = index;
+        orderedCells.push(elevation[index], -queuedCellsNum);
+        queuedCellsNum++;
+    }
+
+    private int dequeue() {
+        return queuedCells[-orderedCells.pop()];
+    }
+
+    private void setCellValues( int index, int enteringFlow ) {
+        int col = index % cols;
+        int row = index / cols;
         flowIter.setSample(col, row, 0, enteringFlow);
         pm.worked(1);
 
-        orderedNodes.add(node);
+        enqueue(index);
         assignedFlowsMap.mark(col, row);
 
+        cursor.moveTo(index);
         if (doSlope) {
-            double slope = OmsSlope.calculateSlope(node, enteringFlow);
+            double slope = OmsSlope.calculateSlope(cursor, enteringFlow);
             if (slope <= 0.0) {
                 // put smallest possible slope
                 slope = Double.MIN_VALUE;
@@ -286,7 +310,7 @@ public class OmsLeastCostFlowDirections extends JGTModel {
             slopeIter.setSample(col, row, 0, slope);
         }
         if (doAspect) {
-            double aspect = OmsAspect.calculateAspect(node, 1.0, false);
+            double aspect = OmsAspect.calculateAspect(cursor, 1.0, false);
             aspectIter.setSample(col, row, 0, aspect);
         }
 
@@ -327,25 +351,26 @@ public class OmsLeastCostFlowDirections extends JGTModel {
     }
 
     /**
-     * Checks if the path from the current to the first node is steeper than to the others.
+     * Checks if the path from the current to the first cell is steeper than to the others.
      * 
-     * @param current the current node.
-     * @param diagonal the diagonal node to check.
-     * @param node1 the first other node to check.
-     * @param node2 the second other node to check.
-     * @return <code>true</code> if the path to the first node is steeper in module than 
+     * @param current the current cell.
+     * @param diagonal the diagonal cell to check.
+     * @param cell1 the first other cell to check.
+     * @param cell2 the second other cell to check.
+     * @return <code>true</code> if the path to the first cell is steeper in module than 
      *         that to the others.
      */
-    private boolean assignFlowDirection( GridNode current, GridNode diagonal, GridNode node1, GridNode node2 ) {
-        double diagonalSlope = abs(current.getSlopeTo(diagonal));
-        if (node1 != null) {
-            double tmpSlope = abs(diagonal.getSlopeTo(node1));
+    private boolean assignFlowDirection( int current, int diagonal, int cell1, int cell2 ) {
+        double diagonalSlope = abs(cursor.moveTo(current).getSlopeTo(diagonal));
+        cursor.moveTo(diagonal);
+        if (cell1 != -1) {
+            double tmpSlope = abs(cursor.getSlopeTo(cell1));
             if (diagonalSlope < tmpSlope) {
                 return false;
             }
         }
-        if (node2 != null) {
-            double tmpSlope = abs(diagonal.getSlopeTo(node2));
+        if (cell2 != -1) {
+            double tmpSlope = abs(cursor.getSlopeTo(cell2));
             if (diagonalSlope < tmpSlope) {
                 return false;
             }
@@ -354,16 +379,16 @@ public class OmsLeastCostFlowDirections extends JGTModel {
     }
 
     /**
-     * Checks if the node is ok.
+     * Checks if the cell is ok.
      * 
-     * <p>A node is ok if:</p>
+     * <p>A cell is ok if:</p>
      * <ul>
-     *  <li>if the node is valid (!= null in surrounding)</li>
-     *  <li>if the node has not been processed already (!.isMarked)</li>
+     *  <li>if the cell is valid (!= -1 in surrounding)</li>
+     *  <li>if the cell has not been processed already (!.isMarked)</li>
      * </ul> 
      */
-    private boolean nodeOk( GridNode node ) {
-        return node != null && !assignedFlowsMap.isMarked(node.col, node.row);
+    private boolean cellOk( int index ) {
+        return index != -1 && !assignedFlowsMap.isMarked(index % cols, index / cols);
     }
 
 }
@@ -14,6 +14,7 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSMULTITCA_inCp
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSMULTITCA_inFlow_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSMULTITCA_inPit_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSMULTITCA_outMultiTca_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSMULTITCA_pMaxThreads_DESCRIPTION;
 
 import java.awt.image.WritableRaster;
 import java.util.HashMap;
@@ -39,7 +40,8 @@ import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.libs.modules.ModelsSupporter;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
-import org.jgrasstools.gears.utils.sorting.QuickSortAlgorithm;
+import org.jgrasstools.gears.utils.sorting.ElevationIndexSorter;
+import org.jgrasstools.gears.utils.sorting.ElevationIndexSorter.SortedCells;
 
 @Description(OMSMULTITCA_DESCRIPTION)
 @Documentation(OMSMULTITCA_DOCUMENTATION)
@@ -62,6 +64,10 @@ public class OmsMultiTca extends JGTModel {
     @In
     public GridCoverage2D inCp9 = null;
 
+    @Description(OMSMULTITCA_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSMULTITCA_outMultiTca_DESCRIPTION)
     @Out
     public GridCoverage2D outMultiTca = null;
@@ -82,13 +88,8 @@ public class OmsMultiTca extends JGTModel {
         int rows = regionMap.get(CoverageUtilities.ROWS).intValue();
         // pm.message();
 
-        @SuppressWarnings("unused")
-        int ipos, jpos, i, j, ncicli = 0;
-        double sum, delta, pos;
-
-        // create new matrix
-        double[] elevationArray = new double[cols * rows];
-        double[] indexOfElevation = new double[cols * rows];
+        int ipos, jpos, i, j;
+        double sum, delta;
 
         // pm.message();
 
@@ -101,40 +102,23 @@ public class OmsMultiTca extends JGTModel {
         WritableRandomIter multiTcaIter = RandomIterFactory.createWritable(multiTcaWR, null);
 
         /*
-         * store the value of elevation in an array
+         * sort the cells by elevation.
          */
-        for( int t = 0; t < rows; t++ ) {
-            for( int s = 0; s < cols; s++ ) {
-                elevationArray[((t) * cols) + s] = pitIter.getSampleDouble(s, t, 0);
-                indexOfElevation[((t) * cols) + s] = ((t) * cols) + s + 1;
-            }
-        }
-
-        /*
-         * sorted the array of elevation.
-         */
-        // pm.message();
-        try {
-            QuickSortAlgorithm sortAlgorithm = new QuickSortAlgorithm(pm);
-            sortAlgorithm.sort(elevationArray, indexOfElevation);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        ElevationIndexSorter sorter = new ElevationIndexSorter(pMaxThreads, pm);
+        SortedCells sortedCells = sorter.sort(inPit.getRenderedImage(), true);
 
         /*
          * start to working with the highest value of elevation.
          */
-        for( int l = cols * rows - 1; l >= 0; l-- ) {
-            ncicli = cols * rows - l;
-            if (elevationArray[l] <= 0) {
+        while( sortedCells.hasNext() ) {
+            int index = sortedCells.next();
+            // extract the index of the matrix from the cell index.
+            i = index % cols;
+            j = index / cols;
+            if (pitIter.getSampleDouble(i, j, 0) <= 0) {
                 break;
             } else {
 
-                pos = indexOfElevation[l];
-                // extract the index of the matrix from the arrays index.
-                i = (int) (pos - 1) % cols;
-                j = (int) (pos - 1) / cols;
-
                 if (alreadyDoneIter.getSampleDouble(i, j, 0) == 0.0) {
 
                     alreadyDoneIter.setSample(i, j, 0, 1.0);
@@ -200,6 +184,7 @@ public class OmsMultiTca extends JGTModel {
 
             }
         }
+        sortedCells.dispose();
         for( int t = 0; t < rows; t++ ) {
             for( int s = 0; s < cols; s++ ) {
                 if (isNovalue(cp9Iter.getSampleDouble(s, t, 0)) || isNovalue(flowIter.getSampleDouble(s, t, 0)))
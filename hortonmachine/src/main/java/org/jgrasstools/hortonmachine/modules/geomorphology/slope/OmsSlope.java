@@ -55,6 +55,7 @@ import oms3.annotations.Unit;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.jgrasstools.gears.libs.modules.Direction;
+import org.jgrasstools.gears.libs.modules.GridCursor;
 import org.jgrasstools.gears.libs.modules.GridNode;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
@@ -147,4 +148,26 @@ public class OmsSlope extends JGTModel {
         return value;
     }
 
+    /**
+     * Calculates the slope of a given flowdirection value in the current position of a {@link GridCursor}.
+     * 
+     * @param cursor the {@link GridCursor} placed on the cell to use.
+     * @param flowValue the value of the flowdirection.
+     * @return the slope.
+     */
+    public static double calculateSlope( GridCursor cursor, double flowValue ) {
+        double value = doubleNovalue;
+        if (!isNovalue(flowValue)) {
+            int flowDir = (int) flowValue;
+            if (flowDir != 10) {
+                Direction direction = Direction.forFlow(flowDir);
+                double distance = direction.getDistance(cursor.getXres(), cursor.getYres());
+                double currentElevation = cursor.getElevation();
+                double nextElevation = cursor.getElevationAt(direction);
+                value = (currentElevation - nextElevation) / distance;
+            }
+        }
+        return value;
+    }
+
 }
@@ -29,10 +29,14 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_LAB
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_LICENSE;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_NAME;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_STATUS;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_doHorizonCache_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_inElev_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_inHorizonFile_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_outHill_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_pAzimuth_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_pElev_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_pHorizonSectors_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_pMaxThreads_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_pMinDiffuse_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
@@ -55,8 +59,11 @@ import oms3.annotations.License;
 import oms3.annotations.Name;
 import oms3.annotations.Out;
 import oms3.annotations.Status;
+import oms3.annotations.UI;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.GridCursor;
+import org.jgrasstools.gears.libs.modules.HorizonAngles;
 import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
@@ -87,6 +94,23 @@ public class OmsHillshade extends JGTModel {
     @In
     public double pElev = 90;
 
+    @Description(OMSHILLSHADE_doHorizonCache_DESCRIPTION)
+    @In
+    public boolean doHorizonCache = false;
+
+    @Description(OMSHILLSHADE_pHorizonSectors_DESCRIPTION)
+    @In
+    public int pHorizonSectors = HorizonAngles.DEFAULT_SECTORS;
+
+    @Description(OMSHILLSHADE_inHorizonFile_DESCRIPTION)
+    @UI(JGTConstants.FILEOUT_UI_HINT)
+    @In
+    public String inHorizonFile = null;
+
+    @Description(OMSHILLSHADE_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSHILLSHADE_outHill_DESCRIPTION)
     @Out
     public GridCoverage2D outHill;
@@ -111,13 +135,18 @@ public class OmsHillshade extends JGTModel {
         double dx = attribute.get(CoverageUtilities.XRES);
         int width = pitRI.getWidth();
         int height = pitRI.getHeight();
+        HorizonAngles horizonAngles = null;
+        if (doHorizonCache) {
+            horizonAngles = HorizonAngles.readOrCalculate(inHorizonFile, GridCursor.readElevation(pitRI), width, height, dx,
+                    pHorizonSectors, pMaxThreads, pm);
+        }
         pitRI = null;
 
         WritableRaster hillshadeWR = CoverageUtilities.createDoubleWritableRaster(width, height, null, pitWR.getSampleModel(),
                 0.0);
         WritableRaster gradientWR = normalVector(pitWR, dx);
 
-        calchillshade(pitWR, hillshadeWR, gradientWR, dx);
+        calchillshade(pitWR, hillshadeWR, gradientWR, horizonAngles, dx);
 
         // re-set the value to NaN
         setNoValueBorder(pitWR, width, height, hillshadeWR);
@@ -163,10 +192,13 @@ public class OmsHillshade extends JGTModel {
      *            the WR where store the result.
      * @param gradientWR
      *            the raster of the gradient value of the dem.
+     * @param horizonAngles
+     *            the horizon angles of the dem or <code>null</code> to ray trace the shadows.
      * @param dx
      *            the resolution of the dem. .
      */
-    private void calchillshade( WritableRaster pitWR, WritableRaster hillshadeWR, WritableRaster gradientWR, double dx ) {
+    private void calchillshade( WritableRaster pitWR, WritableRaster hillshadeWR, WritableRaster gradientWR,
+            HorizonAngles horizonAngles, double dx ) {
 
         pAzimuth = Math.toRadians(pAzimuth);
         pElev = Math.toRadians(pElev);
@@ -176,7 +208,13 @@ public class OmsHillshade extends JGTModel {
         double[] inverseSunVector = calcInverseSunVector(sunVector);
         int rows = pitWR.getHeight();
         int cols = pitWR.getWidth();
-        WritableRaster sOmbraWR = calculateFactor(rows, cols, sunVector, inverseSunVector, normalSunVector, pitWR, dx);
+        double[] sOmbra = new double[rows * cols];
+        if (horizonAngles != null) {
+            horizonAngles.calculateFactor(sunVector, sOmbra);
+        } else {
+            double[] dem = pitWR.getSamples(0, 0, cols, rows, 0, (double[]) null);
+            calculateFactor(rows, cols, sunVector, inverseSunVector, normalSunVector, dem, dx, sOmbra, pMaxThreads);
+        }
         pm.beginTask(msg.message("hillshade.calculating"), rows * cols);
         for( int j = 1; j < rows - 1; j++ ) {
             for( int i = 1; i < cols - 1; i++ ) {
@@ -184,9 +222,9 @@ public class OmsHillshade extends JGTModel {
                 double[] ng = gradientWR.getPixel(i, j, new double[3]);
                 double cosinc = scalarProduct(sunVector, ng);
                 if (cosinc < 0) {
-                    sOmbraWR.setSample(i, j, 0, 0);
+                    sOmbra[j * cols + i] = 0;
                 }
-                hillshadeWR.setSample(i, j, 0, (int) (212.5 * (cosinc * sOmbraWR.getSample(i, j, 0) + pMinDiffuse)));
+                hillshadeWR.setSample(i, j, 0, (int) (212.5 * (cosinc * sOmbra[j * cols + i] + pMinDiffuse)));
                 pm.worked(1);
             }
         }
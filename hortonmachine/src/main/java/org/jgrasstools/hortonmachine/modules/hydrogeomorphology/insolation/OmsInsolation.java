@@ -29,8 +29,12 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_LA
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_LICENSE;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_NAME;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_STATUS;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_doHorizonCache_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_inElev_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_inHorizonFile_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_outIns_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_pHorizonSectors_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_pMaxThreads_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_tEndDate_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_tStartDate_DESCRIPTION;
 
@@ -38,6 +42,8 @@ import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.media.jai.RasterFactory;
 import javax.media.jai.iterator.RandomIter;
@@ -54,9 +60,13 @@ import oms3.annotations.License;
 import oms3.annotations.Name;
 import oms3.annotations.Out;
 import oms3.annotations.Status;
+import oms3.annotations.UI;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.jgrasstools.gears.libs.modules.GridCursor;
+import org.jgrasstools.gears.libs.modules.HorizonAngles;
+import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.utils.CrsUtilities;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
@@ -92,6 +102,23 @@ public class OmsInsolation extends JGTModel {
     @In
     public String tEndDate = null;
 
+    @Description(OMSINSOLATION_doHorizonCache_DESCRIPTION)
+    @In
+    public boolean doHorizonCache = false;
+
+    @Description(OMSINSOLATION_pHorizonSectors_DESCRIPTION)
+    @In
+    public int pHorizonSectors = HorizonAngles.DEFAULT_SECTORS;
+
+    @Description(OMSINSOLATION_inHorizonFile_DESCRIPTION)
+    @UI(JGTConstants.FILEOUT_UI_HINT)
+    @In
+    public String inHorizonFile = null;
+
+    @Description(OMSINSOLATION_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSINSOLATION_outIns_DESCRIPTION)
     @Out
     public GridCoverage2D outIns;
@@ -158,6 +185,11 @@ public class OmsInsolation extends JGTModel {
         RenderedImage pitTmpRI = inElev.getRenderedImage();
         int width = pitTmpRI.getWidth();
         int height = pitTmpRI.getHeight();
+        HorizonAngles horizonAngles = null;
+        if (doHorizonCache) {
+            horizonAngles = HorizonAngles.readOrCalculate(inHorizonFile, GridCursor.readElevation(pitTmpRI), width, height, dx,
+                    pHorizonSectors, pMaxThreads, pm);
+        }
         WritableRaster pitWR = CoverageUtilities.replaceNovalue(pitTmpRI, -9999.0);
         pitTmpRI = null;
 
@@ -167,13 +199,28 @@ public class OmsInsolation extends JGTModel {
 
         WritableRaster gradientWR = normalVector(pitWR, dx);
 
-        pm.beginTask(msg.message("insolation.calculating"), endDay - startDay);
+        // packed buffers reused for the shadows of every sun position
+        double[] dem = pitWR.getSamples(0, 0, width, height, 0, (double[]) null);
+        double[] shadow = new double[width * height];
 
-        for( int i = startDay; i <= endDay; i++ ) {
-            calcInsolation(lambda, pitWR, gradientWR, insolationWR, i, dx);
-            pm.worked(i - startDay);
+        // the threads ray tracing the shadows are shared by all the sun positions
+        ExecutorService pool = null;
+        if (horizonAngles == null && pMaxThreads > 1) {
+            pool = Executors.newFixedThreadPool(pMaxThreads);
+        }
+        try {
+            pm.beginTask(msg.message("insolation.calculating"), endDay - startDay);
+
+            for( int i = startDay; i <= endDay; i++ ) {
+                calcInsolation(lambda, pitWR, dem, gradientWR, insolationWR, horizonAngles, shadow, pool, i, dx);
+                pm.worked(i - startDay);
+            }
+            pm.done();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
         }
-        pm.done();
         for( int y = 2; y < height - 2; y++ ) {
             for( int x = 2; x < width - 2; x++ ) {
                 if (pitWR.getSampleDouble(x, y, 0) == -9999.0) {
@@ -193,16 +240,24 @@ public class OmsInsolation extends JGTModel {
      *            the latitude.
      * @param demWR
      *            the raster of elevation
+     * @param dem
+     *            the packed elevations.
      * @param gradientWR
      *            the raster of the gradient value of the dem.
      * @param insolationWR
      *            the wr where to store the result.
+     * @param horizonAngles
+     *            the horizon angles of the dem or <code>null</code> to ray trace the shadows.
+     * @param shadow
+     *            the buffer for the packed shadow map.
+     * @param pool
+     *            the pool for the shadow ray tracing or <code>null</code> to run it in this thread.
      * @param the
      *            day in the year.
      * @paradx the resolutiono of the dem.
      */
-    private void calcInsolation( double lambda, WritableRaster demWR, WritableRaster gradientWR, WritableRaster insolationWR,
-            int day, double dx ) {
+    private void calcInsolation( double lambda, WritableRaster demWR, double[] dem, WritableRaster gradientWR,
+            WritableRaster insolationWR, HorizonAngles horizonAngles, double[] shadow, ExecutorService pool, int day, double dx ) {
         // calculating the day angle
         // double dayang = 2 * Math.PI * (day - 1) / 365.0;
         double dayangb = (360 / 365.25) * (day - 79.436);
@@ -222,12 +277,16 @@ public class OmsInsolation extends JGTModel {
 
             int height = demWR.getHeight();
             int width = demWR.getWidth();
-            WritableRaster sOmbraWR = calculateFactor(height, width, sunVector, inverseSunVector, normalSunVector, demWR, dx);
+            if (horizonAngles != null) {
+                horizonAngles.calculateFactor(sunVector, shadow);
+            } else {
+                calculateFactor(height, width, sunVector, inverseSunVector, normalSunVector, dem, dx, shadow, pool, pMaxThreads);
+            }
             double mr = 1 / (sunVector[2] + 0.15 * Math.pow((93.885 - zenith), (-1.253)));
             for( int j = 0; j < height; j++ ) {
                 for( int i = 0; i < width; i++ ) {
                     // evaluate the radiation.
-                    calcRadiation(i, j, demWR, sOmbraWR, insolationWR, sunVector, gradientWR, mr);
+                    calcRadiation(i, j, demWR, shadow[j * width + i], insolationWR, sunVector, gradientWR, mr);
                 }
             }
             hour = hour + Math.PI / 24.0;
@@ -247,7 +306,7 @@ public class OmsInsolation extends JGTModel {
      * evaluate several component of the radiation and then multiply by the
      * sOmbra factor.
      */
-    private void calcRadiation( int i, int j, WritableRaster demWR, WritableRaster sOmbraWR, WritableRaster insolationWR,
+    private void calcRadiation( int i, int j, WritableRaster demWR, double sOmbra, WritableRaster insolationWR,
             double[] sunVector, WritableRaster gradientWR, double mr ) {
         double z = demWR.getSampleDouble(i, j, 0);
         double pressure = ATM * Math.exp(-0.0001184 * z);
@@ -271,7 +330,7 @@ public class OmsInsolation extends JGTModel {
             cosinc = 0;
         }
         double tmp = insolationWR.getSampleDouble(i, j, 0);
-        insolationWR.setSample(i, j, 0, In * cosinc * sOmbraWR.getSampleDouble(i, j, 0) / 1000 + tmp);
+        insolationWR.setSample(i, j, 0, In * cosinc * sOmbra / 1000 + tmp);
     }
 
     protected double[] calcSunVector() {
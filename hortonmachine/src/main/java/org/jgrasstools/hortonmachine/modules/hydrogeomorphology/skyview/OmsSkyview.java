@@ -32,8 +32,12 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSKYVIEW_LABEL
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSKYVIEW_LICENSE;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSKYVIEW_NAME;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSKYVIEW_STATUS;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSKYVIEW_doHorizonCache_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSKYVIEW_inElev_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSKYVIEW_inHorizonFile_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSKYVIEW_outSky_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSKYVIEW_pHorizonSectors_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSSKYVIEW_pMaxThreads_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
@@ -52,8 +56,12 @@ import oms3.annotations.License;
 import oms3.annotations.Name;
 import oms3.annotations.Out;
 import oms3.annotations.Status;
+import oms3.annotations.UI;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.GridCursor;
+import org.jgrasstools.gears.libs.modules.HorizonAngles;
+import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
 import org.jgrasstools.hortonmachine.i18n.HortonMessageHandler;
@@ -71,6 +79,23 @@ public class OmsSkyview extends JGTModel {
     @In
     public GridCoverage2D inElev = null;
 
+    @Description(OMSSKYVIEW_doHorizonCache_DESCRIPTION)
+    @In
+    public boolean doHorizonCache = false;
+
+    @Description(OMSSKYVIEW_pHorizonSectors_DESCRIPTION)
+    @In
+    public int pHorizonSectors = HorizonAngles.DEFAULT_SECTORS;
+
+    @Description(OMSSKYVIEW_inHorizonFile_DESCRIPTION)
+    @UI(JGTConstants.FILEOUT_UI_HINT)
+    @In
+    public String inHorizonFile = null;
+
+    @Description(OMSSKYVIEW_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSSKYVIEW_outSky_DESCRIPTION)
     @Out
     public GridCoverage2D outSky;
@@ -96,13 +121,18 @@ public class OmsSkyview extends JGTModel {
         // extract the raster.
         RenderedImage pitTmpRI = inElev.getRenderedImage();
         WritableRaster pitWR = CoverageUtilities.replaceNovalue(pitTmpRI, -9999.0);
-        pitTmpRI = null;
         minX = pitWR.getMinX();
         minY = pitWR.getMinY();
         rows = pitWR.getHeight();
         cols = pitWR.getWidth();
+        HorizonAngles horizonAngles = null;
+        if (doHorizonCache) {
+            horizonAngles = HorizonAngles.readOrCalculate(inHorizonFile, GridCursor.readElevation(pitTmpRI), cols, rows, dx,
+                    pHorizonSectors, pMaxThreads, pm);
+        }
+        pitTmpRI = null;
 
-        WritableRaster skyWR = skyviewfactor(pitWR, dx);
+        WritableRaster skyWR = skyviewfactor(pitWR, horizonAngles, dx);
 
         int maxY = minY + rows;
         int maxX = minX + cols;
@@ -222,10 +252,11 @@ public class OmsSkyview extends JGTModel {
      * 
      * @param pitWR
      *            the dem ( the map of elevation).
+     * @param horizonAngles the horizon angles of the dem or <code>null</code> to ray trace the shadows.
      * @param res the resolution of the map.
      * @return the map of sky view factor.
      */
-    private WritableRaster skyviewfactor( WritableRaster pitWR, double res ) {
+    private WritableRaster skyviewfactor( WritableRaster pitWR, HorizonAngles horizonAngles, double res ) {
 
         /*
          * evalutating the normal vector (in the center of the square compound
@@ -241,14 +272,18 @@ public class OmsSkyview extends JGTModel {
             azimuth = Math.toRadians(i * 1.0);
             WritableRaster skyViewWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, pitWR.getSampleModel(),
                     Math.toRadians(maxSlope));
-            for( int j = (int) maxSlope; j >= 0; j-- ) {
+            if (horizonAngles != null) {
+                lowestVisibleElevation(horizonAngles, skyViewWR);
+            } else {
+                for( int j = (int) maxSlope; j >= 0; j-- ) {
 
-                elevation = Math.toRadians(j * 1.0);
-                double[] sunVector = calcSunVector();
-                double[] inverseSunVector = calcInverseSunVector(sunVector);
-                double[] normalSunVector = calcNormalSunVector(sunVector);
-                calculateFactor(rows, cols, sunVector, inverseSunVector, normalSunVector, pitWR, skyViewWR, res);
+                    elevation = Math.toRadians(j * 1.0);
+                    double[] sunVector = calcSunVector();
+                    double[] inverseSunVector = calcInverseSunVector(sunVector);
+                    double[] normalSunVector = calcNormalSunVector(sunVector);
+                    calculateFactor(rows, cols, sunVector, inverseSunVector, normalSunVector, pitWR, skyViewWR, res);
 
+                }
             }
             for( int t = normalVectorWR.getMinY(); t < normalVectorWR.getMinY() + normalVectorWR.getHeight(); t++ ) {
                 for( int k = normalVectorWR.getMinX(); k < normalVectorWR.getMinX() + normalVectorWR.getWidth(); k++ ) {
@@ -269,6 +304,40 @@ public class OmsSkyview extends JGTModel {
         return skyviewFactorWR;
     }
 
+    /**
+     * Set the lowest elevation at which the sky is visible in the current azimuth,
+     * looking it up in the horizon angles instead of ray tracing every elevation.
+     *
+     * <p>As in the ray traced version the elevations are taken in degrees steps up
+     * to the max slope and a cell only sees the directions it is facing.</p>
+     *
+     * @param horizonAngles the horizon angles of the dem.
+     * @param skyViewWR the sky map, initialized with the max slope.
+     */
+    private void lowestVisibleElevation( HorizonAngles horizonAngles, WritableRaster skyViewWR ) {
+        int maxElevation = (int) maxSlope;
+        double[][] sunVectors = new double[maxElevation + 1][];
+        for( int j = 0; j <= maxElevation; j++ ) {
+            elevation = Math.toRadians(j * 1.0);
+            sunVectors[j] = calcSunVector();
+        }
+        double[] nGrad = new double[3];
+        for( int y = minY; y < minY + rows; y++ ) {
+            for( int x = minX; x < minX + cols; x++ ) {
+                double horizon = horizonAngles.getHorizon(x - minX, y - minY, azimuth);
+                normalVectorWR.getPixel(x, y, nGrad);
+                for( int j = 0; j <= maxElevation; j++ ) {
+                    double elevRad = Math.toRadians(j * 1.0);
+                    // visible from the horizon up, as in HorizonAngles#isShadowed
+                    if (elevRad >= horizon && scalarProduct(sunVectors[j], nGrad) >= 0) {
+                        skyViewWR.setSample(x, y, 0, elevRad);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Calculate the angle.
      * 
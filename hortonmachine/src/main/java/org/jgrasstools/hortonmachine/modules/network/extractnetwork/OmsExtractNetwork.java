@@ -157,7 +157,7 @@ public class OmsExtractNetwork extends JGTModel {
      */
     private WritableRaster extractNetTcaThreshold( RenderedImage tcaRI ) {
         RandomIter tcaIter = RandomIterFactory.create(tcaRI, null);
-        WritableRaster netWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null, JGTConstants.doubleNovalue);
+        WritableRaster netWR = CoverageUtilities.createFloatWritableRaster(cols, rows, JGTConstants.doubleNovalue);
         WritableRandomIter netIter = RandomIterFactory.createWritable(netWR, null);
 
         pm.beginTask(msg.message("extractnetwork.extracting"), rows); //$NON-NLS-1$
@@ -191,8 +191,7 @@ public class OmsExtractNetwork extends JGTModel {
         RandomIter slopeRandomIter = RandomIterFactory.create(slopeRI, null);
 
         // create new RasterData for the network matrix
-        WritableRaster networkWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null,
-                JGTConstants.doubleNovalue);
+        WritableRaster networkWR = CoverageUtilities.createFloatWritableRaster(cols, rows, JGTConstants.doubleNovalue);
         WritableRandomIter netRandomIter = RandomIterFactory.createWritable(networkWR, null);
 
         pm.beginTask(msg.message("extractnetwork.extracting"), rows); //$NON-NLS-1$
@@ -250,7 +249,7 @@ public class OmsExtractNetwork extends JGTModel {
         RandomIter tcaRandomIter = RandomIterFactory.create(tcaRI, null);
         RandomIter classRandomIter = RandomIterFactory.create(classRI, null);
         RandomIter slopeRandomIter = RandomIterFactory.create(slopeRI, null);
-        WritableRaster netImage = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null, doubleNovalue);
+        WritableRaster netImage = CoverageUtilities.createFloatWritableRaster(cols, rows, doubleNovalue);
 
         // try the operation!!
 
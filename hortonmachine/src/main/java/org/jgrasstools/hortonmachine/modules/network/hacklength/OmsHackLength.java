@@ -54,6 +54,8 @@ import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.jgrasstools.gears.libs.modules.Direction;
+import org.jgrasstools.gears.libs.modules.FlowAccumulationEngine;
+import org.jgrasstools.gears.libs.modules.FlowCursor;
 import org.jgrasstools.gears.libs.modules.FlowNode;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.libs.modules.Node;
@@ -115,8 +117,8 @@ public class OmsHackLength extends JGTModel {
         RandomIter tcaIter = CoverageUtilities.getRandomIterator(inTca);
 
         RenderedImage flowRI = inFlow.getRenderedImage();
-        WritableRaster flowWR = CoverageUtilities.renderedImage2WritableRaster(flowRI, true);
-        WritableRandomIter flowIter = RandomIterFactory.createWritable(flowWR, null);
+        int[] flow = FlowAccumulationEngine.readFlow(flowRI);
+        FlowCursor.setNovalueBorder(flow, nCols, nRows);
 
         // if inElevation isn't null then work in 3d.
         RandomIter elevIter = null;
@@ -124,17 +126,16 @@ public class OmsHackLength extends JGTModel {
             elevIter = CoverageUtilities.getRandomIterator(inElevation);
         }
 
-        hacklength(flowIter, tcaIter, elevIter);
+        hacklength(flow, tcaIter, elevIter);
 
         tcaIter.done();
-        flowIter.done();
         if (elevIter != null) {
             elevIter.done();
         }
 
     }
 
-    private void hacklength( RandomIter flowIter, RandomIter tcaIter, RandomIter elevIter ) {
+    private void hacklength( int[] flow, RandomIter tcaIter, RandomIter elevIter ) {
 
         double runningDistance = 0.0;
         double maxTca = 0.0;
@@ -142,51 +143,42 @@ public class OmsHackLength extends JGTModel {
         WritableRaster hacklengthWR = CoverageUtilities.createDoubleWritableRaster(nCols, nRows, null, null, doubleNovalue);
         WritableRandomIter hacklengthIter = RandomIterFactory.createWritable(hacklengthWR, null);
 
+        FlowCursor cursor = new FlowCursor(flow, nCols, nRows);
+        int[] enteringBuffer = new int[8];
+
         pm.beginTask(msg.message("hacklength.calculating"), nRows); //$NON-NLS-1$
         for( int r = 0; r < nRows; r++ ) {
             for( int c = 0; c < nCols; c++ ) {
-                FlowNode flowNode = new FlowNode(flowIter, nCols, nRows, c, r);
-                if (flowNode.isSource() && !flowNode.isHeadingOutside()) {
+                cursor.moveTo(c, r);
+                if (cursor.isSource() && !cursor.isHeadingOutside()) {
                     runningDistance = 0;
-                    flowNode.setValueInMap(hacklengthIter, runningDistance);
+                    hacklengthIter.setSample(c, r, 0, runningDistance);
 
                     maxTca = 1;
 
-                    FlowNode oldNode = flowNode;
-                    FlowNode runningNode = oldNode.goDownstream();
-                    while( runningNode != null && runningNode.isValid() && !runningNode.isMarkedAsOutlet() ) {
+                    int oldFlow = cursor.getFlow();
+                    int oldCol = c;
+                    int oldRow = r;
+                    boolean moved = cursor.goDownstream();
+                    while( moved && !cursor.isMarkedAsOutlet() ) {
 
-                        boolean isMax = tcaMax(runningNode, tcaIter, hacklengthIter, maxTca, runningDistance);
+                        boolean isMax = tcaMax(cursor, enteringBuffer, tcaIter, hacklengthIter, maxTca, runningDistance);
                         if (isMax) {
-                            double distance = Direction.forFlow((int) oldNode.flow).getDistance(xRes, yRes);
-                            if (elevIter != null) {
-                                double d1 = oldNode.getValueFromMap(elevIter);
-                                double d2 = runningNode.getValueFromMap(elevIter);
-                                double dz = d1 - d2;
-                                runningDistance += sqrt(pow(distance, 2) + pow(dz, 2));
-                            } else {
-                                runningDistance += distance;
-                            }
-                            runningNode.setValueInMap(hacklengthIter, runningDistance);
-
-                            maxTca = runningNode.getValueFromMap(tcaIter);
+                            runningDistance += stepDistance(oldFlow, oldCol, oldRow, cursor, elevIter);
+                            hacklengthIter.setSample(cursor.getCol(), cursor.getRow(), 0, runningDistance);
+
+                            maxTca = tcaIter.getSampleDouble(cursor.getCol(), cursor.getRow(), 0);
                         }
-                        oldNode = runningNode;
-                        runningNode = runningNode.goDownstream();
+                        oldFlow = cursor.getFlow();
+                        oldCol = cursor.getCol();
+                        oldRow = cursor.getRow();
+                        moved = cursor.goDownstream();
                     }
 
-                    if (runningNode != null && runningNode.isMarkedAsOutlet()) {
-                        if (tcaMax(runningNode, tcaIter, hacklengthIter, maxTca, runningDistance)) {
-                            double distance = Direction.forFlow((int) oldNode.flow).getDistance(xRes, yRes);
-                            if (elevIter != null) {
-                                double d1 = oldNode.getValueFromMap(elevIter);
-                                double d2 = runningNode.getValueFromMap(elevIter);
-                                double dz = d1 - d2;
-                                runningDistance += sqrt(pow(distance, 2) + pow(dz, 2));
-                            } else {
-                                runningDistance += distance;
-                            }
-                            runningNode.setValueInMap(hacklengthIter, runningDistance);
+                    if (moved && cursor.isMarkedAsOutlet()) {
+                        if (tcaMax(cursor, enteringBuffer, tcaIter, hacklengthIter, maxTca, runningDistance)) {
+                            runningDistance += stepDistance(oldFlow, oldCol, oldRow, cursor, elevIter);
+                            hacklengthIter.setSample(cursor.getCol(), cursor.getRow(), 0, runningDistance);
                         }
                     }
 
@@ -201,6 +193,43 @@ public class OmsHackLength extends JGTModel {
                 inFlow.getCoordinateReferenceSystem());
     }
 
+    private double stepDistance( int oldFlow, int oldCol, int oldRow, FlowCursor cursor, RandomIter elevIter ) {
+        double distance = Direction.forFlow(oldFlow).getDistance(xRes, yRes);
+        if (elevIter != null) {
+            double d1 = elevIter.getSampleDouble(oldCol, oldRow, 0);
+            double d2 = elevIter.getSampleDouble(cursor.getCol(), cursor.getRow(), 0);
+            double dz = d1 - d2;
+            return sqrt(pow(distance, 2) + pow(dz, 2));
+        }
+        return distance;
+    }
+
+    /**
+     * Allocation free version of {@link #tcaMax(FlowNode, RandomIter, RandomIter, double, double)}.
+     * 
+     * @param cursor the cursor placed on the cell to check.
+     * @param enteringBuffer a buffer of at least 8 elements for the entering cells.
+     */
+    public static boolean tcaMax( FlowCursor cursor, int[] enteringBuffer, RandomIter tcaIter, RandomIter hacklengthIter,
+            double maxTca, double maxDistance ) {
+        int cols = cursor.getCols();
+        int enteringCount = cursor.getEnteringIndexes(enteringBuffer);
+        for( int i = 0; i < enteringCount; i++ ) {
+            int col = enteringBuffer[i] % cols;
+            int row = enteringBuffer[i] / cols;
+            double tca = tcaIter.getSampleDouble(col, row, 0);
+            if (tca >= maxTca) {
+                if (NumericsUtilities.dEq(tca, maxTca)) {
+                    if (hacklengthIter.getSampleDouble(col, row, 0) > maxDistance)
+                        return false;
+                } else
+                    return false;
+            }
+
+        }
+        return true;
+    }
+
     /**
      * Compare two value of tca and distance.
      * 
@@ -31,6 +31,7 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSNETNUMBERING_
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSNETNUMBERING_inTca_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSNETNUMBERING_outBasins_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSNETNUMBERING_outNetnum_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSNETNUMBERING_pMaxThreads_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSNETNUMBERING_pThres_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
@@ -87,6 +88,10 @@ public class OmsNetNumbering extends JGTModel {
     @In
     public double pThres = 0;
 
+    @Description(OMSNETNUMBERING_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSNETNUMBERING_outNetnum_DESCRIPTION)
     @Out
     public GridCoverage2D outNetnum = null;
@@ -111,10 +116,10 @@ public class OmsNetNumbering extends JGTModel {
 
         RandomIter netIter = CoverageUtilities.getRandomIterator(inNet);
 
-        WritableRaster netNumWR = ModelsEngine.netNumbering(inFlow, inNet, inTca, pThres, inPoints, pm);
+        WritableRaster netNumWR = ModelsEngine.netNumbering(inFlow, inNet, inTca, pThres, inPoints, pMaxThreads, pm);
 
         WritableRandomIter netNumIter = RandomIterFactory.createWritable(netNumWR, null);
-        WritableRaster basinWR = ModelsEngine.extractSubbasins(flowIter, netIter, netNumIter, nRows, nCols, pm);
+        WritableRaster basinWR = ModelsEngine.extractSubbasins(flowIter, netIter, netNumIter, nRows, nCols, pMaxThreads, pm);
 
         outNetnum = CoverageUtilities.buildCoverage("netnum", netNumWR, regionMap, inFlow.getCoordinateReferenceSystem());
         outBasins = CoverageUtilities.buildCoverage("subbasins", basinWR, regionMap, inFlow.getCoordinateReferenceSystem());
@@ -40,6 +40,7 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_outGr
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pA_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pIntegralscale_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pMode_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pMaxThreads_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pNug_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pS_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pSemivariogramType_DESCRIPTION;
@@ -52,6 +53,11 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
@@ -195,6 +201,10 @@ public class OmsKriging extends JGTModel {
     @In
     public double pNug;
 
+    @Description(OMSKRIGING_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSKRIGING_outGrid_DESCRIPTION)
     @Out
     public GridCoverage2D outGrid = null;
@@ -404,48 +414,32 @@ public class OmsKriging extends JGTModel {
              */
 
             if (!areAllEquals && n1 > 1) {
-                // pm.beginTask(msg.message("kriging.working"),inInterpolate.size());
+                /*
+                 * The covariance matrix is the same for all the points, so it is
+                 * factorized once. Since it is symmetric, the interpolated value
+                 * (weights times station values) is the known term vector times
+                 * the solution of the system for the station values, and the same
+                 * holds for the sum of the weights: only two systems are solved,
+                 * then each point costs a vector product.
+                 */
+                LinearSystem linearSystem = new LinearSystem(covarianceMatrix);
+                double[] stationValues = new double[n1 + 1];
+                double[] stationOnes = new double[n1 + 1];
+                for( int k = 0; k < n1; k++ ) {
+                    stationValues[k] = hStation[k];
+                    stationOnes[k] = 1.0;
+                }
+                double[] valueFactors = linearSystem.solve(new ColumnVector(stationValues), true).copyValues1D();
+                double[] sumFactors = linearSystem.solve(new ColumnVector(stationOnes), true).copyValues1D();
+
+                Coordinate[] coordinates = new Coordinate[idArray.length];
                 while( idIterator.hasNext() ) {
-                    double sum = 0.;
                     int id = idIterator.next();
                     idArray[j] = id;
-                    Coordinate coordinate = (Coordinate) pointsToInterpolateId2Coordinates.get(id);
-                    xStation[n1] = coordinate.x;
-                    yStation[n1] = coordinate.y;
-                    zStation[n1] = coordinate.z;
-                    /*
-                     * calculating the right hand side of the kriging linear
-                     * system.
-                     */
-                    double[] knownTerm = knownTermsCalculation(xStation, yStation, zStation, n1);
-
-                    /*
-                     * solve the linear system, where the result is the weight.
-                     */
-                    ColumnVector knownTermColumn = new ColumnVector(knownTerm);
-                    LinearSystem linearSystem = new LinearSystem(covarianceMatrix);
-                    ColumnVector solution = linearSystem.solve(knownTermColumn, true);
-                    // Matrix a = new Matrix(covarianceMatrix);
-                    // Matrix b = new Matrix(knownTerm, knownTerm.length);
-                    // Matrix x = a.solve(b);
-                    double[] moltiplicativeFactor = solution.copyValues1D();
-
-                    double h0 = 0.0;
-                    for( int k = 0; k < n1; k++ ) {
-                        h0 = h0 + moltiplicativeFactor[k] * hStation[k];
-                        sum = sum + moltiplicativeFactor[k];
-                    }
-
-                    if (doLogarithmic) {
-                        h0 = Math.exp(h0);
-                    }
-                    result[j] = h0;
+                    coordinates[j] = pointsToInterpolateId2Coordinates.get(id);
                     j++;
-                    if (Math.abs(sum - 1) >= TOLL) {
-                        throw new ModelsRuntimeException("Error in the coffeicients calculation", this.getClass().getSimpleName());
-                    }
-
                 }
+                interpolate(coordinates, xStation, yStation, zStation, n1, valueFactors, sumFactors, result);
             } else if (n1 == 1 || areAllEquals) {
                 double tmp = hStation[0];
                 int k = 0;
@@ -481,6 +475,76 @@ public class OmsKriging extends JGTModel {
         }
     }
 
+    /**
+     * Calculates the interpolated values, splitting the points among {@link #pMaxThreads} threads.
+     * 
+     * @param coordinates the coordinates of the points to interpolate.
+     * @param xStation the x coordinates of the stations.
+     * @param yStation the y coordinates of the stations.
+     * @param zStation the z coordinates of the stations.
+     * @param n the number of the stations.
+     * @param valueFactors the solution of the kriging system for the station values.
+     * @param sumFactors the solution of the kriging system for a vector of ones.
+     * @param result the array in which to put the interpolated values.
+     * @throws Exception
+     */
+    private void interpolate( final Coordinate[] coordinates, final double[] xStation, final double[] yStation,
+            final double[] zStation, final int n, final double[] valueFactors, final double[] sumFactors, final double[] result )
+            throws Exception {
+        int threads = Math.max(1, Math.min(pMaxThreads, coordinates.length));
+        final int chunkSize = (coordinates.length + threads - 1) / threads;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for( int t = 0; t < threads; t++ ) {
+                final int from = t * chunkSize;
+                final int to = Math.min(from + chunkSize, coordinates.length);
+                futures.add(pool.submit(new Callable<Void>(){
+                    public Void call() throws Exception {
+                        double[] knownTerm = new double[n + 1];
+                        for( int i = from; i < to; i++ ) {
+                            Coordinate coordinate = coordinates[i];
+                            /*
+                             * calculating the right hand side of the kriging linear
+                             * system.
+                             */
+                            knownTermsCalculation(xStation, yStation, zStation, n, coordinate.x, coordinate.y, coordinate.z,
+                                    knownTerm);
+                            double h0 = 0.0;
+                            double sum = 0.0;
+                            for( int k = 0; k <= n; k++ ) {
+                                h0 = h0 + knownTerm[k] * valueFactors[k];
+                                sum = sum + knownTerm[k] * sumFactors[k];
+                            }
+                            if (doLogarithmic) {
+                                h0 = Math.exp(h0);
+                            }
+                            result[i] = h0;
+                            if (Math.abs(sum - 1) >= TOLL) {
+                                throw new ModelsRuntimeException("Error in the coffeicients calculation", OmsKriging.this
+                                        .getClass().getSimpleName());
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     /**
      * Verify the input of the model.
      */
@@ -781,30 +845,34 @@ public class OmsKriging extends JGTModel {
      *            the z coordinates.
      * @param n
      *            the number of the stations points.
-     * @return
+     * @param px
+     *            the x coordinate of the point to interpolate.
+     * @param py
+     *            the y coordinate of the point to interpolate.
+     * @param pz
+     *            the z coordinate of the point to interpolate.
+     * @param gamma
+     *            the array of size n + 1 in which to put the known terms.
      */
-    private double[] knownTermsCalculation( double[] x, double[] y, double[] z, int n ) {
-
-        double[] gamma = new double[n + 1];
+    private void knownTermsCalculation( double[] x, double[] y, double[] z, int n, double px, double py, double pz,
+            double[] gamma ) {
         if (defaultVariogramMode == 0) {
             for( int i = 0; i < n; i++ ) {
-                double rx = x[i] - x[n];
-                double ry = y[i] - y[n];
-                double rz = z[i] - z[n];
+                double rx = x[i] - px;
+                double ry = y[i] - py;
+                double rz = z[i] - pz;
                 gamma[i] = variogram(rx, ry, rz);
             }
         } else if (defaultVariogramMode == 1) {
             for( int i = 0; i < n; i++ ) {
-                double rx = x[i] - x[n];
-                double ry = y[i] - y[n];
-                double rz = z[i] - z[n];
+                double rx = x[i] - px;
+                double ry = y[i] - py;
+                double rz = z[i] - pz;
                 gamma[i] = variogram(pNug, pA, pS, rx, ry, rz);
             }
 
         }
         gamma[n] = 1.0;
-        return gamma;
-
     }
 
 }
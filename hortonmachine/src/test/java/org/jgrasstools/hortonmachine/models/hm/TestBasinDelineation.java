@@ -0,0 +1,116 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.hortonmachine.models.hm;
+
+import java.awt.image.Raster;
+import java.util.HashMap;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.Variables;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+import org.jgrasstools.hortonmachine.modules.basin.basindelineation.OmsBasinDelineation;
+import org.jgrasstools.hortonmachine.modules.demmanipulation.pitfiller.OmsPitfiller;
+import org.jgrasstools.hortonmachine.modules.geomorphology.draindir.OmsDrainDir;
+import org.jgrasstools.hortonmachine.modules.geomorphology.flow.OmsFlowDirections;
+import org.jgrasstools.hortonmachine.modules.geomorphology.tca.OmsTca;
+import org.jgrasstools.hortonmachine.modules.network.extractnetwork.OmsExtractNetwork;
+import org.jgrasstools.hortonmachine.modules.network.netnumbering.OmsNetNumbering;
+import org.jgrasstools.hortonmachine.utils.HMTestCase;
+import org.jgrasstools.hortonmachine.utils.HMTestMaps;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Test {@link OmsBasinDelineation}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestBasinDelineation extends HMTestCase {
+
+    public void testChainEqualsSingleModules() throws Exception {
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", HMTestMaps.mapData, envelopeParams,
+                crs, true);
+
+        OmsPitfiller pitfiller = new OmsPitfiller();
+        pitfiller.inElev = elevationCoverage;
+        pitfiller.pm = pm;
+        pitfiller.process();
+
+        OmsFlowDirections flowDirections = new OmsFlowDirections();
+        flowDirections.inPit = pitfiller.outPit;
+        flowDirections.pm = pm;
+        flowDirections.process();
+
+        OmsDrainDir drainDir = new OmsDrainDir();
+        drainDir.inPit = pitfiller.outPit;
+        drainDir.inFlow = flowDirections.outFlow;
+        drainDir.pm = pm;
+        drainDir.process();
+
+        OmsTca tca = new OmsTca();
+        tca.inFlow = drainDir.outFlow;
+        tca.pm = pm;
+        tca.process();
+
+        OmsExtractNetwork extractNetwork = new OmsExtractNetwork();
+        extractNetwork.inTca = tca.outTca;
+        extractNetwork.inFlow = drainDir.outFlow;
+        extractNetwork.pMode = Variables.TCA;
+        extractNetwork.pThres = 5;
+        extractNetwork.pm = pm;
+        extractNetwork.process();
+
+        OmsNetNumbering netNumbering = new OmsNetNumbering();
+        netNumbering.inFlow = drainDir.outFlow;
+        netNumbering.inNet = extractNetwork.outNet;
+        netNumbering.pm = pm;
+        netNumbering.process();
+
+        OmsBasinDelineation delineation = new OmsBasinDelineation();
+        delineation.inElev = elevationCoverage;
+        delineation.pThres = 5;
+        delineation.pm = pm;
+        delineation.process();
+
+        // the known results of the first step
+        checkMatrixEqual(delineation.outPit.getRenderedImage(), HMTestMaps.outPitData, 0);
+
+        checkMatrixEqual(delineation.outPit.getRenderedImage(), toMatrix(pitfiller.outPit), 0);
+        checkMatrixEqual(delineation.outFlow.getRenderedImage(), toMatrix(drainDir.outFlow), 0);
+        checkMatrixEqual(delineation.outTca.getRenderedImage(), toMatrix(tca.outTca), 0);
+        checkMatrixEqual(delineation.outNet.getRenderedImage(), toMatrix(extractNetwork.outNet), 0);
+        checkMatrixEqual(delineation.outNetnum.getRenderedImage(), toMatrix(netNumbering.outNetnum), 0);
+        checkMatrixEqual(delineation.outBasins.getRenderedImage(), toMatrix(netNumbering.outBasins), 0);
+
+        // the input is left untouched
+        checkMatrixEqual(elevationCoverage.getRenderedImage(), HMTestMaps.mapData, 0);
+    }
+
+    private double[][] toMatrix( GridCoverage2D coverage ) {
+        Raster raster = coverage.getRenderedImage().getData();
+        double[][] matrix = new double[raster.getHeight()][raster.getWidth()];
+        for( int y = 0; y < matrix.length; y++ ) {
+            for( int x = 0; x < matrix[0].length; x++ ) {
+                matrix[y][x] = raster.getSampleDouble(raster.getMinX() + x, raster.getMinY() + y, 0);
+            }
+        }
+        return matrix;
+    }
+
+}
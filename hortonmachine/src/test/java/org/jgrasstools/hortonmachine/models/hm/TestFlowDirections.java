@@ -50,4 +50,22 @@ public class TestFlowDirections extends HMTestCase {
         checkMatrixEqual(flowCoverage.getRenderedImage(), HMTestMaps.newFlowData, 0);
     }
 
+    public void testFlowParallelFlats() throws Exception {
+        double[][] pitfillerData = HMTestMaps.pitData;
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D pitfillerCoverage = CoverageUtilities.buildCoverage("flow", pitfillerData, envelopeParams, crs, true);
+
+        OmsFlowDirections flowDirections = new OmsFlowDirections();
+        flowDirections.inPit = pitfillerCoverage;
+        flowDirections.pMaxThreads = 3;
+        flowDirections.pm = pm;
+
+        flowDirections.process();
+
+        GridCoverage2D flowCoverage = flowDirections.outFlow;
+
+        checkMatrixEqual(flowCoverage.getRenderedImage(), HMTestMaps.newFlowData, 0);
+    }
+
 }
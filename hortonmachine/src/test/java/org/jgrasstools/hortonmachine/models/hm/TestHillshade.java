@@ -17,6 +17,7 @@
  */
 package org.jgrasstools.hortonmachine.models.hm;
 
+import java.io.File;
 import java.util.HashMap;
 
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -54,4 +55,34 @@ public class TestHillshade extends HMTestCase {
         checkMatrixEqual(hillshadeCoverage.getRenderedImage(), HMTestMaps.outHillshade, 0.1);
     }
 
+    public void testHillshadeHorizonCache() throws Exception {
+
+        double[][] elevationData = HMTestMaps.mapData;
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs3004();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", elevationData, envelopeParams, crs, true);
+
+        File horizonFile = File.createTempFile("jgt-horizon", ".bin");
+        horizonFile.delete();
+        try {
+            // the first run creates the horizon file, the second reads it
+            for( int i = 0; i < 2; i++ ) {
+                OmsHillshade hillshade = new OmsHillshade();
+                hillshade.inElev = elevationCoverage;
+                hillshade.pElev = 45.0;
+                hillshade.pAzimuth = 315;
+                hillshade.doHorizonCache = true;
+                hillshade.inHorizonFile = horizonFile.getAbsolutePath();
+                hillshade.pMaxThreads = 2;
+                hillshade.pm = pm;
+                hillshade.process();
+
+                assertTrue(horizonFile.exists());
+                checkMatrixEqual(hillshade.outHill.getRenderedImage(), HMTestMaps.outHillshade, 0.1);
+            }
+        } finally {
+            horizonFile.delete();
+        }
+    }
+
 }
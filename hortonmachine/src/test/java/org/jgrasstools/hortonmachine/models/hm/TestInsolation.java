@@ -60,4 +60,42 @@ public class TestInsolation extends HMTestCase {
         checkMatrixEqual(insolationCoverage.getRenderedImage(), HMTestMaps.outInsolation, 0.1);
     }
 
+    public void testInsolationMultiThreaded() throws Exception {
+        // large enough for the shadow scanlines to be split among the threads
+        int cols = 200;
+        int rows = 160;
+        double res = 30.0;
+        double[][] elevationData = new double[rows][cols];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                elevationData[r][c] = 1500.0 + 400.0 * Math.sin(c / 17.0) * Math.cos(r / 23.0) + 3.0 * ((r * 31 + c * 17) % 11);
+            }
+        }
+        HashMap<String, Double> envelopeParams = CoverageUtilities.makeRegionParamsMap(5140020.0, 5140020.0 - rows * res,
+                1640650.0, 1640650.0 + cols * res, res, res, cols, rows);
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs3004();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", elevationData, envelopeParams, crs, true);
+
+        double[] single = null;
+        for( int threads : new int[]{1, 3} ) {
+            OmsInsolation insolation = new OmsInsolation();
+            insolation.inElev = elevationCoverage;
+            insolation.tStartDate = START_DATE;
+            insolation.tEndDate = END_DATE;
+            insolation.pMaxThreads = threads;
+            insolation.pm = pm;
+
+            insolation.process();
+
+            double[] values = insolation.outIns.getRenderedImage().getData().getSamples(0, 0, cols, rows, 0, (double[]) null);
+            if (single == null) {
+                single = values;
+            } else {
+                for( int i = 0; i < values.length; i++ ) {
+                    assertEquals("Difference at cell: " + i, single[i], values[i], 0.0);
+                }
+            }
+        }
+    }
+
 }
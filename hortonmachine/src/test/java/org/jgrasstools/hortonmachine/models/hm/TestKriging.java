@@ -1,41 +1,104 @@
-//package org.jgrasstools.hortonmachine.models.hm;
-//
-//import java.awt.geom.Point2D;
-//import java.io.File;
-//import java.net.URL;
-//import java.util.HashMap;
-//import java.util.Iterator;
-//import java.util.Set;
-//
-//import org.geotools.coverage.grid.GridCoverage2D;
-//import org.geotools.coverage.grid.GridGeometry2D;
-//import org.geotools.data.simple.SimpleFeatureCollection;
-//import org.geotools.filter.text.cql2.CQL;
-//import org.geotools.referencing.CRS;
-//import org.jgrasstools.gears.io.rasterreader.OmsRasterReader;
-//import org.jgrasstools.gears.io.rasterwriter.OmsRasterWriter;
-//import org.jgrasstools.gears.io.shapefile.OmsShapefileFeatureReader;
-//import org.jgrasstools.gears.io.timedependent.OmsTimeSeriesIteratorReader;
-//import org.jgrasstools.gears.io.timedependent.OmsTimeSeriesIteratorWriter;
-//import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
-//import org.jgrasstools.hortonmachine.modules.statistics.kriging.OmsKriging;
-//import org.jgrasstools.hortonmachine.utils.HMTestCase;
-//import org.jgrasstools.hortonmachine.utils.HMTestMaps;
-//import org.opengis.feature.simple.SimpleFeature;
-//import org.opengis.filter.Filter;
-//import org.opengis.referencing.crs.CoordinateReferenceSystem;
-//
-//import com.vividsolutions.jts.geom.Coordinate;
-//import com.vividsolutions.jts.geom.Geometry;
-//
-///**
-// * Test the kriging model.
-// * 
-// * @author daniele andreis
-// * 
-// */
-//public class TestKriging extends HMTestCase {
-//
+package org.jgrasstools.hortonmachine.models.hm;
+
+import java.io.File;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.jgrasstools.gears.io.shapefile.OmsShapefileFeatureReader;
+import org.jgrasstools.gears.io.timedependent.OmsTimeSeriesIteratorReader;
+import org.jgrasstools.hortonmachine.modules.statistics.kriging.OmsKriging;
+import org.jgrasstools.hortonmachine.utils.HMTestCase;
+
+/**
+ * Test the kriging model.
+ * 
+ * @author daniele andreis
+ * 
+ */
+public class TestKriging extends HMTestCase {
+
+    /**
+     * The values of the first interpolated points at the first timestep, as in the old testKriging1 below.
+     */
+    private static final double[] EXPECTED_1 = {0.3390869, 0.2556174, 0.2428944, 0.2613782, 0.3112850, 0.2983679,
+            0.3470377, 0.3874065, 0.2820323, 0.1945515, 0.1698022, 0.2405134};
+
+    /**
+     * Run the kriging on the points with one and more threads: the covariance
+     * matrix is factorized once and the points are shared among the threads.
+     */
+    public void testKrigingThreads() throws Exception {
+        URL stazioniUrl = this.getClass().getClassLoader().getResource("rainstations.shp");
+        URL puntiUrl = this.getClass().getClassLoader().getResource("basins_passirio_width0.shp");
+        URL krigingRainUrl = this.getClass().getClassLoader().getResource("rain_test.csv");
+
+        OmsShapefileFeatureReader stationsReader = new OmsShapefileFeatureReader();
+        stationsReader.file = new File(stazioniUrl.toURI()).getAbsolutePath();
+        stationsReader.readFeatureCollection();
+        SimpleFeatureCollection stationsFC = stationsReader.geodata;
+
+        OmsShapefileFeatureReader interpolatedPointsReader = new OmsShapefileFeatureReader();
+        interpolatedPointsReader.file = new File(puntiUrl.toURI()).getAbsolutePath();
+        interpolatedPointsReader.readFeatureCollection();
+        SimpleFeatureCollection interpolatedPointsFC = interpolatedPointsReader.geodata;
+
+        OmsTimeSeriesIteratorReader reader = new OmsTimeSeriesIteratorReader();
+        reader.file = new File(krigingRainUrl.toURI()).getAbsolutePath();
+        reader.idfield = "ID";
+        reader.tStart = "2000-01-01 00:00";
+        reader.tTimestep = 60;
+        reader.fileNovalue = "-9999";
+        reader.initProcess();
+
+        try {
+            int timestep = 0;
+            while( reader.doProcess ) {
+                reader.nextRecord();
+                HashMap<Integer, double[]> single = null;
+                for( int threads = 1; threads <= 3; threads += 2 ) {
+                    OmsKriging kriging = new OmsKriging();
+                    kriging.pm = pm;
+                    kriging.inStations = stationsFC;
+                    kriging.fStationsid = "ID_PUNTI_M";
+                    kriging.inInterpolate = interpolatedPointsFC;
+                    kriging.fInterpolateid = "netnum";
+                    kriging.doLogarithmic = false;
+                    kriging.defaultVariogramMode = 1;
+                    kriging.pA = 123537.0;
+                    kriging.pNug = 0.0;
+                    kriging.pS = 1.678383;
+                    kriging.pMode = 0;
+                    kriging.pSemivariogramType = 1;
+                    kriging.pMaxThreads = threads;
+                    kriging.inData = reader.outData;
+                    kriging.process();
+
+                    HashMap<Integer, double[]> result = kriging.outData;
+                    if (single == null) {
+                        single = result;
+                        if (timestep == 0) {
+                            Iterator<Integer> idIterator = result.keySet().iterator();
+                            for( int j = 0; j < EXPECTED_1.length && idIterator.hasNext(); j++ ) {
+                                assertEquals(EXPECTED_1[j], result.get(idIterator.next())[0], 0.001);
+                            }
+                        }
+                    } else {
+                        assertEquals(single.size(), result.size());
+                        for( Integer id : single.keySet() ) {
+                            assertEquals(single.get(id)[0], result.get(id)[0], 0.0);
+                        }
+                    }
+                }
+                timestep++;
+            }
+            assertTrue(timestep > 0);
+        } finally {
+            reader.close();
+        }
+    }
+
 //    private File stazioniFile;
 //    private File puntiFile;
 //    private File krigingRainFile;
@@ -675,3 +738,4 @@
 //    }
 //
 //}
+}
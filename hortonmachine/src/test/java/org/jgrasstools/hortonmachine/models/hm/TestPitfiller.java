@@ -19,10 +19,15 @@ package org.jgrasstools.hortonmachine.models.hm;
 
 import java.util.HashMap;
 
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.monitor.PrintStreamProgressMonitor;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
 import org.jgrasstools.hortonmachine.modules.demmanipulation.pitfiller.OmsPitfiller;
+import org.jgrasstools.hortonmachine.modules.demmanipulation.pitfiller.PriorityFloodFiller;
 import org.jgrasstools.hortonmachine.utils.HMTestCase;
 import org.jgrasstools.hortonmachine.utils.HMTestMaps;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -49,4 +54,75 @@ public class TestPitfiller extends HMTestCase {
 
         checkMatrixEqual(pitfillerCoverage.getRenderedImage(), HMTestMaps.outPitData, 0);
     }
+
+    public void testPitfillerPriorityFlood() throws Exception {
+        double[][] elevationData = HMTestMaps.mapData;
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", elevationData, envelopeParams, crs, true);
+
+        for( int threads = 1; threads <= 2; threads++ ) {
+            OmsPitfiller pitfiller = new OmsPitfiller();
+            pitfiller.inElev = elevationCoverage;
+            pitfiller.doPriorityFlood = true;
+            pitfiller.pMaxThreads = threads;
+            pitfiller.pm = pm;
+            pitfiller.process();
+
+            // same surface of the flooding, but novalues are kept as such
+            RandomIter pitIter = RandomIterFactory.create(pitfiller.outPit.getRenderedImage(), null);
+            for( int r = 0; r < elevationData.length; r++ ) {
+                for( int c = 0; c < elevationData[0].length; c++ ) {
+                    double value = pitIter.getSampleDouble(c, r, 0);
+                    if (JGTConstants.isNovalue(elevationData[r][c])) {
+                        assertTrue(JGTConstants.isNovalue(value));
+                    } else {
+                        assertEquals(HMTestMaps.outPitData[r][c], value, 0.0);
+                    }
+                }
+            }
+            pitIter.done();
+        }
+
+        OmsPitfiller pitfiller = new OmsPitfiller();
+        pitfiller.inElev = elevationCoverage;
+        pitfiller.doPriorityFlood = true;
+        pitfiller.doEpsilon = true;
+        pitfiller.pm = pm;
+        pitfiller.process();
+        RandomIter pitIter = RandomIterFactory.create(pitfiller.outPit.getRenderedImage(), null);
+        for( int r = 0; r < elevationData.length; r++ ) {
+            for( int c = 0; c < elevationData[0].length; c++ ) {
+                if (!JGTConstants.isNovalue(elevationData[r][c])) {
+                    assertEquals(HMTestMaps.outPitData[r][c], pitIter.getSampleDouble(c, r, 0), 1E-6);
+                }
+            }
+        }
+        pitIter.done();
+    }
+
+    public void testPriorityFloodTiles() throws Exception {
+        double[][] elevationData = HMTestMaps.mapData;
+        int rows = elevationData.length;
+        int cols = elevationData[0].length;
+        double[] elevation = new double[rows * cols];
+        for( int r = 0; r < rows; r++ ) {
+            System.arraycopy(elevationData[r], 0, elevation, r * cols, cols);
+        }
+        double[] expected = new PriorityFloodFiller(elevation.clone(), cols, rows, pm).fill(false);
+
+        // tiles much smaller than the map, so that the depressions cross the tile borders
+        for( int tileSize = 2; tileSize <= 4; tileSize++ ) {
+            for( int threads = 1; threads <= 3; threads += 2 ) {
+                double[] tiled = new PriorityFloodFiller(elevation.clone(), cols, rows, pm).fillTiled(tileSize, threads);
+                for( int i = 0; i < expected.length; i++ ) {
+                    if (JGTConstants.isNovalue(expected[i])) {
+                        assertTrue(JGTConstants.isNovalue(tiled[i]));
+                    } else {
+                        assertEquals(expected[i], tiled[i], 0.0);
+                    }
+                }
+            }
+        }
+    }
 }
@@ -17,9 +17,15 @@
  */
 package org.jgrasstools.hortonmachine.models.hm;
 
+import static java.lang.Double.NaN;
+
+import java.awt.image.WritableRaster;
 import java.util.HashMap;
 
+import javax.media.jai.iterator.RandomIter;
+
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.libs.modules.ModelsEngine;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
 import org.jgrasstools.hortonmachine.modules.statistics.sumdownstream.OmsSumDownStream;
 import org.jgrasstools.hortonmachine.utils.HMTestCase;
@@ -64,4 +70,53 @@ public class TestSumDownStream extends HMTestCase {
         checkMatrixEqual(summedCoverage.getRenderedImage(), HMTestMaps.sumDownstreamThresData, 0.01);
     }
 
+    public void testSumDownstreamThresholds() throws Exception {
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        int cols = HMTestMaps.flowData[0].length;
+        int rows = HMTestMaps.flowData.length;
+
+        double N = NaN;
+        // 5 is above the upper threshold and 0 is on the lower one, they stop the flow
+        double[][] toSumData = new double[][]{//
+        /*    */{N, N, N, N, N, N, N, N, N, N}, //
+                {N, 1, 1, 1, 1, 1, 1, 1, 1, N}, //
+                {N, 1, 1, 1, 1, 5, 1, 1, 1, N}, //
+                {N, 1, 1, 1, 1, 1, 1, 1, 1, N}, //
+                {N, 1, 1, 1, 1, 1, 5, 1, 1, N}, //
+                {N, 1, 1, 0, 1, 1, 1, 1, 1, N}, //
+                {N, 1, 1, 1, 1, 1, 1, 1, 1, N}, //
+                {N, N, N, N, N, N, N, N, N, N} //
+        };
+        // the values of the downstream walk of the cells, the cells that stop the flow are novalue
+        double[][] expectedData = new double[][]{//
+        /*    */{N, N, N, N, N, N, N, N, N, N}, //
+                {N, N, 1, 1, 1, 1, 1, 1, 1, N}, //
+                {N, 2, 2, 2, 2, N, 2, 2, 1, N}, //
+                {N, 31, 3, 3, 1, 3, 1, 5, 2, N}, //
+                {N, 1, 22, 17, 9, 4, N, 5, 2, N}, //
+                {N, 2, 2, N, 3, 1, 2, 2, 1, N}, //
+                {N, 1, 1, 1, 1, 2, 1, 1, 1, N}, //
+                {N, N, N, N, N, N, N, N, N, N} //
+        };
+
+        GridCoverage2D flowCoverage = CoverageUtilities.buildCoverage("flow", HMTestMaps.flowData, envelopeParams, crs, true); //$NON-NLS-1$
+        GridCoverage2D toSumCoverage = CoverageUtilities.buildCoverage("tosum", toSumData, envelopeParams, crs, true); //$NON-NLS-1$
+        RandomIter flowIter = CoverageUtilities.getRandomIterator(flowCoverage);
+        RandomIter toSumIter = CoverageUtilities.getRandomIterator(toSumCoverage);
+        WritableRaster summedWR = ModelsEngine.sumDownstream(flowIter, toSumIter, cols, rows, 3.0, 0.0, pm);
+        GridCoverage2D summedCoverage = CoverageUtilities.buildCoverage("summed", summedWR, envelopeParams, crs); //$NON-NLS-1$
+        checkMatrixEqual(summedCoverage.getRenderedImage(), expectedData, 0.0);
+
+        // a summed cell that can't go downstream
+        double[][] invalidFlowData = new double[rows][];
+        for( int r = 0; r < rows; r++ ) {
+            invalidFlowData[r] = HMTestMaps.flowData[r].clone();
+        }
+        invalidFlowData[3][2] = 0;
+        flowCoverage = CoverageUtilities.buildCoverage("flow", invalidFlowData, envelopeParams, crs, true); //$NON-NLS-1$
+        flowIter = CoverageUtilities.getRandomIterator(flowCoverage);
+        assertNull(ModelsEngine.sumDownstream(flowIter, toSumIter, cols, rows, 3.0, 0.0, pm));
+    }
+
 }
@@ -17,6 +17,8 @@
  */
 package org.jgrasstools.hortonmachine.models.hm;
 
+import static java.lang.Double.NaN;
+
 import java.util.HashMap;
 
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -68,4 +70,56 @@ public class TestTca extends HMTestCase {
         checkMatrixEqual(tcaCoverage.getRenderedImage(), HMTestMaps.tcaData);
     }
 
+    public void testNewTcaParallel() throws Exception {
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+
+        double[][] flowData = HMTestMaps.flowData;
+        GridCoverage2D flowCoverage = CoverageUtilities.buildCoverage("flow", flowData, envelopeParams, crs, true);
+
+        OmsTca tca = new OmsTca();
+        tca.inFlow = flowCoverage;
+        tca.pMaxThreads = 3;
+        tca.pm = pm;
+        tca.process();
+        GridCoverage2D tcaCoverage = tca.outTca;
+
+        checkMatrixEqual(tcaCoverage.getRenderedImage(), HMTestMaps.tcaData);
+    }
+
+    public void testNewTcaLoop() throws Exception {
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+
+        double[][] flowData = new double[HMTestMaps.flowData.length][];
+        for( int r = 0; r < flowData.length; r++ ) {
+            flowData[r] = HMTestMaps.flowData[r].clone();
+        }
+        // the cells at col 3 and 4 of row 4 flow into each other
+        flowData[4][3] = 1;
+        GridCoverage2D flowCoverage = CoverageUtilities.buildCoverage("flow", flowData, envelopeParams, crs, true);
+
+        double N = NaN;
+        // the loop is novalue, the cells upstream of it keep their partial tca
+        double[][] expectedData = new double[][]{//
+        /*    */{N, N, N, N, N, N, N, N, N, N}, //
+                {N, N, 1, 1, 1, 1, 1, 1, 1, N}, //
+                {N, 2, 2, 2, 2, 2, 2, 2, 1, N}, //
+                {N, 14, 3, 3, 3, 3, 1, 5, 2, N}, //
+                {N, 1, 5, N, N, 15, 11, 5, 2, N}, //
+                {N, 2, 2, 2, 3, 1, 2, 2, 1, N}, //
+                {N, 1, 1, 1, 1, 2, 1, 1, 1, N}, //
+                {N, N, N, N, N, N, N, N, N, N} //
+        };
+
+        for( int threads : new int[]{1, 3} ) {
+            OmsTca tca = new OmsTca();
+            tca.inFlow = flowCoverage;
+            tca.pMaxThreads = threads;
+            tca.pm = pm;
+            tca.process();
+            checkMatrixEqual(tca.outTca.getRenderedImage(), expectedData);
+        }
+    }
+
 }
\ No newline at end of file
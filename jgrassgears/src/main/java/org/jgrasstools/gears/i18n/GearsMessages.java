@@ -1495,6 +1495,7 @@ public class GearsMessages {
     public static final String OMSTIMESERIESITERATORREADER_tStart_DESCRIPTION = "The optional time at which start to read (format: yyyy-MM-dd HH:mm ).";
     public static final String OMSTIMESERIESITERATORREADER_tEnd_DESCRIPTION = "The optional time at which end to read (format: yyyy-MM-dd HH:mm ).";
     public static final String OMSTIMESERIESITERATORREADER_tTimestep_DESCRIPTION = "The reading timestep in minutes.";
+    public static final String OMSTIMESERIESITERATORREADER_doReuse_DESCRIPTION = "Reuse the output map and its arrays between timesteps (the values of the previous timestep are overwritten).";
 
     public static final String OMSPOINTDIRECTIONCALCULATOR_DESCRIPTION = "Calculates the direction of maximum slope for a source point on a dem.";
     public static final String OMSPOINTDIRECTIONCALCULATOR_DOCUMENTATION = "";
@@ -28,8 +28,11 @@ import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
 import org.jgrasstools.gears.io.las.core.LasRecord;
 import org.jgrasstools.gears.io.las.index.LasIndexer;
+import org.jgrasstools.gears.io.las.utils.LasGeometryMask;
+import org.jgrasstools.gears.io.las.utils.LasGroundNormalizer;
 import org.jgrasstools.gears.utils.geometry.GeometryUtilities;
 import org.jgrasstools.gears.utils.math.NumericsUtilities;
 import org.opengis.feature.simple.SimpleFeature;
@@ -129,6 +132,22 @@ public abstract class ALasDataManager implements AutoCloseable {
      */
     public abstract List<LasRecord> getPointsInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception;
 
+    /**
+     * Stream the points inside a given geometry boundary to a visitor.
+     *
+     * <p>Contrary to {@link #getPointsInGeometry(Geometry, boolean)} no list of records
+     * is created: the points are read in batches, the constraints and the elevation
+     * threshold are applied on the batch columns and only the accepted points are
+     * handed to the visitor.</p>
+     *
+     * @param checkGeom the {@link com.vividsolutions.jts.geom.Geometry} to use to check.
+     * @param doOnlyEnvelope check for the geom envelope instead of a intersection with it.
+     * @param visitor the visitor of the accepted points.
+     * @throws Exception
+     */
+    public abstract void visitPointsInGeometry( Geometry checkGeom, boolean doOnlyEnvelope, ILasPointsVisitor visitor )
+            throws Exception;
+
     /**
      * Retrieve all the trees envelopes that intersect the geometry.
      *
@@ -302,6 +321,96 @@ public abstract class ALasDataManager implements AutoCloseable {
         return true;
     }
 
+    /**
+     * Check a point of a batch for constraints.
+     *
+     * <p>This is the same as {@link #doAccept(LasRecord)}, but works on the columns
+     * of the batch, so that rejected points are never turned into records.</p>
+     *
+     * @param batch the batch of points.
+     * @param i the position of the point in the batch.
+     * @return <code>true</code> if the point is accepted.
+     */
+    protected boolean doAccept( LasPointBatch batch, int i ) {
+        if (!hasConstraint) {
+            return true;
+        }
+        if (intensityRange != null) {
+            short intensity = batch.intensity[i];
+            if (intensity < intensityRange[0] || intensity > intensityRange[1]) {
+                return false;
+            }
+        }
+        if (impulses != null) {
+            int impulse = batch.returnNumber[i];
+            boolean takeIt = false;
+            for( final double imp : impulses ) {
+                if (impulse == (int) imp) {
+                    takeIt = true;
+                    break;
+                }
+            }
+            if (!takeIt)
+                return false;
+        }
+        if (impulsesNum != -1) {
+            int numOfReturns = batch.numberOfReturns[i];
+            if (numOfReturns != (int) impulsesNum) {
+                return false;
+            }
+        }
+        if (classes != null) {
+            int classification = batch.classification[i];
+            for( final double classs : classes ) {
+                if (classification == (int) classs) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compacts a batch to the points that pass the constraints and lie in the query area.
+     *
+     * <p>If a ground normalizer is supplied, the height over the dem is set as ground elevation and
+     * the points not above the threshold or over novalues are dropped.</p>
+     *
+     * @param batch the batch to filter.
+     * @param env the envelope of the query.
+     * @param geometryMask the geometry of the query or <code>null</code> to check only the envelope.
+     * @param groundNormalizer the optional normalizer on the dem.
+     * @param elevThreshold the elevation threshold.
+     * @return the number of points left in the batch.
+     */
+    protected int filterInGeometry( LasPointBatch batch, Envelope env, LasGeometryMask geometryMask,
+            LasGroundNormalizer groundNormalizer, double elevThreshold ) {
+        int kept = 0;
+        for( int i = 0; i < batch.size; i++ ) {
+            if (!doAccept(batch, i)) {
+                continue;
+            }
+            double x = batch.x[i];
+            double y = batch.y[i];
+            if (!env.contains(x, y)) {
+                continue;
+            }
+            if (geometryMask != null && !geometryMask.contains(x, y)) {
+                continue;
+            }
+            if (kept != i) {
+                batch.copy(i, kept);
+            }
+            kept++;
+        }
+        batch.size = kept;
+        if (groundNormalizer != null && kept > 0) {
+            kept = groundNormalizer.normalize(batch, elevThreshold);
+        }
+        return kept;
+    }
+
     /**
      * Extracts the points contained inside a vertical range from the supplied list of points.
      *
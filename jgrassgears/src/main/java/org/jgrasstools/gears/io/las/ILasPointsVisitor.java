@@ -0,0 +1,42 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.io.las;
+
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
+
+/**
+ * A visitor of the points streamed by {@link ALasDataManager#visitPointsInGeometry(com.vividsolutions.jts.geom.Geometry, boolean, ILasPointsVisitor)}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public interface ILasPointsVisitor {
+
+    /**
+     * Visit a batch of points.
+     *
+     * <p>The batch contains only points that passed all the constraints and, if a dem
+     * is used, carry their {@link LasPointBatch#groundElevation}. It is reused for the
+     * next points, so values that have to be kept need to be copied.</p>
+     *
+     * @param batch the batch of points.
+     * @throws Exception
+     */
+    public void visit( LasPointBatch batch ) throws Exception;
+
+}
@@ -18,7 +18,9 @@
 package org.jgrasstools.gears.io.las;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -30,12 +32,15 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.jgrasstools.gears.io.las.core.ALasReader;
 import org.jgrasstools.gears.io.las.core.ILasHeader;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
 import org.jgrasstools.gears.io.las.core.LasRecord;
+import org.jgrasstools.gears.io.las.core.v_1_0.LasConcurrentReader;
 import org.jgrasstools.gears.io.las.index.LasIndexer;
 import org.jgrasstools.gears.io.las.index.OmsLasIndexReader;
+import org.jgrasstools.gears.io.las.utils.LasGeometryMask;
+import org.jgrasstools.gears.io.las.utils.LasGroundNormalizer;
 import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.utils.CrsUtilities;
-import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -44,8 +49,6 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.geom.prep.PreparedGeometry;
-import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 import com.vividsolutions.jts.index.strtree.STRtree;
 
 /**
@@ -54,8 +57,14 @@ import com.vividsolutions.jts.index.strtree.STRtree;
  * @author Andrea Antonello (www.hydrologis.com)
  */
 class LasFileDataManager extends ALasDataManager {
+    /**
+     * The average number of points of a cell of the {@link PointsGrid}.
+     */
+    private static final int POINTS_PER_CELL = 256;
+
     private File lasFile;
     private GridCoverage2D inDem;
+    private LasGroundNormalizer groundNormalizer;
     private double elevThreshold;
 
     private SimpleFeatureCollection overviewFeatures;
@@ -67,6 +76,8 @@ class LasFileDataManager extends ALasDataManager {
     private ILasHeader lasHeader;
     private boolean isOpen;
     private STRtree pointsTree;
+    private PointsGrid pointsGrid;
+    private LasConcurrentReader concurrentReader;
 
     /**
      * Constructor.
@@ -79,6 +90,9 @@ class LasFileDataManager extends ALasDataManager {
     LasFileDataManager( File lasFile, GridCoverage2D inDem, double elevThreshold, CoordinateReferenceSystem inCrs ) {
         this.lasFile = lasFile;
         this.inDem = inDem;
+        if (inDem != null) {
+            groundNormalizer = new LasGroundNormalizer(inDem);
+        }
         this.elevThreshold = elevThreshold;
 
         fileNamesList.add(lasFile.getName());
@@ -125,16 +139,15 @@ class LasFileDataManager extends ALasDataManager {
         Envelope checkEnvelope = checkGeom.getEnvelopeInternal();
         if (pointsTree != null) {
             List<LasRecord> pointsList = pointsTree.query(checkEnvelope);
-            PreparedGeometry preparedGeometry = null;
+            LasGeometryMask geometryMask = null;
             if (!doOnlyEnvelope) {
-                preparedGeometry = PreparedGeometryFactory.prepare(checkGeom);
+                geometryMask = new LasGeometryMask(checkGeom);
             }
             for( LasRecord lasDot : pointsList ) {
-                Coordinate c = new Coordinate(lasDot.x, lasDot.y);
-                if (!checkEnvelope.contains(c)) {
+                if (!checkEnvelope.contains(lasDot.x, lasDot.y)) {
                     continue;
                 }
-                if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
+                if (!doOnlyEnvelope && !geometryMask.contains(lasDot.x, lasDot.y)) {
                     continue;
                 }
                 pointsListForTile.add(lasDot);
@@ -144,61 +157,167 @@ class LasFileDataManager extends ALasDataManager {
             ReferencedEnvelope overallEnvelope = getOverallEnvelope();
             if (doOnlyEnvelope && checkEnvelope.covers(overallEnvelope)) {
                 // read it straight
-                while( lasReader.hasNextPoint() ) {
-                    LasRecord lasDot = lasReader.getNextPoint();
-                    if (!doAccept(lasDot)) {
-                        continue;
+                LasPointBatch batch = new LasPointBatch();
+                while( lasReader.readNextBatch(batch) > 0 ) {
+                    for( int i = 0; i < batch.size; i++ ) {
+                        if (!doAccept(batch, i)) {
+                            continue;
+                        }
+                        LasRecord lasDot = batch.toLasRecord(i);
+                        pointsTree.insert(new Envelope(new Coordinate(lasDot.x, lasDot.y)), lasDot);
+                        pointsListForTile.add(lasDot);
                     }
-                    pointsTree.insert(new Envelope(new Coordinate(lasDot.x, lasDot.y)), lasDot);
-                    pointsListForTile.add(lasDot);
                 }
             } else {
 
                 Envelope env = checkGeom.getEnvelopeInternal();
-                PreparedGeometry preparedGeometry = null;
+                LasGeometryMask geometryMask = null;
                 if (!doOnlyEnvelope) {
-                    preparedGeometry = PreparedGeometryFactory.prepare(checkGeom);
+                    geometryMask = new LasGeometryMask(checkGeom);
                 }
 
-                while( lasReader.hasNextPoint() ) {
-                    LasRecord lasDot = lasReader.getNextPoint();
-                    if (!doAccept(lasDot)) {
-                        continue;
-                    }
-                    Coordinate c = new Coordinate(lasDot.x, lasDot.y);
-                    pointsTree.insert(new Envelope(c), lasDot);
-                    if (!env.contains(c)) {
-                        continue;
-                    }
-
-                    if (inDem != null) {
-                        // check geom instead of only envelope?
-                        if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
+                LasPointBatch batch = new LasPointBatch();
+                while( lasReader.readNextBatch(batch) > 0 ) {
+                    for( int i = 0; i < batch.size; i++ ) {
+                        if (!doAccept(batch, i)) {
                             continue;
                         }
-                        double value = CoverageUtilities.getValue(inDem, lasDot.x, lasDot.y);
-                        if (JGTConstants.isNovalue(value)) {
+                        LasRecord lasDot = batch.toLasRecord(i);
+                        Coordinate c = new Coordinate(lasDot.x, lasDot.y);
+                        pointsTree.insert(new Envelope(c), lasDot);
+                        if (!env.contains(c)) {
                             continue;
                         }
-                        double height = lasDot.z - value;
-                        if (height > elevThreshold) {
-                            lasDot.groundElevation = height;
+
+                        if (groundNormalizer != null) {
+                            // check geom instead of only envelope?
+                            if (!doOnlyEnvelope && !geometryMask.contains(lasDot.x, lasDot.y)) {
+                                continue;
+                            }
+                            double value = groundNormalizer.getValue(lasDot.x, lasDot.y);
+                            if (JGTConstants.isNovalue(value)) {
+                                continue;
+                            }
+                            double height = lasDot.z - value;
+                            if (height > elevThreshold) {
+                                lasDot.groundElevation = height;
+                                pointsListForTile.add(lasDot);
+                            }
+                        } else {
+                            if (!doOnlyEnvelope && !geometryMask.contains(lasDot.x, lasDot.y)) {
+                                continue;
+                            }
                             pointsListForTile.add(lasDot);
                         }
-                    } else {
-                        if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
-                            continue;
-                        }
-                        pointsListForTile.add(lasDot);
                     }
                 }
 
             }
-            close();
+            closeReader();
         }
         return pointsListForTile;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The first call reads the file to build a grid of the point positions, which
+     * is kept until {@link #close()}. The queries then read only the points of the
+     * grid cells that intersect the geometry, in file order. Uncompressed las files
+     * are memory mapped for that, no object is created per point.</p>
+     */
+    @Override
+    public synchronized void visitPointsInGeometry( Geometry checkGeom, boolean doOnlyEnvelope, ILasPointsVisitor visitor )
+            throws Exception {
+        Envelope env = checkGeom.getEnvelopeInternal();
+        LasGeometryMask geometryMask = null;
+        if (!doOnlyEnvelope) {
+            geometryMask = new LasGeometryMask(checkGeom);
+        }
+
+        PointsGrid grid = checkGrid();
+        if (grid == null) {
+            // too many points for the grid, read the file straight
+            checkOpen();
+            try {
+                LasPointBatch batch = new LasPointBatch();
+                while( lasReader.readNextBatch(batch) > 0 ) {
+                    if (filterInGeometry(batch, env, geometryMask, groundNormalizer, elevThreshold) > 0) {
+                        visitor.visit(batch);
+                    }
+                }
+            } finally {
+                closeReader();
+            }
+            return;
+        }
+
+        int[] positions = grid.query(env);
+        LasPointBatch batch = new LasPointBatch();
+        int capacity = batch.getCapacity();
+        for( int position : positions ) {
+            if (concurrentReader != null) {
+                concurrentReader.readPoint(position, batch, batch.size);
+            } else {
+                checkOpen();
+                batch.set(batch.size, lasReader.getPointAt(position), position);
+            }
+            batch.size++;
+            if (batch.size == capacity) {
+                if (filterInGeometry(batch, env, geometryMask, groundNormalizer, elevThreshold) > 0) {
+                    visitor.visit(batch);
+                }
+                batch.size = 0;
+            }
+        }
+        if (batch.size > 0 && filterInGeometry(batch, env, geometryMask, groundNormalizer, elevThreshold) > 0) {
+            visitor.visit(batch);
+        }
+    }
+
+    /**
+     * Build the grid of the point positions the first time.
+     *
+     * @return the grid or <code>null</code> if the file has too many points to be indexed.
+     * @throws Exception
+     */
+    private PointsGrid checkGrid() throws Exception {
+        if (pointsGrid == null) {
+            checkOpen();
+            if (lasHeader.getRecordsCount() > Integer.MAX_VALUE) {
+                return null;
+            }
+            PointsGrid grid = new PointsGrid(getOverallEnvelope(), lasHeader.getRecordsCount());
+            LasPointBatch batch = new LasPointBatch();
+            try {
+                while( lasReader.readNextBatch(batch) > 0 ) {
+                    for( int i = 0; i < batch.size; i++ ) {
+                        grid.count(batch.x[i], batch.y[i]);
+                    }
+                }
+                grid.allocate();
+                closeReader();
+                open();
+                int position = 0;
+                while( lasReader.readNextBatch(batch) > 0 ) {
+                    for( int i = 0; i < batch.size; i++ ) {
+                        grid.add(batch.x[i], batch.y[i], position++);
+                    }
+                }
+                if (position != grid.size()) {
+                    throw new IOException("The las file changed while it was indexed.");
+                }
+            } finally {
+                closeReader();
+            }
+            if (lasFile.getName().toLowerCase().endsWith(".las")) {
+                concurrentReader = new LasConcurrentReader(lasFile, crs);
+            }
+            pointsGrid = grid;
+        }
+        return pointsGrid;
+    }
+
     @Override
     public synchronized List<Geometry> getEnvelopesInGeometry( Geometry checkGeom, boolean doOnlyEnvelope, double[] minMaxZ )
             throws Exception {
@@ -272,11 +391,124 @@ class LasFileDataManager extends ALasDataManager {
         }
     }
 
-    @Override
-    public void close() throws Exception {
+    private void closeReader() throws Exception {
         isOpen = false;
         if (lasReader != null)
             lasReader.close();
     }
 
+    @Override
+    public void close() throws Exception {
+        closeReader();
+        // the mapping is released by the garbage collector
+        concurrentReader = null;
+        pointsGrid = null;
+    }
+
+    /**
+     * A grid of the point positions of the file.
+     *
+     * <p>The las file is not sorted, so the positions of the points of every cell are
+     * kept, in file order, at the cost of 4 bytes per point.</p>
+     */
+    private static class PointsGrid {
+        private final double minX;
+        private final double minY;
+        private final double cellWidth;
+        private final double cellHeight;
+        private final int cols;
+        private final int rows;
+        /**
+         * The start of the positions of every cell, the counts while building.
+         */
+        private final int[] cellStart;
+        private int[] nextPosition;
+        private int[] positions;
+
+        PointsGrid( Envelope bounds, long pointsCount ) {
+            int cellsCount = (int) Math.max(1, pointsCount / POINTS_PER_CELL);
+            double width = bounds.getWidth();
+            double height = bounds.getHeight();
+            if (width > 0 && height > 0) {
+                cols = (int) Math.max(1, Math.min(cellsCount, Math.round(Math.sqrt(cellsCount * width / height))));
+                rows = Math.max(1, cellsCount / cols);
+            } else if (width > 0) {
+                cols = cellsCount;
+                rows = 1;
+            } else if (height > 0) {
+                cols = 1;
+                rows = cellsCount;
+            } else {
+                cols = 1;
+                rows = 1;
+            }
+            minX = bounds.getMinX();
+            minY = bounds.getMinY();
+            cellWidth = width > 0 ? width / cols : 1;
+            cellHeight = height > 0 ? height / rows : 1;
+            cellStart = new int[cols * rows + 1];
+        }
+
+        private int col( double x ) {
+            int col = (int) ((x - minX) / cellWidth);
+            return col < 0 ? 0 : col >= cols ? cols - 1 : col;
+        }
+
+        private int row( double y ) {
+            int row = (int) ((y - minY) / cellHeight);
+            return row < 0 ? 0 : row >= rows ? rows - 1 : row;
+        }
+
+        void count( double x, double y ) {
+            cellStart[row(y) * cols + col(x) + 1]++;
+        }
+
+        void allocate() {
+            for( int i = 1; i < cellStart.length; i++ ) {
+                cellStart[i] += cellStart[i - 1];
+            }
+            positions = new int[cellStart[cellStart.length - 1]];
+            nextPosition = Arrays.copyOf(cellStart, cellStart.length - 1);
+        }
+
+        void add( double x, double y, int position ) throws IOException {
+            int cell = row(y) * cols + col(x);
+            if (nextPosition[cell] == cellStart[cell + 1]) {
+                throw new IOException("The las file changed while it was indexed.");
+            }
+            positions[nextPosition[cell]++] = position;
+        }
+
+        int size() {
+            return positions.length;
+        }
+
+        /**
+         * @param env the envelope to query.
+         * @return the positions of the points of the cells intersecting the envelope, in file order.
+         */
+        int[] query( Envelope env ) {
+            int fromCol = col(env.getMinX());
+            int toCol = col(env.getMaxX());
+            int fromRow = row(env.getMinY());
+            int toRow = row(env.getMaxY());
+            int size = 0;
+            for( int r = fromRow; r <= toRow; r++ ) {
+                size += cellStart[r * cols + toCol + 1] - cellStart[r * cols + fromCol];
+            }
+            int[] result = new int[size];
+            int index = 0;
+            for( int r = fromRow; r <= toRow; r++ ) {
+                int from = cellStart[r * cols + fromCol];
+                int count = cellStart[r * cols + toCol + 1] - from;
+                System.arraycopy(positions, from, result, index, count);
+                index += count;
+            }
+            if (toCol > fromCol || toRow > fromRow) {
+                Arrays.sort(result);
+            }
+            return result;
+        }
+    }
+
 }
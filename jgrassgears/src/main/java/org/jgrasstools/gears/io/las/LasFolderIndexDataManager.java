@@ -18,9 +18,10 @@
 package org.jgrasstools.gears.io.las;
 
 import java.io.File;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -29,47 +30,54 @@ import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
-import org.geotools.util.WeakValueHashMap;
-import org.jgrasstools.gears.io.las.core.ALasReader;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
 import org.jgrasstools.gears.io.las.core.LasRecord;
+import org.jgrasstools.gears.io.las.core.v_1_0.LasConcurrentReader;
 import org.jgrasstools.gears.io.las.index.OmsLasIndexReader;
 import org.jgrasstools.gears.io.las.index.LasIndexer;
-import org.jgrasstools.gears.io.las.index.strtree.STRtreeJGT;
-import org.jgrasstools.gears.libs.modules.JGTConstants;
+import org.jgrasstools.gears.io.las.index.LasSpatialIndex;
+import org.jgrasstools.gears.io.las.utils.LasGeometryMask;
+import org.jgrasstools.gears.io.las.utils.LasGroundNormalizer;
 import org.jgrasstools.gears.utils.CrsUtilities;
-import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
 import org.jgrasstools.gears.utils.files.FileUtilities;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
-import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.prep.PreparedGeometry;
 import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
-import com.vividsolutions.jts.index.strtree.AbstractSTRtree;
-import com.vividsolutions.jts.index.strtree.ItemBoundable;
 
 /**
  * A class that manages las folder data.
  * 
+ * <p>
+ * Queries can be run by any number of threads at the same time. The las files are
+ * memory mapped and read through {@link LasConcurrentReader}s, which have no position
+ * to share, and the mapped files with their indexes are kept in a read-mostly
+ * cache that is only written the first time a file is touched.
+ * </p>
+ * 
  * @author Andrea Antonello (www.hydrologis.com)
  */
 class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable {
-    private WeakValueHashMap<String, Pair> fileName2LasReaderMap;
-    private WeakValueHashMap<String, STRtreeJGT> fileName2IndexMap;
-    private List<String> fileName4LasReaderMapSupport;
-    // private int READERCACHE = 5;
+    /**
+     * Marks the las files without index in the cache.
+     */
+    private static final Tile NO_TILE = new Tile(null, null);
+
+    private final ConcurrentHashMap<String, Tile> fileName2TileMap = new ConcurrentHashMap<String, Tile>();
     private File lasFolderIndexFile;
     private File lasFolder;
-    private STRtreeJGT mainLasFolderIndex;
+    private volatile LasSpatialIndex mainLasFolderIndex;
     private GridCoverage2D inDem;
+    private LasGroundNormalizer groundNormalizer;
     private double elevThreshold;
 
     private SimpleFeatureCollection overviewFeatures;
-    private ReferencedEnvelope referencedEnvelope2D;
+    private volatile ReferencedEnvelope referencedEnvelope2D;
     private List<ReferencedEnvelope> referencedEnvelope2DList = new ArrayList<ReferencedEnvelope>();
     private List<String> fileNamesList = new ArrayList<String>();
     private ReferencedEnvelope3D referencedEnvelope3D;
@@ -86,6 +94,9 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
             CoordinateReferenceSystem inCrs ) {
         this.lasFolderIndexFile = lasFolderIndexFile;
         this.inDem = inDem;
+        if (inDem != null) {
+            groundNormalizer = new LasGroundNormalizer(inDem);
+        }
         this.elevThreshold = elevThreshold;
         lasFolder = lasFolderIndexFile.getParentFile();
 
@@ -102,15 +113,6 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
         } else {
             throw new IllegalArgumentException("The Crs can't be null.");
         }
-        // indexMap = new LinkedHashMap<String, Pair>() {
-        // @Override
-        // protected boolean removeEldestEntry(Entry<String, Pair> eldest) {
-        // return size() > READERCACHE;
-        // }
-        // };
-        fileName2LasReaderMap = new WeakValueHashMap<String, Pair>();
-        fileName2IndexMap = new WeakValueHashMap<String, STRtreeJGT>();
-        fileName4LasReaderMapSupport = new ArrayList<String>();
     }
 
     @Override
@@ -125,100 +127,75 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
      */
     @Override
     public void open() throws Exception {
-        mainLasFolderIndex = OmsLasIndexReader.readIndex(lasFolderIndexFile.getAbsolutePath());
+        mainLasFolderIndex = OmsLasIndexReader.readSpatialIndex(lasFolderIndexFile.getAbsolutePath());
     }
 
     /**
      * Get points inside a given geometry boundary.
      *
+     * <p>This can be called by several threads at the same time.</p>
+     *
      * @param checkGeom the {@link com.vividsolutions.jts.geom.Geometry} to use to check.
      * @param doOnlyEnvelope check for the geom envelope instead of a intersection with it.
      * @return the list of points contained in the supplied geometry.
      * @throws Exception
      */
     @Override
-    @SuppressWarnings("rawtypes")
-    public synchronized List<LasRecord> getPointsInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception {
-        checkOpen();
-        ArrayList<LasRecord> pointsListForTile = new ArrayList<LasRecord>();
+    public List<LasRecord> getPointsInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception {
+        final ArrayList<LasRecord> pointsListForTile = new ArrayList<LasRecord>();
+        visitPointsInGeometry(checkGeom, doOnlyEnvelope, new ILasPointsVisitor(){
+            public void visit( LasPointBatch batch ) {
+                for( int i = 0; i < batch.size; i++ ) {
+                    pointsListForTile.add(batch.toLasRecord(i));
+                }
+            }
+        });
+        return pointsListForTile;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This can be called by several threads at the same time.</p>
+     */
+    @Override
+    public void visitPointsInGeometry( Geometry checkGeom, boolean doOnlyEnvelope, ILasPointsVisitor visitor )
+            throws Exception {
+        LasSpatialIndex mainIndex = checkOpen();
 
         Envelope env = checkGeom.getEnvelopeInternal();
-        PreparedGeometry preparedGeometry = null;
+        LasGeometryMask geometryMask = null;
         if (!doOnlyEnvelope) {
-            preparedGeometry = PreparedGeometryFactory.prepare(checkGeom);
+            geometryMask = new LasGeometryMask(checkGeom);
         }
 
-        List filesList = mainLasFolderIndex.query(env);
-        for( Object fileName : filesList ) {
-            if (fileName instanceof String) {
-                String name = (String) fileName;
-
-                Pair pair = fileName2LasReaderMap.get(name);
-                if (pair == null) {
-                    File lasFile = new File(lasFolder, name);
-                    File lasIndexFile = FileUtilities.substituteExtention(lasFile, "lasfix");
+        LasPointBatch batch = null;
+        int[] filesList = mainIndex.query(env);
+        for( int fileItem : filesList ) {
+            String name = mainIndex.getName(fileItem);
+            if (name == null) {
+                continue;
+            }
+            Tile tile = getTile(name);
+            if (tile == NO_TILE || tile.index.getValuesPerItem() < 2) {
+                continue;
+            }
+            if (batch == null) {
+                batch = new LasPointBatch();
+            }
 
-                    if (lasIndexFile.exists()) {
-                        ALasReader reader = ALasReader.getReader(lasFile, crs);
-                        reader.open();
-                        reader.getHeader();
-                        STRtreeJGT lasIndex = OmsLasIndexReader.readIndex(lasIndexFile.getAbsolutePath());
-                        pair = new Pair();
-                        pair.reader = reader;
-                        pair.strTree = lasIndex;
-                        fileName2LasReaderMap.put(name, pair);
-                        fileName4LasReaderMapSupport.add(name);
-                    } else {
-                        continue;
-                    }
-                }
-
-                List addressesList = pair.strTree.query(env);
-                for( Object obj : addressesList ) {
-                    if (obj instanceof double[]) {
-                        double[] addresses = (double[]) obj;
-                        long from = (long) addresses[0];
-                        long to = (long) addresses[1];
-                        for( long pointNum = from; pointNum < to; pointNum++ ) {
-                            LasRecord lasDot = pair.reader.getPointAt(pointNum);
-                            if (!doAccept(lasDot)) {
-                                continue;
-                            }
-                            if (inDem != null) {
-                                Coordinate c = new Coordinate(lasDot.x, lasDot.y);
-                                if (env.contains(c)) {
-                                    // check geom instead of only envelope?
-                                    if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
-                                        continue;
-                                    }
-                                    double value = CoverageUtilities.getValue(inDem, lasDot.x, lasDot.y);
-                                    if (JGTConstants.isNovalue(value)) {
-                                        continue;
-                                    }
-                                    double height = lasDot.z - value;
-                                    if (height > elevThreshold) {
-                                        // lasDot.z = height;
-                                        lasDot.groundElevation = height;
-                                        pointsListForTile.add(lasDot);
-                                    }
-                                }
-                            } else {
-                                Coordinate c = new Coordinate(lasDot.x, lasDot.y);
-                                if (env.contains(c)) {
-                                    // check geom instead of only envelope?
-                                    if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
-                                        continue;
-                                    }
-                                    pointsListForTile.add(lasDot);
-                                }
-                            }
-
-                        }
+            int[] addressesList = tile.index.query(env);
+            for( int cellItem : addressesList ) {
+                long from = (long) tile.index.getValue(cellItem, 0);
+                long to = (long) tile.index.getValue(cellItem, 1);
+                while( from < to ) {
+                    from += tile.reader.readPoints(from, to, batch);
+                    if (filterInGeometry(batch, env, geometryMask, groundNormalizer, elevThreshold) > 0) {
+                        visitor.visit(batch);
                     }
                 }
             }
         }
-        return pointsListForTile;
     }
 
     /**
@@ -231,9 +208,9 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
      * @throws Exception
      */
     @Override
-    public synchronized List<Geometry> getEnvelopesInGeometry( Geometry checkGeom, boolean doOnlyEnvelope, double[] minMaxZ )
+    public List<Geometry> getEnvelopesInGeometry( Geometry checkGeom, boolean doOnlyEnvelope, double[] minMaxZ )
             throws Exception {
-        checkOpen();
+        LasSpatialIndex mainIndex = checkOpen();
         ArrayList<Geometry> envelopeListForTile = new ArrayList<Geometry>();
 
         Envelope env = checkGeom.getEnvelopeInternal();
@@ -243,38 +220,31 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
         }
         double min = Double.POSITIVE_INFINITY;
         double max = Double.NEGATIVE_INFINITY;
-        List< ? > filesList = mainLasFolderIndex.query(env);
-        for( Object fileName : filesList ) {
-            if (fileName instanceof String) {
-                String name = (String) fileName;
-                File lasFile = new File(lasFolder, name);
-                File lasIndexFile = FileUtilities.substituteExtention(lasFile, "lasfix");
-
-                String absolutePath = lasIndexFile.getAbsolutePath();
-                STRtreeJGT lasIndex = fileName2IndexMap.get(absolutePath);
-                if (lasIndex == null) {
-                    lasIndex = OmsLasIndexReader.readIndex(absolutePath);
-                    fileName2IndexMap.put(absolutePath, lasIndex);
+        int[] filesList = mainIndex.query(env);
+        for( int fileItem : filesList ) {
+            String name = mainIndex.getName(fileItem);
+            if (name != null) {
+                Tile tile = getTile(name);
+                if (tile == NO_TILE) {
+                    continue;
                 }
-                List< ? > queryBoundables = lasIndex.queryBoundables(env);
-                for( Object object : queryBoundables ) {
-                    if (object instanceof ItemBoundable) {
-                        ItemBoundable itemBoundable = (ItemBoundable) object;
-                        double[] item = (double[]) itemBoundable.getItem();
-                        if (item.length > 0) {
-                            Envelope bounds = (Envelope) itemBoundable.getBounds();
-                            Polygon envelopePolygon = LasIndexer.envelopeToPolygon(bounds);
-                            envelopePolygon.setUserData(new double[]{item[2], item[3]});
-                            if (minMaxZ != null) {
-                                min = Math.min(min, item[2]);
-                                max = Math.max(max, item[2]);
-                            }
-                            if (doOnlyEnvelope) {
+                LasSpatialIndex lasIndex = tile.index;
+                int[] cellItems = lasIndex.query(env);
+                for( int cellItem : cellItems ) {
+                    double[] item = lasIndex.getValues(cellItem);
+                    if (item.length >= 4) {
+                        Envelope bounds = lasIndex.getEnvelope(cellItem);
+                        Polygon envelopePolygon = LasIndexer.envelopeToPolygon(bounds);
+                        envelopePolygon.setUserData(new double[]{item[2], item[3]});
+                        if (minMaxZ != null) {
+                            min = Math.min(min, item[2]);
+                            max = Math.max(max, item[2]);
+                        }
+                        if (doOnlyEnvelope) {
+                            envelopeListForTile.add(envelopePolygon);
+                        } else {
+                            if (preparedGeometry.intersects(envelopePolygon)) {
                                 envelopeListForTile.add(envelopePolygon);
-                            } else {
-                                if (preparedGeometry.intersects(envelopePolygon)) {
-                                    envelopeListForTile.add(envelopePolygon);
-                                }
                             }
                         }
                     }
@@ -289,33 +259,21 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
     }
 
     @Override
-    @SuppressWarnings("rawtypes")
-    public synchronized ReferencedEnvelope getOverallEnvelope() throws Exception {
+    public ReferencedEnvelope getOverallEnvelope() throws Exception {
         if (referencedEnvelope2D == null) {
-            checkOpen();
-            Class<AbstractSTRtree> class1 = AbstractSTRtree.class;
-            Field f1 = class1.getDeclaredField("itemBoundables");
-            f1.setAccessible(true);
-            ArrayList boundablesList = (ArrayList) f1.get(mainLasFolderIndex);
-            Envelope env = null;
-            for( Object item : boundablesList ) {
-                if (item instanceof ItemBoundable) {
-                    ItemBoundable boundable = (ItemBoundable) item;
-                    Envelope envelope = (Envelope) boundable.getBounds();
-                    ReferencedEnvelope tmp = new ReferencedEnvelope(envelope, crs);
-                    referencedEnvelope2DList.add(tmp);
-                    String name = (String) boundable.getItem();
-                    fileNamesList.add(name);
-
-                    if (env == null) {
-                        env = envelope;
-                    } else {
-                        env.expandToInclude(envelope.getMinX(), envelope.getMinY());
-                        env.expandToInclude(envelope.getMaxX(), envelope.getMaxY());
+            synchronized (this) {
+                if (referencedEnvelope2D == null) {
+                    LasSpatialIndex mainIndex = checkOpen();
+                    for( int i = 0; i < mainIndex.size(); i++ ) {
+                        Envelope envelope = mainIndex.getEnvelope(i);
+                        ReferencedEnvelope tmp = new ReferencedEnvelope(envelope, crs);
+                        referencedEnvelope2DList.add(tmp);
+                        fileNamesList.add(mainIndex.getName(i));
                     }
+                    referencedEnvelope2DList = Collections.unmodifiableList(referencedEnvelope2DList);
+                    referencedEnvelope2D = new ReferencedEnvelope(mainIndex.getBounds(), crs);
                 }
             }
-            referencedEnvelope2D = new ReferencedEnvelope(env, crs);
         }
         return referencedEnvelope2D;
     }
@@ -329,13 +287,15 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
     @Override
     public synchronized ReferencedEnvelope3D getEnvelope3D() throws Exception {
         if (referencedEnvelope3D == null) {
-            checkReadersMap();
-
-            for( String key : fileName4LasReaderMapSupport ) {
-                Pair pair = fileName2LasReaderMap.get(key);
-                ReferencedEnvelope3D envelope = pair.reader.getHeader().getDataEnvelope();
+            LasSpatialIndex mainIndex = checkOpen();
+            for( String name : mainIndex.getNames() ) {
+                Tile tile = getTile(name);
+                if (tile == NO_TILE) {
+                    continue;
+                }
+                ReferencedEnvelope3D envelope = tile.reader.getHeader().getDataEnvelope();
                 if (referencedEnvelope3D == null) {
-                    referencedEnvelope3D = envelope;
+                    referencedEnvelope3D = new ReferencedEnvelope3D(envelope);
                 } else {
                     referencedEnvelope3D.expandToInclude(envelope);
                 }
@@ -372,69 +332,65 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
         return overviewFeatures;
     }
 
-    private void checkReadersMap() throws Exception {
-        checkOpen();
-        if (fileName2LasReaderMap.size() == 0) {
-            @SuppressWarnings("rawtypes")
-            List filesList = mainLasFolderIndex.itemsTree();
-            for( Object fileName : filesList ) {
-                if (fileName instanceof String) {
-                    String name = (String) fileName;
-
-                    Pair pair = fileName2LasReaderMap.get(name);
-                    if (pair == null) {
-                        File lasFile = new File(lasFolder, name);
-                        File lasIndexFile = FileUtilities.substituteExtention(lasFile, "lasfix");
-
-                        if (lasIndexFile.exists()) {
-                            ALasReader reader = ALasReader.getReader(lasFile, crs);
-                            reader.open();
-                            reader.getHeader();
-                            STRtreeJGT lasIndex = OmsLasIndexReader.readIndex(lasIndexFile.getAbsolutePath());
-                            pair = new Pair();
-                            pair.reader = reader;
-                            pair.strTree = lasIndex;
-                            fileName2LasReaderMap.put(name, pair);
-                            fileName4LasReaderMapSupport.add(name);
-                        } else {
-                            continue;
-                        }
-                    }
-                }
+    /**
+     * Get the mapped las file and index of a tile, opening them the first time.
+     *
+     * <p>The cache is only written on the first access of a file, so concurrent
+     * queries read it without locking. If two threads open the same file at the
+     * same time, one of the two mappings is simply dropped.</p>
+     *
+     * @param name the name of the las file.
+     * @return the tile or {@link #NO_TILE} if the las file has no index.
+     * @throws Exception
+     */
+    private Tile getTile( String name ) throws Exception {
+        Tile tile = fileName2TileMap.get(name);
+        if (tile == null) {
+            File lasFile = new File(lasFolder, name);
+            File lasIndexFile = FileUtilities.substituteExtention(lasFile, "lasfix");
+            if (lasIndexFile.exists() && lasFile.exists()) {
+                LasConcurrentReader reader = new LasConcurrentReader(lasFile, crs);
+                LasSpatialIndex index = OmsLasIndexReader.readSpatialIndex(lasIndexFile.getAbsolutePath());
+                tile = new Tile(reader, index);
+            } else {
+                tile = NO_TILE;
+            }
+            Tile previous = fileName2TileMap.putIfAbsent(name, tile);
+            if (previous != null) {
+                tile = previous;
             }
         }
+        return tile;
     }
 
-    private void checkOpen() throws Exception {
-        if (mainLasFolderIndex == null) {
-            open();
+    private LasSpatialIndex checkOpen() throws Exception {
+        LasSpatialIndex mainIndex = mainLasFolderIndex;
+        if (mainIndex == null) {
+            synchronized (this) {
+                if (mainLasFolderIndex == null) {
+                    open();
+                }
+                mainIndex = mainLasFolderIndex;
+            }
         }
+        return mainIndex;
     }
 
     @Override
     public void close() throws Exception {
-        for( String key : fileName4LasReaderMapSupport ) {
-            Pair pair = fileName2LasReaderMap.get(key);
-            if (pair != null)
-                pair.close();
-        }
-        fileName4LasReaderMapSupport.clear();
-        fileName2LasReaderMap.clear();
-        fileName2LasReaderMap = null;
+        // the mappings are released by the garbage collector, no handle is open
+        fileName2TileMap.clear();
     }
 
-    private class Pair {
-        ALasReader reader;
-        STRtreeJGT strTree;
-        public void close() {
-            if (reader != null)
-                try {
-                    reader.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            reader = null;
-            strTree = null;
+    /**
+     * The mapped las file and index of a tile of the folder.
+     */
+    private static class Tile {
+        final LasConcurrentReader reader;
+        final LasSpatialIndex index;
+        Tile( LasConcurrentReader reader, LasSpatialIndex index ) {
+            this.reader = reader;
+            this.index = index;
         }
     }
 
@@ -70,6 +70,30 @@ public abstract class ALasReader extends Las implements AutoCloseable{
      */
     public abstract LasRecord getNextPoint() throws IOException;
 
+    /**
+     * Read the next points into a reusable {@link LasPointBatch}.
+     *
+     * <p>This reads up to {@link LasPointBatch#getCapacity()} points and sets
+     * {@link LasPointBatch#size}. Readers that can decode directly into the batch
+     * override this, the default implementation copies the records read
+     * by {@link #getNextPoint()} and sets the point positions to -1.</p>
+     *
+     * @param batch the batch to fill.
+     * @return the number of points read, 0 if none available.
+     * @throws IOException
+     */
+    public int readNextBatch( LasPointBatch batch ) throws IOException {
+        int count = 0;
+        int capacity = batch.getCapacity();
+        while( count < capacity && hasNextPoint() ) {
+            LasRecord record = getNextPoint();
+            batch.set(count, record, -1);
+            count++;
+        }
+        batch.size = count;
+        return count;
+    }
+
     /**
      * Reads a dot at a given address.
      * 
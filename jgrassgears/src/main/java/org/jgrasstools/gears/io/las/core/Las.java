@@ -26,7 +26,7 @@ import org.jgrasstools.gears.io.las.core.liblas.LiblasJNALibrary;
 import org.jgrasstools.gears.io.las.core.liblas.LiblasReader;
 import org.jgrasstools.gears.io.las.core.liblas.LiblasWrapper;
 import org.jgrasstools.gears.io.las.core.liblas.LiblasWriter;
-import org.jgrasstools.gears.io.las.core.v_1_0.LasReader;
+import org.jgrasstools.gears.io.las.core.v_1_0.LasMappedReader;
 import org.jgrasstools.gears.io.las.core.v_1_0.LasWriter;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
@@ -74,7 +74,7 @@ public abstract class Las {
     /**
      * Get a las reader.
      * 
-     * <p>If available, a native reader is created.
+     * <p>If available, a native reader is created, else a memory mapped one.
      * 
      * @param lasFile the file to read.
      * @param crs the {@link CoordinateReferenceSystem} or <code>null</code> if the file has one.
@@ -85,7 +85,7 @@ public abstract class Las {
         if (supportsNative()) {
             return new LiblasReader(lasFile, crs);
         } else {
-            return new LasReader(lasFile, crs);
+            return new LasMappedReader(lasFile, crs);
         }
     }
 
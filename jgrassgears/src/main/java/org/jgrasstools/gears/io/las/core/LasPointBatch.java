@@ -0,0 +1,218 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.io.las.core;
+
+/**
+ * A reusable batch of las points, stored in primitive columns.
+ *
+ * <p>
+ * This is the columnar counterpart of {@link LasRecord}: a batch is filled by
+ * {@link ALasReader#readNextBatch(LasPointBatch)} over and over, without
+ * creating an object per point. Only the first {@link #size} elements of
+ * the columns are valid.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class LasPointBatch {
+    /**
+     * The default number of points of a batch.
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * The x coordinates, with scale and offset already applied.
+     */
+    public final double[] x;
+
+    /**
+     * The y coordinates, with scale and offset already applied.
+     */
+    public final double[] y;
+
+    /**
+     * The z coordinates, with scale and offset already applied.
+     */
+    public final double[] z;
+
+    /**
+     * The intensity values.
+     */
+    public final short[] intensity;
+
+    /**
+     * The return numbers.
+     */
+    public final short[] returnNumber;
+
+    /**
+     * The number of returns of the pulses.
+     */
+    public final short[] numberOfReturns;
+
+    /**
+     * The classifications.
+     */
+    public final byte[] classification;
+
+    /**
+     * The gps timestamps, -1 if the format has none.
+     */
+    public final double[] gpsTime;
+
+    /**
+     * The red colour components, 100 (the {@link LasRecord} default) if the format has none.
+     */
+    public final short[] red;
+
+    /**
+     * The green colour components.
+     */
+    public final short[] green;
+
+    /**
+     * The blue colour components.
+     */
+    public final short[] blue;
+
+    /**
+     * The ground elevation of the points (see {@link LasRecord#groundElevation}), NaN if not available.
+     */
+    public final double[] groundElevation;
+
+    /**
+     * The position of the points in the file, starting from 0.
+     */
+    public final long[] pointIndex;
+
+    /**
+     * The number of valid points in the batch.
+     */
+    public int size = 0;
+
+    /**
+     * Create a batch of {@link #DEFAULT_CAPACITY} points.
+     */
+    public LasPointBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a batch.
+     *
+     * @param capacity the max number of points of the batch.
+     */
+    public LasPointBatch( int capacity ) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The batch capacity has to be positive.");
+        }
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        intensity = new short[capacity];
+        returnNumber = new short[capacity];
+        numberOfReturns = new short[capacity];
+        classification = new byte[capacity];
+        gpsTime = new double[capacity];
+        red = new short[capacity];
+        green = new short[capacity];
+        blue = new short[capacity];
+        groundElevation = new double[capacity];
+        pointIndex = new long[capacity];
+    }
+
+    /**
+     * @return the max number of points of the batch.
+     */
+    public int getCapacity() {
+        return x.length;
+    }
+
+    /**
+     * Copy a record into a position of the batch.
+     *
+     * @param i the position in the batch.
+     * @param record the record to copy.
+     * @param index the position of the point in the file.
+     */
+    public void set( int i, LasRecord record, long index ) {
+        x[i] = record.x;
+        y[i] = record.y;
+        z[i] = record.z;
+        intensity[i] = record.intensity;
+        returnNumber[i] = record.returnNumber;
+        numberOfReturns[i] = record.numberOfReturns;
+        classification[i] = record.classification;
+        gpsTime[i] = record.gpsTime;
+        red[i] = record.color[0];
+        green[i] = record.color[1];
+        blue[i] = record.color[2];
+        groundElevation[i] = record.groundElevation;
+        pointIndex[i] = index;
+    }
+
+    /**
+     * Copy a point to another position of the batch.
+     *
+     * <p>Used to compact the batch, keeping only some of the points.</p>
+     *
+     * @param from the position to copy from.
+     * @param to the position to copy to.
+     */
+    public void copy( int from, int to ) {
+        x[to] = x[from];
+        y[to] = y[from];
+        z[to] = z[from];
+        intensity[to] = intensity[from];
+        returnNumber[to] = returnNumber[from];
+        numberOfReturns[to] = numberOfReturns[from];
+        classification[to] = classification[from];
+        gpsTime[to] = gpsTime[from];
+        red[to] = red[from];
+        green[to] = green[from];
+        blue[to] = blue[from];
+        groundElevation[to] = groundElevation[from];
+        pointIndex[to] = pointIndex[from];
+    }
+
+    /**
+     * Create a {@link LasRecord} from a position of the batch.
+     *
+     * <p>Use this only for the points that have to be kept as objects.</p>
+     *
+     * @param i the position in the batch.
+     * @return the new record.
+     */
+    public LasRecord toLasRecord( int i ) {
+        LasRecord record = new LasRecord();
+        record.x = x[i];
+        record.y = y[i];
+        record.z = z[i];
+        record.intensity = intensity[i];
+        record.returnNumber = returnNumber[i];
+        record.numberOfReturns = numberOfReturns[i];
+        record.classification = classification[i];
+        record.gpsTime = gpsTime[i];
+        record.color[0] = red[i];
+        record.color[1] = green[i];
+        record.color[2] = blue[i];
+        record.groundElevation = groundElevation[i];
+        return record;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.io.las.core.v_1_0;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.jgrasstools.gears.io.las.core.ILasHeader;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
+import org.jgrasstools.gears.io.las.core.LasRecord;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * A las reader for random access that can be shared by any number of threads.
+ *
+ * <p>
+ * The whole point data are memory mapped once, in windows of whole records,
+ * and read only through absolute gets, so the reader has no position and
+ * needs no locking. The file is closed right after the mapping, no file
+ * handle is kept.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class LasConcurrentReader {
+    private static final long WINDOW_SIZE = 1024L * 1024L * 1024L;
+
+    private final File lasFile;
+    private final LasHeader header;
+    private final LasPointDecoder decoder;
+    private final int recordLength;
+    private final long records;
+    private final long pointsPerWindow;
+    private final ByteBuffer[] windows;
+
+    /**
+     * Open and map a las file.
+     *
+     * @param lasFile the las file.
+     * @param crs the crs of the data.
+     * @throws Exception
+     */
+    public LasConcurrentReader( File lasFile, CoordinateReferenceSystem crs ) throws Exception {
+        this.lasFile = lasFile;
+        LasReader headerReader = new LasReader(lasFile, crs);
+        try {
+            headerReader.open();
+            header = (LasHeader) headerReader.getHeader();
+        } finally {
+            headerReader.close();
+        }
+        decoder = new LasPointDecoder(header);
+        recordLength = header.getRecordLength();
+        long offset = header.getOffset();
+        pointsPerWindow = Math.max(1, WINDOW_SIZE / recordLength);
+
+        try (RandomAccessFile raf = new RandomAccessFile(lasFile, "r"); FileChannel fc = raf.getChannel()) {
+            long available = (fc.size() - offset) / recordLength;
+            records = Math.max(0, Math.min(header.getRecordsCount(), available));
+            int windowsCount = (int) ((records + pointsPerWindow - 1) / pointsPerWindow);
+            windows = new ByteBuffer[windowsCount];
+            for( int i = 0; i < windowsCount; i++ ) {
+                long first = i * pointsPerWindow;
+                long count = Math.min(pointsPerWindow, records - first);
+                windows[i] = fc.map(MapMode.READ_ONLY, offset + first * recordLength, count * recordLength).order(
+                        ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    public File getLasFile() {
+        return lasFile;
+    }
+
+    public ILasHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the number of points that can be read.
+     */
+    public long getRecordsCount() {
+        return records;
+    }
+
+    /**
+     * Read a point.
+     *
+     * @param pointPosition the position of the point, starting from 0.
+     * @return the point.
+     * @throws IOException if the position is out of range.
+     */
+    public LasRecord getPointAt( long pointPosition ) throws IOException {
+        checkRange(pointPosition);
+        int window = (int) (pointPosition / pointsPerWindow);
+        int pos = (int) ((pointPosition - window * pointsPerWindow) * recordLength);
+        return decoder.decode(windows[window], pos);
+    }
+
+    /**
+     * Read a point into a position of a batch.
+     *
+     * @param pointPosition the position of the point, starting from 0.
+     * @param batch the batch to fill.
+     * @param i the position in the batch.
+     * @throws IOException if the position is out of range.
+     */
+    public void readPoint( long pointPosition, LasPointBatch batch, int i ) throws IOException {
+        checkRange(pointPosition);
+        int window = (int) (pointPosition / pointsPerWindow);
+        int pos = (int) ((pointPosition - window * pointsPerWindow) * recordLength);
+        decoder.decode(windows[window], pos, batch, i);
+        batch.pointIndex[i] = pointPosition;
+    }
+
+    /**
+     * Read a range of points into a batch.
+     *
+     * <p>At most as many points as the batch capacity are read, call again with the
+     * next range start to read the rest.</p>
+     *
+     * @param from the position of the first point to read.
+     * @param to the position after the last point to read.
+     * @param batch the batch to fill.
+     * @return the number of points read.
+     * @throws IOException if the range is out of the file.
+     */
+    public int readPoints( long from, long to, LasPointBatch batch ) throws IOException {
+        int count = (int) Math.max(0, Math.min(batch.getCapacity(), to - from));
+        if (count > 0) {
+            checkRange(from);
+            checkRange(from + count - 1);
+        }
+        for( int i = 0; i < count; i++ ) {
+            long point = from + i;
+            int window = (int) (point / pointsPerWindow);
+            int pos = (int) ((point - window * pointsPerWindow) * recordLength);
+            decoder.decode(windows[window], pos, batch, i);
+            batch.pointIndex[i] = point;
+        }
+        batch.size = count;
+        return count;
+    }
+
+    private void checkRange( long pointPosition ) throws IOException {
+        if (pointPosition < 0 || pointPosition >= records) {
+            throw new IOException("Point position out of range: " + pointPosition + " in " + lasFile.getName());
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.io.las.core.v_1_0;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.jgrasstools.gears.io.las.core.ALasReader;
+import org.jgrasstools.gears.io.las.core.ILasHeader;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
+import org.jgrasstools.gears.io.las.core.LasRecord;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Memory mapped las record reader for las spec 1.0.
+ *
+ * <p>
+ * The point data are mapped in windows of whole records, so files of any size
+ * can be read, and records are decoded with absolute reads from the mapped
+ * window. Together with {@link #readNextBatch(LasPointBatch)} this reads
+ * points without system calls and without allocating per point.
+ * </p>
+ * <p>The decoded values are the same as the ones of {@link LasReader}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class LasMappedReader extends ALasReader {
+    private static final long WINDOW_SIZE = 64L * 1024L * 1024L;
+
+    private final File lasFile;
+    private final CoordinateReferenceSystem crs;
+    private LasHeader header;
+    private LasPointDecoder decoder;
+    private RandomAccessFile raf;
+    private FileChannel fc;
+    private boolean isOpen;
+
+    private long offset;
+    private int recordLength;
+    private long records;
+    private long pointsPerWindow;
+
+    private ByteBuffer window;
+    private long windowStart;
+    private long windowEnd;
+
+    /**
+     * The position of the next point to read.
+     */
+    private long position = 0;
+
+    private final double[] xyz = new double[3];
+
+    public LasMappedReader( File lasFile, CoordinateReferenceSystem crs ) {
+        this.lasFile = lasFile;
+        this.crs = crs;
+    }
+
+    @Override
+    public File getLasFile() {
+        return lasFile;
+    }
+
+    private void checkOpen() {
+        if (!isOpen) {
+            try {
+                open();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void open() throws Exception {
+        // the header is parsed by the channel reader
+        LasReader headerReader = new LasReader(lasFile, crs);
+        try {
+            headerReader.open();
+            header = (LasHeader) headerReader.getHeader();
+        } finally {
+            headerReader.close();
+        }
+        decoder = new LasPointDecoder(header);
+        offset = header.getOffset();
+        recordLength = header.getRecordLength();
+        pointsPerWindow = Math.max(1, WINDOW_SIZE / recordLength);
+
+        raf = new RandomAccessFile(lasFile, "r");
+        fc = raf.getChannel();
+        // do not trust the header beyond the data that are really there
+        long available = (fc.size() - offset) / recordLength;
+        records = Math.max(0, Math.min(header.getRecordsCount(), available));
+
+        window = null;
+        position = 0;
+        isOpen = true;
+    }
+
+    @Override
+    public void close() throws Exception {
+        window = null;
+        if (fc != null && fc.isOpen())
+            fc.close();
+        if (raf != null)
+            raf.close();
+        isOpen = false;
+    }
+
+    @Override
+    public void setOverrideGpsTimeType( int type ) {
+        getHeader();
+        header.gpsTimeType = type;
+    }
+
+    @Override
+    public ILasHeader getHeader() {
+        checkOpen();
+        return header;
+    }
+
+    /**
+     * Makes sure that a point is inside the mapped window.
+     *
+     * @param point the point position.
+     * @return the position of the point record in the window.
+     * @throws IOException
+     */
+    private int positionInWindow( long point ) throws IOException {
+        if (point < 0 || point >= records) {
+            throw new IOException("Point position out of range: " + point);
+        }
+        if (window == null || point < windowStart || point >= windowEnd) {
+            long count = Math.min(pointsPerWindow, records - point);
+            window = fc.map(MapMode.READ_ONLY, offset + point * recordLength, count * recordLength);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowStart = point;
+            windowEnd = point + count;
+        }
+        return (int) ((point - windowStart) * recordLength);
+    }
+
+    @Override
+    public boolean hasNextPoint() {
+        return position < records;
+    }
+
+    @Override
+    public LasRecord getNextPoint() throws IOException {
+        return getPointAt(position);
+    }
+
+    @Override
+    public int readNextBatch( LasPointBatch batch ) throws IOException {
+        int count = (int) Math.min(batch.getCapacity(), records - position);
+        int i = 0;
+        while( i < count ) {
+            int pos = positionInWindow(position);
+            int inWindow = (int) Math.min(count - i, windowEnd - position);
+            for( int k = 0; k < inWindow; k++ ) {
+                decoder.decode(window, pos, batch, i);
+                batch.pointIndex[i] = position;
+                pos += recordLength;
+                position++;
+                i++;
+            }
+        }
+        batch.size = count;
+        return count;
+    }
+
+    @Override
+    public LasRecord getPointAtAddress( long address ) throws IOException {
+        long dataPosition = address - offset;
+        if (dataPosition >= 0 && dataPosition % recordLength == 0) {
+            return getPointAt(dataPosition / recordLength);
+        }
+        // not aligned to a record, read it with a positional read
+        ByteBuffer buffer = ByteBuffer.allocate(recordLength).order(ByteOrder.LITTLE_ENDIAN);
+        while( buffer.hasRemaining() ) {
+            if (fc.read(buffer, address + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at address: " + address);
+            }
+        }
+        return decoder.decode(buffer, 0);
+    }
+
+    @Override
+    public LasRecord getPointAt( long pointPosition ) throws IOException {
+        int pos = positionInWindow(pointPosition);
+        position = pointPosition + 1;
+        return decoder.decode(window, pos);
+    }
+
+    @Override
+    public double[] readNextLasXYZAddress() throws IOException {
+        int pos = positionInWindow(position);
+        decoder.decodeXYZ(window, pos, xyz);
+        long address = offset + position * recordLength;
+        position++;
+        return new double[]{xyz[0], xyz[1], xyz[2], address};
+    }
+
+    @Override
+    public void seek( long pointNumber ) throws IOException {
+        position = pointNumber;
+    }
+
+}
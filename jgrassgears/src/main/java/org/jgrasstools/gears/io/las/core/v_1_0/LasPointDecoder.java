@@ -0,0 +1,132 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.io.las.core.v_1_0;
+
+import java.nio.ByteBuffer;
+
+import org.jgrasstools.gears.io.las.core.ILasHeader;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
+import org.jgrasstools.gears.io.las.core.LasRecord;
+
+/**
+ * Decodes point records from a little endian buffer with absolute reads.
+ *
+ * <p>The values are the same as the ones produced by {@link LasReader#getNextPoint()}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+class LasPointDecoder {
+    private final double xScale;
+    private final double yScale;
+    private final double zScale;
+    private final double xOffset;
+    private final double yOffset;
+    private final double zOffset;
+    private final byte pointDataFormat;
+    private final boolean hasGpsTime;
+    private final boolean hasColor;
+    private final int colorOffset;
+
+    LasPointDecoder( ILasHeader header ) {
+        double[] scale = header.getXYZScale();
+        double[] offset = header.getXYZOffset();
+        xScale = scale[0];
+        yScale = scale[1];
+        zScale = scale[2];
+        xOffset = offset[0];
+        yOffset = offset[1];
+        zOffset = offset[2];
+        pointDataFormat = header.getPointDataFormat();
+        hasGpsTime = pointDataFormat == 1 || pointDataFormat == 3;
+        hasColor = pointDataFormat == 2 || pointDataFormat == 3;
+        colorOffset = pointDataFormat == 3 ? 28 : 20;
+    }
+
+    /**
+     * Decode a record into a position of a batch.
+     *
+     * @param buffer the little endian buffer.
+     * @param pos the position of the record in the buffer.
+     * @param batch the batch to fill.
+     * @param i the position in the batch.
+     */
+    void decode( ByteBuffer buffer, int pos, LasPointBatch batch, int i ) {
+        // coordinates are read unsigned as in ByteUtilities#byteArrayToLongLE
+        batch.x[i] = (buffer.getInt(pos) & 0xFFFFFFFFL) * xScale + xOffset;
+        batch.y[i] = (buffer.getInt(pos + 4) & 0xFFFFFFFFL) * yScale + yOffset;
+        batch.z[i] = (buffer.getInt(pos + 8) & 0xFFFFFFFFL) * zScale + zOffset;
+        batch.intensity[i] = buffer.getShort(pos + 12);
+        byte b = buffer.get(pos + 14);
+        batch.returnNumber[i] = (short) (b & 0x07);
+        batch.numberOfReturns[i] = (short) ((b >> 3) & 0x07);
+        batch.classification[i] = buffer.get(pos + 15);
+        batch.gpsTime[i] = hasGpsTime ? buffer.getDouble(pos + 20) : -1;
+        if (hasColor) {
+            batch.red[i] = buffer.getShort(pos + colorOffset);
+            batch.green[i] = buffer.getShort(pos + colorOffset + 2);
+            batch.blue[i] = buffer.getShort(pos + colorOffset + 4);
+        } else {
+            batch.red[i] = 100;
+            batch.green[i] = 100;
+            batch.blue[i] = 100;
+        }
+        batch.groundElevation[i] = Double.NaN;
+    }
+
+    /**
+     * Decode a record.
+     *
+     * @param buffer the little endian buffer.
+     * @param pos the position of the record in the buffer.
+     * @return the new record.
+     */
+    LasRecord decode( ByteBuffer buffer, int pos ) {
+        LasRecord dot = new LasRecord();
+        dot.x = (buffer.getInt(pos) & 0xFFFFFFFFL) * xScale + xOffset;
+        dot.y = (buffer.getInt(pos + 4) & 0xFFFFFFFFL) * yScale + yOffset;
+        dot.z = (buffer.getInt(pos + 8) & 0xFFFFFFFFL) * zScale + zOffset;
+        dot.intensity = buffer.getShort(pos + 12);
+        byte b = buffer.get(pos + 14);
+        dot.returnNumber = (short) (b & 0x07);
+        dot.numberOfReturns = (short) ((b >> 3) & 0x07);
+        dot.classification = buffer.get(pos + 15);
+        if (hasGpsTime) {
+            dot.gpsTime = buffer.getDouble(pos + 20);
+        }
+        if (hasColor) {
+            dot.color[0] = buffer.getShort(pos + colorOffset);
+            dot.color[1] = buffer.getShort(pos + colorOffset + 2);
+            dot.color[2] = buffer.getShort(pos + colorOffset + 4);
+        }
+        return dot;
+    }
+
+    /**
+     * Decode only the coordinates of a record.
+     *
+     * @param buffer the little endian buffer.
+     * @param pos the position of the record in the buffer.
+     * @param xyz the array to fill with [x, y, z].
+     */
+    void decodeXYZ( ByteBuffer buffer, int pos, double[] xyz ) {
+        xyz[0] = (buffer.getInt(pos) & 0xFFFFFFFFL) * xScale + xOffset;
+        xyz[1] = (buffer.getInt(pos + 4) & 0xFFFFFFFFL) * yScale + yOffset;
+        xyz[2] = (buffer.getInt(pos + 8) & 0xFFFFFFFFL) * zScale + zOffset;
+    }
+}
@@ -26,6 +26,7 @@ import java.nio.channels.FileChannel;
 
 import org.jgrasstools.gears.io.las.core.ALasReader;
 import org.jgrasstools.gears.io.las.core.ILasHeader;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
 import org.jgrasstools.gears.io.las.core.LasRecord;
 import org.jgrasstools.gears.utils.ByteUtilities;
 import org.jgrasstools.gears.utils.CrsUtilities;
@@ -72,6 +73,9 @@ public class LasReader extends ALasReader {
 
     private LasHeader header;
 
+    private LasPointDecoder decoder;
+    private ByteBuffer batchBuffer;
+
     public LasReader( File lasFile, CoordinateReferenceSystem crs ) throws Exception {
         this.lasFile = lasFile;
         if (crs != null) {
@@ -297,6 +301,43 @@ public class LasReader extends ALasReader {
         return dot;
     }
 
+    /**
+     * Reads the records of the whole batch with a single channel read.
+     */
+    @Override
+    public int readNextBatch( LasPointBatch batch ) throws IOException {
+        // follow the channel position, so that seeks are respected
+        long firstPoint = (fc.position() - offset) / recordLength;
+        int count = (int) Math.max(0, Math.min(batch.getCapacity(), records - firstPoint));
+        if (count == 0) {
+            batch.size = 0;
+            return 0;
+        }
+        if (decoder == null) {
+            decoder = new LasPointDecoder(header);
+        }
+        int bytes = count * recordLength;
+        if (batchBuffer == null || batchBuffer.capacity() < bytes) {
+            batchBuffer = ByteBuffer.allocate(bytes);
+            batchBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        batchBuffer.clear();
+        batchBuffer.limit(bytes);
+        while( batchBuffer.hasRemaining() ) {
+            if (fc.read(batchBuffer) < 0) {
+                break;
+            }
+        }
+        count = batchBuffer.position() / recordLength;
+        for( int i = 0; i < count; i++ ) {
+            decoder.decode(batchBuffer, i * recordLength, batch, i);
+            batch.pointIndex[i] = firstPoint + i;
+        }
+        readRecords = readRecords + count;
+        batch.size = count;
+        return count;
+    }
+
     public LasRecord getPointAtAddress( long address ) throws IOException {
         fc.position(address);
         return getPoint();
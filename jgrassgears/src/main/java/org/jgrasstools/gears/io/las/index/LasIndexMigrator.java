@@ -0,0 +1,129 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.io.las.index;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+
+import oms3.annotations.Author;
+import oms3.annotations.Description;
+import oms3.annotations.Execute;
+import oms3.annotations.In;
+import oms3.annotations.Keywords;
+import oms3.annotations.Label;
+import oms3.annotations.License;
+import oms3.annotations.Name;
+import oms3.annotations.Status;
+import oms3.annotations.UI;
+
+import org.jgrasstools.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+import org.jgrasstools.gears.libs.modules.JGTModel;
+
+/**
+ * Converts the java serialized indexes of a las folder to the {@link LasSpatialIndex} format.
+ *
+ * <p>Indexes that are already in the new format are left untouched.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+@Description("Converts the las folder indexes created by older versions to the binary index format.")
+@Author(name = "Andrea Antonello", contact = "www.hydrologis.com")
+@Keywords("las, lidar, index")
+@Label(JGTConstants.LESTO + "/utilities")
+@Name("lasindexmigrator")
+@Status(5)
+@License("http://www.gnu.org/licenses/gpl-3.0.html")
+public class LasIndexMigrator extends JGTModel {
+
+    @Description("The folder containing the indexed las files.")
+    @UI(JGTConstants.FOLDERIN_UI_HINT)
+    @In
+    public String inFolder;
+
+    @Description("The name of the main index file.")
+    @In
+    public String pIndexname = LasIndexer.INDEX_LASFOLDER;
+
+    @Description("Keep the old indexes, with the .old extension added.")
+    @In
+    public boolean doKeepOld = false;
+
+    @Execute
+    public void process() throws Exception {
+        checkNull(inFolder, pIndexname);
+
+        File folder = new File(inFolder);
+        if (!folder.isDirectory()) {
+            throw new ModelsIllegalargumentException("The inFolder parameter has to be valid.", this);
+        }
+
+        File mainIndex = new File(folder, pIndexname);
+        if (mainIndex.exists()) {
+            migrate(mainIndex);
+        } else {
+            pm.errorMessage("No main index found in: " + folder.getAbsolutePath());
+        }
+
+        File[] indexFiles = folder.listFiles(new FileFilter(){
+            public boolean accept( File file ) {
+                return file.getName().endsWith("_indexed.lasfix");
+            }
+        });
+        if (indexFiles == null) {
+            return;
+        }
+        pm.beginTask("Converting las file indexes...", indexFiles.length);
+        for( File indexFile : indexFiles ) {
+            migrate(indexFile);
+            pm.worked(1);
+        }
+        pm.done();
+    }
+
+    private void migrate( File indexFile ) throws Exception {
+        String name = indexFile.getName();
+        if (LasSpatialIndex.isSpatialIndex(indexFile)) {
+            pm.message("Index already converted: " + name);
+            return;
+        }
+        LasSpatialIndex index = LasSpatialIndex.fromSTRtree(OmsLasIndexReader.readIndex(indexFile.getAbsolutePath()));
+
+        // write aside first, so that a failure never leaves a broken index
+        File tmpFile = new File(indexFile.getParentFile(), name + ".tmp");
+        index.write(tmpFile);
+        if (doKeepOld) {
+            File oldFile = new File(indexFile.getParentFile(), name + ".old");
+            if (oldFile.exists() && !oldFile.delete()) {
+                throw new IOException("Unable to remove the old index: " + oldFile.getAbsolutePath());
+            }
+            if (!indexFile.renameTo(oldFile)) {
+                throw new IOException("Unable to rename the index: " + indexFile.getAbsolutePath());
+            }
+        } else if (!indexFile.delete()) {
+            throw new IOException("Unable to remove the index: " + indexFile.getAbsolutePath());
+        }
+        if (!tmpFile.renameTo(indexFile)) {
+            throw new IOException("Unable to rename the new index: " + tmpFile.getAbsolutePath());
+        }
+        pm.message("Converted " + name + " (" + index.size() + " items).");
+    }
+
+}
@@ -54,7 +54,6 @@ import org.jgrasstools.gears.io.las.core.ALasReader;
 import org.jgrasstools.gears.io.las.core.ALasWriter;
 import org.jgrasstools.gears.io.las.core.ILasHeader;
 import org.jgrasstools.gears.io.las.core.LasRecord;
-import org.jgrasstools.gears.io.las.index.strtree.STRtreeJGT;
 import org.jgrasstools.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
@@ -158,7 +157,7 @@ public class LasIndexer extends JGTModel {
 
         List<File> filesList = iter.filesList;
         pm.beginTask("Creating readers index...", filesList.size());
-        STRtreeJGT mainTree = new STRtreeJGT();
+        LasSpatialIndex.Builder mainTree = new LasSpatialIndex.Builder(0, true);
         for( File file : filesList ) {
             try (ALasReader reader = ALasReader.getReader(file, crs)) {
                 reader.open();
@@ -168,15 +167,14 @@ public class LasIndexer extends JGTModel {
                 }
                 ReferencedEnvelope3D envelope = header.getDataEnvelope();
                 File newLasFile = getNewLasFile(file);
-                mainTree.insert(envelope, newLasFile.getName());
+                mainTree.add(envelope, newLasFile.getName());
             }
             pm.worked(1);
         }
         pm.done();
 
         File mainIndex = new File(inFolder, pIndexname);
-        byte[] mainIndexBytes = serialize(mainTree);
-        dumpBytes(mainIndex, mainIndexBytes);
+        mainTree.write(mainIndex);
 
         // write prj file
         CrsUtilities.writeProjectionFile(mainIndex.getAbsolutePath(), "lasfolder", crs);
@@ -330,7 +328,7 @@ public class LasIndexer extends JGTModel {
                 writer.open();
 
                 int addedTiles = 0;
-                STRtreeJGT tree = new STRtreeJGT();
+                LasSpatialIndex.Builder tree = new LasSpatialIndex.Builder(4, false);
                 if (!isMultiThreaded) {
                     pm.beginTask("Write and index new las...", cols);
                 } else {
@@ -360,7 +358,7 @@ public class LasIndexer extends JGTModel {
                         }
                         avgElevValue /= count;
                         avgIntensityValue /= count;
-                        tree.insert(env, new double[]{tmpCount, pointCount, avgElevValue, avgIntensityValue});
+                        tree.add(env, new double[]{tmpCount, pointCount, avgElevValue, avgIntensityValue});
                         addedTiles++;
                     }
                     if (!isMultiThreaded)
@@ -369,8 +367,7 @@ public class LasIndexer extends JGTModel {
                 if (!isMultiThreaded)
                     pm.done();
 
-                byte[] serialized = serialize(tree);
-                dumpBytes(indexFile, serialized);
+                tree.write(indexFile);
 
                 pm.message("Tiles added for " + name + ": " + addedTiles);
             }
@@ -420,20 +417,5 @@ public class LasIndexer extends JGTModel {
     public void close() throws Exception {
     }
 
-    private static byte[] serialize( Object obj ) throws IOException {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            ObjectOutputStream out = new ObjectOutputStream(bos);
-            out.writeObject(obj);
-            out.close();
-            return bos.toByteArray();
-        }
-    }
-
-    private static void dumpBytes( File file, byte[] bytes ) throws Exception {
-        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
-            raf.write(bytes);
-        }
-    }
-
 
 }
@@ -0,0 +1,640 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.io.las.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.jgrasstools.gears.io.las.index.strtree.STRtreeJGT;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.ItemBoundable;
+
+/**
+ * A packed, read only R-tree for las indexes, which is queried directly on its binary form.
+ *
+ * <p>
+ * The index is usually memory mapped from file, so opening it costs no more than
+ * reading the header and nothing is deserialized. Items are identified by their position
+ * in the index and carry a fixed number of double values (the point ranges
+ * of the file indexes) and/or a name (the las files of the folder index).
+ * </p>
+ *
+ * <p>
+ * The binary file is little endian and defined as follows:
+ *
+ * <ul>
+ *  <li>4 bytes for the magic number, the chars 'JGLX'</li>
+ *  <li>4 bytes for the format version</li>
+ *  <li>4 bytes for the number of items</li>
+ *  <li>4 bytes for the node size, i.e. the max number of children of a node</li>
+ *  <li>4 bytes for the number of double values of each item</li>
+ *  <li>4 bytes for the names flag, 1 if the items have names</li>
+ *  <li>4 bytes for the number of boxes (items plus nodes)</li>
+ *  <li>4 bytes of padding</li>
+ *  <li>32 bytes for the bounds of all the items [minx, miny, maxx, maxy]</li>
+ *  <li>the boxes, 32 bytes each: the items in STR order, then the nodes level by level up to the root</li>
+ *  <li>4 bytes for each box: the item for the items, the first child box for the nodes (padded to 8 bytes)</li>
+ *  <li>the double values of the items</li>
+ *  <li>if the items have names, number of items + 1 offsets of 4 bytes, followed by the UTF-8 names</li>
+ * </ul>
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class LasSpatialIndex {
+    /**
+     * The magic number of the format, the chars 'JGLX'.
+     */
+    public static final int MAGIC = 0x584C474A;
+    /**
+     * The version of the format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The default max number of children of a node.
+     */
+    public static final int DEFAULT_NODE_SIZE = 16;
+
+    private static final int HEADER_SIZE = 64;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int itemsCount;
+    private final int nodeSize;
+    private final int valuesPerItem;
+    private final boolean hasNames;
+    private final int boxesCount;
+    private final int[] levelEnds;
+
+    private final int boxesPosition;
+    private final int indicesPosition;
+    private final int valuesPosition;
+    private final int namesPosition;
+
+    /**
+     * Create an index on a buffer containing its binary form.
+     *
+     * @param buffer the buffer.
+     * @throws IOException if the buffer doesn't contain a valid index.
+     */
+    public LasSpatialIndex( ByteBuffer buffer ) throws IOException {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (this.buffer.capacity() < HEADER_SIZE || this.buffer.getInt(0) != MAGIC) {
+            throw new IOException("The data are not a las spatial index.");
+        }
+        int version = this.buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported las spatial index version: " + version);
+        }
+        itemsCount = this.buffer.getInt(8);
+        nodeSize = this.buffer.getInt(12);
+        valuesPerItem = this.buffer.getInt(16);
+        hasNames = this.buffer.getInt(20) == 1;
+        boxesCount = this.buffer.getInt(24);
+
+        levelEnds = getLevelEnds(itemsCount, nodeSize);
+        int expectedBoxes = levelEnds.length == 0 ? 0 : levelEnds[levelEnds.length - 1];
+        if (expectedBoxes != boxesCount) {
+            throw new IOException("The las spatial index is corrupted.");
+        }
+
+        boxesPosition = HEADER_SIZE;
+        indicesPosition = boxesPosition + boxesCount * 32;
+        valuesPosition = indicesPosition + pad8(boxesCount * 4);
+        namesPosition = valuesPosition + itemsCount * valuesPerItem * 8;
+    }
+
+    /**
+     * Memory map an index file.
+     *
+     * <p>The file is closed right away, the mapping stays valid until the index is garbage collected.</p>
+     *
+     * @param file the index file.
+     * @return the index.
+     * @throws IOException
+     */
+    public static LasSpatialIndex open( File file ) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel fc = raf.getChannel()) {
+            long size = fc.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("The las spatial index is too big: " + file.getName());
+            }
+            ByteBuffer mapped = fc.map(MapMode.READ_ONLY, 0, size);
+            return new LasSpatialIndex(mapped);
+        }
+    }
+
+    /**
+     * Checks if a file contains an index in this format.
+     *
+     * @param file the file to check.
+     * @return <code>true</code> if the file starts with the magic number.
+     * @throws IOException
+     */
+    public static boolean isSpatialIndex( File file ) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < HEADER_SIZE) {
+                return false;
+            }
+            return Integer.reverseBytes(raf.readInt()) == MAGIC;
+        }
+    }
+
+    /**
+     * Convert a java serialized {@link STRtreeJGT} index.
+     *
+     * <p>Items of type string become names, items of type double[] become values.</p>
+     *
+     * @param tree the tree to convert.
+     * @return the index.
+     * @throws IOException
+     */
+    @SuppressWarnings("rawtypes")
+    public static LasSpatialIndex fromSTRtree( STRtreeJGT tree ) throws IOException {
+        Envelope all = new Envelope(-Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE);
+        List boundables = tree.queryBoundables(all);
+        int valuesPerItem = 0;
+        boolean hasNames = false;
+        for( Object object : boundables ) {
+            Object item = ((ItemBoundable) object).getItem();
+            if (item instanceof double[]) {
+                valuesPerItem = Math.max(valuesPerItem, ((double[]) item).length);
+            } else if (item instanceof String) {
+                hasNames = true;
+            }
+        }
+        Builder builder = new Builder(valuesPerItem, hasNames);
+        for( Object object : boundables ) {
+            ItemBoundable itemBoundable = (ItemBoundable) object;
+            Object item = itemBoundable.getItem();
+            Envelope env = (Envelope) itemBoundable.getBounds();
+            double[] values = item instanceof double[] ? (double[]) item : null;
+            String name = item instanceof String ? (String) item : null;
+            builder.add(env, values, name);
+        }
+        return new LasSpatialIndex(builder.build());
+    }
+
+    /**
+     * @return the number of items of the index.
+     */
+    public int size() {
+        return itemsCount;
+    }
+
+    /**
+     * @return the number of values of each item.
+     */
+    public int getValuesPerItem() {
+        return valuesPerItem;
+    }
+
+    /**
+     * @return <code>true</code> if the items have names.
+     */
+    public boolean hasNames() {
+        return hasNames;
+    }
+
+    /**
+     * @return the bounds of all the items or <code>null</code> if the index is empty.
+     */
+    public Envelope getBounds() {
+        if (itemsCount == 0) {
+            return null;
+        }
+        return new Envelope(buffer.getDouble(32), buffer.getDouble(48), buffer.getDouble(40), buffer.getDouble(56));
+    }
+
+    /**
+     * Get the envelope of an item.
+     *
+     * @param item the item.
+     * @return the envelope.
+     */
+    public Envelope getEnvelope( int item ) {
+        int pos = boxesPosition + item * 32;
+        return new Envelope(buffer.getDouble(pos), buffer.getDouble(pos + 16), buffer.getDouble(pos + 8),
+                buffer.getDouble(pos + 24));
+    }
+
+    /**
+     * Get a value of an item.
+     *
+     * @param item the item.
+     * @param index the index of the value.
+     * @return the value.
+     */
+    public double getValue( int item, int index ) {
+        return buffer.getDouble(valuesPosition + (item * valuesPerItem + index) * 8);
+    }
+
+    /**
+     * Get all the values of an item.
+     *
+     * @param item the item.
+     * @return the values.
+     */
+    public double[] getValues( int item ) {
+        double[] values = new double[valuesPerItem];
+        for( int i = 0; i < valuesPerItem; i++ ) {
+            values[i] = getValue(item, i);
+        }
+        return values;
+    }
+
+    /**
+     * Get the name of an item.
+     *
+     * @param item the item.
+     * @return the name or <code>null</code> if the items have no names.
+     */
+    public String getName( int item ) {
+        if (!hasNames) {
+            return null;
+        }
+        int offsetsPosition = namesPosition;
+        int bytesPosition = offsetsPosition + (itemsCount + 1) * 4;
+        int from = buffer.getInt(offsetsPosition + item * 4);
+        int to = buffer.getInt(offsetsPosition + (item + 1) * 4);
+        byte[] bytes = new byte[to - from];
+        for( int i = 0; i < bytes.length; i++ ) {
+            bytes[i] = buffer.get(bytesPosition + from + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Get all the names of the items.
+     *
+     * @return the list of names, in item order.
+     */
+    public List<String> getNames() {
+        List<String> names = new ArrayList<String>(itemsCount);
+        for( int i = 0; i < itemsCount; i++ ) {
+            names.add(getName(i));
+        }
+        return names;
+    }
+
+    /**
+     * Query the items that intersect an envelope.
+     *
+     * @param env the envelope to search.
+     * @return the items, in index order.
+     */
+    public int[] query( Envelope env ) {
+        if (itemsCount == 0 || env.isNull()) {
+            return new int[0];
+        }
+        double minX = env.getMinX();
+        double minY = env.getMinY();
+        double maxX = env.getMaxX();
+        double maxY = env.getMaxY();
+
+        int[] result = new int[16];
+        int resultCount = 0;
+        int[] stack = new int[32];
+        int stackCount = 0;
+
+        int node = boxesCount - 1;
+        int level = levelEnds.length - 1;
+        while( true ) {
+            int end = Math.min(node + nodeSize, levelEnds[level]);
+            for( int pos = node; pos < end; pos++ ) {
+                int boxPos = boxesPosition + pos * 32;
+                if (maxX < buffer.getDouble(boxPos) || maxY < buffer.getDouble(boxPos + 8)
+                        || minX > buffer.getDouble(boxPos + 16) || minY > buffer.getDouble(boxPos + 24)) {
+                    continue;
+                }
+                int index = buffer.getInt(indicesPosition + pos * 4);
+                if (node < itemsCount) {
+                    if (resultCount == result.length) {
+                        result = Arrays.copyOf(result, resultCount * 2);
+                    }
+                    result[resultCount++] = index;
+                } else {
+                    if (stackCount + 2 > stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[stackCount++] = index;
+                    stack[stackCount++] = level - 1;
+                }
+            }
+            if (stackCount == 0) {
+                break;
+            }
+            level = stack[--stackCount];
+            node = stack[--stackCount];
+        }
+        if (resultCount > 1) {
+            Arrays.sort(result, 0, resultCount);
+        }
+        return Arrays.copyOf(result, resultCount);
+    }
+
+    /**
+     * Write the index to file.
+     *
+     * @param file the file to write.
+     * @throws IOException
+     */
+    public void write( File file ) throws IOException {
+        ByteBuffer data = buffer.duplicate();
+        data.clear();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel fc = raf.getChannel()) {
+            raf.setLength(0);
+            while( data.hasRemaining() ) {
+                fc.write(data);
+            }
+        }
+    }
+
+    /**
+     * Calculates the end (exclusive) of each level of the tree, in boxes.
+     */
+    private static int[] getLevelEnds( int itemsCount, int nodeSize ) {
+        if (itemsCount == 0) {
+            return new int[0];
+        }
+        List<Integer> ends = new ArrayList<Integer>();
+        int n = itemsCount;
+        int total = n;
+        ends.add(total);
+        do {
+            n = (n + nodeSize - 1) / nodeSize;
+            total += n;
+            ends.add(total);
+        } while( n != 1 );
+        int[] levelEnds = new int[ends.size()];
+        for( int i = 0; i < levelEnds.length; i++ ) {
+            levelEnds[i] = ends.get(i);
+        }
+        return levelEnds;
+    }
+
+    private static int pad8( int size ) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Collects items and builds the binary form of a {@link LasSpatialIndex}.
+     */
+    public static class Builder {
+        private final int valuesPerItem;
+        private final boolean hasNames;
+        private final int nodeSize;
+        private final List<Envelope> envelopes = new ArrayList<Envelope>();
+        private final List<double[]> valuesList = new ArrayList<double[]>();
+        private final List<String> names = new ArrayList<String>();
+
+        /**
+         * Constructor.
+         *
+         * @param valuesPerItem the number of double values of each item.
+         * @param hasNames if <code>true</code>, the items have a name.
+         */
+        public Builder( int valuesPerItem, boolean hasNames ) {
+            this(valuesPerItem, hasNames, DEFAULT_NODE_SIZE);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param valuesPerItem the number of double values of each item.
+         * @param hasNames if <code>true</code>, the items have a name.
+         * @param nodeSize the max number of children of a node.
+         */
+        public Builder( int valuesPerItem, boolean hasNames, int nodeSize ) {
+            if (nodeSize < 2) {
+                throw new IllegalArgumentException("The node size has to be at least 2.");
+            }
+            this.valuesPerItem = valuesPerItem;
+            this.hasNames = hasNames;
+            this.nodeSize = nodeSize;
+        }
+
+        /**
+         * Add an item.
+         *
+         * @param env the envelope of the item.
+         * @param values the values of the item (missing values are set to 0).
+         * @param name the name of the item.
+         */
+        public void add( Envelope env, double[] values, String name ) {
+            envelopes.add(new Envelope(env));
+            double[] itemValues = new double[valuesPerItem];
+            if (values != null) {
+                System.arraycopy(values, 0, itemValues, 0, Math.min(values.length, valuesPerItem));
+            }
+            valuesList.add(itemValues);
+            names.add(name == null ? "" : name);
+        }
+
+        /**
+         * Add an item without name.
+         *
+         * @param env the envelope of the item.
+         * @param values the values of the item.
+         */
+        public void add( Envelope env, double[] values ) {
+            add(env, values, null);
+        }
+
+        /**
+         * Add an item without values.
+         *
+         * @param env the envelope of the item.
+         * @param name the name of the item.
+         */
+        public void add( Envelope env, String name ) {
+            add(env, null, name);
+        }
+
+        /**
+         * Build the binary form of the index.
+         *
+         * @return the little endian buffer.
+         */
+        public ByteBuffer build() {
+            int n = envelopes.size();
+            Integer[] order = strOrder();
+
+            int[] levelEnds = getLevelEnds(n, nodeSize);
+            int boxesCount = levelEnds.length == 0 ? 0 : levelEnds[levelEnds.length - 1];
+
+            byte[][] nameBytes = null;
+            int namesSize = 0;
+            if (hasNames) {
+                nameBytes = new byte[n][];
+                for( int i = 0; i < n; i++ ) {
+                    nameBytes[i] = names.get(order[i]).getBytes(UTF8);
+                    namesSize += nameBytes[i].length;
+                }
+                namesSize += (n + 1) * 4;
+            }
+            long size = (long) HEADER_SIZE + (long) boxesCount * 32 + pad8(boxesCount * 4) + (long) n * valuesPerItem * 8
+                    + namesSize;
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many items for a las spatial index: " + n);
+            }
+            ByteBuffer bb = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+
+            // boxes and indices
+            double[] boxes = new double[boxesCount * 4];
+            int[] indices = new int[boxesCount];
+            for( int i = 0; i < n; i++ ) {
+                Envelope env = envelopes.get(order[i]);
+                boxes[i * 4] = env.getMinX();
+                boxes[i * 4 + 1] = env.getMinY();
+                boxes[i * 4 + 2] = env.getMaxX();
+                boxes[i * 4 + 3] = env.getMaxY();
+                indices[i] = i;
+            }
+            int pos = n;
+            int levelStart = 0;
+            for( int l = 0; l < levelEnds.length - 1; l++ ) {
+                int levelEnd = levelEnds[l];
+                for( int child = levelStart; child < levelEnd; child += nodeSize ) {
+                    double minX = Double.POSITIVE_INFINITY;
+                    double minY = Double.POSITIVE_INFINITY;
+                    double maxX = Double.NEGATIVE_INFINITY;
+                    double maxY = Double.NEGATIVE_INFINITY;
+                    int childEnd = Math.min(child + nodeSize, levelEnd);
+                    for( int c = child; c < childEnd; c++ ) {
+                        minX = Math.min(minX, boxes[c * 4]);
+                        minY = Math.min(minY, boxes[c * 4 + 1]);
+                        maxX = Math.max(maxX, boxes[c * 4 + 2]);
+                        maxY = Math.max(maxY, boxes[c * 4 + 3]);
+                    }
+                    boxes[pos * 4] = minX;
+                    boxes[pos * 4 + 1] = minY;
+                    boxes[pos * 4 + 2] = maxX;
+                    boxes[pos * 4 + 3] = maxY;
+                    indices[pos] = child;
+                    pos++;
+                }
+                levelStart = levelEnd;
+            }
+
+            // header
+            bb.putInt(0, MAGIC);
+            bb.putInt(4, VERSION);
+            bb.putInt(8, n);
+            bb.putInt(12, nodeSize);
+            bb.putInt(16, valuesPerItem);
+            bb.putInt(20, hasNames ? 1 : 0);
+            bb.putInt(24, boxesCount);
+            if (n > 0) {
+                int root = (boxesCount - 1) * 4;
+                bb.putDouble(32, boxes[root]);
+                bb.putDouble(40, boxes[root + 1]);
+                bb.putDouble(48, boxes[root + 2]);
+                bb.putDouble(56, boxes[root + 3]);
+            }
+
+            int p = HEADER_SIZE;
+            for( int i = 0; i < boxes.length; i++ ) {
+                bb.putDouble(p, boxes[i]);
+                p += 8;
+            }
+            for( int i = 0; i < indices.length; i++ ) {
+                bb.putInt(p, indices[i]);
+                p += 4;
+            }
+            p = HEADER_SIZE + boxesCount * 32 + pad8(boxesCount * 4);
+            for( int i = 0; i < n; i++ ) {
+                double[] values = valuesList.get(order[i]);
+                for( int v = 0; v < valuesPerItem; v++ ) {
+                    bb.putDouble(p, values[v]);
+                    p += 8;
+                }
+            }
+            if (hasNames) {
+                int offset = 0;
+                for( int i = 0; i < n; i++ ) {
+                    bb.putInt(p, offset);
+                    p += 4;
+                    offset += nameBytes[i].length;
+                }
+                bb.putInt(p, offset);
+                p += 4;
+                for( int i = 0; i < n; i++ ) {
+                    for( byte b : nameBytes[i] ) {
+                        bb.put(p++, b);
+                    }
+                }
+            }
+            return bb;
+        }
+
+        /**
+         * Build the index and write it to file.
+         *
+         * @param file the file to write.
+         * @throws IOException
+         */
+        public void write( File file ) throws IOException {
+            new LasSpatialIndex(build()).write(file);
+        }
+
+        /**
+         * Sort the items with the Sort-Tile-Recursive rule: vertical slices by x center,
+         * each one sorted by y center. Slices contain whole leaf nodes.
+         */
+        private Integer[] strOrder() {
+            int n = envelopes.size();
+            Integer[] order = new Integer[n];
+            for( int i = 0; i < n; i++ ) {
+                order[i] = i;
+            }
+            if (n <= nodeSize) {
+                return order;
+            }
+            Arrays.sort(order, new Comparator<Integer>(){
+                public int compare( Integer o1, Integer o2 ) {
+                    return Double.compare(envelopes.get(o1).centre().x, envelopes.get(o2).centre().x);
+                }
+            });
+            int leafNodes = (n + nodeSize - 1) / nodeSize;
+            int slicesCount = (int) Math.ceil(Math.sqrt(leafNodes));
+            int sliceSize = nodeSize * ((leafNodes + slicesCount - 1) / slicesCount);
+            Comparator<Integer> yComparator = new Comparator<Integer>(){
+                public int compare( Integer o1, Integer o2 ) {
+                    return Double.compare(envelopes.get(o1).centre().y, envelopes.get(o2).centre().y);
+                }
+            };
+            for( int from = 0; from < n; from += sliceSize ) {
+                Arrays.sort(order, from, Math.min(from + sliceSize, n), yComparator);
+            }
+            return order;
+        }
+    }
+}
@@ -100,7 +100,6 @@ public class OmsLasIndexReader extends JGTModel {
     public boolean doInternal = false;
     public List<LasRecord> lasPoints = new ArrayList<LasRecord>();
 
-    @SuppressWarnings("rawtypes")
     @Execute
     public void process() throws Exception {
         checkNull(inFile);
@@ -122,7 +121,7 @@ public class OmsLasIndexReader extends JGTModel {
         GeometryFactory gf = GeometryUtilities.gf();
 
         File parentFolder = new File(inFile).getParentFile();
-        STRtreeJGT mainIndexTree = readIndex(inFile);
+        LasSpatialIndex mainIndex = readSpatialIndex(inFile);
 
         List<Geometry> boundsList;
         if (!doBounds) {
@@ -164,11 +163,11 @@ public class OmsLasIndexReader extends JGTModel {
 
         for( Geometry boundGeom : boundsList ) {
             Envelope env = boundGeom.getEnvelopeInternal();
-            List filesList = mainIndexTree.query(env);
-            for( Object fileName : filesList ) {
-                if (fileName instanceof String) {
-                    pm.message("Processing: " + fileName);
-                    String name = (String) fileName;
+            int[] filesList = mainIndex.query(env);
+            for( int fileItem : filesList ) {
+                String name = mainIndex.getName(fileItem);
+                if (name != null) {
+                    pm.message("Processing: " + name);
                     File lasFile = new File(parentFolder, name);
                     File lasIndexFile = FileUtilities.substituteExtention(lasFile, "lasfix");
                     if (!lasIndexFile.exists() || !lasFile.exists()) {
@@ -181,14 +180,13 @@ public class OmsLasIndexReader extends JGTModel {
 
                         if (!doBounds) {
                             // TODO check files
-                            STRtreeJGT lasIndex = readIndex(lasIndexFile.getAbsolutePath());
-                            List lasIndexStoreInfoList = lasIndex.query(env);
-                            pm.beginTask("Read data...", lasIndexStoreInfoList.size());
-                            for( Object obj : lasIndexStoreInfoList ) {
-                                if (obj instanceof double[]) {
-                                    double[] addresses = (double[]) obj;
-                                    long from = (long) addresses[0];
-                                    long to = (long) addresses[1];
+                            LasSpatialIndex lasIndex = readSpatialIndex(lasIndexFile.getAbsolutePath());
+                            int[] lasIndexStoreInfoList = lasIndex.query(env);
+                            pm.beginTask("Read data...", lasIndexStoreInfoList.length);
+                            for( int cellItem : lasIndexStoreInfoList ) {
+                                if (lasIndex.getValuesPerItem() >= 2) {
+                                    long from = (long) lasIndex.getValue(cellItem, 0);
+                                    long to = (long) lasIndex.getValue(cellItem, 1);
                                     for( long pointNum = from; pointNum < to; pointNum++ ) {
                                         LasRecord lasDot = reader.getPointAt(pointNum);
                                         if (doInternal) {
@@ -231,6 +229,31 @@ public class OmsLasIndexReader extends JGTModel {
         }
     }
 
+    /**
+     * Read an index file, be it in the binary {@link LasSpatialIndex} format
+     * or in the legacy java serialized format.
+     *
+     * <p>Legacy indexes are converted in memory, use {@link LasIndexMigrator} to convert them once for all.</p>
+     *
+     * @param path the path to the index file.
+     * @return the index.
+     * @throws Exception
+     */
+    public static LasSpatialIndex readSpatialIndex( String path ) throws Exception {
+        File file = new File(path);
+        if (LasSpatialIndex.isSpatialIndex(file)) {
+            return LasSpatialIndex.open(file);
+        }
+        return LasSpatialIndex.fromSTRtree(readIndex(path));
+    }
+
+    /**
+     * Read a legacy java serialized index file.
+     *
+     * @param path the path to the index file.
+     * @return the deserialized tree.
+     * @throws Exception
+     */
     public static STRtreeJGT readIndex( String path ) throws Exception {
         File file = new File(path);
         RandomAccessFile raf = null;
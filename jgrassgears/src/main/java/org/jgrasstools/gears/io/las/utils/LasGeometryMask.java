@@ -0,0 +1,147 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.io.las.utils;
+
+import com.vividsolutions.jts.algorithm.locate.IndexedPointInAreaLocator;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Location;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * A point in geometry test for las points.
+ *
+ * <p>
+ * For polygons the envelope of the geometry is rasterized in a grid of cells
+ * that are classified as inside, outside or crossed by the boundary. Points in
+ * inside or outside cells are solved by a lookup, only the others need a
+ * scanline (ray crossing) test on the indexed polygon edges. No geometry is
+ * created per point.
+ * </p>
+ * <p>The result is the same as the one of {@link PreparedGeometry#contains(Geometry)}
+ * on the point, other geometry types are passed to the prepared geometry.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class LasGeometryMask {
+    /**
+     * The default number of mask cells on the longest side of the geometry envelope.
+     */
+    public static final int DEFAULT_MASK_SIZE = 64;
+
+    private static final byte OUTSIDE = 0;
+    private static final byte INSIDE = 1;
+    private static final byte BOUNDARY = 2;
+
+    private final GeometryFactory gf = new GeometryFactory();
+    private final PreparedGeometry preparedGeometry;
+    private final IndexedPointInAreaLocator locator;
+
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+    private final double cellSize;
+    private final int maskCols;
+    private final int maskRows;
+    private final byte[] mask;
+
+    /**
+     * Constructor with the default mask size.
+     *
+     * @param geometry the geometry to check against.
+     */
+    public LasGeometryMask( Geometry geometry ) {
+        this(geometry, DEFAULT_MASK_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param geometry the geometry to check against.
+     * @param maskSize the number of mask cells on the longest side of the geometry envelope.
+     */
+    public LasGeometryMask( Geometry geometry, int maskSize ) {
+        preparedGeometry = PreparedGeometryFactory.prepare(geometry);
+        Envelope env = geometry.getEnvelopeInternal();
+        minX = env.getMinX();
+        minY = env.getMinY();
+        maxX = env.getMaxX();
+        maxY = env.getMaxY();
+        double side = Math.max(env.getWidth(), env.getHeight());
+        if (!(geometry instanceof Polygonal) || geometry.isEmpty() || side <= 0) {
+            locator = null;
+            cellSize = 0;
+            maskCols = 0;
+            maskRows = 0;
+            mask = null;
+            return;
+        }
+        locator = new IndexedPointInAreaLocator(geometry);
+        // the edge index is built at the first query, do it before sharing the locator
+        locator.locate(new Coordinate(minX, minY));
+        cellSize = side / Math.max(1, maskSize);
+        maskCols = Math.max(1, (int) Math.ceil(env.getWidth() / cellSize));
+        maskRows = Math.max(1, (int) Math.ceil(env.getHeight() / cellSize));
+        mask = new byte[maskCols * maskRows];
+        for( int r = 0; r < maskRows; r++ ) {
+            for( int c = 0; c < maskCols; c++ ) {
+                double x1 = minX + c * cellSize;
+                double y1 = minY + r * cellSize;
+                Geometry cell = gf.toGeometry(new Envelope(x1, x1 + cellSize, y1, y1 + cellSize));
+                byte type;
+                if (preparedGeometry.containsProperly(cell)) {
+                    type = INSIDE;
+                } else if (preparedGeometry.disjoint(cell)) {
+                    type = OUTSIDE;
+                } else {
+                    type = BOUNDARY;
+                }
+                mask[r * maskCols + c] = type;
+            }
+        }
+    }
+
+    /**
+     * Checks if a position is inside the geometry.
+     *
+     * @param x the easting.
+     * @param y the northing.
+     * @return <code>true</code> if the position is in the interior of the geometry.
+     */
+    public boolean contains( double x, double y ) {
+        if (x < minX || x > maxX || y < minY || y > maxY) {
+            return false;
+        }
+        if (locator == null) {
+            return preparedGeometry.contains(gf.createPoint(new Coordinate(x, y)));
+        }
+        int c = Math.min(maskCols - 1, (int) ((x - minX) / cellSize));
+        int r = Math.min(maskRows - 1, (int) ((y - minY) / cellSize));
+        byte type = mask[r * maskCols + c];
+        if (type != BOUNDARY) {
+            return type == INSIDE;
+        }
+        return locator.locate(new Coordinate(x, y)) == Location.INTERIOR;
+    }
+}
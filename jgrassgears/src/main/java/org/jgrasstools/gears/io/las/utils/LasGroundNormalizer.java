@@ -0,0 +1,208 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.io.las.utils;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
+import org.jgrasstools.gears.libs.modules.JGTConstants;
+import org.jgrasstools.gears.utils.RegionMap;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+/**
+ * Normalizes the elevation of las points over a dem.
+ *
+ * <p>
+ * The dem is read in square tiles of primitive values that are kept in a
+ * bounded cache, and the cell of a point is computed arithmetically from the
+ * region of the dem, so no coordinate transformation or object is involved
+ * per point. Points of a batch are spatially close, so the tile of the
+ * previous point is reused without touching the cache most of the times.
+ * </p>
+ * <p>The values are the same as the ones of {@link CoverageUtilities#getValue(GridCoverage2D, double, double)},
+ * novalues are given outside of the dem.</p>
+ * <p>The normalizer can be shared by threads.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class LasGroundNormalizer {
+    /**
+     * The side of the cached tiles in cells.
+     */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * The default number of tiles kept in memory.
+     */
+    public static final int DEFAULT_MAX_TILES = 64;
+
+    private final RenderedImage demImage;
+    private final double west;
+    private final double north;
+    private final double xres;
+    private final double yres;
+    private final int cols;
+    private final int rows;
+    private final int tileCols;
+
+    private final Map<Integer, double[]> tilesCache;
+
+    /**
+     * Constructor with the default cache size.
+     *
+     * @param dem the dem to normalize on.
+     */
+    public LasGroundNormalizer( GridCoverage2D dem ) {
+        this(dem, DEFAULT_MAX_TILES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param dem the dem to normalize on.
+     * @param maxTiles the maximum number of tiles of {@link #TILE_SIZE} cells to keep in memory.
+     */
+    public LasGroundNormalizer( GridCoverage2D dem, final int maxTiles ) {
+        demImage = dem.getRenderedImage();
+        RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(dem);
+        west = regionMap.getWest();
+        north = regionMap.getNorth();
+        xres = regionMap.getXres();
+        yres = regionMap.getYres();
+        cols = regionMap.getCols();
+        rows = regionMap.getRows();
+        tileCols = (cols + TILE_SIZE - 1) / TILE_SIZE;
+
+        tilesCache = new LinkedHashMap<Integer, double[]>(16, 0.75f, true){
+            private static final long serialVersionUID = 1L;
+            protected boolean removeEldestEntry( Map.Entry<Integer, double[]> eldest ) {
+                return size() > Math.max(1, maxTiles);
+            }
+        };
+    }
+
+    /**
+     * Get the dem value at a position.
+     *
+     * @param x the easting.
+     * @param y the northing.
+     * @return the dem value or novalue if outside of the dem.
+     */
+    public double getValue( double x, double y ) {
+        int col = (int) Math.floor((x - west) / xres);
+        int row = (int) Math.floor((north - y) / yres);
+        if (col < 0 || col >= cols || row < 0 || row >= rows) {
+            return JGTConstants.doubleNovalue;
+        }
+        int tileCol = col / TILE_SIZE;
+        int tileRow = row / TILE_SIZE;
+        double[] tile = getTile(tileCol, tileRow);
+        return tile[(row - tileRow * TILE_SIZE) * tileWidth(tileCol) + col - tileCol * TILE_SIZE];
+    }
+
+    /**
+     * Get the dem values for a set of positions.
+     *
+     * @param x the eastings.
+     * @param y the northings.
+     * @param size the number of positions to use.
+     * @param values the array to put the values in, novalues are set outside of the dem.
+     */
+    public void getValues( double[] x, double[] y, int size, double[] values ) {
+        int currentTile = -1;
+        double[] tile = null;
+        int tileWidth = 0;
+        for( int i = 0; i < size; i++ ) {
+            int col = (int) Math.floor((x[i] - west) / xres);
+            int row = (int) Math.floor((north - y[i]) / yres);
+            if (col < 0 || col >= cols || row < 0 || row >= rows) {
+                values[i] = JGTConstants.doubleNovalue;
+                continue;
+            }
+            int tileCol = col / TILE_SIZE;
+            int tileRow = row / TILE_SIZE;
+            int tileId = tileRow * tileCols + tileCol;
+            if (tileId != currentTile) {
+                tile = getTile(tileCol, tileRow);
+                tileWidth = tileWidth(tileCol);
+                currentTile = tileId;
+            }
+            values[i] = tile[(row - tileRow * TILE_SIZE) * tileWidth + col - tileCol * TILE_SIZE];
+        }
+    }
+
+    /**
+     * Sets the height over the dem of the points of a batch as their ground elevation.
+     *
+     * <p>The batch is compacted to the points that are above the threshold, points
+     * over dem novalues are dropped.</p>
+     *
+     * @param batch the batch to normalize.
+     * @param elevThreshold the minimum height over the dem to keep a point.
+     * @return the number of points left in the batch.
+     */
+    public int normalize( LasPointBatch batch, double elevThreshold ) {
+        double[] ground = batch.groundElevation;
+        getValues(batch.x, batch.y, batch.size, ground);
+        int kept = 0;
+        for( int i = 0; i < batch.size; i++ ) {
+            double value = ground[i];
+            if (JGTConstants.isNovalue(value)) {
+                continue;
+            }
+            double height = batch.z[i] - value;
+            if (height <= elevThreshold) {
+                continue;
+            }
+            if (kept != i) {
+                batch.copy(i, kept);
+            }
+            ground[kept] = height;
+            kept++;
+        }
+        batch.size = kept;
+        return kept;
+    }
+
+    private int tileWidth( int tileCol ) {
+        return Math.min(TILE_SIZE, cols - tileCol * TILE_SIZE);
+    }
+
+    private double[] getTile( int tileCol, int tileRow ) {
+        Integer key = tileRow * tileCols + tileCol;
+        synchronized (tilesCache) {
+            double[] tile = tilesCache.get(key);
+            if (tile == null) {
+                int width = tileWidth(tileCol);
+                int height = Math.min(TILE_SIZE, rows - tileRow * TILE_SIZE);
+                int x = demImage.getMinX() + tileCol * TILE_SIZE;
+                int y = demImage.getMinY() + tileRow * TILE_SIZE;
+                Raster data = demImage.getData(new Rectangle(x, y, width, height));
+                tile = data.getSamples(x, y, width, height, 0, new double[width * height]);
+                tilesCache.put(key, tile);
+            }
+            return tile;
+        }
+    }
+}
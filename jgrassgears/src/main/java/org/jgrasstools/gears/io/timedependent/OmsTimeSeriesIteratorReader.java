@@ -25,6 +25,7 @@ import static org.jgrasstools.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREAD
 import static org.jgrasstools.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_LICENSE;
 import static org.jgrasstools.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_NAME;
 import static org.jgrasstools.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_STATUS;
+import static org.jgrasstools.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_doReuse_DESCRIPTION;
 import static org.jgrasstools.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_fileNovalue_DESCRIPTION;
 import static org.jgrasstools.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_file_DESCRIPTION;
 import static org.jgrasstools.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_idfield_DESCRIPTION;
@@ -37,11 +38,11 @@ import static org.jgrasstools.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREAD
 import static org.jgrasstools.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_tPrevious_DESCRIPTION;
 import static org.jgrasstools.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_tStart_DESCRIPTION;
 import static org.jgrasstools.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_tTimestep_DESCRIPTION;
-import static org.jgrasstools.gears.libs.modules.JGTConstants.doubleNovalue;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -60,6 +61,7 @@ import oms3.annotations.Status;
 import oms3.annotations.UI;
 import oms3.io.CSTable;
 import oms3.io.DataIO;
+import oms3.io.NumericRowIterator;
 import oms3.io.TableIterator;
 
 import org.jgrasstools.gears.libs.exceptions.ModelsIllegalargumentException;
@@ -125,11 +127,15 @@ public class OmsTimeSeriesIteratorReader extends JGTModel {
     @Out
     public String tPrevious;
 
+    @Description(OMSTIMESERIESITERATORREADER_doReuse_DESCRIPTION)
+    @In
+    public boolean doReuse = false;
+
     @Description(OMSTIMESERIESITERATORREADER_outData_DESCRIPTION)
     @Out
     public HashMap<Integer, double[]> outData;
 
-    private TableIterator<String[]> rowsIterator;
+    private NumericRowIterator rowsIterator;
 
     private CSTable table;
 
@@ -137,6 +143,20 @@ public class OmsTimeSeriesIteratorReader extends JGTModel {
 
     private DateTime expectedTimestamp = null;
 
+    /**
+     * The ids of the groups of consecutive columns with the same id.
+     */
+    private Integer[] groupIds;
+    /**
+     * The number of columns of each group.
+     */
+    private int[] groupCounts;
+
+    private double[] aggregatedValues;
+    private int[] aggregatedCounts;
+
+    private HashMap<Integer, double[]> reusableData;
+
     @Initialize
     public void initProcess() {
         // activate time
@@ -146,48 +166,38 @@ public class OmsTimeSeriesIteratorReader extends JGTModel {
     private void ensureOpen() throws IOException {
         if (table == null) {
             table = DataIO.table(new File(file), null);
-            rowsIterator = (TableIterator<String[]>) table.rows().iterator();
             /*
              * If tStart is null then the reader try to read all the value in the file, nb time step constant.
              */
             if (tStart == null) {
+                TableIterator<String[]> tmpIterator = (TableIterator<String[]>) table.rows().iterator();
                 String secondTime = null;
                 // get the first time in the file.
-                if (rowsIterator.hasNext()) {
-                    String[] row = rowsIterator.next();
+                if (tmpIterator.hasNext()) {
+                    String[] row = tmpIterator.next();
                     tStart = row[1];
                 }
                 // get the time of the second row in the file.
-                if (rowsIterator.hasNext()) {
-                    String[] row = rowsIterator.next();
+                if (tmpIterator.hasNext()) {
+                    String[] row = tmpIterator.next();
                     secondTime = row[1];
                 }
                 // the dt is equal to the fifference of the time of 2 rows.
                 tTimestep = formatter.parseDateTime(secondTime).getMinuteOfDay()
                         - formatter.parseDateTime(tStart).getMinuteOfDay();
-                // close and reopen to read the row.
-                rowsIterator.close();
-                rowsIterator = (TableIterator<String[]>) table.rows().iterator();
+                tmpIterator.close();
             }
 
+            readColumnLayout();
+            // missing values are read as the novalue, a NaN in the file stays NaN
+            rowsIterator = DataIO.numericRows(table, 2, fileNovalue, novalue);
         }
     }
 
-    @Execute
-    public void nextRecord() throws IOException {
-        ensureOpen();
-        if (tCurrent == null) {
-            tPrevious = null;
-            tCurrent = tStart.trim();
-            expectedTimestamp = formatter.parseDateTime(tCurrent);
-        } else {
-
-            tPrevious = tCurrent;
-            expectedTimestamp = expectedTimestamp.plusMinutes(tTimestep);
-            tCurrent = expectedTimestamp.toString(formatter);
-        }
-        outData = new HashMap<Integer, double[]>();
-
+    /**
+     * Resolves the ids of the data columns once, grouping consecutive columns with the same id.
+     */
+    private void readColumnLayout() {
         int columnCount = table.getColumnCount();
         List<Integer> idList = new ArrayList<Integer>();
         List<Integer> idCountList = new ArrayList<Integer>();
@@ -197,19 +207,12 @@ public class OmsTimeSeriesIteratorReader extends JGTModel {
             String id = table.getColumnInfo(i).get(idfield);
             try {
                 Integer idInteger = Integer.valueOf(id);
-                idList.add(idInteger);
-                if (previousIdInteger == null) {
+                if (previousIdInteger == null || idInteger.intValue() == previousIdInteger.intValue()) {
                     count++;
                 } else {
-                    if (idInteger.intValue() == previousIdInteger.intValue()) {
-                        count++;
-                    } else {
-                        idCountList.add(count);
-                        count = 1;
-                    }
-                }
-                if (i == columnCount) {
+                    idList.add(previousIdInteger);
                     idCountList.add(count);
+                    count = 1;
                 }
                 previousIdInteger = idInteger;
             } catch (Exception e) {
@@ -217,33 +220,57 @@ public class OmsTimeSeriesIteratorReader extends JGTModel {
                         .getSimpleName(), pm);
             }
         }
+        if (previousIdInteger != null) {
+            idList.add(previousIdInteger);
+            idCountList.add(count);
+        }
+        groupIds = idList.toArray(new Integer[idList.size()]);
+        groupCounts = new int[idCountList.size()];
+        for( int i = 0; i < groupCounts.length; i++ ) {
+            groupCounts[i] = idCountList.get(i);
+        }
+    }
 
+    @Execute
+    public void nextRecord() throws IOException {
+        ensureOpen();
+        if (tCurrent == null) {
+            tPrevious = null;
+            tCurrent = tStart.trim();
+            expectedTimestamp = formatter.parseDateTime(tCurrent);
+        } else {
+
+            tPrevious = tCurrent;
+            expectedTimestamp = expectedTimestamp.plusMinutes(tTimestep);
+            tCurrent = expectedTimestamp.toString(formatter);
+        }
+
+        double[] row = null;
         if (rowsIterator.hasNext()) {
-            String[] row = getExpectedRow(rowsIterator, expectedTimestamp);
+            row = getExpectedRow(rowsIterator, expectedTimestamp);
+        }
+        if (row != null) {
+            if (doReuse && reusableData != null) {
+                outData = reusableData;
+            } else {
+                outData = new HashMap<Integer, double[]>();
+                if (doReuse) {
+                    reusableData = outData;
+                }
+            }
 
-            int idCountIndex = 0;
-            for( int i = 2; i < row.length; i++ ) {
-                Integer id = idList.get(i - 2);
-                Integer idCount = idCountList.get(idCountIndex);
+            int col = 0;
+            for( int g = 0; g < groupIds.length; g++ ) {
+                Integer id = groupIds[g];
+                int idCount = groupCounts[g];
                 double[] values = outData.get(id);
                 if (values == null) {
                     values = new double[idCount];
                     outData.put(id, values);
                 }
-                for( int j = 0; j < idCount; j++, i++ ) {
-                    if (row[i] == null || row[i].length() == 0) {
-                        values[j] = novalue;
-                    } else {
-                        String valueStr = row[i].trim();
-                        if (valueStr.equals(fileNovalue)) {
-                            values[j] = novalue;
-                        } else {
-                            values[j] = Double.parseDouble(valueStr);
-                        }
-                    }
+                for( int j = 0; j < idCount; j++, col++ ) {
+                    values[j] = row[col];
                 }
-                idCountIndex++;
-                i--;
             }
         } else {
             outData = null;
@@ -263,75 +290,49 @@ public class OmsTimeSeriesIteratorReader extends JGTModel {
      * Get the needed datarow from the table.
      * 
      * @param tableRowIterator
-     * @return the row that is aligned with the expected timestep.
+     * @return the values of the row that is aligned with the expected timestep.
      * @throws IOException if the expected timestep is < than the current.
      */
-    private String[] getExpectedRow( TableIterator<String[]> tableRowIterator, DateTime expectedDT ) throws IOException {
+    private double[] getExpectedRow( NumericRowIterator tableRowIterator, DateTime expectedDT ) throws IOException {
         while( tableRowIterator.hasNext() ) {
-            String[] row = tableRowIterator.next();
-            DateTime currentTimestamp = formatter.parseDateTime(row[1]);
+            tableRowIterator.next();
+            DateTime currentTimestamp = formatter.parseDateTime(tableRowIterator.getText(1));
             if (currentTimestamp.equals(expectedDT)) {
+                double[] row = tableRowIterator.getValues();
                 if (pNum == 1) {
                     return row;
                 } else {
-                    String[][] allRows = new String[pNum][];
-                    allRows[0] = row;
-                    int rowNum = 1;
+                    // aggregate the rows as they are read, the iterator reuses its buffers
+                    if (aggregatedValues == null) {
+                        aggregatedValues = new double[row.length];
+                        aggregatedCounts = new int[row.length];
+                    }
+                    Arrays.fill(aggregatedValues, 0.0);
+                    Arrays.fill(aggregatedCounts, 0);
+                    addToAggregation(row);
                     for( int i = 1; i < pNum; i++ ) {
                         if (tableRowIterator.hasNext()) {
-                            String[] nextRow = tableRowIterator.next();
-                            allRows[i] = nextRow;
-                            rowNum++;
+                            tableRowIterator.next();
+                            addToAggregation(tableRowIterator.getValues());
                         }
                     }
-                    // now aggregate
-                    String[] aggregatedRow = new String[row.length];
-                    // date is the one of the first instant
-                    aggregatedRow[0] = allRows[0][0];
-                    aggregatedRow[1] = allRows[0][1];
-                    for( int col = 2; col < allRows[0].length; col++ ) {
-
-                        boolean hasOne = false;
-                        switch( pAggregation ) {
-                        case 0:
-                            double sum = 0;
-                            for( int j = 0; j < rowNum; j++ ) {
-                                String valueStr = allRows[j][col];
-                                if (!valueStr.equals(fileNovalue)) {
-                                    double value = Double.parseDouble(valueStr);
-                                    sum = sum + value;
-                                    hasOne = true;
-                                }
-                            }
-                            if (!hasOne) {
-                                sum = doubleNovalue;
-                            }
-                            aggregatedRow[col] = String.valueOf(sum);
-                            break;
-                        case 1:
-                            double avg = 0;
-                            for( int j = 0; j < rowNum; j++ ) {
-                                String valueStr = allRows[j][col];
-                                if (!valueStr.equals(fileNovalue)) {
-                                    double value = Double.parseDouble(valueStr);
-                                    avg = avg + value;
-                                    hasOne = true;
-                                }
-                            }
-                            if (!hasOne) {
-                                avg = doubleNovalue;
-                            } else {
-                                avg = avg / pNum;
+                    for( int col = 0; col < aggregatedValues.length; col++ ) {
+                        if (aggregatedCounts[col] == 0) {
+                            aggregatedValues[col] = novalue;
+                        } else {
+                            switch( pAggregation ) {
+                            case 0:
+                                break;
+                            case 1:
+                                aggregatedValues[col] = aggregatedValues[col] / pNum;
+                                break;
+                            default:
+                                aggregatedValues[col] = novalue;
+                                break;
                             }
-                            aggregatedRow[col] = String.valueOf(avg);
-                            break;
-
-                        default:
-                            break;
                         }
-
                     }
-                    return aggregatedRow;
+                    return aggregatedValues;
                 }
             } else if (currentTimestamp.isBefore(expectedDT)) {
                 // browse until the instant is found
@@ -350,6 +351,17 @@ public class OmsTimeSeriesIteratorReader extends JGTModel {
         return null;
     }
 
+    private void addToAggregation( double[] row ) {
+        boolean nanNovalue = Double.isNaN(novalue);
+        for( int col = 0; col < aggregatedValues.length; col++ ) {
+            double value = row[col];
+            if (nanNovalue ? !Double.isNaN(value) : value != novalue) {
+                aggregatedValues[col] = aggregatedValues[col] + value;
+                aggregatedCounts[col]++;
+            }
+        }
+    }
+
     @Finalize
     public void close() throws IOException {
         rowsIterator.close();
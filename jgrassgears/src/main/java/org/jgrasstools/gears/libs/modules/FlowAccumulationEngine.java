@@ -0,0 +1,555 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.libs.modules;
+
+import static org.jgrasstools.gears.libs.modules.JGTConstants.doubleNovalue;
+import static org.jgrasstools.gears.libs.modules.JGTConstants.intNovalue;
+import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
+
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+
+import org.jgrasstools.gears.libs.monitor.IJGTProgressMonitor;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+/**
+ * Accumulation of values along D8 flowdirections in topological order.
+ *
+ * <p>
+ * Every cell is visited exactly once, going from upstream to downstream:
+ * the in-degree (number of entering cells) of each cell is counted and a cell is
+ * propagated to its downstream neighbour only once all its entering cells have
+ * been handled (Kahn's algorithm). The flow graph is kept as a packed row-major
+ * <code>int[]</code>, so no per-cell objects are created.
+ * </p>
+ * <p>
+ * Cells that never reach an in-degree of zero (i.e. closed loops of flowdirections)
+ * are left as novalue, the cells upstream of them keep their partial accumulation.
+ * The parallel versions give the same result.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class FlowAccumulationEngine {
+
+    private static final byte DONE = -1;
+
+    private final int[] flow;
+    private final int cols;
+    private final int rows;
+
+    /**
+     * Constructor.
+     *
+     * @param flow the flowdirections packed in row-major order, with {@link JGTConstants#intNovalue}
+     *              for novalue cells.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     */
+    public FlowAccumulationEngine( int[] flow, int cols, int rows ) {
+        if (flow.length != cols * rows) {
+            throw new IllegalArgumentException("The flow array doesn't match the raster size.");
+        }
+        this.flow = flow;
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    /**
+     * Constructor that reads the flowdirections from an image.
+     *
+     * @param flowImage the image of flowdirections.
+     */
+    public FlowAccumulationEngine( RenderedImage flowImage ) {
+        this(readFlow(flowImage), flowImage.getWidth(), flowImage.getHeight());
+    }
+
+    /**
+     * Reads a flowdirections image into a packed row-major int array.
+     *
+     * @param flowImage the image to read.
+     * @return the array of flowdirections, novalues being {@link JGTConstants#intNovalue}.
+     */
+    public static int[] readFlow( RenderedImage flowImage ) {
+        int width = flowImage.getWidth();
+        int height = flowImage.getHeight();
+        int[] flow = new int[width * height];
+        Raster packedRaster = CoverageUtilities.getPackedRaster(flowImage);
+        if (packedRaster != null && packedRaster.getDataBuffer() instanceof DataBufferDouble) {
+            double[] packed = ((DataBufferDouble) packedRaster.getDataBuffer()).getData();
+            for( int i = 0; i < flow.length; i++ ) {
+                double value = packed[i];
+                flow[i] = isNovalue(value) ? intNovalue : (int) value;
+            }
+            return flow;
+        } else if (packedRaster != null && packedRaster.getDataBuffer() instanceof DataBufferFloat) {
+            float[] packed = ((DataBufferFloat) packedRaster.getDataBuffer()).getData();
+            for( int i = 0; i < flow.length; i++ ) {
+                float value = packed[i];
+                flow[i] = isNovalue(value) ? intNovalue : (int) value;
+            }
+            return flow;
+        }
+        RandomIter flowIter = RandomIterFactory.create(flowImage, null);
+        int index = 0;
+        for( int r = 0; r < height; r++ ) {
+            for( int c = 0; c < width; c++ ) {
+                double value = flowIter.getSampleDouble(c, r, 0);
+                if (isNovalue(value)) {
+                    flow[index++] = intNovalue;
+                } else {
+                    flow[index++] = (int) value;
+                }
+            }
+        }
+        flowIter.done();
+        return flow;
+    }
+
+    /**
+     * Get the index of the downstream cell.
+     *
+     * @param index the index of the current cell.
+     * @return the index of the downstream cell or <code>-1</code> if the flow ends
+     *          (outlet, raster border or novalue).
+     */
+    public int downstreamIndex( int index ) {
+        int f = flow[index];
+        if (f < 1 || f > 8) {
+            return -1;
+        }
+        Direction direction = Direction.forFlow(f);
+        int col = index % cols + direction.col;
+        int row = index / cols + direction.row;
+        if (col < 0 || col >= cols || row < 0 || row >= rows) {
+            return -1;
+        }
+        int downIndex = row * cols + col;
+        if (isNovalue(flow[downIndex])) {
+            return -1;
+        }
+        return downIndex;
+    }
+
+    private int downstreamIndex( int index, double[] weights ) {
+        int downIndex = downstreamIndex(index);
+        if (downIndex != -1 && isNovalue(weights[downIndex])) {
+            return -1;
+        }
+        return downIndex;
+    }
+
+    private boolean isValid( int index, double[] weights ) {
+        if (isNovalue(flow[index])) {
+            return false;
+        }
+        return weights == null || !isNovalue(weights[index]);
+    }
+
+    /**
+     * Counts the entering cells of every cell.
+     *
+     * @param weights optional weights, novalue weights exclude the cell from the graph.
+     * @return the in-degree array, with {@link #DONE} for excluded cells.
+     */
+    private byte[] inDegree( double[] weights ) {
+        int cellsNum = flow.length;
+        byte[] inDegree = new byte[cellsNum];
+        for( int i = 0; i < cellsNum; i++ ) {
+            if (!isValid(i, weights)) {
+                inDegree[i] = DONE;
+                continue;
+            }
+            int downIndex = weights == null ? downstreamIndex(i) : downstreamIndex(i, weights);
+            if (downIndex != -1) {
+                inDegree[downIndex]++;
+            }
+        }
+        return inDegree;
+    }
+
+    /**
+     * Calculates the total contributing area (in number of cells) of every cell.
+     *
+     * @param pm the progress monitor.
+     * @return the tca array in row-major order, with {@link JGTConstants#intNovalue} where undefined.
+     */
+    public int[] calculateTca( IJGTProgressMonitor pm ) {
+        int cellsNum = flow.length;
+        byte[] inDegree = inDegree(null);
+        int[] tca = new int[cellsNum];
+        for( int i = 0; i < cellsNum; i++ ) {
+            tca[i] = inDegree[i] == DONE ? intNovalue : 1;
+        }
+
+        pm.beginTask("Calculating tca...", rows);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int current = r * cols + c;
+                if (inDegree[current] != 0) {
+                    continue;
+                }
+                while( true ) {
+                    inDegree[current] = DONE;
+                    int downIndex = downstreamIndex(current);
+                    if (downIndex == -1) {
+                        break;
+                    }
+                    tca[downIndex] += tca[current];
+                    if (--inDegree[downIndex] > 0) {
+                        break;
+                    }
+                    current = downIndex;
+                }
+            }
+            pm.worked(1);
+        }
+        pm.done();
+
+        for( int i = 0; i < cellsNum; i++ ) {
+            if (inDegree[i] != DONE) {
+                // part of a loop
+                tca[i] = intNovalue;
+            }
+        }
+        return tca;
+    }
+
+    /**
+     * Sums the weights of all upstream cells (the cell itself included) following the flowdirections.
+     *
+     * @param weights the values to sum in row-major order. Novalue cells are excluded
+     *              from the flow graph and interrupt the flow.
+     * @param pm the progress monitor.
+     * @return the summed values in row-major order, with {@link JGTConstants#doubleNovalue} where undefined.
+     */
+    public double[] accumulate( double[] weights, IJGTProgressMonitor pm ) {
+        int cellsNum = flow.length;
+        byte[] inDegree = inDegree(weights);
+        double[] summed = new double[cellsNum];
+        for( int i = 0; i < cellsNum; i++ ) {
+            summed[i] = inDegree[i] == DONE ? doubleNovalue : weights[i];
+        }
+
+        pm.beginTask("Accumulating downstream...", rows);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int current = r * cols + c;
+                if (inDegree[current] != 0) {
+                    continue;
+                }
+                while( true ) {
+                    inDegree[current] = DONE;
+                    int downIndex = downstreamIndex(current, weights);
+                    if (downIndex == -1) {
+                        break;
+                    }
+                    summed[downIndex] += summed[current];
+                    if (--inDegree[downIndex] > 0) {
+                        break;
+                    }
+                    current = downIndex;
+                }
+            }
+            pm.worked(1);
+        }
+        pm.done();
+
+        for( int i = 0; i < cellsNum; i++ ) {
+            if (inDegree[i] != DONE) {
+                summed[i] = doubleNovalue;
+            }
+        }
+        return summed;
+    }
+
+    /**
+     * Calculates the total contributing area splitting the work by independent sub-basins.
+     *
+     * <p>
+     * Every cell with no valid downstream neighbour is the outlet of a sub-basin that
+     * doesn't share any cell with the others. The sub-basins are collected upstream
+     * from their outlet in breadth-first order and accumulated in reverse order
+     * by the available threads.
+     * </p>
+     *
+     * @param numThreads the number of threads to use.
+     * @param pm the progress monitor.
+     * @return the tca array in row-major order, with {@link JGTConstants#intNovalue} where undefined.
+     * @throws Exception
+     */
+    public int[] calculateTcaParallel( int numThreads, IJGTProgressMonitor pm ) throws Exception {
+        final int[] tca = new int[flow.length];
+        runOnBasins(numThreads, null, new BasinAccumulator(){
+            public void start( int index ) {
+                tca[index] = 1;
+            }
+            public void propagate( int fromIndex, int toIndex ) {
+                tca[toIndex] += tca[fromIndex];
+            }
+            public void setNovalue( int index ) {
+                tca[index] = intNovalue;
+            }
+        }, pm);
+        return tca;
+    }
+
+    /**
+     * Parallel version of {@link #accumulate(double[], IJGTProgressMonitor)}, split by sub-basins.
+     *
+     * <p>Note that the summing order may differ from the sequential version,
+     * so that non integer values may differ in the last bits.</p>
+     *
+     * @param weights the values to sum in row-major order.
+     * @param numThreads the number of threads to use.
+     * @param pm the progress monitor.
+     * @return the summed values in row-major order, with {@link JGTConstants#doubleNovalue} where undefined.
+     * @throws Exception
+     */
+    public double[] accumulateParallel( final double[] weights, int numThreads, IJGTProgressMonitor pm ) throws Exception {
+        final double[] summed = new double[flow.length];
+        runOnBasins(numThreads, weights, new BasinAccumulator(){
+            public void start( int index ) {
+                summed[index] = weights[index];
+            }
+            public void propagate( int fromIndex, int toIndex ) {
+                summed[toIndex] += summed[fromIndex];
+            }
+            public void setNovalue( int index ) {
+                summed[index] = doubleNovalue;
+            }
+        }, pm);
+        return summed;
+    }
+
+    private interface BasinAccumulator {
+        void start( int index );
+        void propagate( int fromIndex, int toIndex );
+        void setNovalue( int index );
+    }
+
+    private void runOnBasins( int numThreads, final double[] weights, final BasinAccumulator accumulator,
+            final IJGTProgressMonitor pm ) throws Exception {
+        final int cellsNum = flow.length;
+        final boolean[] visited = new boolean[cellsNum];
+
+        // outlets of the independent sub-basins
+        int outletsNum = 0;
+        int[] outlets = new int[1024];
+        for( int i = 0; i < cellsNum; i++ ) {
+            if (!isValid(i, weights)) {
+                continue;
+            }
+            int downIndex = weights == null ? downstreamIndex(i) : downstreamIndex(i, weights);
+            if (downIndex == -1) {
+                if (outletsNum == outlets.length) {
+                    int[] tmp = new int[outlets.length * 2];
+                    System.arraycopy(outlets, 0, tmp, 0, outletsNum);
+                    outlets = tmp;
+                }
+                outlets[outletsNum++] = i;
+            }
+        }
+
+        final int[] finalOutlets = outlets;
+        final int finalOutletsNum = outletsNum;
+        final AtomicInteger nextOutlet = new AtomicInteger(0);
+        pm.beginTask("Accumulating by sub-basins...", outletsNum);
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for( int t = 0; t < numThreads; t++ ) {
+                futures.add(pool.submit(new Callable<Void>(){
+                    public Void call() throws Exception {
+                        int[] basinCells = new int[1024];
+                        int o;
+                        while( (o = nextOutlet.getAndIncrement()) < finalOutletsNum ) {
+                            basinCells = accumulateBasin(finalOutlets[o], basinCells, weights, visited, accumulator);
+                            synchronized (pm) {
+                                pm.worked(1);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        pm.done();
+
+        accumulateLoops(visited, weights, accumulator);
+    }
+
+    /**
+     * Handles the cells never reached from an outlet, which all end in loops.
+     *
+     * <p>As in the sequential version, the cells upstream of a loop are accumulated
+     * in topological order and the loop cells are left as novalue.</p>
+     */
+    private void accumulateLoops( boolean[] visited, double[] weights, BasinAccumulator accumulator ) {
+        int cellsNum = flow.length;
+        byte[] inDegree = new byte[cellsNum];
+        for( int i = 0; i < cellsNum; i++ ) {
+            if (visited[i]) {
+                inDegree[i] = DONE;
+            } else if (!isValid(i, weights)) {
+                inDegree[i] = DONE;
+                accumulator.setNovalue(i);
+            } else {
+                accumulator.start(i);
+            }
+        }
+        for( int i = 0; i < cellsNum; i++ ) {
+            if (inDegree[i] == DONE) {
+                continue;
+            }
+            int downIndex = weights == null ? downstreamIndex(i) : downstreamIndex(i, weights);
+            if (downIndex != -1) {
+                inDegree[downIndex]++;
+            }
+        }
+        for( int i = 0; i < cellsNum; i++ ) {
+            int current = i;
+            if (inDegree[current] != 0) {
+                continue;
+            }
+            while( true ) {
+                inDegree[current] = DONE;
+                int downIndex = weights == null ? downstreamIndex(current) : downstreamIndex(current, weights);
+                if (downIndex == -1) {
+                    break;
+                }
+                accumulator.propagate(current, downIndex);
+                if (--inDegree[downIndex] > 0) {
+                    break;
+                }
+                current = downIndex;
+            }
+        }
+        for( int i = 0; i < cellsNum; i++ ) {
+            if (inDegree[i] != DONE) {
+                // part of a loop
+                accumulator.setNovalue(i);
+            }
+        }
+    }
+
+    /**
+     * Collects a sub-basin from its outlet in breadth-first order and accumulates it.
+     *
+     * <p>Since every cell has a single downstream cell, the reversed breadth-first
+     * order always handles a cell after all its upstream cells.</p>
+     */
+    private int[] accumulateBasin( int outlet, int[] basinCells, double[] weights, boolean[] visited,
+            BasinAccumulator accumulator ) {
+        int size = 0;
+        basinCells[size++] = outlet;
+        visited[outlet] = true;
+        accumulator.start(outlet);
+        for( int k = 0; k < size; k++ ) {
+            int current = basinCells[k];
+            int col = current % cols;
+            int row = current / cols;
+            for( int dr = -1; dr <= 1; dr++ ) {
+                int r = row + dr;
+                if (r < 0 || r >= rows) {
+                    continue;
+                }
+                for( int dc = -1; dc <= 1; dc++ ) {
+                    int c = col + dc;
+                    if ((dc == 0 && dr == 0) || c < 0 || c >= cols) {
+                        continue;
+                    }
+                    int upIndex = r * cols + c;
+                    if (!isValid(upIndex, weights)) {
+                        continue;
+                    }
+                    if (downstreamIndex(upIndex) == current) {
+                        if (size == basinCells.length) {
+                            int[] tmp = new int[basinCells.length * 2];
+                            System.arraycopy(basinCells, 0, tmp, 0, size);
+                            basinCells = tmp;
+                        }
+                        basinCells[size++] = upIndex;
+                        visited[upIndex] = true;
+                        accumulator.start(upIndex);
+                    }
+                }
+            }
+        }
+        for( int k = size - 1; k > 0; k-- ) {
+            int current = basinCells[k];
+            accumulator.propagate(current, downstreamIndex(current));
+        }
+        return basinCells;
+    }
+
+    /**
+     * Transforms a row-major int array into a double {@link WritableRaster}.
+     *
+     * @param values the values, {@link JGTConstants#intNovalue} being converted to novalue.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @return the raster.
+     */
+    public static WritableRaster toWritableRaster( int[] values, int cols, int rows ) {
+        WritableRaster raster = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null, null);
+        double[] rowValues = new double[cols];
+        int index = 0;
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int value = values[index++];
+                rowValues[c] = isNovalue(value) ? doubleNovalue : value;
+            }
+            raster.setSamples(0, r, cols, 1, 0, rowValues);
+        }
+        return raster;
+    }
+
+    /**
+     * Transforms a row-major double array into a double {@link WritableRaster}.
+     *
+     * <p>The array is not copied, it becomes the data of the raster.</p>
+     *
+     * @param values the values.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @return the raster.
+     */
+    public static WritableRaster toWritableRaster( double[] values, int cols, int rows ) {
+        return CoverageUtilities.createWritableRaster(values, cols, rows);
+    }
+}
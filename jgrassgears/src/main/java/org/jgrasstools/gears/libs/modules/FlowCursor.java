@@ -0,0 +1,307 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.libs.modules;
+
+import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
+
+/**
+ * A reusable cursor over a packed row-major array of flowdirections.
+ *
+ * <p>
+ * This is the allocation free counterpart of {@link FlowNode}: instead of creating
+ * a node object per visited cell, the cursor is moved around the grid. Neighbour
+ * queries fill caller supplied index buffers (of at least 8 elements), so that
+ * no lists are created during the traversal.
+ * </p>
+ * <p>
+ * Indexes are packed as <code>row * cols + col</code>.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class FlowCursor {
+
+    private final int[] flow;
+    private final int cols;
+    private final int rows;
+
+    private int index = -1;
+    private int col = -1;
+    private int row = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param flow the flowdirections packed in row-major order, with {@link JGTConstants#intNovalue}
+     *              for novalue cells (see {@link FlowAccumulationEngine#readFlow(java.awt.image.RenderedImage)}).
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     */
+    public FlowCursor( int[] flow, int cols, int rows ) {
+        this.flow = flow;
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    /**
+     * Sets all the cells on the raster border to novalue.
+     *
+     * <p>This is the packed array equivalent of
+     * {@link org.jgrasstools.gears.utils.coverage.CoverageUtilities#setNovalueBorder(java.awt.image.WritableRaster)}.</p>
+     *
+     * @param flow the packed flowdirections.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     */
+    public static void setNovalueBorder( int[] flow, int cols, int rows ) {
+        for( int c = 0; c < cols; c++ ) {
+            flow[c] = JGTConstants.intNovalue;
+            flow[(rows - 1) * cols + c] = JGTConstants.intNovalue;
+        }
+        for( int r = 0; r < rows; r++ ) {
+            flow[r * cols] = JGTConstants.intNovalue;
+            flow[r * cols + cols - 1] = JGTConstants.intNovalue;
+        }
+    }
+
+    /**
+     * Move the cursor to a cell.
+     *
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @return the cursor itself.
+     */
+    public FlowCursor moveTo( int col, int row ) {
+        this.col = col;
+        this.row = row;
+        this.index = row * cols + col;
+        return this;
+    }
+
+    /**
+     * Move the cursor to a cell.
+     *
+     * @param index the packed index of the cell.
+     * @return the cursor itself.
+     */
+    public FlowCursor moveTo( int index ) {
+        this.index = index;
+        this.col = index % cols;
+        this.row = index / cols;
+        return this;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the flow value of the current cell.
+     */
+    public int getFlow() {
+        return flow[index];
+    }
+
+    /**
+     * Get the value of a packed map in the current position.
+     *
+     * @param map the packed map, with the same size of the flow.
+     * @return the value.
+     */
+    public double getValueFromMap( double[] map ) {
+        return map[index];
+    }
+
+    /**
+     * @return <code>true</code> if the current cell is inside the raster and not novalue.
+     */
+    public boolean isValid() {
+        return isValid(col, row);
+    }
+
+    private boolean isValid( int col, int row ) {
+        if (col < 0 || col >= cols || row < 0 || row >= rows) {
+            return false;
+        }
+        return !isNovalue(flow[row * cols + col]);
+    }
+
+    /**
+     * @return <code>true</code> if the current cell has a {@value FlowNode#OUTLET} value.
+     */
+    public boolean isMarkedAsOutlet() {
+        return flow[index] == (int) FlowNode.OUTLET;
+    }
+
+    /**
+     * @return <code>true</code> if any of the surrounding cells is novalue or outside the raster.
+     */
+    public boolean touchesBound() {
+        Direction[] orderedDirs = Direction.getOrderedDirs();
+        for( int i = 0; i < orderedDirs.length; i++ ) {
+            if (!isValid(col + orderedDirs[i].col, row + orderedDirs[i].row)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return <code>true</code> if the current cell flows outside of the valid flow map.
+     * @see FlowNode#isHeadingOutside()
+     */
+    public boolean isHeadingOutside() {
+        return touchesBound() && downstreamIndex() == -1;
+    }
+
+    /**
+     * @return <code>true</code> if the cell is valid and no other cell flows into it.
+     */
+    public boolean isSource() {
+        if (!isValid()) {
+            return false;
+        }
+        Direction[] orderedDirs = Direction.getOrderedDirs();
+        for( int i = 0; i < orderedDirs.length; i++ ) {
+            if (enteringIndex(orderedDirs[i]) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the index of the downstream cell, without moving the cursor.
+     *
+     * @return the index of the valid downstream cell or <code>-1</code> if the end has been reached.
+     */
+    public int downstreamIndex() {
+        if (!isValid()) {
+            return -1;
+        }
+        int f = flow[index];
+        if (f < 1 || f > 8) {
+            return -1;
+        }
+        Direction direction = Direction.forFlow(f);
+        int newCol = col + direction.col;
+        int newRow = row + direction.row;
+        if (!isValid(newCol, newRow)) {
+            return -1;
+        }
+        return newRow * cols + newCol;
+    }
+
+    /**
+     * Move the cursor to the next downstream cell.
+     *
+     * @return <code>true</code> if the cursor moved, <code>false</code> if the end has been reached,
+     *          in which case the cursor stays on the current cell.
+     */
+    public boolean goDownstream() {
+        int downIndex = downstreamIndex();
+        if (downIndex == -1) {
+            return false;
+        }
+        moveTo(downIndex);
+        return true;
+    }
+
+    /**
+     * Get the index of the neighbour in a direction if it flows into the current cell.
+     *
+     * @param direction the direction of the neighbour.
+     * @return the index of the neighbour or <code>-1</code>.
+     */
+    public int enteringIndex( Direction direction ) {
+        int newCol = col + direction.col;
+        int newRow = row + direction.row;
+        if (newCol < 0 || newCol >= cols || newRow < 0 || newRow >= rows) {
+            return -1;
+        }
+        int newIndex = newRow * cols + newCol;
+        if (flow[newIndex] == direction.getEnteringFlow()) {
+            return newIndex;
+        }
+        return -1;
+    }
+
+    /**
+     * Collects the indexes of the cells that flow into the current cell.
+     *
+     * <p>The order is the one of {@link Direction#getOrderedDirs()}, as in {@link FlowNode#getEnteringNodes()}.</p>
+     *
+     * @param buffer the buffer to fill, of at least 8 elements.
+     * @return the number of entering cells placed in the buffer.
+     */
+    public int getEnteringIndexes( int[] buffer ) {
+        int count = 0;
+        Direction[] orderedDirs = Direction.getOrderedDirs();
+        for( int i = 0; i < orderedDirs.length; i++ ) {
+            int enteringIndex = enteringIndex(orderedDirs[i]);
+            if (enteringIndex != -1) {
+                buffer[count++] = enteringIndex;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Collects the indexes of the valid surrounding cells.
+     *
+     * @param buffer the buffer to fill, of at least 8 elements.
+     * @return the number of valid surrounding cells placed in the buffer.
+     */
+    public int getValidSurroundingIndexes( int[] buffer ) {
+        int count = 0;
+        Direction[] orderedDirs = Direction.getOrderedDirs();
+        for( int i = 0; i < orderedDirs.length; i++ ) {
+            int newCol = col + orderedDirs[i].col;
+            int newRow = row + orderedDirs[i].row;
+            if (isValid(newCol, newRow)) {
+                buffer[count++] = newRow * cols + newCol;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "FlowCursor [\n\tcol=" + col + //
+                ", \n\trow=" + row + //
+                ", \n\tflow=" + (index >= 0 && index < flow.length ? flow[index] : JGTConstants.intNovalue) + //
+                "\n]";
+    }
+}
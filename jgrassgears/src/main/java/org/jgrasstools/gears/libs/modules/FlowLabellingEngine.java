@@ -0,0 +1,483 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.libs.modules;
+
+import static org.jgrasstools.gears.libs.modules.JGTConstants.doubleNovalue;
+import static org.jgrasstools.gears.libs.modules.JGTConstants.intNovalue;
+import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
+
+import java.awt.image.RenderedImage;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.media.jai.iterator.RandomIter;
+
+import org.jgrasstools.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.jgrasstools.gears.libs.monitor.IJGTProgressMonitor;
+
+/**
+ * Labelling of network links and hillslopes along D8 flowdirections.
+ *
+ * <p>
+ * This is the packed array counterpart of the {@link FlowNode} based walks of
+ * {@link ModelsEngine#netNumbering(org.geotools.coverage.grid.GridCoverage2D, org.geotools.coverage.grid.GridCoverage2D, org.geotools.coverage.grid.GridCoverage2D, double, org.geotools.feature.simple.SimpleFeatureCollection, IJGTProgressMonitor)}
+ * and {@link ModelsEngine#markHillSlopeWithLinkValue(RandomIter, RandomIter, javax.media.jai.iterator.WritableRandomIter, int, int, IJGTProgressMonitor)}.
+ * Every cell is visited a constant number of times:
+ * <ul>
+ *  <li>network links are walked once from their split cell down to the next split cell;</li>
+ *  <li>hillslopes are collected once upstream from the outlet they drain into,
+ *      since every cell has a single downstream cell the outlets are the roots of
+ *      independent trees.</li>
+ * </ul>
+ * Links and outlets are independent from each other, so they are processed in parallel.
+ * </p>
+ * <p>
+ * Where the walks of the {@link FlowNode} versions would never end (closed loops of
+ * flowdirections), an exception is thrown.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class FlowLabellingEngine {
+
+    private static final int UNMARKED = -1;
+    private static final int VISITED = -2;
+
+    private final int[] flow;
+    private final int cols;
+    private final int rows;
+
+    /**
+     * Constructor.
+     *
+     * @param flow the flowdirections packed in row-major order, with {@link JGTConstants#intNovalue}
+     *              for novalue cells.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     */
+    public FlowLabellingEngine( int[] flow, int cols, int rows ) {
+        if (flow.length != cols * rows) {
+            throw new IllegalArgumentException("The flow array doesn't match the raster size.");
+        }
+        this.flow = flow;
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    /**
+     * Constructor that reads the flowdirections from an image.
+     *
+     * @param flowImage the image of flowdirections.
+     */
+    public FlowLabellingEngine( RenderedImage flowImage ) {
+        this(FlowAccumulationEngine.readFlow(flowImage), flowImage.getWidth(), flowImage.getHeight());
+    }
+
+    /**
+     * Reads flowdirections from an iterator into a packed row-major int array.
+     *
+     * @param flowIter the iterator of the flowdirections.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @return the array of flowdirections, novalues being {@link JGTConstants#intNovalue}.
+     */
+    public static int[] readFlow( RandomIter flowIter, int cols, int rows ) {
+        int[] flow = new int[cols * rows];
+        int index = 0;
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double value = flowIter.getSampleDouble(c, r, 0);
+                flow[index++] = isNovalue(value) ? intNovalue : (int) value;
+            }
+        }
+        return flow;
+    }
+
+    /**
+     * Get the index of the downstream cell, as in {@link FlowNode#goDownstream()}.
+     *
+     * @param index the index of the current cell.
+     * @return the index of the valid downstream cell or <code>-1</code> if the end has been reached.
+     */
+    public int downstreamIndex( int index ) {
+        int f = flow[index];
+        if (f < 1 || f > 8) {
+            return -1;
+        }
+        Direction direction = Direction.forFlow(f);
+        int col = index % cols + direction.col;
+        int row = index / cols + direction.row;
+        if (col < 0 || col >= cols || row < 0 || row >= rows) {
+            return -1;
+        }
+        int downIndex = row * cols + col;
+        if (isNovalue(flow[downIndex])) {
+            return -1;
+        }
+        return downIndex;
+    }
+
+    /**
+     * Counts the network cells that flow into a network cell.
+     *
+     * @param index the index of the cell.
+     * @param net the network mask in row-major order.
+     * @return the number of entering network cells.
+     */
+    public int getNetworkEnteringCount( int index, boolean[] net ) {
+        int col = index % cols;
+        int row = index / cols;
+        int count = 0;
+        Direction[] orderedDirs = Direction.getOrderedDirs();
+        for( int i = 0; i < orderedDirs.length; i++ ) {
+            Direction direction = orderedDirs[i];
+            int newCol = col + direction.col;
+            int newRow = row + direction.row;
+            if (newCol < 0 || newCol >= cols || newRow < 0 || newRow >= rows) {
+                continue;
+            }
+            int newIndex = newRow * cols + newCol;
+            if (net[newIndex] && flow[newIndex] == direction.getEnteringFlow()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the network cells that start a new link, i.e. the network starting points
+     * (no entering network cells) and the confluences (more than one entering network cell).
+     *
+     * @param net the network mask in row-major order.
+     * @param numThreads the number of threads to use.
+     * @param pm the progress monitor.
+     * @return the indexes of the split cells, in row-major order.
+     */
+    public int[] findNetworkSplits( final boolean[] net, int numThreads, final IJGTProgressMonitor pm ) {
+        numThreads = Math.max(1, Math.min(numThreads, rows));
+        final int bandRows = (rows + numThreads - 1) / numThreads;
+        final int bandsNum = (rows + bandRows - 1) / bandRows;
+        final int[][] bandSplits = new int[bandsNum][];
+        final int[] bandSizes = new int[bandsNum];
+
+        pm.beginTask("Find confluences...", rows);
+        ParallelTasks.run(numThreads, bandsNum, new ParallelTasks.Task(){
+            public void run( int band ) {
+                CellBuffer splits = new CellBuffer();
+                int endRow = Math.min(rows, (band + 1) * bandRows);
+                for( int r = band * bandRows; r < endRow; r++ ) {
+                    for( int c = 0; c < cols; c++ ) {
+                        int index = r * cols + c;
+                        if (net[index] && getNetworkEnteringCount(index, net) != 1) {
+                            splits.add(index);
+                        }
+                    }
+                    synchronized (pm) {
+                        pm.worked(1);
+                    }
+                }
+                bandSplits[band] = splits.cells;
+                bandSizes[band] = splits.size;
+            }
+        });
+        pm.done();
+
+        int total = 0;
+        for( int size : bandSizes ) {
+            total += size;
+        }
+        int[] splits = new int[total];
+        int position = 0;
+        for( int band = 0; band < bandsNum; band++ ) {
+            System.arraycopy(bandSplits[band], 0, splits, position, bandSizes[band]);
+            position += bandSizes[band];
+        }
+        return splits;
+    }
+
+    /**
+     * Numbers the network links.
+     *
+     * <p>
+     * Splits are handled in the supplied order: every split gets a new number, which
+     * is propagated downstream until the next split is reached. If the tca is supplied,
+     * a new number is started also every time the tca grows by more than the threshold
+     * and at network starting points with a tca bigger than the threshold.
+     * </p>
+     * <p>
+     * The numbers a link uses depend only on its own cells, so the links are walked
+     * in parallel once to count them and a second time to write them, starting from the
+     * prefix sums of the counts. If links share cells, which can happen only if they
+     * leave the network or if a split is supplied more than once, the numbers are
+     * written sequentially in the supplied order, to keep the result deterministic.
+     * </p>
+     *
+     * @param splits the indexes of the cells that start a link.
+     * @param isNetStart for every split, <code>true</code> if it is a network starting point.
+     * @param net the network mask in row-major order.
+     * @param tca the optional tca in row-major order.
+     * @param tcaThreshold the threshold on the tca.
+     * @param numThreads the number of threads to use.
+     * @param pm the progress monitor.
+     * @return the link numbers in row-major order, <code>0</code> where no link passes.
+     */
+    public int[] numberNetwork( final int[] splits, final boolean[] isNetStart, final boolean[] net, final double[] tca,
+            final double tcaThreshold, int numThreads, final IJGTProgressMonitor pm ) {
+        final byte[] splitMarks = new byte[flow.length];
+        boolean hasDuplicates = false;
+        for( int split : splits ) {
+            if (splitMarks[split] != 0) {
+                hasDuplicates = true;
+            } else {
+                splitMarks[split] = 1;
+            }
+        }
+
+        final int[] labels = new int[flow.length];
+        pm.beginTask("Numbering network...", splits.length);
+        if (numThreads <= 1) {
+            int channel = 1;
+            for( int i = 0; i < splits.length; i++ ) {
+                channel += walkLink(splits[i], isNetStart[i], channel, labels, splitMarks, net, tca, tcaThreshold, null);
+                pm.worked(1);
+            }
+            pm.done();
+            return labels;
+        }
+
+        final int[] counts = new int[splits.length];
+        final AtomicBoolean leavesNetwork = new AtomicBoolean(false);
+        final int chunkSize = Math.max(1, splits.length / (numThreads * 8));
+        int chunksNum = (splits.length + chunkSize - 1) / chunkSize;
+        ParallelTasks.run(numThreads, chunksNum, new ParallelTasks.Task(){
+            public void run( int chunk ) {
+                int end = Math.min(splits.length, (chunk + 1) * chunkSize);
+                for( int i = chunk * chunkSize; i < end; i++ ) {
+                    counts[i] = walkLink(splits[i], isNetStart[i], 0, null, splitMarks, net, tca, tcaThreshold, leavesNetwork);
+                }
+            }
+        });
+
+        final int[] starts = new int[splits.length];
+        int channel = 1;
+        for( int i = 0; i < splits.length; i++ ) {
+            starts[i] = channel;
+            channel += counts[i];
+        }
+
+        if (hasDuplicates || leavesNetwork.get()) {
+            for( int i = 0; i < splits.length; i++ ) {
+                walkLink(splits[i], isNetStart[i], starts[i], labels, splitMarks, net, tca, tcaThreshold, null);
+                pm.worked(1);
+            }
+        } else {
+            ParallelTasks.run(numThreads, chunksNum, new ParallelTasks.Task(){
+                public void run( int chunk ) {
+                    int end = Math.min(splits.length, (chunk + 1) * chunkSize);
+                    for( int i = chunk * chunkSize; i < end; i++ ) {
+                        walkLink(splits[i], isNetStart[i], starts[i], labels, splitMarks, net, tca, tcaThreshold, null);
+                    }
+                    synchronized (pm) {
+                        pm.worked(end - chunk * chunkSize);
+                    }
+                }
+            });
+        }
+        pm.done();
+        return labels;
+    }
+
+    /**
+     * Walks a link from its split cell down to the next split.
+     *
+     * @param labels the labels to write or <code>null</code> to only count the numbers.
+     * @param leavesNetwork if not <code>null</code>, it is set if the link passes over non network cells.
+     * @return the number of link numbers used.
+     */
+    private int walkLink( int split, boolean isNetStart, int channel, int[] labels, byte[] splitMarks, boolean[] net,
+            double[] tca, double tcaThreshold, AtomicBoolean leavesNetwork ) {
+        int firstChannel = channel;
+        if (labels != null) {
+            labels[split] = channel;
+        }
+        // if it is a net start, check the tca if it exists
+        if (isNetStart && tca != null) {
+            double netStartTca = tca[split];
+            if (!isNovalue(netStartTca) && netStartTca > tcaThreshold) {
+                channel++;
+            }
+        }
+
+        int next = downstreamIndex(split);
+        double startTca = next != -1 && tca != null ? tca[next] : doubleNovalue;
+        int steps = 0;
+        while( next != -1 && splitMarks[next] == 0 ) {
+            if (++steps > flow.length) {
+                throw new ModelsIllegalargumentException("The flowdirections downstream of point " + split % cols + "/"
+                        + split / cols + " form a closed loop.", this);
+            }
+            if (labels != null) {
+                labels[next] = channel;
+            }
+            if (leavesNetwork != null && !net[next]) {
+                leavesNetwork.set(true);
+            }
+            next = downstreamIndex(next);
+            double endTca = next != -1 && tca != null ? tca[next] : doubleNovalue;
+            if (!isNovalue(startTca) && !isNovalue(endTca)) {
+                double diffTca = endTca - startTca;
+                if (diffTca > tcaThreshold) {
+                    startTca = endTca;
+                    channel++;
+                }
+            }
+        }
+        channel++;
+        return channel - firstChannel;
+    }
+
+    /**
+     * @return the indexes of the cells marked as {@link FlowNode#OUTLET}, in row-major order.
+     */
+    public int[] getOutlets() {
+        CellBuffer outlets = new CellBuffer();
+        for( int i = 0; i < flow.length; i++ ) {
+            if (flow[i] == (int) FlowNode.OUTLET) {
+                outlets.add(i);
+            }
+        }
+        return Arrays.copyOf(outlets.cells, outlets.size);
+    }
+
+    /**
+     * Collects the cells that drain into a cell, the cell included.
+     *
+     * @param outlet the index of the cell.
+     * @return the indexes of the cells, in breadth-first order from the outlet.
+     */
+    public int[] getUpstreamCells( int outlet ) {
+        CellBuffer basin = new CellBuffer();
+        collectUpstream(outlet, basin);
+        return Arrays.copyOf(basin.cells, basin.size);
+    }
+
+    private void collectUpstream( int outlet, CellBuffer basin ) {
+        basin.size = 0;
+        basin.add(outlet);
+        Direction[] orderedDirs = Direction.getOrderedDirs();
+        for( int k = 0; k < basin.size; k++ ) {
+            int current = basin.cells[k];
+            int col = current % cols;
+            int row = current / cols;
+            for( int i = 0; i < orderedDirs.length; i++ ) {
+                Direction direction = orderedDirs[i];
+                int newCol = col + direction.col;
+                int newRow = row + direction.row;
+                if (newCol < 0 || newCol >= cols || newRow < 0 || newRow >= rows) {
+                    continue;
+                }
+                int upIndex = newRow * cols + newCol;
+                // the outlet itself can be upstream only in a closed loop
+                if (upIndex != outlet && flow[upIndex] == direction.getEnteringFlow()) {
+                    basin.add(upIndex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the outlet every hillslope cell drains into.
+     *
+     * <p>
+     * The result is the one of {@link ModelsEngine#markHillSlopeWithLinkValue(RandomIter, RandomIter, javax.media.jai.iterator.WritableRandomIter, int, int, IJGTProgressMonitor)}:
+     * all the cells that drain into an outlet are marked with it. An outlet that no cell
+     * drains into is marked unless it touches the raster bounds.
+     * </p>
+     *
+     * @param outlets the indexes of the outlet cells (see {@link #getOutlets()}).
+     * @param outletValues the values of the outlets, which can't be novalue if any cell drains into the outlet.
+     * @param numThreads the number of threads to use.
+     * @param pm the progress monitor.
+     * @return for every cell, the position in the outlets array of its outlet or <code>-1</code> if the cell is not marked.
+     * @throws ModelsIllegalargumentException if a source cell doesn't drain into any outlet.
+     */
+    public int[] markHillslopes( final int[] outlets, final double[] outletValues, int numThreads, final IJGTProgressMonitor pm ) {
+        final int[] marks = new int[flow.length];
+        Arrays.fill(marks, UNMARKED);
+
+        pm.beginTask("Marking the hillslopes with the channel value...", outlets.length);
+        final int chunkSize = Math.max(1, outlets.length / (Math.max(1, numThreads) * 8));
+        int chunksNum = (outlets.length + chunkSize - 1) / chunkSize;
+        ParallelTasks.run(numThreads, chunksNum, new ParallelTasks.Task(){
+            public void run( int chunk ) {
+                CellBuffer basin = new CellBuffer();
+                FlowCursor cursor = new FlowCursor(flow, cols, rows);
+                int end = Math.min(outlets.length, (chunk + 1) * chunkSize);
+                for( int o = chunk * chunkSize; o < end; o++ ) {
+                    int outlet = outlets[o];
+                    collectUpstream(outlet, basin);
+                    if (basin.size == 1) {
+                        marks[outlet] = cursor.moveTo(outlet).touchesBound() ? VISITED : o;
+                        continue;
+                    }
+                    if (isNovalue(outletValues[o])) {
+                        throw new ModelsIllegalargumentException("Could not find a value of the attributes map in the outlet: "
+                                + outlet % cols + "/" + outlet / cols
+                                + ". Are you sure that everything leads to a channel or outlet?", "MODELSENGINE", pm);
+                    }
+                    for( int k = 0; k < basin.size; k++ ) {
+                        marks[basin.cells[k]] = o;
+                    }
+                }
+                synchronized (pm) {
+                    pm.worked(end - chunk * chunkSize);
+                }
+            }
+        });
+        pm.done();
+
+        // sources that don't reach an outlet are errors, unless they flow directly outside
+        FlowCursor cursor = new FlowCursor(flow, cols, rows);
+        for( int i = 0; i < flow.length; i++ ) {
+            if (marks[i] == VISITED) {
+                marks[i] = UNMARKED;
+            } else if (marks[i] == UNMARKED && cursor.moveTo(i).isSource() && !cursor.isHeadingOutside()) {
+                throw new ModelsIllegalargumentException("Could not find a value of the attributes map in the channel after point: "
+                        + cursor.getCol() + "/" + cursor.getRow() + ". Are you sure that everything leads to a channel or outlet?",
+                        "MODELSENGINE", pm);
+            }
+        }
+        return marks;
+    }
+
+    /**
+     * A growable buffer of cell indexes.
+     */
+    private static class CellBuffer {
+        int[] cells = new int[1024];
+        int size = 0;
+
+        void add( int cell ) {
+            if (size == cells.length) {
+                cells = Arrays.copyOf(cells, cells.length * 2);
+            }
+            cells[size++] = cell;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.libs.modules;
+
+import static java.lang.Math.sqrt;
+import static org.jgrasstools.gears.libs.modules.JGTConstants.doubleNovalue;
+import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
+
+import java.awt.image.RenderedImage;
+
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+/**
+ * A reusable cursor over a packed row-major array of elevations.
+ *
+ * <p>
+ * This is the allocation free counterpart of {@link GridNode}: the cursor is moved
+ * around the grid and neighbour queries fill caller supplied index buffers
+ * (of at least 8 elements) instead of creating lists of nodes.
+ * </p>
+ * <p>
+ * Indexes are packed as <code>row * cols + col</code>.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class GridCursor {
+
+    private final double[] elevation;
+    private final int cols;
+    private final int rows;
+    private final double xRes;
+    private final double yRes;
+
+    private int index = -1;
+    private int col = -1;
+    private int row = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param elevation the elevations packed in row-major order.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @param xRes the x resolution of the raster.
+     * @param yRes the y resolution of the raster.
+     */
+    public GridCursor( double[] elevation, int cols, int rows, double xRes, double yRes ) {
+        this.elevation = elevation;
+        this.cols = cols;
+        this.rows = rows;
+        this.xRes = xRes;
+        this.yRes = yRes;
+    }
+
+    /**
+     * Reads an image into a packed row-major double array.
+     *
+     * @param image the image to read.
+     * @return the packed values.
+     */
+    public static double[] readElevation( RenderedImage image ) {
+        double[] packed = CoverageUtilities.getPackedDoubleData(image);
+        if (packed != null) {
+            return packed.clone();
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double[] values = new double[width * height];
+        RandomIter iter = RandomIterFactory.create(image, null);
+        double[] rowValues = new double[width];
+        for( int r = 0; r < height; r++ ) {
+            for( int c = 0; c < width; c++ ) {
+                rowValues[c] = iter.getSampleDouble(c, r, 0);
+            }
+            System.arraycopy(rowValues, 0, values, r * width, width);
+        }
+        iter.done();
+        return values;
+    }
+
+    /**
+     * Move the cursor to a cell.
+     *
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @return the cursor itself.
+     */
+    public GridCursor moveTo( int col, int row ) {
+        this.col = col;
+        this.row = row;
+        this.index = row * cols + col;
+        return this;
+    }
+
+    /**
+     * Move the cursor to a cell.
+     *
+     * @param index the packed index of the cell.
+     * @return the cursor itself.
+     */
+    public GridCursor moveTo( int index ) {
+        this.index = index;
+        this.col = index % cols;
+        this.row = index / cols;
+        return this;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public double getXres() {
+        return xRes;
+    }
+
+    public double getYres() {
+        return yRes;
+    }
+
+    /**
+     * @return the elevation of the current cell or novalue if outside the raster.
+     */
+    public double getElevation() {
+        return getElevation(col, row);
+    }
+
+    private double getElevation( int col, int row ) {
+        if (col < 0 || col >= cols || row < 0 || row >= rows) {
+            return doubleNovalue;
+        }
+        return elevation[row * cols + col];
+    }
+
+    /**
+     * @return <code>true</code> if the current cell is inside the raster and not novalue.
+     */
+    public boolean isValid() {
+        return !isNovalue(getElevation(col, row));
+    }
+
+    /**
+     * Get the value of the elevation in one of the surrounding directions.
+     *
+     * @param direction the {@link Direction}.
+     * @return the elevation value or novalue if outside the raster.
+     */
+    public double getElevationAt( Direction direction ) {
+        return getElevation(col + direction.col, row + direction.row);
+    }
+
+    /**
+     * Get the index of the neighbour in a direction.
+     *
+     * @param direction the {@link Direction}.
+     * @return the index or <code>-1</code> if the neighbour is outside the raster.
+     */
+    public int getIndexAt( Direction direction ) {
+        int newCol = col + direction.col;
+        int newRow = row + direction.row;
+        if (newCol < 0 || newCol >= cols || newRow < 0 || newRow >= rows) {
+            return -1;
+        }
+        return newRow * cols + newCol;
+    }
+
+    /**
+     * @return <code>true</code> if any of the surrounding cells is novalue or outside the raster.
+     */
+    public boolean touchesBound() {
+        Direction[] orderedDirs = Direction.getOrderedDirs();
+        for( int i = 0; i < orderedDirs.length; i++ ) {
+            if (isNovalue(getElevationAt(orderedDirs[i]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the surrounding cells, starting from the most eastern.
+     *
+     * <p>As in {@link GridNode#getSurroundingNodes()} all 8 positions are filled,
+     * with <code>-1</code> for cells that are outside the raster or novalue.</p>
+     *
+     * @param buffer the buffer to fill, of at least 8 elements.
+     */
+    public void getSurroundingIndexes( int[] buffer ) {
+        Direction[] orderedDirs = Direction.getOrderedDirs();
+        for( int i = 0; i < orderedDirs.length; i++ ) {
+            int newIndex = getIndexAt(orderedDirs[i]);
+            if (newIndex != -1 && isNovalue(elevation[newIndex])) {
+                newIndex = -1;
+            }
+            buffer[i] = newIndex;
+        }
+    }
+
+    /**
+     * Collects only the valid surrounding cells, starting from the most eastern.
+     *
+     * @param buffer the buffer to fill, of at least 8 elements.
+     * @return the number of cells placed in the buffer.
+     */
+    public int getValidSurroundingIndexes( int[] buffer ) {
+        int count = 0;
+        Direction[] orderedDirs = Direction.getOrderedDirs();
+        for( int i = 0; i < orderedDirs.length; i++ ) {
+            int newIndex = getIndexAt(orderedDirs[i]);
+            if (newIndex != -1 && !isNovalue(elevation[newIndex])) {
+                buffer[count++] = newIndex;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Calculates the slope from the current to another cell.
+     *
+     * @param otherIndex the index of the other cell.
+     * @return the slope.
+     */
+    public double getSlopeTo( int otherIndex ) {
+        return (elevation[index] - elevation[otherIndex]) / getDistance(otherIndex);
+    }
+
+    /**
+     * Calculates the planar distance from the current to another cell.
+     *
+     * @param otherIndex the index of the other cell.
+     * @return the distance.
+     */
+    public double getDistance( int otherIndex ) {
+        double dx = (otherIndex % cols - col) * xRes;
+        double dy = (otherIndex / cols - row) * yRes;
+        return sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Get the index of the next downstream cell following the steepest path, without moving the cursor.
+     *
+     * @return the index or <code>-1</code> if the current cell is an outlet.
+     * @see GridNode#goDownstreamSP()
+     */
+    public int downstreamIndexSP() {
+        double maxSlope = Double.NEGATIVE_INFINITY;
+        int nextIndex = -1;
+        Direction[] orderedDirs = Direction.getOrderedDirs();
+        for( int i = 0; i < orderedDirs.length; i++ ) {
+            int newIndex = getIndexAt(orderedDirs[i]);
+            if (newIndex != -1 && !isNovalue(elevation[newIndex])) {
+                double slopeTo = getSlopeTo(newIndex);
+                if (slopeTo > 0 && slopeTo > maxSlope) {
+                    nextIndex = newIndex;
+                    maxSlope = slopeTo;
+                }
+            }
+        }
+        return nextIndex;
+    }
+
+    /**
+     * Move the cursor to the next downstream cell following the steepest path.
+     *
+     * @return <code>true</code> if the cursor moved, <code>false</code> if the current cell is an outlet.
+     */
+    public boolean goDownstreamSP() {
+        int nextIndex = downstreamIndexSP();
+        if (nextIndex == -1) {
+            return false;
+        }
+        moveTo(nextIndex);
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if the current cell can't flow anywhere following the steepest path.
+     */
+    public boolean isOutlet() {
+        return downstreamIndexSP() == -1;
+    }
+
+    /**
+     * Collects the surrounding cells that flow into the current one by steepest path rule.
+     *
+     * <p>The cursor is restored to the current cell before returning.</p>
+     *
+     * @param buffer the buffer to fill, of at least 8 elements.
+     * @return the number of entering cells placed in the buffer.
+     */
+    public int getEnteringIndexesSP( int[] buffer ) {
+        int current = index;
+        int count = 0;
+        Direction[] orderedDirs = Direction.getOrderedDirs();
+        for( int i = 0; i < orderedDirs.length; i++ ) {
+            moveTo(current);
+            int newIndex = getIndexAt(orderedDirs[i]);
+            if (newIndex == -1 || isNovalue(elevation[newIndex])) {
+                continue;
+            }
+            moveTo(newIndex);
+            if (downstreamIndexSP() == current) {
+                buffer[count++] = newIndex;
+            }
+        }
+        moveTo(current);
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "GridCursor [\n\tcol=" + col + //
+                ", \n\trow=" + row + //
+                ", \n\televation=" + getElevation() + //
+                "\n]";
+    }
+}
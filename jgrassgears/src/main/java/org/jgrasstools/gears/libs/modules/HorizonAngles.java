@@ -0,0 +1,493 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.libs.modules;
+
+import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
+
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jgrasstools.gears.libs.monitor.IJGTProgressMonitor;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+/**
+ * The horizon angles of an elevation model.
+ *
+ * <p>
+ * For every cell and for a fixed number of azimuth sectors the elevation angle
+ * (in radians) of the terrain horizon is calculated once. A cell is then in shadow
+ * when the sun is below the horizon in the direction of the sun, so that the
+ * shadow map of any sun position is a table lookup instead of the ray tracing
+ * done by {@link ModelsEngine#calculateFactor(int, int, double[], double[], double[], WritableRaster, double)}.
+ * </p>
+ * <p>
+ * Azimuths are measured clockwise from north, as in the sun vectors used by
+ * the insolation modules, in which the raster rows grow towards south.
+ * The horizon of directions that fall between two sectors is linearly interpolated.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class HorizonAngles {
+
+    /**
+     * The default number of azimuth sectors (one every 5 degrees).
+     */
+    public static final int DEFAULT_SECTORS = 72;
+
+    private static final int MAGIC = 0x4A475448; // JGTH
+    private static final int VERSION = 2;
+    private static final int DIGEST_SIZE = 32;
+    private static final int HEADER_SIZE = 4 * 5 + 8 + DIGEST_SIZE;
+    private static final double NO_HORIZON = -Math.PI / 2.0;
+
+    private final int cols;
+    private final int rows;
+    private final int sectors;
+    private final double res;
+    /**
+     * The SHA-256 digest of the elevations the angles were calculated on.
+     */
+    private final byte[] elevationDigest;
+    /**
+     * The angles, one array of row-major cells per sector.
+     */
+    private final float[][] angles;
+
+    private HorizonAngles( int cols, int rows, int sectors, double res, byte[] elevationDigest, float[][] angles ) {
+        this.cols = cols;
+        this.rows = rows;
+        this.sectors = sectors;
+        this.res = res;
+        this.elevationDigest = elevationDigest;
+        this.angles = angles;
+    }
+
+    /**
+     * Calculates the horizon angles of an elevation model.
+     *
+     * @param elevation the elevations packed in row-major order, novalues are ignored.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @param res the resolution of the raster.
+     * @param sectors the number of azimuth sectors.
+     * @param numThreads the number of threads to use, rows are split among them.
+     * @param pm the progress monitor.
+     * @return the horizon angles.
+     */
+    public static HorizonAngles calculate( final double[] elevation, final int cols, final int rows, final double res,
+            final int sectors, int numThreads, final IJGTProgressMonitor pm ) {
+        if (sectors < 1) {
+            throw new IllegalArgumentException("The number of sectors has to be positive.");
+        }
+        final float[][] angles = new float[sectors][cols * rows];
+
+        double max = Double.NEGATIVE_INFINITY;
+        for( int i = 0; i < elevation.length; i++ ) {
+            if (!isNovalue(elevation[i]) && elevation[i] > max) {
+                max = elevation[i];
+            }
+        }
+        final double maxElevation = max;
+
+        // unit steps along the major axis, as in the shadow ray tracing
+        final double[] stepX = new double[sectors];
+        final double[] stepY = new double[sectors];
+        final double[] stepLength = new double[sectors];
+        for( int s = 0; s < sectors; s++ ) {
+            double azimuth = 2.0 * Math.PI * s / sectors;
+            double x = Math.sin(azimuth);
+            double y = -Math.cos(azimuth);
+            double m = Math.max(Math.abs(x), Math.abs(y));
+            stepX[s] = x / m;
+            stepY[s] = y / m;
+            stepLength[s] = Math.sqrt(stepX[s] * stepX[s] + stepY[s] * stepY[s]) * res;
+        }
+
+        final int threads = Math.max(1, Math.min(numThreads, rows));
+        final AtomicInteger nextRow = new AtomicInteger(0);
+        pm.beginTask("Calculating horizon angles...", rows);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for( int t = 0; t < threads; t++ ) {
+                futures.add(pool.submit(new Callable<Void>(){
+                    public Void call() throws Exception {
+                        int r;
+                        while( (r = nextRow.getAndIncrement()) < rows ) {
+                            for( int c = 0; c < cols; c++ ) {
+                                int index = r * cols + c;
+                                double z = elevation[index];
+                                for( int s = 0; s < sectors; s++ ) {
+                                    double horizon = NO_HORIZON;
+                                    if (!isNovalue(z)) {
+                                        horizon = horizonAngle(elevation, cols, rows, c, r, z, stepX[s], stepY[s],
+                                                stepLength[s], maxElevation);
+                                    }
+                                    angles[s][index] = (float) horizon;
+                                }
+                            }
+                            synchronized (pm) {
+                                pm.worked(1);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            pool.shutdown();
+        }
+        pm.done();
+        return new HorizonAngles(cols, rows, sectors, res, digest(elevation), angles);
+    }
+
+    /**
+     * The digest of the elevation values, so that a cached file is reused only on the same dem.
+     */
+    private static byte[] digest( double[] elevation ) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        for( int i = 0; i < elevation.length; i++ ) {
+            if (!buffer.hasRemaining()) {
+                digest.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            buffer.putDouble(elevation[i]);
+        }
+        digest.update(buffer.array(), 0, buffer.position());
+        return digest.digest();
+    }
+
+    private static double horizonAngle( double[] elevation, int cols, int rows, int col, int row, double z, double stepX,
+            double stepY, double stepLength, double maxElevation ) {
+        double maxTan = Double.NEGATIVE_INFINITY;
+        int n = 1;
+        int c = (int) Math.round(col + stepX);
+        int r = (int) Math.round(row + stepY);
+        while( c >= 0 && c < cols && r >= 0 && r < rows ) {
+            double distance = n * stepLength;
+            if ((maxElevation - z) / distance <= maxTan) {
+                // nothing farther away can rise above the current horizon
+                break;
+            }
+            double other = elevation[r * cols + c];
+            if (!isNovalue(other)) {
+                double tan = (other - z) / distance;
+                if (tan > maxTan) {
+                    maxTan = tan;
+                }
+            }
+            n++;
+            c = (int) Math.round(col + stepX * n);
+            r = (int) Math.round(row + stepY * n);
+        }
+        if (maxTan == Double.NEGATIVE_INFINITY) {
+            return NO_HORIZON;
+        }
+        return Math.atan(maxTan);
+    }
+
+    /**
+     * Reads the horizon angles from a file, if it fits the elevation model, else calculates them.
+     *
+     * <p>When a file path is given, freshly calculated angles are written to it, so that
+     * the next run can reuse them.</p>
+     *
+     * @param path the path of the horizon file or <code>null</code> to only calculate in memory.
+     * @param elevation the elevations packed in row-major order.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @param res the resolution of the raster.
+     * @param sectors the number of azimuth sectors.
+     * @param numThreads the number of threads to use for the calculation.
+     * @param pm the progress monitor.
+     * @return the horizon angles.
+     * @throws IOException
+     */
+    public static HorizonAngles readOrCalculate( String path, double[] elevation, int cols, int rows, double res, int sectors,
+            int numThreads, IJGTProgressMonitor pm ) throws IOException {
+        File file = null;
+        if (path != null && path.trim().length() > 0) {
+            file = new File(path);
+            if (file.exists()) {
+                HorizonAngles horizonAngles = null;
+                try {
+                    horizonAngles = read(file);
+                } catch (IOException e) {
+                    // older or broken files are recalculated
+                }
+                if (horizonAngles != null && horizonAngles.fits(elevation, cols, rows, res, sectors)) {
+                    return horizonAngles;
+                }
+                pm.message("The horizon file doesn't fit the elevation model, recalculating it.");
+            }
+        }
+        HorizonAngles horizonAngles = calculate(elevation, cols, rows, res, sectors, numThreads, pm);
+        if (file != null) {
+            horizonAngles.write(file);
+        }
+        return horizonAngles;
+    }
+
+    /**
+     * Checks if the angles have been calculated on a given elevation model.
+     *
+     * @param elevation the elevations packed in row-major order.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @param res the resolution of the raster.
+     * @param sectors the number of azimuth sectors.
+     * @return <code>true</code> if the angles belong to the elevation model.
+     */
+    public boolean fits( double[] elevation, int cols, int rows, double res, int sectors ) {
+        return this.cols == cols && this.rows == rows && this.sectors == sectors && this.res == res
+                && Arrays.equals(elevationDigest, digest(elevation));
+    }
+
+    /**
+     * Writes the angles to a binary file.
+     *
+     * @param file the file to write.
+     * @throws IOException
+     */
+    public void write( File file ) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(cols).putInt(rows).putInt(sectors).putDouble(res)
+                    .put(elevationDigest);
+            header.flip();
+            while( header.hasRemaining() ) {
+                channel.write(header);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            FloatBuffer floatBuffer = buffer.asFloatBuffer();
+            for( int s = 0; s < sectors; s++ ) {
+                float[] sectorAngles = angles[s];
+                int position = 0;
+                while( position < sectorAngles.length ) {
+                    int count = Math.min(floatBuffer.capacity(), sectorAngles.length - position);
+                    floatBuffer.clear();
+                    floatBuffer.put(sectorAngles, position, count);
+                    buffer.clear();
+                    buffer.limit(count * 4);
+                    while( buffer.hasRemaining() ) {
+                        channel.write(buffer);
+                    }
+                    position += count;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads the angles from a binary file written by {@link #write(File)}.
+     *
+     * @param file the file to read.
+     * @return the horizon angles.
+     * @throws IOException
+     */
+    public static HorizonAngles read( File file ) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("The file is not a horizon angles file: " + file.getAbsolutePath());
+            }
+            int cols = header.getInt();
+            int rows = header.getInt();
+            int sectors = header.getInt();
+            double res = header.getDouble();
+            byte[] elevationDigest = new byte[DIGEST_SIZE];
+            header.get(elevationDigest);
+
+            if (channel.size() != HEADER_SIZE + (long) cols * rows * sectors * 4) {
+                throw new IOException("The horizon angles file is truncated: " + file.getAbsolutePath());
+            }
+            float[][] angles = new float[sectors][cols * rows];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            for( int s = 0; s < sectors; s++ ) {
+                float[] sectorAngles = angles[s];
+                int position = 0;
+                while( position < sectorAngles.length ) {
+                    int count = Math.min(buffer.capacity() / 4, sectorAngles.length - position);
+                    buffer.clear();
+                    buffer.limit(count * 4);
+                    readFully(channel, buffer);
+                    buffer.flip();
+                    buffer.asFloatBuffer().get(sectorAngles, position, count);
+                    position += count;
+                }
+            }
+            return new HorizonAngles(cols, rows, sectors, res, elevationDigest, angles);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void readFully( FileChannel channel, ByteBuffer buffer ) throws IOException {
+        while( buffer.hasRemaining() ) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of the horizon angles file.");
+            }
+        }
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getSectors() {
+        return sectors;
+    }
+
+    /**
+     * Get the horizon angle of a cell in a given direction.
+     *
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @param azimuth the azimuth in radians, clockwise from north.
+     * @return the elevation angle of the horizon in radians.
+     */
+    public double getHorizon( int col, int row, double azimuth ) {
+        double position = azimuth / (2.0 * Math.PI) * sectors;
+        position = position - Math.floor(position / sectors) * sectors;
+        int s0 = (int) position;
+        if (s0 >= sectors) {
+            s0 = 0;
+        }
+        int s1 = s0 + 1 == sectors ? 0 : s0 + 1;
+        double weight = position - (int) position;
+        int index = row * cols + col;
+        return (1.0 - weight) * angles[s0][index] + weight * angles[s1][index];
+    }
+
+    /**
+     * Checks if a cell is in the shadow of the terrain.
+     *
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @param azimuth the azimuth of the sun in radians, clockwise from north.
+     * @param elevation the elevation of the sun in radians.
+     * @return <code>true</code> if the sun is below the horizon of the cell. A sun
+     *          exactly on the horizon lights the cell.
+     */
+    public boolean isShadowed( int col, int row, double azimuth, double elevation ) {
+        return elevation < getHorizon(col, row, azimuth);
+    }
+
+    /**
+     * Calculates the shadow map for a sun position.
+     *
+     * <p>This is the lookup counterpart of
+     * {@link ModelsEngine#calculateFactor(int, int, double[], double[], double[], WritableRaster, double)}.</p>
+     *
+     * @param sunVector the unit vector pointing to the sun.
+     * @return the shadow map, with 0 for cells in shadow and 1 elsewhere.
+     */
+    public WritableRaster calculateFactor( double[] sunVector ) {
+        double[] shadow = new double[cols * rows];
+        calculateFactor(sunVector, shadow);
+        WritableRaster shadowWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null, null);
+        shadowWR.setSamples(0, 0, cols, rows, 0, shadow);
+        return shadowWR;
+    }
+
+    /**
+     * Calculates the shadow map for a sun position into a packed buffer.
+     *
+     * @param sunVector the unit vector pointing to the sun.
+     * @param shadow the buffer of at least cols*rows elements to fill, with 0 for cells
+     *          in shadow and 1 elsewhere.
+     */
+    public void calculateFactor( double[] sunVector, double[] shadow ) {
+        double azimuth = getAzimuth(sunVector);
+        double elevation = getElevation(sunVector);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                shadow[r * cols + c] = isShadowed(c, r, azimuth, elevation) ? 0.0 : 1.0;
+            }
+        }
+    }
+
+    /**
+     * @param sunVector the vector pointing to the sun.
+     * @return the azimuth of the sun in radians, clockwise from north.
+     */
+    public static double getAzimuth( double[] sunVector ) {
+        double azimuth = Math.atan2(sunVector[0], -sunVector[1]);
+        if (azimuth < 0) {
+            azimuth = azimuth + 2.0 * Math.PI;
+        }
+        return azimuth;
+    }
+
+    /**
+     * @param sunVector the vector pointing to the sun.
+     * @return the elevation of the sun over the horizontal plane in radians.
+     */
+    public static double getElevation( double[] sunVector ) {
+        return Math.atan2(sunVector[2], Math.sqrt(sunVector[0] * sunVector[0] + sunVector[1] * sunVector[1]));
+    }
+}
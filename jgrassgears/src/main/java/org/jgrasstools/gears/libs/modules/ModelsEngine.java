@@ -35,9 +35,16 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
@@ -98,6 +105,11 @@ public class ModelsEngine {
 
     private static GearsMessageHandler msg = GearsMessageHandler.getInstance();
 
+    /**
+     * The number of scanlines a thread takes at a time when casting shadows.
+     */
+    private static final int SHADOW_CHUNK = 64;
+
     public static PixelInCell DEFAULTPIXELANCHOR = PixelInCell.CELL_CENTER;
 
     /**
@@ -708,26 +720,51 @@ public class ModelsEngine {
      */
     public static WritableRaster netNumbering( GridCoverage2D flowGC, GridCoverage2D netGC, GridCoverage2D tcaGC,
             double tcaThreshold, SimpleFeatureCollection pointsFC, IJGTProgressMonitor pm ) throws Exception {
+        return netNumbering(flowGC, netGC, tcaGC, tcaThreshold, pointsFC, 1, pm);
+    }
+
+    /**
+     * Calculate the map of netnumbering.
+     *
+     * <p>The links are numbered by the {@link FlowLabellingEngine}.</p>
+     *
+     * @param flowGC the map of flowdirection.
+     * @param netGC the map of network.
+     * @param tcaGC the optional map of tca.
+     * @param tcaThreshold the threshold on the tca.
+     * @param pointsFC optional feature collection of points in which to split the net.
+     * @param numThreads the number of threads to use.
+     * @param pm the monitor.
+     * @return the raster of netnumbering.
+     * @throws Exception
+     */
+    public static WritableRaster netNumbering( GridCoverage2D flowGC, GridCoverage2D netGC, GridCoverage2D tcaGC,
+            double tcaThreshold, SimpleFeatureCollection pointsFC, int numThreads, IJGTProgressMonitor pm ) throws Exception {
         RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(flowGC);
         int cols = regionMap.getCols();
         int rows = regionMap.getRows();
-        WritableRaster netnumWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null, null);
-        WritableRandomIter netnumIter = RandomIterFactory.createWritable(netnumWR, null);
 
         RandomIter flowIter = CoverageUtilities.getRandomIterator(flowGC);
         RandomIter netIter = CoverageUtilities.getRandomIterator(netGC);
-        RandomIter tcaIter = null;
+
+        FlowLabellingEngine engine = new FlowLabellingEngine(flowGC.getRenderedImage());
+        boolean[] net = new boolean[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                net[r * cols + c] = !isNovalue(netIter.getSampleDouble(c, r, 0));
+            }
+        }
+        double[] tca = null;
         if (tcaGC != null)
-            tcaIter = CoverageUtilities.getRandomIterator(tcaGC);
+            tca = GridCursor.readElevation(tcaGC.getRenderedImage());
 
         /*
          * split nodes are points that create new numbering:
+         * - supplied points
          * - first points upstream on net
          * - confluences
-         * - supplied points
          */
-        List<FlowNode> splitNodes = new ArrayList<FlowNode>();
-        List<Boolean> splitNodesIsNetStart = new ArrayList<Boolean>();
+        List<Integer> pointSplits = new ArrayList<Integer>();
         // SUPPLIED POINTS
         if (pointsFC != null) {
             Envelope envelope = regionMap.toEnvelope();
@@ -751,84 +788,42 @@ public class ModelsEngine {
                         netNode = new GridNode(netIter, cols, rows, -1, -1, flowNode.col, flowNode.row);
                     }
                     if (flowNode != null) {
-                        splitNodes.add(flowNode);
-                        splitNodesIsNetStart.add(false);
+                        pointSplits.add(flowNode.row * cols + flowNode.col);
                     }
                 }
             }
+            pointsIter.close();
         }
 
         // FIND CONFLUENCES AND NETWORK STARTING POINTS (MOST UPSTREAM)
-        pm.beginTask("Find confluences...", rows);
-        for( int r = 0; r < rows; r++ ) {
-            for( int c = 0; c < cols; c++ ) {
-                GridNode netNode = new GridNode(netIter, cols, rows, -1, -1, c, r);
-                if (netNode.isValid()) {
-                    List<GridNode> validSurroundingNodes = netNode.getValidSurroundingNodes();
-                    FlowNode currentflowNode = new FlowNode(flowIter, cols, rows, c, r);
-                    int enteringCount = 0;
-                    for( GridNode gridNode : validSurroundingNodes ) {
-                        FlowNode tmpNode = new FlowNode(flowIter, cols, rows, gridNode.col, gridNode.row);
-                        List<FlowNode> enteringNodes = currentflowNode.getEnteringNodes();
-                        if (enteringNodes.contains(tmpNode)) {
-                            enteringCount++;
-                        }
-                    }
-                    if (enteringCount != 1) {
-                        // starting (==0) + confluences (>1)
-                        splitNodes.add(currentflowNode);
-                        if (enteringCount == 0) {
-                            splitNodesIsNetStart.add(true);
-                        } else {
-                            splitNodesIsNetStart.add(false);
-                        }
-                    }
-                }
-            }
-            pm.worked(1);
+        int[] netSplits = engine.findNetworkSplits(net, numThreads, pm);
+
+        int splitsNum = pointSplits.size() + netSplits.length;
+        int[] splits = new int[splitsNum];
+        boolean[] splitsIsNetStart = new boolean[splitsNum];
+        for( int i = 0; i < pointSplits.size(); i++ ) {
+            splits[i] = pointSplits.get(i);
         }
-        pm.done();
-        pm.message("Found split points: " + splitNodes.size());
-
-        int channel = 1;
-        pm.beginTask("Numbering network...", splitNodes.size());
-        for( int i = 0; i < splitNodes.size(); i++ ) {
-            FlowNode splitNode = splitNodes.get(i);
-            boolean isNetStart = splitNodesIsNetStart.get(i);
-
-            // we simply go down to the next split with one number
-            splitNode.setValueInMap(netnumIter, channel);
-
-            // if it is a net start, check the tca if it exists
-            if (isNetStart) {
-                double netStartTca = splitNode.getValueFromMap(tcaIter);
-                if (!isNovalue(netStartTca) && netStartTca > tcaThreshold) {
-                    channel++;
-                }
-            }
+        for( int i = 0; i < netSplits.length; i++ ) {
+            int index = pointSplits.size() + i;
+            splits[index] = netSplits[i];
+            splitsIsNetStart[index] = engine.getNetworkEnteringCount(netSplits[i], net) == 0;
+        }
+        pm.message("Found split points: " + splitsNum);
 
-            FlowNode nextNode = splitNode.goDownstream();
-            double startTca = doubleNovalue;
-            if (nextNode != null)
-                startTca = nextNode.getValueFromMap(tcaIter);
-            while( nextNode != null && !splitNodes.contains(nextNode) ) {
-                nextNode.setValueInMap(netnumIter, channel);
-                nextNode = nextNode.goDownstream();
-                double endTca = doubleNovalue;
-                if (nextNode != null)
-                    endTca = nextNode.getValueFromMap(tcaIter);
-                if (!isNovalue(startTca) && !isNovalue(endTca)) {
-                    double diffTca = endTca - startTca;
-                    if (diffTca > tcaThreshold) {
-                        startTca = endTca;
-                        channel++;
-                    }
-                }
-            }
-            channel++;
-            pm.worked(1);
+        int[] channels = engine.numberNetwork(splits, splitsIsNetStart, net, tca, tcaThreshold, numThreads, pm);
+
+        int maxChannel = 0;
+        for( int channel : channels ) {
+            maxChannel = Math.max(maxChannel, channel);
+        }
+        Class< ? > netnumClass = CoverageUtilities.getIntegerStorageClass(0, maxChannel, true);
+        WritableRaster netnumWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, netnumClass, null, null);
+        int[] rowChannels = new int[cols];
+        for( int r = 0; r < rows; r++ ) {
+            System.arraycopy(channels, r * cols, rowChannels, 0, cols);
+            netnumWR.setSamples(0, r, cols, 1, 0, rowChannels);
         }
-        pm.done();
         return netnumWR;
     }
 
@@ -845,18 +840,40 @@ public class ModelsEngine {
      */
     public static WritableRaster extractSubbasins( WritableRandomIter flowIter, RandomIter netRandomIter,
             WritableRandomIter netNumberIter, int rows, int cols, IJGTProgressMonitor pm ) {
+        return extractSubbasins(flowIter, netRandomIter, netNumberIter, rows, cols, 1, pm);
+    }
+
+    /**
+     * Extract the subbasins of a raster map.
+     *
+     * @param flowIter the map of flowdirections.
+     * @param netRandomIter the network map.
+     * @param netNumberIter the netnumber map.
+     * @param rows rows of the region.
+     * @param cols columns of the region.
+     * @param numThreads the number of threads to use to mark the hillslopes.
+     * @param pm
+     * @return the map of extracted subbasins.
+     */
+    public static WritableRaster extractSubbasins( WritableRandomIter flowIter, RandomIter netRandomIter,
+            WritableRandomIter netNumberIter, int rows, int cols, int numThreads, IJGTProgressMonitor pm ) {
 
+        double maxNetNumber = 0;
         for( int r = 0; r < rows; r++ ) {
             for( int c = 0; c < cols; c++ ) {
-                if (!isNovalue(netRandomIter.getSampleDouble(c, r, 0)))
+                if (!isNovalue(netRandomIter.getSampleDouble(c, r, 0))) {
                     flowIter.setSample(c, r, 0, 10);
+                    maxNetNumber = Math.max(maxNetNumber, netNumberIter.getSampleDouble(c, r, 0));
+                }
             }
         }
 
-        WritableRaster subbasinWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null, null);
+        // the subbasins take the numbers of the net
+        Class< ? > subbasinClass = CoverageUtilities.getIntegerStorageClass(0, maxNetNumber, true);
+        WritableRaster subbasinWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, subbasinClass, null, null);
         WritableRandomIter subbasinIter = RandomIterFactory.createWritable(subbasinWR, null);
 
-        markHillSlopeWithLinkValue(flowIter, netNumberIter, subbasinIter, cols, rows, pm);
+        markHillSlopeWithLinkValue(flowIter, netNumberIter, subbasinIter, cols, rows, numThreads, pm);
 
         for( int r = 0; r < rows; r++ ) {
             for( int c = 0; c < cols; c++ ) {
@@ -890,59 +907,44 @@ public class ModelsEngine {
      */
     public static void markHillSlopeWithLinkValue( RandomIter flowIter, RandomIter attributeIter, WritableRandomIter markedIter,
             int cols, int rows, IJGTProgressMonitor pm ) {
-        pm.beginTask("Marking the hillslopes with the channel value...", rows);
+        markHillSlopeWithLinkValue(flowIter, attributeIter, markedIter, cols, rows, 1, pm);
+    }
+
+    /**
+     * Marks a map on the hillslope with the values on the channel of an attribute map.
+     *
+     * <p>Every outlet collects its hillslope upstream through the {@link FlowLabellingEngine},
+     * the outlets are processed in parallel.</p>
+     *
+     * @param flowIter map of flow direction with the network cells
+     *                  all marked as {@link FlowNode#NETVALUE}. This is very important!
+     * @param attributeIter map of attributes.
+     * @param markedIter the map to be marked.
+     * @param cols region cols.
+     * @param rows region rows.
+     * @param numThreads the number of threads to use.
+     * @param pm monitor.
+     */
+    public static void markHillSlopeWithLinkValue( RandomIter flowIter, RandomIter attributeIter, WritableRandomIter markedIter,
+            int cols, int rows, int numThreads, IJGTProgressMonitor pm ) {
+        int[] flow = FlowLabellingEngine.readFlow(flowIter, cols, rows);
+        FlowLabellingEngine engine = new FlowLabellingEngine(flow, cols, rows);
+        int[] outlets = engine.getOutlets();
+        double[] outletValues = new double[outlets.length];
+        for( int o = 0; o < outlets.length; o++ ) {
+            outletValues[o] = attributeIter.getSampleDouble(outlets[o] % cols, outlets[o] / cols, 0);
+        }
+
+        int[] marks = engine.markHillslopes(outlets, outletValues, numThreads, pm);
+        int index = 0;
         for( int r = 0; r < rows; r++ ) {
             for( int c = 0; c < cols; c++ ) {
-                FlowNode flowNode = new FlowNode(flowIter, cols, rows, c, r);
-                if (flowNode.isHeadingOutside()) {
-                    // ignore single cells on borders that exit anyway
-                    continue;
-                }
-
-                if (flowNode.isMarkedAsOutlet()) {
-                    double attributeValue = flowNode.getValueFromMap(attributeIter);
-                    flowNode.setValueInMap(markedIter, attributeValue);
-                    continue;
-                }
-                if (flowNode.isValid() && flowNode.isSource()) {
-                    /*
-                     * run down to the net to find the
-                     * attribute map content on the net 
-                     */
-                    double attributeValue = doubleNovalue;
-                    FlowNode runningNode = flowNode.goDownstream();
-                    int runningRow = -1;
-                    int runningCol = -1;
-                    while( runningNode != null && runningNode.isValid() ) {
-                        runningRow = runningNode.row;
-                        runningCol = runningNode.col;
-                        if (runningNode.isMarkedAsOutlet()) {
-                            attributeValue = runningNode.getValueFromMap(attributeIter);
-                            break;
-                        }
-                        runningNode = runningNode.goDownstream();
-                    }
-                    if (!isNovalue(attributeValue)) {
-                        // run down marking the hills
-                        runningNode = flowNode;
-                        while( runningNode != null && runningNode.isValid() ) {
-                            runningNode.setValueInMap(markedIter, attributeValue);
-                            if (runningNode.isMarkedAsOutlet()) {
-                                break;
-                            }
-                            runningNode = runningNode.goDownstream();
-                        }
-                    } else {
-                        throw new ModelsIllegalargumentException(
-                                "Could not find a value of the attributes map in the channel after point: " + runningCol + "/"
-                                        + runningRow + ". Are you sure that everything leads to a channel or outlet?",
-                                "MODELSENGINE", pm);
-                    }
+                int mark = marks[index++];
+                if (mark >= 0) {
+                    markedIter.setSample(c, r, 0, outletValues[mark]);
                 }
             }
-            pm.worked(1);
         }
-        pm.done();
     }
 
     /**
@@ -1118,14 +1120,11 @@ public class ModelsEngine {
      * @param upperThreshold the upper threshold, values above that are excluded.
      * @param lowerThreshold the lower threshold, values below that are excluded.
      * @param pm the monitor.
-     * @return The map of downstream summed values.
+     * @return The map of downstream summed values or <code>null</code> if a summed cell
+     *          has an invalid flowdirection.
      */
     public static WritableRaster sumDownstream( RandomIter flowIter, RandomIter mapToSumIter, int width, int height,
             Double upperThreshold, Double lowerThreshold, IJGTProgressMonitor pm ) {
-        final int[] point = new int[2];
-        WritableRaster summedMapWR = CoverageUtilities.createDoubleWritableRaster(width, height, null, null, null);
-        WritableRandomIter summedMapIter = RandomIterFactory.createWritable(summedMapWR, null);
-
         double uThres = Double.POSITIVE_INFINITY;
         if (upperThreshold != null) {
             uThres = upperThreshold;
@@ -1135,42 +1134,40 @@ public class ModelsEngine {
             lThres = lowerThreshold;
         }
 
-        pm.beginTask("Calculating downstream sum...", height);
+        /*
+         * cells with novalue flow or values outside the thresholds
+         * interrupt the flow and are left as novalue, as the
+         * downstream walk always did
+         */
+        int[] flow = new int[width * height];
+        double[] toSum = new double[width * height];
+        int index = 0;
         for( int r = 0; r < height; r++ ) {
             for( int c = 0; c < width; c++ ) {
+                double flowValue = flowIter.getSampleDouble(c, r, 0);
                 double mapToSumValue = mapToSumIter.getSampleDouble(c, r, 0);
-                if (!isNovalue(flowIter.getSampleDouble(c, r, 0)) && //
-                        mapToSumValue < uThres && //
-                        mapToSumValue > lThres //
-                ) {
-                    point[0] = c;
-                    point[1] = r;
-                    while( flowIter.getSampleDouble(point[0], point[1], 0) < 9
-                            && //
-                            !isNovalue(flowIter.getSampleDouble(point[0], point[1], 0))
-                            && (checkRange(mapToSumIter.getSampleDouble(point[0], point[1], 0), uThres, lThres)) ) {
-
-                        double sumValue = summedMapIter.getSampleDouble(point[0], point[1], 0)
-                                + mapToSumIter.getSampleDouble(c, r, 0);
-
-                        summedMapIter.setSample(point[0], point[1], 0, sumValue);
-
-                        if (!go_downstream(point, flowIter.getSampleDouble(point[0], point[1], 0)))
+                if (isNovalue(flowValue)) {
+                    flow[index] = JGTConstants.intNovalue;
+                    toSum[index] = doubleNovalue;
+                } else {
+                    flow[index] = (int) flowValue;
+                    if (checkRange(mapToSumValue, uThres, lThres)) {
+                        if (flow[index] < 1) {
+                            // can't go downstream
                             return null;
+                        }
+                        toSum[index] = mapToSumValue;
+                    } else {
+                        toSum[index] = doubleNovalue;
                     }
-
-                    double sumValue = summedMapIter.getSampleDouble(point[0], point[1], 0)
-                            + mapToSumIter.getSampleDouble(c, r, 0);
-                    summedMapIter.setSample(point[0], point[1], 0, sumValue);
-                } else {
-                    summedMapIter.setSample(c, r, 0, doubleNovalue);
                 }
+                index++;
             }
-            pm.worked(1);
         }
-        pm.done();
 
-        return summedMapWR;
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(flow, width, height);
+        double[] summed = engine.accumulate(toSum, pm);
+        return FlowAccumulationEngine.toWritableRaster(summed, width, height);
     }
 
     private static boolean checkRange( double value, double upper, double lower ) {
@@ -1239,11 +1236,92 @@ public class ModelsEngine {
     */
     public static WritableRaster calculateFactor( int h, int w, double[] sunVector, double[] inverseSunVector,
             double[] normalSunVector, WritableRaster demWR, double dx ) {
+        double[] dem = demWR.getSamples(demWR.getMinX(), demWR.getMinY(), w, h, 0, (double[]) null);
+        double[] shadow = new double[w * h];
+        calculateFactor(h, w, sunVector, inverseSunVector, normalSunVector, dem, dx, shadow, 1);
+
+        WritableRaster sOmbraWR = CoverageUtilities.createDoubleWritableRaster(w, h, null, null, null);
+        sOmbraWR.setSamples(0, 0, w, h, 0, shadow);
+        return sOmbraWR;
+    }
+
+    /**
+     * Evaluate the shadow map on packed buffers.
+     *
+     * <p>
+     * The shadow is cast along the sun aligned scanlines that start on the raster borders
+     * facing the sun. Every scanline only darkens cells, so the scanlines are independent
+     * and are split among the threads. The buffers can be reused between calls, which
+     * avoids allocating a raster for every sun position.
+     * </p>
+     *
+     * @param h
+     *            the height of the raster.
+     * @param w
+     *            the width of the raster.
+     * @param sunVector
+     * @param inverseSunVector
+     * @param normalSunVector
+     * @param dem
+     *            the elevations packed in row-major order.
+     * @param dx
+     *            the resolution of the elevation map.
+     * @param shadow
+     *            the buffer of at least w*h elements into which the shadow map is written,
+     *            with 0 for cells in shadow and 1 elsewhere.
+     * @param numThreads
+     *            the number of threads to use.
+     */
+    public static void calculateFactor( int h, int w, double[] sunVector, double[] inverseSunVector, double[] normalSunVector,
+            double[] dem, double dx, double[] shadow, int numThreads ) {
+        int threads = Math.max(1, Math.min(numThreads, (w + h + SHADOW_CHUNK - 1) / SHADOW_CHUNK));
+        if (threads == 1) {
+            calculateFactor(h, w, sunVector, inverseSunVector, normalSunVector, dem, dx, shadow, null, 1);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            calculateFactor(h, w, sunVector, inverseSunVector, normalSunVector, dem, dx, shadow, pool, threads);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Evaluate the shadow map on packed buffers, running the scanlines on a given pool.
+     *
+     * <p>
+     * To be used when the shadows of many sun positions are calculated, so that the
+     * threads are created once.
+     * </p>
+     *
+     * @param h
+     *            the height of the raster.
+     * @param w
+     *            the width of the raster.
+     * @param sunVector
+     * @param inverseSunVector
+     * @param normalSunVector
+     * @param dem
+     *            the elevations packed in row-major order.
+     * @param dx
+     *            the resolution of the elevation map.
+     * @param shadow
+     *            the buffer of at least w*h elements into which the shadow map is written,
+     *            with 0 for cells in shadow and 1 elsewhere.
+     * @param pool
+     *            the pool to run the scanlines on or <code>null</code> to run them in the calling thread.
+     * @param numThreads
+     *            the number of tasks to submit to the pool, usually its size.
+     */
+    public static void calculateFactor( final int h, final int w, double[] sunVector, final double[] inverseSunVector,
+            final double[] normalSunVector, final double[] dem, final double dx, final double[] shadow, ExecutorService pool,
+            int numThreads ) {
 
         double casx = 1e6 * sunVector[0];
         double casy = 1e6 * sunVector[1];
-        int f_i = 0;
-        int f_j = 0;
+        final int f_i;
+        final int f_j;
 
         if (casx <= 0) {
             f_i = 0;
@@ -1257,79 +1335,114 @@ public class ModelsEngine {
             f_j = h - 1;
         }
 
-        WritableRaster sOmbraWR = CoverageUtilities.createDoubleWritableRaster(w, h, null, null, 1.0);
-        int j = f_j;
-        for( int i = 0; i < sOmbraWR.getWidth(); i++ ) {
-            shadow(i, j, sOmbraWR, demWR, dx, normalSunVector, inverseSunVector);
+        Arrays.fill(shadow, 0, w * h, 1.0);
+
+        // the scanlines start first from the row, then from the column facing the sun
+        final int scanlinesNum = w + h;
+        final int chunk = SHADOW_CHUNK;
+        int threads = Math.max(1, Math.min(numThreads, (scanlinesNum + chunk - 1) / chunk));
+        if (pool == null || threads == 1) {
+            for( int s = 0; s < scanlinesNum; s++ ) {
+                castShadow(s, f_i, f_j, w, h, dem, dx, normalSunVector, inverseSunVector, shadow);
+            }
+            return;
         }
-        int i = f_i;
-        for( int k = 0; k < sOmbraWR.getHeight(); k++ ) {
-            shadow(i, k, sOmbraWR, demWR, dx, normalSunVector, inverseSunVector);
+
+        final AtomicInteger nextScanline = new AtomicInteger(0);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try {
+            for( int t = 0; t < threads; t++ ) {
+                futures.add(pool.submit(new Callable<Void>(){
+                    public Void call() throws Exception {
+                        int from;
+                        while( (from = nextScanline.getAndAdd(chunk)) < scanlinesNum ) {
+                            int to = Math.min(from + chunk, scanlinesNum);
+                            for( int s = from; s < to; s++ ) {
+                                castShadow(s, f_i, f_j, w, h, dem, dx, normalSunVector, inverseSunVector, shadow);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            // the pool is not ours, only stop what is left of this map on failure
+            for( Future<Void> future : futures ) {
+                future.cancel(true);
+            }
         }
-        return sOmbraWR;
     }
 
     /**
-     * Evaluate the shadow map.
+     * Cast the shadow along a single scanline.
      *
-     * @param i
-     *            the x axis index.
-     * @param j
-     *            the y axis index.
-     * @param tmpWR
-     *            the output shadow map.
-     * @param demWR
-     *            the elevation map.
+     * @param scanline
+     *            the scanline index, the first w start from the row f_j, the others from the col f_i.
+     * @param f_i
+     *            the col facing the sun.
+     * @param f_j
+     *            the row facing the sun.
+     * @param w
+     *            the width of the raster.
+     * @param h
+     *            the height of the raster.
+     * @param dem
+     *            the packed elevations.
      * @param res
      *            the resolution of the elevation map.
      * @param normalSunVector
      * @param inverseSunVector
-     * @return
+     * @param shadow
+     *            the packed shadow map.
      */
-    private static WritableRaster shadow( int i, int j, WritableRaster tmpWR, WritableRaster demWR, double res,
-            double[] normalSunVector, double[] inverseSunVector ) {
+    private static void castShadow( int scanline, int f_i, int f_j, int w, int h, double[] dem, double res,
+            double[] normalSunVector, double[] inverseSunVector, double[] shadow ) {
+        int i;
+        int j;
+        if (scanline < w) {
+            i = scanline;
+            j = f_j;
+        } else {
+            i = f_i;
+            j = scanline - w;
+        }
+        double n0 = normalSunVector[0];
+        double n1 = normalSunVector[1];
+        double n2 = normalSunVector[2];
+        double stepX = inverseSunVector[0];
+        double stepY = inverseSunVector[1];
+
         int n = 0;
         double zcompare = -Double.MAX_VALUE;
-        double dx = (inverseSunVector[0] * n);
-        double dy = (inverseSunVector[1] * n);
-        int nCols = tmpWR.getWidth();
-        int nRows = tmpWR.getHeight();
-        int idx = (int) Math.round(i + dx);
-        int jdy = (int) Math.round(j + dy);
-        double vectorToOrigin[] = new double[3];
-        while( idx >= 0 && idx <= nCols - 1 && jdy >= 0 && jdy <= nRows - 1 ) {
-            vectorToOrigin[0] = dx * res;
-            vectorToOrigin[1] = dy * res;
-
-            int tmpY = (int) (j + dy);
-            if (tmpY < 0) {
-                tmpY = 0;
-            } else if (tmpY > nRows) {
-                tmpY = nRows - 1;
-            }
-            int tmpX = (int) (i + dx);
-            if (tmpX < 0) {
-                tmpX = 0;
-            } else if (tmpY > nCols) {
-                tmpX = nCols - 1;
-            }
-            vectorToOrigin[2] = demWR.getSampleDouble(idx, jdy, 0);
-            // vectorToOrigin[2] = (pitRandomIter.getSampleDouble(idx, jdy, 0) +
-            // pitRandomIter
-            // .getSampleDouble(tmpX, tmpY, 0)) / 2;
-            double zprojection = scalarProduct(vectorToOrigin, normalSunVector);
-            if ((zprojection < zcompare)) {
-                tmpWR.setSample(idx, jdy, 0, 0);
+        double dx = 0;
+        double dy = 0;
+        int idx = i;
+        int jdy = j;
+        while( idx >= 0 && idx <= w - 1 && jdy >= 0 && jdy <= h - 1 ) {
+            int index = jdy * w + idx;
+            double zprojection = dx * res * n0 + dy * res * n1 + dem[index] * n2;
+            if (zprojection < zcompare) {
+                shadow[index] = 0;
             } else {
                 zcompare = zprojection;
             }
             n = n + 1;
-            dy = (inverseSunVector[1] * n);
-            dx = (inverseSunVector[0] * n);
+            dy = stepY * n;
+            dx = stepX * n;
             idx = (int) Math.round(i + dx);
             jdy = (int) Math.round(j + dy);
         }
-        return tmpWR;
     }
 
     /**
@@ -0,0 +1,103 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.libs.modules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a number of indexed tasks on a pool of threads.
+ *
+ * <p>The threads take the next task index until all are done, so that tasks of
+ * different cost are balanced among them. Exceptions of the tasks are rethrown
+ * in the calling thread.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class ParallelTasks {
+
+    /**
+     * A task, run once for every index.
+     */
+    public interface Task {
+        void run( int taskIndex );
+    }
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * Runs the tasks with a pool of threads, or in the current thread if only one is asked.
+     *
+     * @param numThreads the number of threads to use.
+     * @param tasksNum the number of tasks, indexes go from 0 to tasksNum - 1.
+     * @param task the task to run for every index.
+     */
+    public static void run( int numThreads, final int tasksNum, final Task task ) {
+        if (numThreads <= 1 || tasksNum <= 1) {
+            for( int i = 0; i < tasksNum; i++ ) {
+                task.run(i);
+            }
+            return;
+        }
+        final AtomicInteger nextTask = new AtomicInteger(0);
+        int threads = Math.min(numThreads, tasksNum);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for( int t = 0; t < threads; t++ ) {
+                futures.add(pool.submit(new Callable<Void>(){
+                    public Void call() throws Exception {
+                        int i;
+                        while( (i = nextTask.getAndIncrement()) < tasksNum ) {
+                            task.run(i);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
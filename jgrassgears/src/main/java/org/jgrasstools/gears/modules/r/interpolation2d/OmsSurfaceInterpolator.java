@@ -39,14 +39,10 @@ import static org.jgrasstools.gears.libs.modules.Variables.IDW;
 import static org.jgrasstools.gears.libs.modules.Variables.TPS;
 
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -62,14 +58,17 @@ import oms3.annotations.Status;
 import oms3.annotations.UI;
 import oms3.annotations.Unit;
 
-import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.DirectPosition2D;
 import org.jgrasstools.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.jgrasstools.gears.libs.exceptions.ModelsRuntimeException;
 import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
+import org.jgrasstools.gears.libs.modules.ParallelTasks;
+import org.jgrasstools.gears.modules.r.interpolation2d.core.ControlPointsGridIndex;
 import org.jgrasstools.gears.modules.r.interpolation2d.core.IDWInterpolator;
 import org.jgrasstools.gears.modules.r.interpolation2d.core.ISurfaceInterpolator;
 import org.jgrasstools.gears.modules.r.interpolation2d.core.TPSInterpolator;
@@ -79,13 +78,12 @@ import org.jgrasstools.gears.utils.geometry.GeometryUtilities;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.geometry.DirectPosition;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform2D;
 import org.opengis.referencing.operation.TransformException;
 
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.Point;
-import com.vividsolutions.jts.index.strtree.STRtree;
 
 @Description(OMSSURFACEINTERPOLATOR_DESCRIPTION)
 @Documentation(OMSSURFACEINTERPOLATOR_DOCUMENTATION)
@@ -131,22 +129,21 @@ public class OmsSurfaceInterpolator extends JGTModel {
     @Out
     public GridCoverage2D outRaster = null;
 
-    private ISurfaceInterpolator interpolator;
-
-    private STRtree coordinatesSpatialTree;
-
-    private GridGeometry2D gridGeometry;
+    /**
+     * The least number of control points within the buffer to interpolate a cell.
+     */
+    private static final int MIN_POINTS = 4;
 
     @Execute
     public void process() throws Exception {
         checkNull(inGrid);
 
-        gridGeometry = inGrid.getGridGeometry();
+        GridGeometry2D gridGeometry = inGrid.getGridGeometry();
         RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inGrid);
         final int cols = regionMap.getCols();
-        int rows = regionMap.getRows();
+        final int rows = regionMap.getRows();
 
-        coordinatesSpatialTree = new STRtree();
+        List<Coordinate> controlPoints = new ArrayList<Coordinate>();
         if (inVector != null) {
             checkNull(fCat);
             GeometryDescriptor geometryDescriptor = inVector.getSchema().getGeometryDescriptor();
@@ -154,137 +151,192 @@ public class OmsSurfaceInterpolator extends JGTModel {
                 throw new ModelsIllegalargumentException("The geometry has to be a point geometry.", this, pm);
             }
             SimpleFeatureIterator featureIterator = inVector.features();
-            Coordinate[] coordinates = new Coordinate[inVector.size()];
-
-            int index = 0;
-            pm.beginTask("Indexing control points...", coordinates.length);
-            while( featureIterator.hasNext() ) {
-                SimpleFeature feature = featureIterator.next();
-                Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                coordinates[index] = geometry.getCoordinate();
-                double value = ((Number) feature.getAttribute(fCat)).doubleValue();
-                coordinates[index].z = value;
-
-                Envelope env = new Envelope(coordinates[index]);
-                coordinatesSpatialTree.insert(env, coordinates[index]);
-
-                pm.worked(1);
+            pm.beginTask("Indexing control points...", inVector.size());
+            try {
+                while( featureIterator.hasNext() ) {
+                    SimpleFeature feature = featureIterator.next();
+                    Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                    Coordinate coordinate = geometry.getCoordinate();
+                    coordinate.z = ((Number) feature.getAttribute(fCat)).doubleValue();
+                    controlPoints.add(coordinate);
+                    pm.worked(1);
+                }
+            } finally {
+                featureIterator.close();
             }
             pm.done();
-            pm.message("Indexed control points: " + coordinates.length);
+            pm.message("Indexed control points: " + controlPoints.size());
         } else {
             // create it from grid
             pm.beginTask("Indexing control points...", cols);
             RandomIter inIter = CoverageUtilities.getRandomIterator(inGrid);
-            int count = 0;
             for( int c = 0; c < cols; c++ ) {
                 for( int r = 0; r < rows; r++ ) {
                     double value = inIter.getSampleDouble(c, r, 0);
                     if (!JGTConstants.isNovalue(value)) {
                         Coordinate coordinate = CoverageUtilities.coordinateFromColRow(c, r, gridGeometry);
                         coordinate.z = value;
-                        Envelope env = new Envelope(coordinate);
-                        coordinatesSpatialTree.insert(env, coordinate);
-                        count++;
+                        controlPoints.add(coordinate);
                     }
                 }
                 pm.worked(1);
             }
+            inIter.done();
             pm.done();
-            pm.message("Indexed control points (from input grid): " + count);
+            pm.message("Indexed control points (from input grid): " + controlPoints.size());
         }
-        coordinatesSpatialTree.build();
+        final ControlPointsGridIndex pointsIndex = new ControlPointsGridIndex(
+                controlPoints.toArray(new Coordinate[controlPoints.size()]), pBuffer);
+        controlPoints = null;
 
+        final ISurfaceInterpolator interpolator;
         if (pMode.equals(IDW)) {
             interpolator = new IDWInterpolator(pBuffer);
         } else {
             interpolator = new TPSInterpolator(pBuffer);
         }
 
-        WritableRaster interpolatedWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null,
+        final WritableRaster interpolatedWR = CoverageUtilities.createDoubleWritableRaster(cols, rows, null, null,
                 JGTConstants.doubleNovalue);
-        final WritableRandomIter interpolatedIter = RandomIterFactory.createWritable(interpolatedWR, null);
+        final MathTransform2D gridToCRS = gridGeometry.getGridToCRS2D();
+        final CoordinateReferenceSystem crs = gridGeometry.getCoordinateReferenceSystem2D();
 
-        boolean doMultiThread = pMaxThreads > 1;
-
-        ExecutorService fixedThreadPool = null;
-        if (doMultiThread)
-            fixedThreadPool = Executors.newFixedThreadPool(pMaxThreads);
+        /*
+         * the rows are processed in bands, every band writes only its own
+         * rows, so no locking is needed
+         */
+        final int threads = Math.max(1, Math.min(pMaxThreads, rows));
+        final int bandRows = Math.max(1, rows / (threads * 4));
+        final int bandsNum = (rows + bandRows - 1) / bandRows;
 
         pm.beginTask("Performing interpolation...", rows);
-
-        final double[] eval = new double[1];
-        for( int r = 0; r < rows; r++ ) {
-            final int row = r;
-            if (doMultiThread) {
-                Runnable runner = new Runnable(){
-                    public void run() {
-                        processing(cols, coordinatesSpatialTree, interpolatedIter, eval, row);
+        ParallelTasks.run(threads, bandsNum, new ParallelTasks.Task(){
+            public void run( int band ) {
+                Scratch scratch = new Scratch(cols, crs);
+                int fromRow = band * bandRows;
+                int toRow = Math.min(rows, fromRow + bandRows);
+                try {
+                    for( int row = fromRow; row < toRow; row++ ) {
+                        processRow(row, cols, pointsIndex, interpolator, gridToCRS, interpolatedWR, scratch);
                     }
-                };
-                fixedThreadPool.execute(runner);
-            } else {
-                processing(cols, coordinatesSpatialTree, interpolatedIter, eval, row);
-            }
-        }
-
-        if (doMultiThread) {
-            try {
-                fixedThreadPool.shutdown();
-                fixedThreadPool.awaitTermination(30, TimeUnit.DAYS);
-                fixedThreadPool.shutdownNow();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                } catch (TransformException e) {
+                    throw new ModelsRuntimeException(e.getLocalizedMessage(), OmsSurfaceInterpolator.this);
+                }
+                synchronized (pm) {
+                    pm.worked(toRow - fromRow);
+                }
             }
-        }
+        });
         pm.done();
 
         outRaster = CoverageUtilities.buildCoverage("interpolatedraster", interpolatedWR, regionMap,
                 inGrid.getCoordinateReferenceSystem());
 
     }
-    private void processing( final int cols, final STRtree tree, final WritableRandomIter interpolatedIter, final double[] eval,
-            final int row ) {
-        try {
-            for( int c = 0; c < cols; c++ ) {
-                final DirectPosition gridToWorld = gridGeometry.gridToWorld(new GridCoordinates2D(c, row));
-                // System.out.println(row + "/" + c);
-                boolean doProcess = true;
-                if (inMask != null) {
-                    inMask.evaluate(gridToWorld, eval);
-                    if (isNovalue(eval[0])) {
-                        doProcess = false;
-                    }
-                }
 
-                if (doProcess) {
-                    final Coordinate currentCoord = new Coordinate();
-                    final double[] coord = gridToWorld.getCoordinate();
-                    currentCoord.x = coord[0];
-                    currentCoord.y = coord[1];
+    /**
+     * The buffers of a band of rows, reused for all the cells of the band.
+     */
+    private static class Scratch {
+        final double[] gridPositions;
+        final double[] worldPositions;
+        final double[] rowValues;
+        final double[] eval = new double[1];
+        final DirectPosition2D maskPosition;
+        final Coordinate currentCoord = new Coordinate();
+        final int[] count = new int[1];
+        int[] found = new int[64];
+
+        /*
+         * the control points of the last interpolated cell and the solved
+         * spline, used again as long as the same points are found
+         */
+        int[] lastFound = new int[0];
+        int lastCount = -1;
+        Coordinate[] lastPoints;
+        double[] lastWeights;
+
+        Scratch( int cols, CoordinateReferenceSystem crs ) {
+            gridPositions = new double[2 * cols];
+            worldPositions = new double[2 * cols];
+            rowValues = new double[cols];
+            maskPosition = new DirectPosition2D(crs, 0, 0);
+        }
 
-                    final Envelope env = new Envelope(currentCoord.x - pBuffer, currentCoord.x + pBuffer, currentCoord.y
-                            - pBuffer, currentCoord.y + pBuffer);
+        boolean isSameAsLast() {
+            if (count[0] != lastCount) {
+                return false;
+            }
+            for( int i = 0; i < lastCount; i++ ) {
+                if (found[i] != lastFound[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 
-                    @SuppressWarnings("unchecked")
-                    final List<Coordinate> result = tree.query(env);
-                    // System.out.println(row + "/" + c + "  = " + result.size());
+    private void processRow( int row, int cols, ControlPointsGridIndex pointsIndex, ISurfaceInterpolator interpolator,
+            MathTransform2D gridToCRS, WritableRaster interpolatedWR, Scratch scratch ) throws TransformException {
+        double[] gridPositions = scratch.gridPositions;
+        double[] worldPositions = scratch.worldPositions;
+        double[] rowValues = scratch.rowValues;
+        for( int c = 0; c < cols; c++ ) {
+            gridPositions[2 * c] = c;
+            gridPositions[2 * c + 1] = row;
+        }
+        gridToCRS.transform(gridPositions, 0, worldPositions, 0, cols);
+
+        for( int c = 0; c < cols; c++ ) {
+            rowValues[c] = JGTConstants.doubleNovalue;
+            double x = worldPositions[2 * c];
+            double y = worldPositions[2 * c + 1];
+            if (inMask != null) {
+                scratch.maskPosition.setLocation(x, y);
+                inMask.evaluate((DirectPosition) scratch.maskPosition, scratch.eval);
+                if (isNovalue(scratch.eval[0])) {
+                    continue;
+                }
+            }
 
-                    // we need at least 3 points
-                    if (result.size() < 4) {
-                        continue;
-                    }
+            scratch.found = pointsIndex.query(x, y, pBuffer, scratch.found, scratch.count);
+            int pointsNum = scratch.count[0];
+            // too few control points around the cell
+            if (pointsNum < MIN_POINTS) {
+                continue;
+            }
 
-                    final double value = interpolator.getValue(result.toArray(new Coordinate[0]), currentCoord);
-                    synchronized (interpolatedIter) {
-                        interpolatedIter.setSample(c, row, 0, value);
-                    }
+            if (!scratch.isSameAsLast()) {
+                Coordinate[] points = new Coordinate[pointsNum];
+                for( int i = 0; i < pointsNum; i++ ) {
+                    points[i] = pointsIndex.getPoint(scratch.found[i]);
                 }
+                scratch.lastPoints = points;
+                scratch.lastWeights = null;
+                if (interpolator instanceof TPSInterpolator) {
+                    scratch.lastWeights = ((TPSInterpolator) interpolator).getWeights(points);
+                }
+                if (scratch.lastFound.length < pointsNum) {
+                    scratch.lastFound = new int[scratch.found.length];
+                }
+                System.arraycopy(scratch.found, 0, scratch.lastFound, 0, pointsNum);
+                scratch.lastCount = pointsNum;
+            }
 
+            Coordinate currentCoord = scratch.currentCoord;
+            currentCoord.x = x;
+            currentCoord.y = y;
+            currentCoord.z = Coordinate.NULL_ORDINATE;
+            if (interpolator instanceof TPSInterpolator) {
+                // the system is solved once for every set of control points
+                if (scratch.lastWeights != null) {
+                    rowValues[c] = ((TPSInterpolator) interpolator).getValue(scratch.lastWeights, scratch.lastPoints,
+                            currentCoord);
+                }
+            } else {
+                rowValues[c] = interpolator.getValue(scratch.lastPoints, currentCoord);
             }
-            pm.worked(1);
-        } catch (TransformException e) {
-            e.printStackTrace();
         }
+        interpolatedWR.setSamples(0, row, cols, 1, 0, rowValues);
     }
 }
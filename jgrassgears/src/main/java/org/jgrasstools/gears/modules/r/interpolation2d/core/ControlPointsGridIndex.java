@@ -0,0 +1,170 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.modules.r.interpolation2d.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * A regular grid index of control points.
+ *
+ * <p>
+ * The points are bucketed in square cells, stored in flat arrays. A query
+ * only visits the cells touched by the search square and writes the indexes
+ * of the found points in a buffer given by the caller, so nothing is created
+ * per query and the index can be shared by many threads.
+ * </p>
+ * <p>
+ * The found points are always in the same relative order (by cell and then by index),
+ * so two queries that find the same points give the same sequence of indexes.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class ControlPointsGridIndex {
+    private final Coordinate[] points;
+    private final double[] xs;
+    private final double[] ys;
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int gridCols;
+    private final int gridRows;
+    private final int[] cellStart;
+    private final int[] cellPoints;
+
+    /**
+     * Constructor.
+     *
+     * @param points the control points, with the value in z.
+     * @param cellSize the size of the index cells, best close to the search buffer.
+     */
+    public ControlPointsGridIndex( Coordinate[] points, double cellSize ) {
+        this.points = points;
+        int n = points.length;
+        xs = new double[n];
+        ys = new double[n];
+        double minx = Double.POSITIVE_INFINITY;
+        double miny = Double.POSITIVE_INFINITY;
+        double maxx = Double.NEGATIVE_INFINITY;
+        double maxy = Double.NEGATIVE_INFINITY;
+        for( int i = 0; i < n; i++ ) {
+            xs[i] = points[i].x;
+            ys[i] = points[i].y;
+            minx = Math.min(minx, xs[i]);
+            miny = Math.min(miny, ys[i]);
+            maxx = Math.max(maxx, xs[i]);
+            maxy = Math.max(maxy, ys[i]);
+        }
+        if (n == 0) {
+            minx = miny = maxx = maxy = 0;
+        }
+        minX = minx;
+        minY = miny;
+
+        double width = maxx - minx;
+        double height = maxy - miny;
+        double size = cellSize > 0 ? cellSize : Math.max(Math.max(width, height), 1.0);
+        // keep the number of cells in the order of the number of points
+        long maxCells = 4L * n + 1024L;
+        while( (long) (width / size + 1) * (long) (height / size + 1) > maxCells ) {
+            size = size * 2;
+        }
+        this.cellSize = size;
+        gridCols = (int) (width / size) + 1;
+        gridRows = (int) (height / size) + 1;
+
+        // counting sort of the points by cell
+        cellStart = new int[gridCols * gridRows + 1];
+        int[] pointCell = new int[n];
+        for( int i = 0; i < n; i++ ) {
+            pointCell[i] = cellIndex(xs[i], ys[i]);
+            cellStart[pointCell[i] + 1]++;
+        }
+        for( int i = 0; i < gridCols * gridRows; i++ ) {
+            cellStart[i + 1] += cellStart[i];
+        }
+        cellPoints = new int[n];
+        int[] fill = new int[gridCols * gridRows];
+        for( int i = 0; i < n; i++ ) {
+            int cell = pointCell[i];
+            cellPoints[cellStart[cell] + fill[cell]++] = i;
+        }
+    }
+
+    private int cellIndex( double x, double y ) {
+        int col = Math.min(gridCols - 1, (int) ((x - minX) / cellSize));
+        int row = Math.min(gridRows - 1, (int) ((y - minY) / cellSize));
+        return row * gridCols + col;
+    }
+
+    /**
+     * @return the number of indexed points.
+     */
+    public int size() {
+        return points.length;
+    }
+
+    /**
+     * @param index the index of the point.
+     * @return the control point.
+     */
+    public Coordinate getPoint( int index ) {
+        return points[index];
+    }
+
+    /**
+     * Finds the points inside a square around a position, borders included.
+     *
+     * @param x the easting of the center.
+     * @param y the northing of the center.
+     * @param buffer the half side of the square.
+     * @param result the buffer for the indexes of the found points. If too small, a larger one is created.
+     * @param count a single element array that gets the number of found points.
+     * @return the buffer holding the indexes of the found points.
+     */
+    public int[] query( double x, double y, double buffer, int[] result, int[] count ) {
+        double qMinX = x - buffer;
+        double qMaxX = x + buffer;
+        double qMinY = y - buffer;
+        double qMaxY = y + buffer;
+        int found = 0;
+        int fromCol = (int) Math.max(0, Math.floor((qMinX - minX) / cellSize));
+        int toCol = (int) Math.min(gridCols - 1, Math.floor((qMaxX - minX) / cellSize));
+        int fromRow = (int) Math.max(0, Math.floor((qMinY - minY) / cellSize));
+        int toRow = (int) Math.min(gridRows - 1, Math.floor((qMaxY - minY) / cellSize));
+        for( int r = fromRow; r <= toRow; r++ ) {
+            for( int c = fromCol; c <= toCol; c++ ) {
+                int cell = r * gridCols + c;
+                for( int k = cellStart[cell]; k < cellStart[cell + 1]; k++ ) {
+                    int i = cellPoints[k];
+                    if (xs[i] >= qMinX && xs[i] <= qMaxX && ys[i] >= qMinY && ys[i] <= qMaxY) {
+                        if (found == result.length) {
+                            int[] tmp = new int[Math.max(16, result.length * 2)];
+                            System.arraycopy(result, 0, tmp, 0, found);
+                            result = tmp;
+                        }
+                        result[found++] = i;
+                    }
+                }
+            }
+        }
+        count[0] = found;
+        return result;
+    }
+}
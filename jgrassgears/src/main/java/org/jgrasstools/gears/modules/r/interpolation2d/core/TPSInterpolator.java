@@ -48,21 +48,55 @@ public class TPSInterpolator implements ISurfaceInterpolator {
     }
 
     public double getValue( Coordinate[] controlPoints, Coordinate interpolated ) {
-        int controlPointsNum = controlPoints.length;
+        double[] weights = getWeights(controlPoints);
+        if (weights == null) {
+            return JGTConstants.doubleNovalue;
+        }
+        return getValue(weights, controlPoints, interpolated);
+    }
+
+    /**
+     * Solves the spline system of a set of control points.
+     * 
+     * <p>The weights can be used for all the positions interpolated 
+     * from the same control points, see {@link #getValue(double[], Coordinate[], Coordinate)}.
+     * 
+     * @param controlPoints the control points.
+     * @return the weights of the control points followed by the 3 coefficients of the 
+     *              affine part, or <code>null</code> if the system can't be solved.
+     */
+    public double[] getWeights( Coordinate[] controlPoints ) {
         GeneralMatrix v = null;
         try {
             v = makeMatrix(controlPoints);
         } catch (Exception e) {
-            return JGTConstants.doubleNovalue;
+            return null;
+        }
+        double[] weights = new double[v.getNumRow()];
+        for( int i = 0; i < weights.length; i++ ) {
+            weights[i] = v.getElement(i, 0);
         }
-        double a1 = v.getElement(v.getNumRow() - 3, 0);
-        double a2 = v.getElement(v.getNumRow() - 2, 0);
-        double a3 = v.getElement(v.getNumRow() - 1, 0);
+        return weights;
+    }
+
+    /**
+     * Gets the interpolated value in a position from already solved weights.
+     * 
+     * @param weights the weights as given by {@link #getWeights(Coordinate[])}.
+     * @param controlPoints the control points the weights were calculated on.
+     * @param interpolated the coordinate in which to interpolate.
+     * @return the interpolated z value.
+     */
+    public double getValue( double[] weights, Coordinate[] controlPoints, Coordinate interpolated ) {
+        int controlPointsNum = controlPoints.length;
+        double a1 = weights[controlPointsNum];
+        double a2 = weights[controlPointsNum + 1];
+        double a3 = weights[controlPointsNum + 2];
 
         double sum = 0;
         for( int i = 0; i < controlPointsNum; i++ ) {
             double dist = interpolated.distance(controlPoints[i]);
-            sum = sum + (v.getElement(i, 0) * functionU(dist));
+            sum = sum + (weights[i] * functionU(dist));
         }
 
         double value = (a1 + (a2 * interpolated.x) + (a3 * interpolated.y) + sum);
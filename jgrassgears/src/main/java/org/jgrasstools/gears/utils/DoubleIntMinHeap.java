@@ -0,0 +1,163 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.utils;
+
+/**
+ * A binary min heap of <code>double</code> keys with <code>int</code> values, backed by primitive arrays.
+ *
+ * <p>
+ * Entries are ordered by key and, for equal keys, by value, so that the extraction
+ * order is deterministic. This is typically used to process raster cells
+ * (packed indexes) ordered by elevation without creating an object per cell.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class DoubleIntMinHeap {
+    private double[] keys;
+    private int[] values;
+    private int size = 0;
+
+    /**
+     * Create the heap with an initial capacity.
+     *
+     * @param initialCapacity the initial capacity, the heap grows if necessary.
+     */
+    public DoubleIntMinHeap( int initialCapacity ) {
+        if (initialCapacity < 1) {
+            initialCapacity = 1;
+        }
+        keys = new double[initialCapacity];
+        values = new int[initialCapacity];
+    }
+
+    /**
+     * Add an entry.
+     *
+     * @param key the key to order on.
+     * @param value the value of the entry.
+     */
+    public void push( double key, int value ) {
+        if (size == keys.length) {
+            int newCapacity = keys.length + (keys.length >> 1) + 1;
+            double[] newKeys = new double[newCapacity];
+            int[] newValues = new int[newCapacity];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            keys = newKeys;
+            values = newValues;
+        }
+        int pos = size++;
+        // sift up
+        while( pos > 0 ) {
+            int parent = (pos - 1) >>> 1;
+            if (!isLess(key, value, keys[parent], values[parent])) {
+                break;
+            }
+            keys[pos] = keys[parent];
+            values[pos] = values[parent];
+            pos = parent;
+        }
+        keys[pos] = key;
+        values[pos] = value;
+    }
+
+    /**
+     * @return the key of the smallest entry.
+     */
+    public double peekKey() {
+        if (size == 0) {
+            throw new IllegalStateException("The heap is empty.");
+        }
+        return keys[0];
+    }
+
+    /**
+     * @return the value of the smallest entry.
+     */
+    public int peekValue() {
+        if (size == 0) {
+            throw new IllegalStateException("The heap is empty.");
+        }
+        return values[0];
+    }
+
+    /**
+     * Removes the smallest entry.
+     *
+     * <p>Use {@link #peekKey()} and {@link #peekValue()} before to read it.</p>
+     *
+     * @return the value of the removed entry.
+     */
+    public int pop() {
+        if (size == 0) {
+            throw new IllegalStateException("The heap is empty.");
+        }
+        int top = values[0];
+        size--;
+        if (size > 0) {
+            double key = keys[size];
+            int value = values[size];
+            // sift down
+            int pos = 0;
+            int half = size >>> 1;
+            while( pos < half ) {
+                int child = 2 * pos + 1;
+                int right = child + 1;
+                if (right < size && isLess(keys[right], values[right], keys[child], values[child])) {
+                    child = right;
+                }
+                if (!isLess(keys[child], values[child], key, value)) {
+                    break;
+                }
+                keys[pos] = keys[child];
+                values[pos] = values[child];
+                pos = child;
+            }
+            keys[pos] = key;
+            values[pos] = value;
+        }
+        return top;
+    }
+
+    private static boolean isLess( double k1, int v1, double k2, int v2 ) {
+        if (k1 < k2) {
+            return true;
+        }
+        if (k1 > k2) {
+            return false;
+        }
+        return v1 < v2;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all entries, keeping the allocated capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+}
@@ -28,11 +28,15 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -108,6 +112,16 @@ public class CoverageUtilities {
     public static final String ROWS = "ROWS"; //$NON-NLS-1$
     public static final String COLS = "COLS"; //$NON-NLS-1$
 
+    /**
+     * The largest integer up to which float rasters hold all integers exactly.
+     */
+    public static final double MAX_FLOAT_INTEGER = 16777216.0;
+
+    /**
+     * The system property holding the size in megabytes over which new rasters are created on disk.
+     */
+    public static final String OUTOFCORE_THRESHOLD_PROPERTY = "jgt.outofcore.threshold"; //$NON-NLS-1$
+
     /**
      * Creates a {@link RandomIter} for the given {@link GridCoverage2D}.
      * 
@@ -195,9 +209,43 @@ public class CoverageUtilities {
         return readGC;
     }
 
+    /**
+     * Checks if a new raster should be kept on disk instead of in memory.
+     * 
+     * <p>This happens for int, float and double rasters larger than the size in megabytes 
+     * defined by the {@link #OUTOFCORE_THRESHOLD_PROPERTY} system property. If the property
+     * is not set, rasters are always kept in memory.</p>
+     * 
+     * @param width width of the raster.
+     * @param height height of the raster.
+     * @param dataType the {@link DataBuffer} type of the raster.
+     * @return <code>true</code> if the raster should be a {@link DiskTiledDataBuffer disk raster}.
+     */
+    public static boolean isOutOfCore( int width, int height, int dataType ) {
+        long thresholdMb = Long.getLong(OUTOFCORE_THRESHOLD_PROPERTY, -1L);
+        if (thresholdMb < 0) {
+            return false;
+        }
+        int cellBytes;
+        switch( dataType ) {
+        case DataBuffer.TYPE_INT:
+        case DataBuffer.TYPE_FLOAT:
+            cellBytes = 4;
+            break;
+        case DataBuffer.TYPE_DOUBLE:
+            cellBytes = 8;
+            break;
+        default:
+            return false;
+        }
+        return (long) width * height * cellBytes > thresholdMb * 1024L * 1024L;
+    }
+
     /**
      * Creates a {@link WritableRaster writable raster}.
      * 
+     * <p>Rasters above the {@link #OUTOFCORE_THRESHOLD_PROPERTY} size are created on disk.</p>
+     * 
      * @param width width of the raster to create.
      * @param height height of the raster to create.
      * @param dataClass data type for the raster. If <code>null</code>, defaults to double.
@@ -223,6 +271,13 @@ public class CoverageUtilities {
         }
 
         if (!doesOverFlow(width, height)) {
+            if (sampleModel == null && isOutOfCore(width, height, dataType)) {
+                try {
+                    return DiskTiledDataBuffer.createWritableRaster(dataType, width, height, value);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
             if (sampleModel == null) {
                 sampleModel = new ComponentSampleModel(dataType, width, height, 1, width, new int[]{0});
             }
@@ -250,6 +305,76 @@ public class CoverageUtilities {
         }
     }
 
+    /**
+     * Creates a float {@link WritableRaster writable raster}, half the size of a double one.
+     * 
+     * <p>Float rasters support the {@link JGTConstants#doubleNovalue} and hold integer values exactly
+     * up to {@link #MAX_FLOAT_INTEGER}, so they are a good fit also for categories and flow directions.</p>
+     * 
+     * @param width width of the raster to create.
+     * @param height height of the raster to create.
+     * @param value value to which to set the raster to. If null, the raster is set to 0.
+     * @return a float {@link WritableRaster writable raster}.
+     */
+    public static WritableRaster createFloatWritableRaster( int width, int height, Double value ) {
+        return createDoubleWritableRaster(width, height, Float.class, null, value);
+    }
+
+    /**
+     * Creates an int {@link WritableRaster writable raster}.
+     * 
+     * <p>Note that int rasters can't hold the {@link JGTConstants#doubleNovalue}, 
+     * {@link JGTConstants#intNovalue} has to be used.</p>
+     * 
+     * @param width width of the raster to create.
+     * @param height height of the raster to create.
+     * @param value value to which to set the raster to. If null, the raster is set to 0.
+     * @return an int {@link WritableRaster writable raster}.
+     */
+    public static WritableRaster createIntWritableRaster( int width, int height, Integer value ) {
+        return createDoubleWritableRaster(width, height, Integer.class, null, value == null ? null : value.doubleValue());
+    }
+
+    /**
+     * Creates a byte {@link WritableRaster writable raster}, holding values from 0 to 255.
+     * 
+     * <p>Note that byte rasters can't hold novalues.</p>
+     * 
+     * @param width width of the raster to create.
+     * @param height height of the raster to create.
+     * @param value value to which to set the raster to. If null, the raster is set to 0.
+     * @return a byte {@link WritableRaster writable raster}.
+     */
+    public static WritableRaster createByteWritableRaster( int width, int height, Integer value ) {
+        return createDoubleWritableRaster(width, height, Byte.class, null, value == null ? null : value.doubleValue());
+    }
+
+    /**
+     * Chooses the smallest raster type that holds a range of integer values.
+     * 
+     * <p>Since only float and double rasters support the {@link JGTConstants#doubleNovalue},
+     * maps that need novalues are float unless the values are too large for it.</p>
+     * 
+     * @param minValue the minimum value to hold.
+     * @param maxValue the maximum value to hold.
+     * @param hasNovalues if <code>true</code>, the raster has to support novalues.
+     * @return the data class to use in {@link #createDoubleWritableRaster(int, int, Class, SampleModel, Double)}.
+     */
+    public static Class< ? > getIntegerStorageClass( double minValue, double maxValue, boolean hasNovalues ) {
+        if (!hasNovalues) {
+            if (minValue >= 0 && maxValue <= 255) {
+                return Byte.class;
+            }
+            if (minValue >= Integer.MIN_VALUE && maxValue < Integer.MAX_VALUE) {
+                return Integer.class;
+            }
+        }
+        if (Math.abs(minValue) <= MAX_FLOAT_INTEGER && Math.abs(maxValue) <= MAX_FLOAT_INTEGER) {
+            return Float.class;
+        }
+        return Double.class;
+    }
+
     /**
      * Creates a new {@link GridCoverage2D} using an existing as template.
      * 
@@ -627,7 +752,7 @@ public class CoverageUtilities {
     }
 
     /**
-     * Create a {@link WritableRaster} from a float matrix.
+     * Create a float {@link WritableRaster} from a float matrix.
      * 
      * @param matrix the matrix to take the data from.
      * @param matrixIsRowCol a flag to tell if the matrix has rowCol or colRow order.
@@ -641,7 +766,7 @@ public class CoverageUtilities {
             height = width;
             width = tmp;
         }
-        WritableRaster writableRaster = createDoubleWritableRaster(width, height, null, null, null);
+        WritableRaster writableRaster = createFloatWritableRaster(width, height, null);
 
         WritableRandomIter disckRandomIter = RandomIterFactory.createWritable(writableRaster, null);
         for( int x = 0; x < width; x++ ) {
@@ -658,6 +783,13 @@ public class CoverageUtilities {
         return writableRaster;
     }
 
+    /**
+     * Create an int {@link WritableRaster} from an int matrix.
+     * 
+     * @param matrix the matrix to take the data from.
+     * @param matrixIsRowCol a flag to tell if the matrix has rowCol or colRow order.
+     * @return the produced raster.
+     */
     public static WritableRaster createWritableRasterFromMatrix( int[][] matrix, boolean matrixIsRowCol ) {
         int height = matrix.length;
         int width = matrix[0].length;
@@ -666,7 +798,7 @@ public class CoverageUtilities {
             height = width;
             width = tmp;
         }
-        WritableRaster writableRaster = createDoubleWritableRaster(width, height, null, null, null);
+        WritableRaster writableRaster = createIntWritableRaster(width, height, null);
 
         WritableRandomIter disckRandomIter = RandomIterFactory.createWritable(writableRaster, null);
         for( int x = 0; x < width; x++ ) {
@@ -771,6 +903,9 @@ public class CoverageUtilities {
     /**
      * Creates a {@link GridCoverage2D coverage} from the {@link WritableRaster writable raster} and the necessary geographic Information.
      * 
+     * <p>A raster on a {@link DiskTiledDataBuffer} is handed over to the coverage, which deletes
+     * its file when disposed. The raster must not be changed afterwards.</p>
+     * 
      * @param name the name of the coverage.
      * @param writableRaster the raster containing the data.
      * @param envelopeParams the map of boundary parameters.
@@ -798,6 +933,10 @@ public class CoverageUtilities {
             Envelope2D writeEnvelope = new Envelope2D(crs, west, south, east - west, north - south);
             GridCoverageFactory factory = CoverageFactoryFinder.getGridCoverageFactory(null);
 
+            if (writableRaster.getDataBuffer() instanceof DiskTiledDataBuffer) {
+                // jai and the writers get heap tiles, the coverage disposes the disk buffer
+                return factory.create(name, new DiskTiledImage(writableRaster), writeEnvelope);
+            }
             GridCoverage2D coverage2D = factory.create(name, writableRaster, writeEnvelope);
             return coverage2D;
         }
@@ -824,6 +963,79 @@ public class CoverageUtilities {
         return buildCoverage("dummy", writableRaster, envelopeParams, DefaultGeographicCRS.WGS84); //$NON-NLS-1$
     }
 
+    /**
+     * Get the raster of an image if it keeps its values in a single packed array.
+     * 
+     * <p>This is the case of the single band double, float and int rasters created by the
+     * factory methods of this class, for which the cells are held in row-major order
+     * in the single bank of the data buffer.</p>
+     * 
+     * @param image the image to check.
+     * @return the raster holding all the image data or <code>null</code> if the image is not packed.
+     */
+    public static Raster getPackedRaster( RenderedImage image ) {
+        if (image.getNumXTiles() != 1 || image.getNumYTiles() != 1) {
+            return null;
+        }
+        Raster raster = image.getTile(image.getMinTileX(), image.getMinTileY());
+        if (raster == null || raster.getParent() != null || raster.getWidth() != image.getWidth()
+                || raster.getHeight() != image.getHeight() || raster.getNumBands() != 1) {
+            return null;
+        }
+        SampleModel sampleModel = raster.getSampleModel();
+        if (!(sampleModel instanceof ComponentSampleModel)) {
+            return null;
+        }
+        ComponentSampleModel csm = (ComponentSampleModel) sampleModel;
+        if (csm.getPixelStride() != 1 || csm.getScanlineStride() != raster.getWidth() || csm.getBandOffsets()[0] != 0
+                || csm.getBankIndices()[0] != 0 || raster.getSampleModelTranslateX() != raster.getMinX()
+                || raster.getSampleModelTranslateY() != raster.getMinY()) {
+            return null;
+        }
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        if (dataBuffer.getNumBanks() != 1 || dataBuffer.getOffset() != 0) {
+            return null;
+        }
+        if (dataBuffer instanceof DataBufferDouble || dataBuffer instanceof DataBufferFloat
+                || dataBuffer instanceof DataBufferInt) {
+            return raster;
+        }
+        return null;
+    }
+
+    /**
+     * Get the values of a double image without copying them, if possible.
+     * 
+     * @param image the image.
+     * @return the packed row-major values backing the image or <code>null</code> if the image 
+     *          is not a packed double raster (see {@link #getPackedRaster(RenderedImage)}). 
+     *          The array is shared with the image.
+     */
+    public static double[] getPackedDoubleData( RenderedImage image ) {
+        Raster raster = getPackedRaster(image);
+        if (raster != null && raster.getDataBuffer() instanceof DataBufferDouble) {
+            return ((DataBufferDouble) raster.getDataBuffer()).getData();
+        }
+        return null;
+    }
+
+    /**
+     * Creates a double {@link WritableRaster} on a packed row-major array, without copying it.
+     * 
+     * @param values the values, that will be shared with the raster.
+     * @param width the width of the raster.
+     * @param height the height of the raster.
+     * @return the raster.
+     */
+    public static WritableRaster createWritableRaster( double[] values, int width, int height ) {
+        if (values.length != width * height) {
+            throw new IllegalArgumentException("The array doesn't match the raster size.");
+        }
+        ComponentSampleModel sampleModel = new ComponentSampleModel(DataBuffer.TYPE_DOUBLE, width, height, 1, width,
+                new int[]{0});
+        return Raster.createWritableRaster(sampleModel, new DataBufferDouble(values, values.length), null);
+    }
+
     /**
      * Creates a compatible {@link WritableRaster} from a {@link RenderedImage}.
      * 
@@ -835,9 +1047,41 @@ public class CoverageUtilities {
         int width = renderedImage.getWidth();
         int height = renderedImage.getHeight();
 
-        Raster data = renderedImage.getData();
-        WritableRaster writableRaster = data.createCompatibleWritableRaster();
-        writableRaster.setDataElements(0, 0, data);
+        WritableRaster writableRaster;
+        int dataType = renderedImage.getSampleModel().getDataType();
+        Raster packedRaster = getPackedRaster(renderedImage);
+        if (packedRaster != null && !isOutOfCore(width, height, dataType)) {
+            // a single copy of the backing array
+            DataBuffer dataBuffer = packedRaster.getDataBuffer();
+            DataBuffer copy;
+            if (dataBuffer instanceof DataBufferDouble) {
+                copy = new DataBufferDouble(((DataBufferDouble) dataBuffer).getData().clone(), dataBuffer.getSize());
+            } else if (dataBuffer instanceof DataBufferFloat) {
+                copy = new DataBufferFloat(((DataBufferFloat) dataBuffer).getData().clone(), dataBuffer.getSize());
+            } else {
+                copy = new DataBufferInt(((DataBufferInt) dataBuffer).getData().clone(), dataBuffer.getSize());
+            }
+            writableRaster = Raster.createWritableRaster(packedRaster.getSampleModel(), copy, null);
+        } else if (renderedImage.getSampleModel().getNumBands() == 1 && isOutOfCore(width, height, dataType)) {
+            // copy tile by tile, never holding the whole image in memory
+            try {
+                writableRaster = DiskTiledDataBuffer.createWritableRaster(dataType, width, height, null);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            for( int tileY = renderedImage.getMinTileY(); tileY < renderedImage.getMinTileY()
+                    + renderedImage.getNumYTiles(); tileY++ ) {
+                for( int tileX = renderedImage.getMinTileX(); tileX < renderedImage.getMinTileX()
+                        + renderedImage.getNumXTiles(); tileX++ ) {
+                    Raster tile = renderedImage.getTile(tileX, tileY);
+                    writableRaster.setRect(-renderedImage.getMinX(), -renderedImage.getMinY(), tile);
+                }
+            }
+        } else {
+            Raster data = renderedImage.getData();
+            writableRaster = data.createCompatibleWritableRaster();
+            writableRaster.setDataElements(0, 0, data);
+        }
         if (nullBorders) {
             for( int c = 0; c < width; c++ ) {
                 writableRaster.setSample(c, 0, 0, doubleNovalue);
@@ -0,0 +1,277 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.utils.coverage;
+
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A single bank {@link DataBuffer} that keeps its cells in a memory mapped file instead of the heap.
+ *
+ * <p>
+ * The cells are stored in square tiles, so that cells that are near in the raster are
+ * near also in the file. The file is mapped in windows of whole tiles and the operating
+ * system keeps in memory only the recently used tiles, writing back the modified ones
+ * when it needs the memory. Rasters that do not fit in the heap, or even in the
+ * physical memory, can so be processed with the normal {@link WritableRaster} and
+ * iterator api.
+ * </p>
+ * <p>Cells are read and written with absolute operations, so the buffer can be used by
+ * several threads, as long as they do not write the same cells.</p>
+ * <p>Supported types are {@link DataBuffer#TYPE_INT}, {@link DataBuffer#TYPE_FLOAT} and
+ * {@link DataBuffer#TYPE_DOUBLE}.</p>
+ * <p>
+ * The file belongs to whoever holds the raster and is deleted by {@link #dispose()}.
+ * Rasters turned into coverages by {@link CoverageUtilities#buildCoverage(String, WritableRaster, java.util.HashMap, org.opengis.referencing.crs.CoordinateReferenceSystem)}
+ * are owned by the coverage, which disposes the buffer when it is disposed. Files that are
+ * never disposed are deleted when the virtual machine exits.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class DiskTiledDataBuffer extends DataBuffer {
+    /**
+     * The default side of a tile in cells.
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    /**
+     * The system property to set the folder of the tile files. If not set, the temporary folder is used.
+     */
+    public static final String FOLDER_PROPERTY = "jgt.outofcore.folder";
+
+    private static final long WINDOW_SIZE = 1024L * 1024L * 1024L;
+
+    private final int width;
+    private final int tileSize;
+    private final int tileCols;
+    private final int tileCells;
+    private final int cellBytes;
+    private final long tilesPerWindow;
+    private final MappedByteBuffer[] windows;
+    private final File file;
+
+    /**
+     * Create a disk buffer in the folder defined by {@link #FOLDER_PROPERTY}.
+     *
+     * @param dataType the type of the cells.
+     * @param width the width of the raster.
+     * @param height the height of the raster.
+     * @param tileSize the side of a tile in cells.
+     * @throws IOException
+     */
+    public DiskTiledDataBuffer( int dataType, int width, int height, int tileSize ) throws IOException {
+        super(dataType, checkSize(width, height));
+        switch( dataType ) {
+        case TYPE_INT:
+        case TYPE_FLOAT:
+            cellBytes = 4;
+            break;
+        case TYPE_DOUBLE:
+            cellBytes = 8;
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported data type for disk rasters: " + dataType);
+        }
+        this.width = width;
+        this.tileSize = tileSize;
+        tileCols = (width + tileSize - 1) / tileSize;
+        int tileRows = (height + tileSize - 1) / tileSize;
+        tileCells = tileSize * tileSize;
+        long tileBytes = (long) tileCells * cellBytes;
+        tilesPerWindow = Math.max(1, WINDOW_SIZE / tileBytes);
+        long tilesCount = (long) tileCols * tileRows;
+
+        String folderPath = System.getProperty(FOLDER_PROPERTY);
+        File folder = folderPath != null ? new File(folderPath) : null;
+        file = File.createTempFile("jgt-raster", ".tiles", folder);
+        file.deleteOnExit();
+
+        int windowsCount = (int) ((tilesCount + tilesPerWindow - 1) / tilesPerWindow);
+        windows = new MappedByteBuffer[windowsCount];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel fc = raf.getChannel()) {
+            // the file is sparse, cells are 0 until written
+            raf.setLength(tilesCount * tileBytes);
+            for( int i = 0; i < windowsCount; i++ ) {
+                long firstTile = i * tilesPerWindow;
+                long count = Math.min(tilesPerWindow, tilesCount - firstTile);
+                windows[i] = fc.map(MapMode.READ_WRITE, firstTile * tileBytes, count * tileBytes);
+                windows[i].order(ByteOrder.nativeOrder());
+            }
+        }
+    }
+
+    private static int checkSize( int width, int height ) {
+        long size = (long) width * height;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The raster is too large for a data buffer: " + width + "x" + height);
+        }
+        return (int) size;
+    }
+
+    /**
+     * Create a {@link WritableRaster} on a new disk buffer.
+     *
+     * @param dataType the type of the cells.
+     * @param width the width of the raster.
+     * @param height the height of the raster.
+     * @param value the value to set the cells to. If <code>null</code>, cells are 0.
+     * @return the raster.
+     * @throws IOException
+     */
+    public static WritableRaster createWritableRaster( int dataType, int width, int height, Double value ) throws IOException {
+        DiskTiledDataBuffer dataBuffer = new DiskTiledDataBuffer(dataType, width, height, DEFAULT_TILE_SIZE);
+        if (value != null && value != 0.0) {
+            dataBuffer.fill(value);
+        }
+        ComponentSampleModel sampleModel = new ComponentSampleModel(dataType, width, height, 1, width, new int[]{0});
+        return Raster.createWritableRaster(sampleModel, dataBuffer, null);
+    }
+
+    /**
+     * @return the file holding the cells.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Set all the cells to a value, going sequentially through the file.
+     *
+     * @param value the value to set.
+     */
+    public void fill( double value ) {
+        for( MappedByteBuffer window : windows ) {
+            int cells = window.capacity() / cellBytes;
+            for( int i = 0; i < cells; i++ ) {
+                put(window, i * cellBytes, value);
+            }
+        }
+    }
+
+    /**
+     * Write the modified cells to the file.
+     */
+    public void flush() {
+        for( MappedByteBuffer window : windows ) {
+            window.force();
+        }
+    }
+
+    /**
+     * Delete the file of the buffer.
+     *
+     * <p>The buffer must not be used after this. Calling it more than once has no effect.</p>
+     */
+    public void dispose() {
+        file.delete();
+    }
+
+    private ByteBuffer window( int i ) {
+        int x = i % width;
+        int y = i / width;
+        long tile = (long) (y / tileSize) * tileCols + x / tileSize;
+        return windows[(int) (tile / tilesPerWindow)];
+    }
+
+    private int position( int i ) {
+        int x = i % width;
+        int y = i / width;
+        long tile = (long) (y / tileSize) * tileCols + x / tileSize;
+        int cell = (y % tileSize) * tileSize + x % tileSize;
+        return (int) ((tile % tilesPerWindow) * tileCells + cell) * cellBytes;
+    }
+
+    private double get( ByteBuffer window, int position ) {
+        switch( dataType ) {
+        case TYPE_INT:
+            return window.getInt(position);
+        case TYPE_FLOAT:
+            return window.getFloat(position);
+        default:
+            return window.getDouble(position);
+        }
+    }
+
+    private void put( ByteBuffer window, int position, double value ) {
+        switch( dataType ) {
+        case TYPE_INT:
+            window.putInt(position, (int) value);
+            break;
+        case TYPE_FLOAT:
+            window.putFloat(position, (float) value);
+            break;
+        default:
+            window.putDouble(position, value);
+            break;
+        }
+    }
+
+    @Override
+    public int getElem( int bank, int i ) {
+        ByteBuffer window = window(i);
+        int position = position(i);
+        if (dataType == TYPE_INT) {
+            return window.getInt(position);
+        }
+        return (int) get(window, position);
+    }
+
+    @Override
+    public float getElemFloat( int bank, int i ) {
+        return (float) get(window(i), position(i));
+    }
+
+    @Override
+    public double getElemDouble( int bank, int i ) {
+        return get(window(i), position(i));
+    }
+
+    @Override
+    public void setElem( int bank, int i, int val ) {
+        ByteBuffer window = window(i);
+        int position = position(i);
+        if (dataType == TYPE_INT) {
+            window.putInt(position, val);
+        } else {
+            put(window, position, val);
+        }
+    }
+
+    @Override
+    public void setElemFloat( int bank, int i, float val ) {
+        put(window(i), position(i), val);
+    }
+
+    @Override
+    public void setElemDouble( int bank, int i, double val ) {
+        put(window(i), position(i), val);
+    }
+
+}
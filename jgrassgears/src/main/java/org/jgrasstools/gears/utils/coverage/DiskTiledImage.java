@@ -0,0 +1,95 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.utils.coverage;
+
+import java.awt.Point;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.JAI;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.TileCache;
+
+/**
+ * A read only image on a raster of a {@link DiskTiledDataBuffer}.
+ *
+ * <p>
+ * JAI operations and image writers access the data buffers of component rasters
+ * directly, casting them to the java data buffers. This image hands them normal heap
+ * tiles instead, copied from the disk raster when requested and kept in the JAI tile cache.
+ * </p>
+ * <p>
+ * The image owns the disk buffer: {@link #dispose()}, also called when the coverage
+ * holding the image is disposed, deletes its file.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+class DiskTiledImage extends PlanarImage {
+
+    private final WritableRaster diskRaster;
+    private final TileCache cache;
+
+    /**
+     * @param diskRaster a raster on a {@link DiskTiledDataBuffer}, it must not be changed afterwards.
+     */
+    DiskTiledImage( WritableRaster diskRaster ) {
+        super(layout(diskRaster), null, null);
+        this.diskRaster = diskRaster;
+        cache = JAI.getDefaultInstance().getTileCache();
+    }
+
+    private static ImageLayout layout( WritableRaster diskRaster ) {
+        int tileSize = DiskTiledDataBuffer.DEFAULT_TILE_SIZE;
+        SampleModel sampleModel = new ComponentSampleModel(diskRaster.getSampleModel().getDataType(), tileSize, tileSize, 1,
+                tileSize, new int[]{0});
+        return new ImageLayout(diskRaster.getMinX(), diskRaster.getMinY(), diskRaster.getWidth(), diskRaster.getHeight(),
+                diskRaster.getMinX(), diskRaster.getMinY(), tileSize, tileSize, sampleModel,
+                PlanarImage.createColorModel(sampleModel));
+    }
+
+    @Override
+    public Raster getTile( int tileX, int tileY ) {
+        if (tileX < getMinTileX() || tileX > getMaxTileX() || tileY < getMinTileY() || tileY > getMaxTileY()) {
+            return null;
+        }
+        Raster tile = cache.getTile(this, tileX, tileY);
+        if (tile != null) {
+            return tile;
+        }
+        int x = tileXToX(tileX);
+        int y = tileYToY(tileY);
+        int w = Math.min(getTileWidth(), getMaxX() - x);
+        int h = Math.min(getTileHeight(), getMaxY() - y);
+        WritableRaster heapTile = Raster.createWritableRaster(getSampleModel(), new Point(x, y));
+        heapTile.setSamples(x, y, w, h, 0, diskRaster.getSamples(x, y, w, h, 0, (double[]) null));
+        cache.add(this, tileX, tileY, heapTile);
+        return heapTile;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        cache.removeTiles(this);
+        ((DiskTiledDataBuffer) diskRaster.getDataBuffer()).dispose();
+        super.dispose();
+    }
+}
@@ -0,0 +1,579 @@
+/*
+ * This file is part of JGrasstools (http://www.jgrasstools.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * JGrasstools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jgrasstools.gears.utils.sorting;
+
+import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+
+import org.jgrasstools.gears.libs.modules.ParallelTasks;
+import org.jgrasstools.gears.libs.monitor.IJGTProgressMonitor;
+import org.jgrasstools.gears.libs.monitor.LogProgressMonitor;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+import org.jgrasstools.gears.utils.coverage.DiskTiledDataBuffer;
+
+/**
+ * Sorts the cells of a raster by elevation.
+ *
+ * <p>
+ * Every valid cell is encoded in a single primitive long, holding in the high bits the
+ * elevation as a float in an order preserving form and in the low bits the cell index.
+ * Sorting the longs orders the cells by elevation and cells of equal elevation by index,
+ * so flat areas cost the same as the rest of the raster. Elevations that a float can't
+ * hold exactly are ordered on their double value, so the order is always the exact one.
+ * </p>
+ * <p>
+ * The raster is sorted in row bands, in parallel, and the sorted bands are merged while
+ * iterating. If the 8 bytes per cell are more than the {@link CoverageUtilities#OUTOFCORE_THRESHOLD_PROPERTY}
+ * size, the bands are sized to the threshold and written to temporary files, in the folder of the
+ * {@link DiskTiledDataBuffer#FOLDER_PROPERTY}, and merged from there. This way also rasters
+ * larger than the heap can be ordered. If there are more files than can be open at the same
+ * time, groups of them are first merged into fewer, larger files.
+ * </p>
+ * <p>Novalue cells are not part of the order.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 0.7.9
+ */
+public class ElevationIndexSorter {
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * The default maximum number of sorted files read at the same time.
+     */
+    public static final int DEFAULT_MAX_OPEN_RUNS = 64;
+
+    private final int numThreads;
+    private IJGTProgressMonitor pm = new LogProgressMonitor();
+    private long maxMemoryCells = -1;
+    private int maxOpenRuns = DEFAULT_MAX_OPEN_RUNS;
+
+    /**
+     * Constructor.
+     *
+     * @param numThreads the number of threads to use.
+     * @param pm the progress monitor. Can be <code>null</code>.
+     */
+    public ElevationIndexSorter( int numThreads, IJGTProgressMonitor pm ) {
+        this.numThreads = Math.max(1, numThreads);
+        if (pm != null)
+            this.pm = pm;
+    }
+
+    /**
+     * Set the maximum number of cells to sort in memory.
+     *
+     * <p>Larger rasters are sorted through temporary files. If not set, the limit is given by the
+     * {@link CoverageUtilities#OUTOFCORE_THRESHOLD_PROPERTY} and without it everything is sorted in memory.</p>
+     *
+     * @param maxMemoryCells the number of cells, or a negative value to use the default.
+     */
+    public void setMaxMemoryCells( long maxMemoryCells ) {
+        this.maxMemoryCells = maxMemoryCells;
+    }
+
+    /**
+     * Set the maximum number of sorted files that are read at the same time while merging.
+     *
+     * @param maxOpenRuns the number of files, at least 2.
+     */
+    public void setMaxOpenRuns( int maxOpenRuns ) {
+        if (maxOpenRuns < 2) {
+            throw new IllegalArgumentException("At least two runs are needed to merge.");
+        }
+        this.maxOpenRuns = maxOpenRuns;
+    }
+
+    /**
+     * Encodes a cell in a key that sorts by elevation first and by index after.
+     *
+     * @param elevation the elevation of the cell.
+     * @param index the index of the cell (<code>row * cols + col</code>).
+     * @return the key.
+     */
+    public static long encode( double elevation, int index ) {
+        float value = (float) elevation;
+        if (value == 0f) {
+            // -0 and 0 are the same elevation
+            value = 0f;
+        }
+        int bits = Float.floatToIntBits(value);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return ((long) bits << 32) | index;
+    }
+
+    /**
+     * Sorts the cells of a raster.
+     *
+     * @param elevation the elevation raster.
+     * @param descending if <code>true</code>, the cells go from the highest to the lowest,
+     *              and cells of equal elevation from the highest index to the lowest.
+     * @return the sorted cells.
+     */
+    public SortedCells sort( final RenderedImage elevation, final boolean descending ) {
+        final int cols = elevation.getWidth();
+        final int rows = elevation.getHeight();
+
+        long memoryCells = maxMemoryCells;
+        if (memoryCells < 0 && CoverageUtilities.isOutOfCore(cols, rows, DataBuffer.TYPE_DOUBLE)) {
+            long thresholdMb = Long.getLong(CoverageUtilities.OUTOFCORE_THRESHOLD_PROPERTY);
+            memoryCells = thresholdMb * 1024L * 1024L / 8L;
+        }
+        final boolean onDisk = memoryCells >= 0 && (long) cols * rows > memoryCells;
+        int bandRows;
+        if (onDisk) {
+            // the bands sorted at the same time have to fit in the memory
+            bandRows = (int) Math.max(1, memoryCells / numThreads / cols);
+        } else {
+            bandRows = (rows + numThreads - 1) / numThreads;
+        }
+        final int rowsPerBand = Math.max(1, bandRows);
+        final int bandsNum = (rows + rowsPerBand - 1) / rowsPerBand;
+
+        final Run[] runs = new Run[bandsNum];
+        final boolean[] bandExact = new boolean[bandsNum];
+        pm.beginTask("Sorting...", bandsNum);
+        try {
+            ParallelTasks.run(numThreads, bandsNum, new ParallelTasks.Task(){
+                public void run( int band ) {
+                    RandomIter iter = RandomIterFactory.create(elevation, null);
+                    int minX = elevation.getMinX();
+                    int minY = elevation.getMinY();
+                    int fromRow = band * rowsPerBand;
+                    int toRow = Math.min(rows, fromRow + rowsPerBand);
+                    long[] keys = new long[(toRow - fromRow) * cols];
+                    int size = 0;
+                    boolean exact = true;
+                    for( int r = fromRow; r < toRow; r++ ) {
+                        for( int c = 0; c < cols; c++ ) {
+                            double value = iter.getSampleDouble(minX + c, minY + r, 0);
+                            if (isNovalue(value)) {
+                                continue;
+                            }
+                            long key = encode(value, r * cols + c);
+                            exact = exact && (float) value == value;
+                            keys[size++] = descending ? ~key : key;
+                        }
+                    }
+                    Arrays.sort(keys, 0, size);
+                    if (!exact) {
+                        new KeyComparator(iter, cols, minX, minY, descending, false).sortEqualFloats(keys, size);
+                    }
+                    iter.done();
+                    bandExact[band] = exact;
+                    if (onDisk) {
+                        runs[band] = FileRun.write(keys, size);
+                    } else {
+                        runs[band] = new MemoryRun(keys, size);
+                    }
+                    synchronized (pm) {
+                        pm.worked(1);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            for( Run run : runs ) {
+                if (run != null) {
+                    run.dispose();
+                }
+            }
+            throw e;
+        }
+        pm.done();
+
+        boolean exact = true;
+        for( boolean bExact : bandExact ) {
+            exact = exact && bExact;
+        }
+        RandomIter iter = RandomIterFactory.create(elevation, null);
+        KeyComparator comparator = new KeyComparator(iter, cols, elevation.getMinX(), elevation.getMinY(), descending, exact);
+        Run[] mergedRuns = runs;
+        if (onDisk) {
+            mergedRuns = reduceRuns(runs, comparator, descending);
+        }
+        return new SortedCells(mergedRuns, comparator, descending);
+    }
+
+    /**
+     * Merges groups of file runs into new files, until they are few enough to be read together.
+     */
+    private Run[] reduceRuns( Run[] runs, KeyComparator comparator, boolean descending ) {
+        while( runs.length > maxOpenRuns ) {
+            Run[] merged = new Run[(runs.length + maxOpenRuns - 1) / maxOpenRuns];
+            pm.beginTask("Merging...", merged.length);
+            try {
+                for( int i = 0; i < merged.length; i++ ) {
+                    int from = i * maxOpenRuns;
+                    Run[] group = Arrays.copyOfRange(runs, from, Math.min(runs.length, from + maxOpenRuns));
+                    merged[i] = FileRun.write(new SortedCells(group, comparator, descending));
+                    for( Run run : group ) {
+                        // also the empty ones, that the merge never opened
+                        run.dispose();
+                    }
+                    pm.worked(1);
+                }
+            } catch (RuntimeException e) {
+                for( Run run : runs ) {
+                    run.dispose();
+                }
+                for( Run run : merged ) {
+                    if (run != null) {
+                        run.dispose();
+                    }
+                }
+                comparator.iter.done();
+                throw e;
+            }
+            pm.done();
+            runs = merged;
+        }
+        return runs;
+    }
+
+    /**
+     * The cells in elevation order.
+     *
+     * <p>The bands are merged while iterating, so the iteration can't be shared between threads.</p>
+     */
+    public static class SortedCells {
+        private final Run[] runs;
+        private final KeyComparator comparator;
+        private final boolean descending;
+        private final int[] heap;
+        private int heapSize;
+        private long size;
+
+        private SortedCells( Run[] runs, KeyComparator comparator, boolean descending ) {
+            this.runs = runs;
+            this.comparator = comparator;
+            this.descending = descending;
+            heap = new int[runs.length];
+            for( int i = 0; i < runs.length; i++ ) {
+                size += runs[i].size();
+                if (runs[i].advance()) {
+                    heap[heapSize++] = i;
+                }
+            }
+            for( int i = heapSize / 2 - 1; i >= 0; i-- ) {
+                siftDown(i);
+            }
+        }
+
+        /**
+         * @return the number of valid cells.
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * @return <code>true</code> if there are more cells.
+         */
+        public boolean hasNext() {
+            return heapSize > 0;
+        }
+
+        /**
+         * @return the index of the next cell (<code>row * cols + col</code>).
+         */
+        public int next() {
+            long key = nextKey();
+            return (int) (descending ? ~key : key);
+        }
+
+        /**
+         * @return the next key, as stored in the runs.
+         */
+        private long nextKey() {
+            Run top = runs[heap[0]];
+            long key = top.head;
+            if (top.advance()) {
+                siftDown(0);
+            } else {
+                top.dispose();
+                heap[0] = heap[--heapSize];
+                siftDown(0);
+            }
+            return key;
+        }
+
+        /**
+         * Releases the resources, deleting the temporary files if there are any.
+         */
+        public void dispose() {
+            for( Run run : runs ) {
+                run.dispose();
+            }
+            comparator.iter.done();
+            heapSize = 0;
+        }
+
+        private void siftDown( int i ) {
+            int run = heap[i];
+            while( true ) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && comparator.compare(runs[heap[child + 1]].head, runs[heap[child]].head) < 0) {
+                    child++;
+                }
+                if (comparator.compare(runs[heap[child]].head, runs[run].head) >= 0) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = run;
+        }
+    }
+
+    /**
+     * Compares keys, going to the double elevations for cells that have the same float elevation.
+     */
+    private static class KeyComparator {
+        private final RandomIter iter;
+        private final int cols;
+        private final int minX;
+        private final int minY;
+        private final boolean descending;
+        private final boolean exact;
+        private long[] tmp;
+
+        KeyComparator( RandomIter iter, int cols, int minX, int minY, boolean descending, boolean exact ) {
+            this.iter = iter;
+            this.cols = cols;
+            this.minX = minX;
+            this.minY = minY;
+            this.descending = descending;
+            this.exact = exact;
+        }
+
+        int compare( long key1, long key2 ) {
+            if (!exact && (key1 >>> 32) == (key2 >>> 32) && key1 != key2) {
+                double e1 = elevation(key1);
+                double e2 = elevation(key2);
+                if (e1 != e2) {
+                    return (e1 < e2) != descending ? -1 : 1;
+                }
+            }
+            return key1 < key2 ? -1 : (key1 == key2 ? 0 : 1);
+        }
+
+        private double elevation( long key ) {
+            int index = (int) (descending ? ~key : key);
+            return iter.getSampleDouble(minX + index % cols, minY + index / cols, 0);
+        }
+
+        /**
+         * Sorts again the groups of keys with the same float elevation, which are sorted by index.
+         */
+        void sortEqualFloats( long[] keys, int size ) {
+            int from = 0;
+            while( from < size ) {
+                int to = from + 1;
+                while( to < size && (keys[to] >>> 32) == (keys[from] >>> 32) ) {
+                    to++;
+                }
+                if (to - from > 1) {
+                    mergeSort(keys, from, to);
+                }
+                from = to;
+            }
+        }
+
+        private void mergeSort( long[] keys, int from, int to ) {
+            if (to - from <= 16) {
+                for( int i = from + 1; i < to; i++ ) {
+                    long key = keys[i];
+                    int j = i - 1;
+                    while( j >= from && compare(keys[j], key) > 0 ) {
+                        keys[j + 1] = keys[j];
+                        j--;
+                    }
+                    keys[j + 1] = key;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            mergeSort(keys, from, middle);
+            mergeSort(keys, middle, to);
+            if (compare(keys[middle - 1], keys[middle]) <= 0) {
+                return;
+            }
+            int leftSize = middle - from;
+            if (tmp == null || tmp.length < leftSize) {
+                tmp = new long[leftSize];
+            }
+            System.arraycopy(keys, from, tmp, 0, leftSize);
+            int i = 0;
+            int j = middle;
+            int k = from;
+            while( i < leftSize && j < to ) {
+                keys[k++] = compare(tmp[i], keys[j]) <= 0 ? tmp[i++] : keys[j++];
+            }
+            System.arraycopy(tmp, i, keys, k, leftSize - i);
+        }
+    }
+
+    /**
+     * A sorted sequence of keys.
+     */
+    private static abstract class Run {
+        long head;
+
+        /**
+         * Moves to the next key, putting it in {@link #head}.
+         *
+         * @return <code>false</code> if there are no more keys.
+         */
+        abstract boolean advance();
+
+        abstract long size();
+
+        abstract void dispose();
+    }
+
+    private static class MemoryRun extends Run {
+        private long[] keys;
+        private final int size;
+        private int position = 0;
+
+        MemoryRun( long[] keys, int size ) {
+            this.keys = keys;
+            this.size = size;
+        }
+
+        boolean advance() {
+            if (position == size) {
+                return false;
+            }
+            head = keys[position++];
+            return true;
+        }
+
+        long size() {
+            return size;
+        }
+
+        void dispose() {
+            keys = null;
+        }
+    }
+
+    private static class FileRun extends Run {
+        private final File file;
+        private final long size;
+        private DataInputStream in;
+        private long read = 0;
+
+        private FileRun( File file, long size ) {
+            this.file = file;
+            this.size = size;
+        }
+
+        static FileRun write( long[] keys, int size ) {
+            File file = createFile();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+                for( int i = 0; i < size; i++ ) {
+                    out.writeLong(keys[i]);
+                }
+            } catch (IOException e) {
+                file.delete();
+                throw new RuntimeException(e);
+            }
+            return new FileRun(file, size);
+        }
+
+        /**
+         * Writes the merge of other runs, which are disposed as they are consumed.
+         */
+        static FileRun write( SortedCells cells ) {
+            File file = createFile();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+                while( cells.hasNext() ) {
+                    out.writeLong(cells.nextKey());
+                }
+            } catch (IOException e) {
+                file.delete();
+                throw new RuntimeException(e);
+            }
+            return new FileRun(file, cells.size());
+        }
+
+        private static File createFile() {
+            String folderPath = System.getProperty(DiskTiledDataBuffer.FOLDER_PROPERTY);
+            File folder = folderPath != null ? new File(folderPath) : null;
+            try {
+                File file = File.createTempFile("jgt-sort", ".run", folder);
+                file.deleteOnExit();
+                return file;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        boolean advance() {
+            if (read == size) {
+                return false;
+            }
+            try {
+                if (in == null) {
+                    in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+                }
+                head = in.readLong();
+            } catch (EOFException e) {
+                throw new RuntimeException("The sort file has been truncated: " + file, e);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            read++;
+            return true;
+        }
+
+        long size() {
+            return size;
+        }
+
+        void dispose() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore, the file is deleted anyway
+                }
+                in = null;
+            }
+            file.delete();
+        }
+    }
+
+}
@@ -17,18 +17,27 @@
  */
 package org.jgrasstools.gears;
 
+import java.awt.image.DataBuffer;
 import java.awt.image.WritableRaster;
+import java.io.File;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
+import javax.media.jai.JAI;
+import javax.media.jai.RenderedOp;
+
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.geometry.Envelope2D;
+import org.jgrasstools.gears.io.rasterreader.OmsRasterReader;
+import org.jgrasstools.gears.io.rasterwriter.OmsRasterWriter;
+import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.monitor.DummyProgressMonitor;
 import org.jgrasstools.gears.utils.HMTestCase;
 import org.jgrasstools.gears.utils.HMTestMaps;
 import org.jgrasstools.gears.utils.RegionMap;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+import org.jgrasstools.gears.utils.coverage.DiskTiledDataBuffer;
 import org.jgrasstools.gears.utils.coverage.ProfilePoint;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
@@ -131,6 +140,97 @@ public class TestCoverageUtilities extends HMTestCase {
         assertEquals(rows - 1, loopColsRowsForSubregion3[3]);
     }
 
+    public void testOutOfCoreRasters() throws Exception {
+        WritableRaster inMemory = CoverageUtilities.renderedImage2WritableRaster(elevationCoverage.getRenderedImage(), true);
+        System.setProperty(CoverageUtilities.OUTOFCORE_THRESHOLD_PROPERTY, "0");
+        try {
+            WritableRaster onDisk = CoverageUtilities.renderedImage2WritableRaster(elevationCoverage.getRenderedImage(), true);
+            assertTrue(onDisk.getDataBuffer() instanceof DiskTiledDataBuffer);
+            assertTrue(CoverageUtilities.equals(inMemory, onDisk));
+
+            WritableRaster created = CoverageUtilities.createDoubleWritableRaster(cols, rows, Float.class, null, -1.0);
+            assertTrue(created.getDataBuffer() instanceof DiskTiledDataBuffer);
+            assertEquals(DataBuffer.TYPE_FLOAT, created.getSampleModel().getDataType());
+            assertEquals(-1.0, created.getSampleDouble(cols - 1, rows - 1, 0), DELTA);
+            created.setSample(2, 3, 0, 12.5);
+            assertEquals(12.5, created.getSampleDouble(2, 3, 0), DELTA);
+
+            ((DiskTiledDataBuffer) onDisk.getDataBuffer()).dispose();
+            ((DiskTiledDataBuffer) created.getDataBuffer()).dispose();
+        } finally {
+            System.clearProperty(CoverageUtilities.OUTOFCORE_THRESHOLD_PROPERTY);
+        }
+    }
+
+    public void testOutOfCoreCoverage() throws Exception {
+        System.setProperty(CoverageUtilities.OUTOFCORE_THRESHOLD_PROPERTY, "0");
+        WritableRaster onDisk;
+        try {
+            onDisk = CoverageUtilities.renderedImage2WritableRaster(elevationCoverage.getRenderedImage(), false);
+        } finally {
+            System.clearProperty(CoverageUtilities.OUTOFCORE_THRESHOLD_PROPERTY);
+        }
+        DiskTiledDataBuffer dataBuffer = (DiskTiledDataBuffer) onDisk.getDataBuffer();
+        GridCoverage2D diskCoverage = CoverageUtilities.buildCoverage("elevation", onDisk, eP, crs);
+        assertFalse(diskCoverage.getRenderedImage().getTile(0, 0).getDataBuffer() instanceof DiskTiledDataBuffer);
+
+        // a jai operation
+        RenderedOp added = JAI.create("addconst", diskCoverage.getRenderedImage(), new double[]{1.0});
+        double[] expected = elevationCoverage.getRenderedImage().getData().getSamples(0, 0, cols, rows, 0, (double[]) null);
+        double[] result = added.getData().getSamples(0, 0, cols, rows, 0, (double[]) null);
+        for( int i = 0; i < expected.length; i++ ) {
+            if (JGTConstants.isNovalue(expected[i])) {
+                assertTrue(JGTConstants.isNovalue(result[i]));
+            } else {
+                assertEquals(expected[i] + 1.0, result[i], DELTA);
+            }
+        }
+
+        // a geotools writer
+        File tiff = File.createTempFile("jgt-outofcore", ".tiff");
+        try {
+            OmsRasterWriter writer = new OmsRasterWriter();
+            writer.inRaster = diskCoverage;
+            writer.file = tiff.getAbsolutePath();
+            writer.process();
+
+            OmsRasterReader reader = new OmsRasterReader();
+            reader.file = tiff.getAbsolutePath();
+            reader.fileNovalue = -9999.0;
+            reader.geodataNovalue = Double.NaN;
+            reader.process();
+            checkMatrixEqual(reader.outRaster.getRenderedImage(), HMTestMaps.mapData, DELTA);
+        } finally {
+            tiff.delete();
+        }
+
+        // the coverage owns the disk buffer
+        assertTrue(dataBuffer.getFile().exists());
+        diskCoverage.dispose(true);
+        assertFalse(dataBuffer.getFile().exists());
+    }
+
+    public void testTypedRasters() throws Exception {
+        assertEquals(Byte.class, CoverageUtilities.getIntegerStorageClass(0, 10, false));
+        assertEquals(Integer.class, CoverageUtilities.getIntegerStorageClass(-1, 1000, false));
+        assertEquals(Float.class, CoverageUtilities.getIntegerStorageClass(0, 10, true));
+        assertEquals(Double.class, CoverageUtilities.getIntegerStorageClass(0, CoverageUtilities.MAX_FLOAT_INTEGER + 1, true));
+
+        WritableRaster floatWR = CoverageUtilities.createFloatWritableRaster(cols, rows, JGTConstants.doubleNovalue);
+        assertEquals(DataBuffer.TYPE_FLOAT, floatWR.getSampleModel().getDataType());
+        assertTrue(JGTConstants.isNovalue(floatWR.getSampleDouble(1, 1, 0)));
+        floatWR.setSample(1, 1, 0, CoverageUtilities.MAX_FLOAT_INTEGER);
+        assertEquals(CoverageUtilities.MAX_FLOAT_INTEGER, floatWR.getSampleDouble(1, 1, 0), 0.0);
+
+        WritableRaster intWR = CoverageUtilities.createIntWritableRaster(cols, rows, JGTConstants.intNovalue);
+        assertEquals(DataBuffer.TYPE_INT, intWR.getSampleModel().getDataType());
+        assertTrue(JGTConstants.isNovalue(intWR.getSample(1, 1, 0)));
+
+        WritableRaster byteWR = CoverageUtilities.createByteWritableRaster(cols, rows, 8);
+        assertEquals(DataBuffer.TYPE_BYTE, byteWR.getSampleModel().getDataType());
+        assertEquals(8, byteWR.getSample(cols - 1, rows - 1, 0));
+    }
+
     public void testHypsographic() throws Exception {
         double[][] elevationData = HMTestMaps.mapData;
         HashMap<String, Double> eP = HMTestMaps.getEnvelopeparams();
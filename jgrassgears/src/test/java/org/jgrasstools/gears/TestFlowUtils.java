@@ -2,6 +2,7 @@ package org.jgrasstools.gears;
 
 import static java.lang.Double.NaN;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.TreeSet;
@@ -10,7 +11,10 @@ import javax.media.jai.iterator.RandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.jgrasstools.gears.libs.modules.Direction;
+import org.jgrasstools.gears.libs.modules.FlowCursor;
+import org.jgrasstools.gears.libs.modules.FlowLabellingEngine;
 import org.jgrasstools.gears.libs.modules.FlowNode;
+import org.jgrasstools.gears.libs.modules.GridCursor;
 import org.jgrasstools.gears.libs.modules.GridNode;
 import org.jgrasstools.gears.libs.modules.GridNodeElevationToLeastComparator;
 import org.jgrasstools.gears.libs.modules.JGTConstants;
@@ -19,6 +23,8 @@ import org.jgrasstools.gears.utils.HMTestCase;
 import org.jgrasstools.gears.utils.HMTestMaps;
 import org.jgrasstools.gears.utils.RegionMap;
 import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+import org.jgrasstools.gears.utils.sorting.ElevationIndexSorter;
+import org.jgrasstools.gears.utils.sorting.ElevationIndexSorter.SortedCells;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 /**
  * Test OmsFileIterator.
@@ -198,6 +204,57 @@ public class TestFlowUtils extends HMTestCase {
 
     }
 
+    public void testElevationIndexSorter() throws Exception {
+        double[][] mapData = HMTestMaps.mapData;
+        GridCoverage2D inElev = CoverageUtilities.buildCoverage("elevation", mapData, HMTestMaps.getEnvelopeparams(),
+                HMTestMaps.getCrs(), true);
+
+        int[] ascending = toArray(new ElevationIndexSorter(1, pm).sort(inElev.getRenderedImage(), false));
+        int valid = 0;
+        for( int r = 0; r < nRows; r++ ) {
+            for( int c = 0; c < nCols; c++ ) {
+                if (!JGTConstants.isNovalue(mapData[r][c])) {
+                    valid++;
+                }
+            }
+        }
+        assertEquals(valid, ascending.length);
+        for( int i = 1; i < ascending.length; i++ ) {
+            double previous = mapData[ascending[i - 1] / nCols][ascending[i - 1] % nCols];
+            double current = mapData[ascending[i] / nCols][ascending[i] % nCols];
+            assertTrue(previous < current || (previous == current && ascending[i - 1] < ascending[i]));
+        }
+        assertEquals(3 * nCols + 0, ascending[0]);
+        // the highest elevation is on the whole last column, the last index comes last
+        assertEquals(7 * nCols + 9, ascending[ascending.length - 1]);
+
+        // parallel and through temporary files
+        ElevationIndexSorter sorter = new ElevationIndexSorter(3, pm);
+        sorter.setMaxMemoryCells(7);
+        assertTrue(Arrays.equals(ascending, toArray(sorter.sort(inElev.getRenderedImage(), false))));
+
+        int[] descending = toArray(sorter.sort(inElev.getRenderedImage(), true));
+        for( int i = 0; i < ascending.length; i++ ) {
+            assertEquals(ascending[i], descending[descending.length - 1 - i]);
+        }
+
+        // the 8 files merged two at a time
+        sorter.setMaxOpenRuns(2);
+        assertTrue(Arrays.equals(ascending, toArray(sorter.sort(inElev.getRenderedImage(), false))));
+        assertTrue(Arrays.equals(descending, toArray(sorter.sort(inElev.getRenderedImage(), true))));
+    }
+
+    private int[] toArray( SortedCells sortedCells ) {
+        int[] indexes = new int[(int) sortedCells.size()];
+        int i = 0;
+        while( sortedCells.hasNext() ) {
+            indexes[i++] = sortedCells.next();
+        }
+        sortedCells.dispose();
+        assertEquals(indexes.length, i);
+        return indexes;
+    }
+
     public void testEnteringFlowCells() throws Exception {
         FlowNode node = new FlowNode(flowIter, nCols, nRows, 2, 2);
 
@@ -235,4 +292,140 @@ public class TestFlowUtils extends HMTestCase {
         assertNull(n);
     }
 
-}
+    public void testFlowCursor() throws Exception {
+        double[][] flowData = HMTestMaps.flowData;
+        int[] flow = new int[nCols * nRows];
+        for( int r = 0; r < nRows; r++ ) {
+            for( int c = 0; c < nCols; c++ ) {
+                double value = flowData[r][c];
+                flow[r * nCols + c] = JGTConstants.isNovalue(value) ? JGTConstants.intNovalue : (int) value;
+            }
+        }
+        FlowCursor cursor = new FlowCursor(flow, nCols, nRows);
+        int[] buffer = new int[8];
+
+        cursor.moveTo(2, 2);
+        int count = cursor.getEnteringIndexes(buffer);
+        assertEquals(1, count);
+        assertEquals(1 * nCols + 3, buffer[0]);
+
+        cursor.moveTo(5, 4);
+        count = cursor.getEnteringIndexes(buffer);
+        assertEquals(3, count);
+        assertEquals(4 * nCols + 6, buffer[0]);
+        assertEquals(3 * nCols + 6, buffer[1]);
+        assertEquals(5 * nCols + 6, buffer[2]);
+
+        cursor.moveTo(4, 1);
+        assertTrue(cursor.goDownstream());
+        assertEquals(3, cursor.getCol());
+        assertEquals(2, cursor.getRow());
+        assertTrue(cursor.goDownstream());
+        assertEquals(2, cursor.getCol());
+        assertEquals(3, cursor.getRow());
+        assertTrue(cursor.goDownstream());
+        assertEquals(1, cursor.getCol());
+        assertEquals(3, cursor.getRow());
+        assertFalse(cursor.goDownstream());
+        assertEquals(1, cursor.getCol());
+        assertEquals(3, cursor.getRow());
+    }
+
+    public void testFlowLabellingEngine() throws Exception {
+        double[][] flowData = HMTestMaps.mflowDataBorder;
+        double[][] netData = HMTestMaps.extractNet1Data;
+        int[] flow = new int[nCols * nRows];
+        boolean[] net = new boolean[nCols * nRows];
+        for( int r = 0; r < nRows; r++ ) {
+            for( int c = 0; c < nCols; c++ ) {
+                double value = flowData[r][c];
+                flow[r * nCols + c] = JGTConstants.isNovalue(value) ? JGTConstants.intNovalue : (int) value;
+                net[r * nCols + c] = !JGTConstants.isNovalue(netData[r][c]);
+            }
+        }
+        FlowLabellingEngine engine = new FlowLabellingEngine(flow, nCols, nRows);
+
+        int[] splits = engine.findNetworkSplits(net, 1, pm);
+        assertTrue(Arrays.equals(splits, engine.findNetworkSplits(net, 4, pm)));
+        boolean[] isNetStart = new boolean[splits.length];
+        for( int i = 0; i < splits.length; i++ ) {
+            isNetStart[i] = engine.getNetworkEnteringCount(splits[i], net) == 0;
+        }
+        int[] channels = engine.numberNetwork(splits, isNetStart, net, null, 0, 1, pm);
+        assertTrue(Arrays.equals(channels, engine.numberNetwork(splits, isNetStart, net, null, 0, 4, pm)));
+
+        // outlets on the network as in ModelsEngine#extractSubbasins
+        for( int i = 0; i < flow.length; i++ ) {
+            if (net[i]) {
+                flow[i] = (int) FlowNode.OUTLET;
+            }
+        }
+        int[] outlets = engine.getOutlets();
+        double[] outletValues = new double[outlets.length];
+        for( int o = 0; o < outlets.length; o++ ) {
+            outletValues[o] = channels[outlets[o]];
+        }
+        int[] marks = engine.markHillslopes(outlets, outletValues, 1, pm);
+        assertTrue(Arrays.equals(marks, engine.markHillslopes(outlets, outletValues, 4, pm)));
+
+        for( int r = 0; r < nRows; r++ ) {
+            for( int c = 0; c < nCols; c++ ) {
+                int index = r * nCols + c;
+                double expectedChannel = HMTestMaps.netNumberingChannelDataNN0[r][c];
+                if (JGTConstants.isNovalue(expectedChannel)) {
+                    assertEquals(0, channels[index]);
+                } else {
+                    assertEquals(expectedChannel, channels[index], DELTA);
+                }
+                double basin = net[index] ? channels[index] : (marks[index] >= 0 ? outletValues[marks[index]] : 0);
+                double expectedBasin = HMTestMaps.basinDataNN0[r][c];
+                if (JGTConstants.isNovalue(expectedBasin)) {
+                    assertEquals(0.0, basin, DELTA);
+                } else {
+                    assertEquals(expectedBasin, basin, DELTA);
+                }
+            }
+        }
+    }
+
+    public void testGridCursor() throws Exception {
+        double[][] mapData = HMTestMaps.mapData;
+        double[] elevation = new double[nCols * nRows];
+        for( int r = 0; r < nRows; r++ ) {
+            System.arraycopy(mapData[r], 0, elevation, r * nCols, nCols);
+        }
+        GridCursor cursor = new GridCursor(elevation, nCols, nRows, xRes, yRes);
+        cursor.moveTo(2, 2);
+
+        assertEquals(cursor.getElevationAt(Direction.E), 750, DELTA);
+        assertEquals(cursor.getElevationAt(Direction.EN), 850, DELTA);
+        assertEquals(cursor.getElevationAt(Direction.N), 750, DELTA);
+        assertTrue(JGTConstants.isNovalue(cursor.getElevationAt(Direction.NW)));
+        assertEquals(cursor.getElevationAt(Direction.W), 550, DELTA);
+        assertEquals(cursor.getElevationAt(Direction.WS), 410, DELTA);
+        assertEquals(cursor.getElevationAt(Direction.S), 650, DELTA);
+        assertEquals(cursor.getElevationAt(Direction.SE), 700, DELTA);
+        assertTrue(cursor.touchesBound());
+
+        int[] buffer = new int[8];
+        int count = cursor.getEnteringIndexesSP(buffer);
+        for( int i = 0; i < count; i++ ) {
+            assertEquals(1 * nCols + 3, buffer[i]);
+        }
+
+        assertTrue(cursor.goDownstreamSP());
+        assertEquals(1, cursor.getCol());
+        assertEquals(3, cursor.getRow());
+
+        cursor.moveTo(0, 0);
+        cursor.getSurroundingIndexes(buffer);
+        count = 0;
+        for( int i = 0; i < 8; i++ ) {
+            if (buffer[i] != -1) {
+                count++;
+            }
+        }
+        assertEquals(2, count);
+    }
+
+}
\ No newline at end of file
@@ -4,12 +4,16 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import org.jgrasstools.gears.modules.r.interpolation2d.core.ControlPointsGridIndex;
+import org.jgrasstools.gears.modules.r.interpolation2d.core.TPSInterpolator;
 import org.jgrasstools.gears.utils.HMTestCase;
 import org.jgrasstools.gears.utils.math.interpolation.Interpolator;
 import org.jgrasstools.gears.utils.math.interpolation.LeastSquaresInterpolator;
 import org.jgrasstools.gears.utils.math.interpolation.LinearArrayInterpolator;
 import org.jgrasstools.gears.utils.math.interpolation.LinearListInterpolator;
 import org.jgrasstools.gears.utils.math.interpolation.PolynomialInterpolator;
+
+import com.vividsolutions.jts.geom.Coordinate;
 /**
  * Test interpolation.
  * 
@@ -139,4 +143,33 @@ public class TestInterpolators extends HMTestCase {
         assertEquals(0.31888318, interp.getA0(), 0.0001);
     }
 
+    public void testSurfaceInterpolationCore() {
+        Coordinate[] points = new Coordinate[]{//
+        new Coordinate(0, 0, 10), //
+                new Coordinate(10, 0, 12), //
+                new Coordinate(0, 10, 14), //
+                new Coordinate(10, 10, 11), //
+                new Coordinate(5, 5, 15), //
+                new Coordinate(30, 30, 100)};
+
+        ControlPointsGridIndex index = new ControlPointsGridIndex(points, 5);
+        int[] found = new int[1];
+        int[] count = new int[1];
+        found = index.query(5, 5, 5, found, count);
+        assertEquals(5, count[0]);
+        for( int i = 0; i < count[0]; i++ ) {
+            assertTrue(found[i] != 5);
+        }
+        found = index.query(100, 100, 5, found, count);
+        assertEquals(0, count[0]);
+
+        Coordinate[] controlPoints = new Coordinate[]{points[0], points[1], points[2], points[3], points[4]};
+        TPSInterpolator tps = new TPSInterpolator(5);
+        double[] weights = tps.getWeights(controlPoints);
+        // the spline passes through the control points
+        assertEquals(15.0, tps.getValue(weights, controlPoints, new Coordinate(5, 5)), DELTA);
+        Coordinate position = new Coordinate(3, 7);
+        assertEquals(tps.getValue(controlPoints, new Coordinate(position)), tps.getValue(weights, controlPoints, position), DELTA);
+    }
+
 }
@@ -21,20 +21,47 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.jgrasstools.gears.io.las.ALasDataManager;
+import org.jgrasstools.gears.io.las.ILasPointsVisitor;
 import org.jgrasstools.gears.io.las.core.ILasHeader;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
 import org.jgrasstools.gears.io.las.core.LasRecord;
 import org.jgrasstools.gears.io.las.core.liblas.LiblasHeader;
 import org.jgrasstools.gears.io.las.core.liblas.LiblasJNALibrary;
 import org.jgrasstools.gears.io.las.core.liblas.LiblasReader;
 import org.jgrasstools.gears.io.las.core.liblas.LiblasWrapper;
 import org.jgrasstools.gears.io.las.core.liblas.LiblasWriter;
+import org.jgrasstools.gears.io.las.core.v_1_0.LasConcurrentReader;
+import org.jgrasstools.gears.io.las.core.v_1_0.LasMappedReader;
 import org.jgrasstools.gears.io.las.core.v_1_0.LasReader;
 import org.jgrasstools.gears.io.las.core.v_1_0.LasWriter;
+import org.jgrasstools.gears.io.las.index.LasIndexer;
+import org.jgrasstools.gears.io.las.utils.LasGeometryMask;
+import org.jgrasstools.gears.io.las.utils.LasGroundNormalizer;
 import org.jgrasstools.gears.io.las.utils.LasUtils;
+import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.utils.HMTestCase;
+import org.jgrasstools.gears.utils.HMTestMaps;
+import org.jgrasstools.gears.utils.RegionMap;
+import org.jgrasstools.gears.utils.coverage.CoverageUtilities;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 @SuppressWarnings("nls")
 public class TestLasIO extends HMTestCase {
 
@@ -94,6 +121,185 @@ public class TestLasIO extends HMTestCase {
         processFile(name, expectedCount, true);
     }
 
+    public void testLasMappedReader() throws Exception {
+        URL lasUrl = this.getClass().getClassLoader().getResource("las/1.2-with-color.las");
+        File lasFile = new File(lasUrl.toURI());
+
+        LasReader lasReader = new LasReader(lasFile, null);
+        lasReader.open();
+        LasMappedReader mappedReader = new LasMappedReader(lasFile, null);
+        mappedReader.open();
+        assertEquals(lasReader.getHeader().getRecordsCount(), mappedReader.getHeader().getRecordsCount());
+
+        // point by point
+        long count = 0;
+        while( lasReader.hasNextPoint() ) {
+            assertTrue(mappedReader.hasNextPoint());
+            assertTrue(LasUtils.lasRecordEqual(lasReader.getNextPoint(), mappedReader.getNextPoint()));
+            count++;
+        }
+        assertFalse(mappedReader.hasNextPoint());
+        assertEquals(1065, count);
+
+        // in small batches, so that they don't divide the points evenly
+        lasReader.seek(0);
+        mappedReader.seek(0);
+        LasPointBatch lasBatch = new LasPointBatch(100);
+        LasPointBatch mappedBatch = new LasPointBatch(100);
+        count = 0;
+        int read;
+        while( (read = lasReader.readNextBatch(lasBatch)) > 0 ) {
+            assertEquals(read, mappedReader.readNextBatch(mappedBatch));
+            for( int i = 0; i < read; i++ ) {
+                assertEquals(count, mappedBatch.pointIndex[i]);
+                assertEquals(count, lasBatch.pointIndex[i]);
+                assertTrue(LasUtils.lasRecordEqual(lasBatch.toLasRecord(i), mappedBatch.toLasRecord(i)));
+                count++;
+            }
+        }
+        assertEquals(0, mappedReader.readNextBatch(mappedBatch));
+        assertEquals(1065, count);
+
+        // random access
+        LasRecord lasDot = lasReader.getPointAt(1000);
+        LasRecord mappedDot = mappedReader.getPointAt(1000);
+        assertTrue(LasUtils.lasRecordEqual(lasDot, mappedDot));
+        assertTrue(LasUtils.lasRecordEqual(lasReader.getNextPoint(), mappedReader.getNextPoint()));
+
+        lasReader.close();
+        mappedReader.close();
+    }
+
+    public void testLasConcurrentReader() throws Exception {
+        URL lasUrl = this.getClass().getClassLoader().getResource("las/1.2-with-color.las");
+        File lasFile = new File(lasUrl.toURI());
+
+        final List<LasRecord> expected = new ArrayList<LasRecord>();
+        LasReader lasReader = new LasReader(lasFile, null);
+        lasReader.open();
+        while( lasReader.hasNextPoint() ) {
+            expected.add(lasReader.getNextPoint());
+        }
+        lasReader.close();
+
+        final LasConcurrentReader reader = new LasConcurrentReader(lasFile, null);
+        assertEquals(expected.size(), reader.getRecordsCount());
+
+        // several threads read overlapping ranges of the same reader
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for( int t = 0; t < 4; t++ ) {
+                final int start = t * 100;
+                futures.add(pool.submit(new Callable<Void>(){
+                    public Void call() throws Exception {
+                        LasPointBatch batch = new LasPointBatch(64);
+                        for( int round = 0; round < 20; round++ ) {
+                            long from = start;
+                            long to = expected.size();
+                            while( from < to ) {
+                                int read = reader.readPoints(from, to, batch);
+                                for( int i = 0; i < read; i++ ) {
+                                    assertEquals(from + i, batch.pointIndex[i]);
+                                    assertTrue(LasUtils.lasRecordEqual(expected.get((int) (from + i)), batch.toLasRecord(i)));
+                                }
+                                from += read;
+                            }
+                            assertTrue(LasUtils.lasRecordEqual(expected.get(start + round), reader.getPointAt(start + round)));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testVisitPointsInGeometry() throws Exception {
+        URL lasUrl = this.getClass().getClassLoader().getResource("las/1.2-with-color.las");
+        File lasFile = new File(lasUrl.toURI());
+
+        try (ALasDataManager dataManager = ALasDataManager.getDataManager(lasFile, null, 0.0, DefaultGeographicCRS.WGS84)) {
+            dataManager.open();
+            Envelope env = new Envelope(dataManager.getOverallEnvelope());
+            env.expandBy(-env.getWidth() / 4.0, -env.getHeight() / 4.0);
+            Polygon polygon = LasIndexer.envelopeToPolygon(env);
+
+            final List<LasRecord> visited = new ArrayList<LasRecord>();
+            dataManager.visitPointsInGeometry(polygon, false, new ILasPointsVisitor(){
+                public void visit( LasPointBatch batch ) {
+                    for( int i = 0; i < batch.size; i++ ) {
+                        visited.add(batch.toLasRecord(i));
+                    }
+                }
+            });
+            List<LasRecord> points = dataManager.getPointsInGeometry(polygon, false);
+            assertTrue(points.size() > 0);
+            assertTrue(points.size() < 1065);
+            assertEquals(points.size(), visited.size());
+            for( int i = 0; i < points.size(); i++ ) {
+                assertTrue(LasUtils.lasRecordEqual(points.get(i), visited.get(i)));
+            }
+
+            // the next queries use the grid of the first one
+            final List<LasRecord> visitedAgain = new ArrayList<LasRecord>();
+            ILasPointsVisitor visitor = new ILasPointsVisitor(){
+                public void visit( LasPointBatch batch ) {
+                    for( int i = 0; i < batch.size; i++ ) {
+                        visitedAgain.add(batch.toLasRecord(i));
+                    }
+                }
+            };
+            dataManager.visitPointsInGeometry(polygon, false, visitor);
+            assertEquals(visited.size(), visitedAgain.size());
+            for( int i = 0; i < visited.size(); i++ ) {
+                assertTrue(LasUtils.lasRecordEqual(visited.get(i), visitedAgain.get(i)));
+            }
+            visitedAgain.clear();
+            Polygon overallPolygon = LasIndexer.envelopeToPolygon(dataManager.getOverallEnvelope());
+            dataManager.visitPointsInGeometry(overallPolygon, true, visitor);
+            points = dataManager.getPointsInGeometry(overallPolygon, true);
+            assertTrue(points.size() > visited.size());
+            assertEquals(points.size(), visitedAgain.size());
+        }
+    }
+
+    public void testGroundNormalizerAndMask() throws Exception {
+        GridCoverage2D dem = CoverageUtilities.buildCoverage("dem", HMTestMaps.mapData, HMTestMaps.getEnvelopeparams(),
+                HMTestMaps.getCrs(), true);
+        RegionMap region = CoverageUtilities.getRegionParamsFromGridCoverage(dem);
+        LasGroundNormalizer normalizer = new LasGroundNormalizer(dem, 1);
+
+        double w = region.getWest();
+        double s = region.getSouth();
+        double width = region.getWidth();
+        double height = region.getHeight();
+        GeometryFactory gf = new GeometryFactory();
+        Polygon triangle = gf.createPolygon(new Coordinate[]{new Coordinate(w, s), new Coordinate(w + width, s),
+                new Coordinate(w + width / 2.0, s + height), new Coordinate(w, s)});
+        LasGeometryMask mask = new LasGeometryMask(triangle, 8);
+        PreparedGeometry prepared = PreparedGeometryFactory.prepare(triangle);
+
+        Random random = new Random(3);
+        for( int i = 0; i < 2000; i++ ) {
+            // also a bit outside of the region
+            double x = w - width * 0.1 + random.nextDouble() * width * 1.2;
+            double y = s - height * 0.1 + random.nextDouble() * height * 1.2;
+            double expected = CoverageUtilities.getValue(dem, x, y);
+            double value = normalizer.getValue(x, y);
+            if (JGTConstants.isNovalue(expected)) {
+                assertTrue(JGTConstants.isNovalue(value));
+            } else {
+                assertEquals(expected, value, DELTA);
+            }
+            assertEquals(prepared.contains(gf.createPoint(new Coordinate(x, y))), mask.contains(x, y));
+        }
+    }
+
     public void testLazReader() throws Exception {
         if (doNative) {
             String name = "las/1.2-with-color.laz";
@@ -0,0 +1,118 @@
+package org.jgrasstools.gears.modules;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jgrasstools.gears.io.las.index.LasIndexMigrator;
+import org.jgrasstools.gears.io.las.index.LasIndexer;
+import org.jgrasstools.gears.io.las.index.LasSpatialIndex;
+import org.jgrasstools.gears.io.las.index.OmsLasIndexReader;
+import org.jgrasstools.gears.io.las.index.strtree.STRtreeJGT;
+import org.jgrasstools.gears.utils.HMTestCase;
+
+import com.vividsolutions.jts.geom.Envelope;
+/**
+ * Test {@link LasSpatialIndex} and the migration of the old indexes.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestLasSpatialIndex extends HMTestCase {
+
+    public void testQuery() throws Exception {
+        Random random = new Random(7);
+        List<Envelope> envelopes = new ArrayList<Envelope>();
+        LasSpatialIndex.Builder builder = new LasSpatialIndex.Builder(4, false);
+        for( int i = 0; i < 1000; i++ ) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            Envelope env = new Envelope(x, x + 5, y, y + 5);
+            envelopes.add(env);
+            builder.add(env, new double[]{i, i + 1, x, y});
+        }
+        File file = File.createTempFile("jgt-lasindex", ".lasfix");
+        builder.write(file);
+        assertTrue(LasSpatialIndex.isSpatialIndex(file));
+
+        LasSpatialIndex index = LasSpatialIndex.open(file);
+        assertEquals(1000, index.size());
+        for( int q = 0; q < 50; q++ ) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            Envelope searchEnv = new Envelope(x, x + 50, y, y + 50);
+
+            Set<Integer> expected = new TreeSet<Integer>();
+            for( int i = 0; i < envelopes.size(); i++ ) {
+                if (envelopes.get(i).intersects(searchEnv)) {
+                    expected.add(i);
+                }
+            }
+            Set<Integer> found = new TreeSet<Integer>();
+            for( int item : index.query(searchEnv) ) {
+                int original = (int) index.getValue(item, 0);
+                assertEquals(original + 1.0, index.getValue(item, 1), DELTA);
+                assertEquals(envelopes.get(original), index.getEnvelope(item));
+                found.add(original);
+            }
+            assertEquals(expected, found);
+        }
+        file.delete();
+    }
+
+    public void testMigration() throws Exception {
+        File folder = File.createTempFile("jgt-lasfolder", "");
+        folder.delete();
+        folder.mkdirs();
+
+        STRtreeJGT mainTree = new STRtreeJGT();
+        mainTree.insert(new Envelope(0, 10, 0, 10), "a_indexed.las");
+        mainTree.insert(new Envelope(10, 20, 0, 10), "b_indexed.las");
+        File mainIndex = new File(folder, LasIndexer.INDEX_LASFOLDER);
+        serialize(mainTree, mainIndex);
+
+        STRtreeJGT fileTree = new STRtreeJGT();
+        fileTree.insert(new Envelope(0, 5, 0, 5), new double[]{0, 10, 100.0, 5.0});
+        fileTree.insert(new Envelope(5, 10, 0, 5), new double[]{10, 25, 120.0, 7.0});
+        File fileIndex = new File(folder, "a_indexed.lasfix");
+        serialize(fileTree, fileIndex);
+
+        // legacy indexes are readable in the new form
+        LasSpatialIndex converted = OmsLasIndexReader.readSpatialIndex(mainIndex.getAbsolutePath());
+        assertEquals(2, converted.size());
+
+        LasIndexMigrator migrator = new LasIndexMigrator();
+        migrator.inFolder = folder.getAbsolutePath();
+        migrator.process();
+
+        assertTrue(LasSpatialIndex.isSpatialIndex(mainIndex));
+        assertTrue(LasSpatialIndex.isSpatialIndex(fileIndex));
+
+        LasSpatialIndex main = LasSpatialIndex.open(mainIndex);
+        int[] items = main.query(new Envelope(12, 13, 2, 3));
+        assertEquals(1, items.length);
+        assertEquals("b_indexed.las", main.getName(items[0]));
+
+        LasSpatialIndex file = LasSpatialIndex.open(fileIndex);
+        items = file.query(new Envelope(6, 7, 1, 2));
+        assertEquals(1, items.length);
+        assertEquals(10.0, file.getValue(items[0], 0), DELTA);
+        assertEquals(25.0, file.getValue(items[0], 1), DELTA);
+        assertEquals(120.0, file.getValue(items[0], 2), DELTA);
+
+        mainIndex.delete();
+        fileIndex.delete();
+        folder.delete();
+    }
+
+    private void serialize( Object obj, File file ) throws Exception {
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
+            out.writeObject(obj);
+        }
+    }
+
+}
@@ -23,6 +23,7 @@ import java.util.HashMap;
 
 import org.jgrasstools.gears.io.timedependent.OmsTimeSeriesIteratorReader;
 import org.jgrasstools.gears.utils.HMTestCase;
+import org.jgrasstools.gears.utils.files.FileUtilities;
 /**
  * Test {@link OmsTimeSeriesIteratorReader}.
  * 
@@ -93,6 +94,60 @@ public class TestTimeSeriesIteratorReader extends HMTestCase {
         }
 
     }
+
+    public void testReaderReuse() throws Exception {
+        URL dataUrl = this.getClass().getClassLoader().getResource("timeseriesiteratorreader_test.csv");
+
+        OmsTimeSeriesIteratorReader reader = new OmsTimeSeriesIteratorReader();
+        reader.file = new File(dataUrl.toURI()).getAbsolutePath();
+        reader.idfield = "ID";
+        reader.tStart = "2000-01-01 00:00";
+        reader.tTimestep = 1440;
+        reader.doReuse = true;
+
+        reader.nextRecord();
+        HashMap<Integer, double[]> id2ValueMap = reader.outData;
+        double[] values1 = id2ValueMap.get(1);
+        assertEquals(-2.5, values1[0]);
+        assertEquals(-1.1, id2ValueMap.get(4)[0]);
+
+        reader.nextRecord();
+        // record 2: ,2000-01-02 00:00,-2,2.6,3.9,3.4
+        assertSame(id2ValueMap, reader.outData);
+        assertSame(values1, reader.outData.get(1));
+        assertEquals(-2.0, values1[0]);
+        assertEquals(3.4, reader.outData.get(4)[0]);
+
+        reader.close();
+    }
+
+    public void testNovaluesAndNaN() throws Exception {
+        File csvFile = File.createTempFile("jgt-timeseries", ".csv");
+        try {
+            FileUtilities.writeFile("@T,test\nDateFormat,yyyy-MM-dd HH:mm\n@H,date,value_1,value_2,value_3\nID,,1,2,3\n"
+                    + ",2000-01-01 00:00,1.5,-9999.0,NaN\n" + ",2000-01-02 00:00,,2,3\n", csvFile);
+
+            OmsTimeSeriesIteratorReader reader = new OmsTimeSeriesIteratorReader();
+            reader.file = csvFile.getAbsolutePath();
+            reader.idfield = "ID";
+            reader.tStart = "2000-01-01 00:00";
+            reader.tTimestep = 1440;
+            reader.novalue = -1.0;
+
+            // the file novalue and empty values become the novalue, a NaN is kept
+            reader.nextRecord();
+            assertEquals(1.5, reader.outData.get(1)[0]);
+            assertEquals(-1.0, reader.outData.get(2)[0]);
+            assertTrue(Double.isNaN(reader.outData.get(3)[0]));
+            reader.nextRecord();
+            assertEquals(-1.0, reader.outData.get(1)[0]);
+            assertEquals(2.0, reader.outData.get(2)[0]);
+            reader.close();
+        } finally {
+            csvFile.delete();
+        }
+    }
+
     public static void main( String[] args ) throws Exception {
         new TestTimeSeriesIteratorReader().testId2ValueReader2();
     }
@@ -23,7 +23,7 @@ import static org.jgrasstools.gears.libs.modules.JGTConstants.isNovalue;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.media.jai.iterator.RandomIter;
@@ -48,8 +48,8 @@ import org.geotools.geometry.DirectPosition2D;
 import org.geotools.geometry.Envelope2D;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.jgrasstools.gears.io.las.ALasDataManager;
-import org.jgrasstools.gears.io.las.core.LasRecord;
-import org.jgrasstools.gears.io.las.utils.LasRecordGroundElevationComparator;
+import org.jgrasstools.gears.io.las.ILasPointsVisitor;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
 import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.modules.r.filter.OmsKernelFilter;
@@ -157,24 +157,22 @@ public class LasHeightDistribution extends JGTModel {
                 RegionMap tileRegionMap = CoverageUtilities.getRegionParamsFromGridCoverage(tmp);
                 GridGeometry2D tileGridGeometry = tmp.getGridGeometry();
 
-                List<LasRecord> pointsListForTile = dataManager.getPointsInGeometry(tileGeom, true);
-                // do something with the data
+                // only positions and heights are needed, no records are kept
+                TilePoints tilePoints = new TilePoints();
+                dataManager.visitPointsInGeometry(tileGeom, true, tilePoints);
 
-                if (pointsListForTile.size() == 0) {
+                if (tilePoints.size == 0) {
                     pm.errorMessage("No points found in tile: " + id);
                     continue;
                 }
-                if (pointsListForTile.size() < 2) {
+                if (tilePoints.size < 2) {
                     pm.errorMessage("Not enough points found in tile: " + id);
                     continue;
                 }
-                List<double[]> negativeRanges = analyseNegativeLayerRanges(id, pointsListForTile);
+                List<double[]> negativeRanges = analyseNegativeLayerRanges(id, tilePoints.getSortedHeights());
                 List<GridCoverage2D> rangeCoverages = new ArrayList<GridCoverage2D>();
 
                 for( double[] range : negativeRanges ) {
-                    List<LasRecord> pointsInVerticalRange = ALasDataManager.getPointsInVerticalRange(pointsListForTile, range[0],
-                            range[1], true);
-
                     WritableRaster[] wrH = new WritableRaster[1];
                     GridCoverage2D tmpCoverage = CoverageUtilities.createSubCoverageFromTemplate(inDemGC, tileEnvelope,
                             doubleNovalue, wrH);
@@ -183,8 +181,11 @@ public class LasHeightDistribution extends JGTModel {
                     WritableRandomIter tmpIter = CoverageUtilities.getWritableRandomIterator(wrH[0]);
 
                     final DirectPosition2D wp = new DirectPosition2D();
-                    for( LasRecord lasRecord : pointsInVerticalRange ) {
-                        wp.setLocation(lasRecord.x, lasRecord.y);
+                    for( int p = 0; p < tilePoints.size; p++ ) {
+                        if (!NumericsUtilities.isBetween(tilePoints.height[p], range[0], range[1])) {
+                            continue;
+                        }
+                        wp.setLocation(tilePoints.x[p], tilePoints.y[p]);
                         GridCoordinates2D gp = tileGridGeometry.worldToGrid(wp);
                         double count = tmpIter.getSampleDouble(gp.x, gp.y, 0);
                         if (isNovalue(count)) {
@@ -321,15 +322,7 @@ public class LasHeightDistribution extends JGTModel {
         return false;
     }
 
-    private List<double[]> analyseNegativeLayerRanges( String id, List<LasRecord> pointsList ) throws Exception {
-        Collections.sort(pointsList, new LasRecordGroundElevationComparator());
-
-        double[] pointsArray = new double[pointsList.size()];
-        for( int i = 0; i < pointsArray.length; i++ ) {
-            LasRecord lasRecord = pointsList.get(i);
-            pointsArray[i] = lasRecord.groundElevation;
-        }
-
+    private List<double[]> analyseNegativeLayerRanges( String id, double[] pointsArray ) throws Exception {
         double binSize = 0.5;
         double[][] bins = toBins(pointsArray, binSize);
         double[] elevationsArray = bins[0];
@@ -480,4 +473,34 @@ public class LasHeightDistribution extends JGTModel {
         return result;
     }
 
+    /**
+     * Collects positions and ground heights of the points of a tile in primitive arrays.
+     */
+    private static class TilePoints implements ILasPointsVisitor {
+        double[] x = new double[LasPointBatch.DEFAULT_CAPACITY];
+        double[] y = new double[LasPointBatch.DEFAULT_CAPACITY];
+        double[] height = new double[LasPointBatch.DEFAULT_CAPACITY];
+        int size = 0;
+
+        public void visit( LasPointBatch batch ) {
+            int newSize = size + batch.size;
+            if (newSize > x.length) {
+                int capacity = Math.max(newSize, x.length * 2);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                height = Arrays.copyOf(height, capacity);
+            }
+            System.arraycopy(batch.x, 0, x, size, batch.size);
+            System.arraycopy(batch.y, 0, y, size, batch.size);
+            System.arraycopy(batch.groundElevation, 0, height, size, batch.size);
+            size = newSize;
+        }
+
+        double[] getSortedHeights() {
+            double[] sorted = Arrays.copyOf(height, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
 }
@@ -32,7 +32,7 @@ import oms3.annotations.UI;
 
 import org.jgrasstools.gears.io.las.core.ALasReader;
 import org.jgrasstools.gears.io.las.core.ILasHeader;
-import org.jgrasstools.gears.io.las.core.LasRecord;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
 import org.jgrasstools.gears.io.las.utils.LasUtils;
 import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
@@ -86,15 +86,17 @@ public class LasHistogram extends JGTModel {
             ILasHeader header = reader.getHeader();
             recordsCount = (int) header.getRecordsCount();
             pm.beginTask("Calculating range...", (int) header.getRecordsCount());
-            while( reader.hasNextPoint() ) {
-                LasRecord readNextLasDot = reader.getNextPoint();
-                double value = readNextLasDot.z;
-                if (doIntensity) {
-                    value = readNextLasDot.intensity;
+            LasPointBatch batch = new LasPointBatch();
+            while( reader.readNextBatch(batch) > 0 ) {
+                for( int i = 0; i < batch.size; i++ ) {
+                    double value = batch.z[i];
+                    if (doIntensity) {
+                        value = batch.intensity[i];
+                    }
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
                 }
-                min = Math.min(min, value);
-                max = Math.max(max, value);
-                pm.worked(1);
+                pm.worked(batch.size);
             }
         }
         pm.done();
@@ -114,19 +116,21 @@ public class LasHistogram extends JGTModel {
         // now read them all and split them into files following the markers
         try (ALasReader reader = ALasReader.getReader(lasFile, crs)) {
             reader.open();
-            while( reader.hasNextPoint() ) {
-                LasRecord readNextLasDot = reader.getNextPoint();
-                double value = readNextLasDot.z;
-                if (doIntensity) {
-                    value = readNextLasDot.intensity;
-                }
-                for( int j = 0; j < markers.length; j++ ) {
-                    if (value <= markers[j]) {
-                        count[j] = count[j] + 1;
-                        break;
+            LasPointBatch batch = new LasPointBatch();
+            while( reader.readNextBatch(batch) > 0 ) {
+                for( int i = 0; i < batch.size; i++ ) {
+                    double value = batch.z[i];
+                    if (doIntensity) {
+                        value = batch.intensity[i];
+                    }
+                    for( int j = 0; j < markers.length; j++ ) {
+                        if (value <= markers[j]) {
+                            count[j] = count[j] + 1;
+                            break;
+                        }
                     }
                 }
-                pm.worked(1);
+                pm.worked(batch.size);
             }
         }
         pm.done();
@@ -24,7 +24,6 @@ import static org.jgrasstools.gears.i18n.GearsMessages.OMSHYDRO_DRAFT;
 import static org.jgrasstools.gears.i18n.GearsMessages.OMSHYDRO_LICENSE;
 
 import java.io.File;
-import java.util.List;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -42,10 +41,12 @@ import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.jgrasstools.gears.io.las.ALasDataManager;
-import org.jgrasstools.gears.io.las.core.LasRecord;
+import org.jgrasstools.gears.io.las.ILasPointsVisitor;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
 import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.libs.modules.Variables;
+import org.jgrasstools.gears.libs.monitor.IJGTProgressMonitor;
 import org.jgrasstools.gears.modules.r.interpolation2d.OmsSurfaceInterpolator;
 import org.jgrasstools.gears.modules.r.rastergenerator.OmsRasterGenerator;
 import org.jgrasstools.gears.utils.RegionMap;
@@ -116,12 +117,6 @@ public class Las2RasterInterpolator extends JGTModel {
                 lasData.setImpulsesConstraint(new double[]{pImpulse});
             }
 
-            List<LasRecord> lasPoints = lasData.getPointsInGeometry(polygon, false);
-            if (lasPoints.size() == 0) {
-                pm.message("No points foudn in the given area. Check your input.");
-                return;
-            }
-
             RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inDtmGC);
             double north = regionMap.getNorth();
             double south = regionMap.getSouth();
@@ -137,25 +132,33 @@ public class Las2RasterInterpolator extends JGTModel {
             int newRows = (int) round((north - south) / pYres);
             int newCols = (int) round((east - west) / pXres);
 
-            DefaultFeatureCollection newCollection = new DefaultFeatureCollection();
+            final DefaultFeatureCollection newCollection = new DefaultFeatureCollection();
             final SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
             b.setName("lasdata");
             b.setCRS(crs);
             b.add("the_geom", Point.class);
             b.add("elev", Double.class);
             final SimpleFeatureType featureType = b.buildFeatureType();
-            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
-
-            pm.beginTask("Prepare points collection for interpolation...", lasPoints.size());
-            for( LasRecord r : lasPoints ) {
-                final Point point = gf.createPoint(new Coordinate(r.x, r.y));
-                final Object[] values = new Object[]{point, r.z,};
-                builder.addAll(values);
-                final SimpleFeature feature = builder.buildFeature(null);
-                newCollection.add(feature);
-                pm.worked(1);
-            }
+            final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
+
+            // the points go straight into the features, no records are kept
+            pm.beginTask("Prepare points collection for interpolation...", IJGTProgressMonitor.UNKNOWN);
+            lasData.visitPointsInGeometry(polygon, false, new ILasPointsVisitor(){
+                public void visit( LasPointBatch batch ) {
+                    for( int i = 0; i < batch.size; i++ ) {
+                        final Point point = gf.createPoint(new Coordinate(batch.x[i], batch.y[i]));
+                        final Object[] values = new Object[]{point, batch.z[i],};
+                        builder.addAll(values);
+                        final SimpleFeature feature = builder.buildFeature(null);
+                        newCollection.add(feature);
+                    }
+                }
+            });
             pm.done();
+            if (newCollection.size() == 0) {
+                pm.message("No points foudn in the given area. Check your input.");
+                return;
+            }
 
             OmsRasterGenerator omsRasterGenerator = new OmsRasterGenerator();
             omsRasterGenerator.pNorth = north;
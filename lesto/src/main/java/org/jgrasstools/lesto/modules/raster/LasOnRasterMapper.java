@@ -26,7 +26,6 @@ import static org.jgrasstools.gears.i18n.GearsMessages.OMSHYDRO_LICENSE;
 import java.awt.Point;
 import java.awt.image.WritableRaster;
 import java.io.File;
-import java.util.List;
 
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.WritableRandomIter;
@@ -45,7 +44,8 @@ import oms3.annotations.UI;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.jgrasstools.gears.io.las.ALasDataManager;
-import org.jgrasstools.gears.io.las.core.LasRecord;
+import org.jgrasstools.gears.io.las.ILasPointsVisitor;
+import org.jgrasstools.gears.io.las.core.LasPointBatch;
 import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.gears.libs.monitor.IJGTProgressMonitor;
@@ -116,7 +116,7 @@ public class LasOnRasterMapper extends JGTModel {
         CoordinateReferenceSystem crs = null;
         Polygon polygon = CoverageUtilities.getRegionPolygon(inDtmGC);
         crs = inDtmGC.getCoordinateReferenceSystem();
-        GridGeometry2D dtmGridGeometry = inDtmGC.getGridGeometry();
+        final GridGeometry2D dtmGridGeometry = inDtmGC.getGridGeometry();
 
         final int newRows = (int) round((north - south) / pYres);
         int newCols = (int) round((east - west) / pXres);
@@ -127,44 +127,47 @@ public class LasOnRasterMapper extends JGTModel {
         final WritableRaster newWR = CoverageUtilities.createDoubleWritableRaster(newCols, newRows, null, null,
                 JGTConstants.doubleNovalue);
 
-        RandomIter dtmIter = CoverageUtilities.getRandomIterator(inDtmGC);
+        final RandomIter dtmIter = CoverageUtilities.getRandomIterator(inDtmGC);
 
         try (ALasDataManager lasData = ALasDataManager.getDataManager(new File(inLas), null, 0.0, crs)) {
             lasData.open();
-            pm.beginTask("Reading points on region...", IJGTProgressMonitor.UNKNOWN);
-            List<LasRecord> lasPoints = lasData.getPointsInGeometry(polygon, false);
-            pm.done();
-
-            pm.beginTask("Setting raster points...", lasPoints.size());
+            pm.beginTask("Setting raster points...", IJGTProgressMonitor.UNKNOWN);
             final Point gridPoint = new Point();
             final Point dtmPoint = new Point();
-            for( LasRecord lasRecord : lasPoints ) {
-                double dotZ = lasRecord.z;
-                Coordinate coordinate = new Coordinate(lasRecord.x, lasRecord.y, dotZ);
-                CoverageUtilities.colRowFromCoordinate(coordinate, newGridGeometry2D, gridPoint);
-
-                double newRasterValue = newWR.getSampleDouble(gridPoint.x, gridPoint.y, 0);
-
-                CoverageUtilities.colRowFromCoordinate(coordinate, dtmGridGeometry, dtmPoint);
-                double dtmValue = dtmIter.getSampleDouble(dtmPoint.x, dtmPoint.y, 0);
-
-                if (doMax) {
-                    if (JGTConstants.isNovalue(newRasterValue) || newRasterValue < dotZ) {
-                        if (!JGTConstants.isNovalue(dtmValue) && dtmValue > dotZ) {
-                            dotZ = dtmValue;
-                        }
-                        newWR.setSample(gridPoint.x, gridPoint.y, 0, dotZ);
-                    }
-                } else {
-                    if (JGTConstants.isNovalue(newRasterValue) || newRasterValue > dotZ) {
-                        if (!JGTConstants.isNovalue(dtmValue) && dtmValue > dotZ) {
-                            dotZ = dtmValue;
+            final Coordinate coordinate = new Coordinate();
+            lasData.visitPointsInGeometry(polygon, false, new ILasPointsVisitor(){
+                public void visit( LasPointBatch batch ) {
+                    for( int i = 0; i < batch.size; i++ ) {
+                        double dotZ = batch.z[i];
+                        coordinate.x = batch.x[i];
+                        coordinate.y = batch.y[i];
+                        coordinate.z = dotZ;
+                        CoverageUtilities.colRowFromCoordinate(coordinate, newGridGeometry2D, gridPoint);
+
+                        double newRasterValue = newWR.getSampleDouble(gridPoint.x, gridPoint.y, 0);
+
+                        CoverageUtilities.colRowFromCoordinate(coordinate, dtmGridGeometry, dtmPoint);
+                        double dtmValue = dtmIter.getSampleDouble(dtmPoint.x, dtmPoint.y, 0);
+
+                        if (doMax) {
+                            if (JGTConstants.isNovalue(newRasterValue) || newRasterValue < dotZ) {
+                                if (!JGTConstants.isNovalue(dtmValue) && dtmValue > dotZ) {
+                                    dotZ = dtmValue;
+                                }
+                                newWR.setSample(gridPoint.x, gridPoint.y, 0, dotZ);
+                            }
+                        } else {
+                            if (JGTConstants.isNovalue(newRasterValue) || newRasterValue > dotZ) {
+                                if (!JGTConstants.isNovalue(dtmValue) && dtmValue > dotZ) {
+                                    dotZ = dtmValue;
+                                }
+                                newWR.setSample(gridPoint.x, gridPoint.y, 0, dotZ);
+                            }
                         }
-                        newWR.setSample(gridPoint.x, gridPoint.y, 0, dotZ);
                     }
+                    pm.worked(batch.size);
                 }
-                pm.worked(1);
-            }
+            });
             pm.done();
         }
 
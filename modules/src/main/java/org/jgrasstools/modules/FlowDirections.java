@@ -27,6 +27,7 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSFLOWDIRECTION
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_STATUS;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_inPit_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_outFlow_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_pMaxThreads_DESCRIPTION;
 import oms3.annotations.Author;
 import oms3.annotations.Description;
 import oms3.annotations.Execute;
@@ -55,6 +56,10 @@ public class FlowDirections extends JGTModel {
     @In
     public String inPit = null;
 
+    @Description(OMSFLOWDIRECTIONS_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSFLOWDIRECTIONS_outFlow_DESCRIPTION)
     @UI(JGTConstants.FILEOUT_UI_HINT)
     @In
@@ -64,6 +69,7 @@ public class FlowDirections extends JGTModel {
     public void process() throws Exception {
         OmsFlowDirections omsflowdirections = new OmsFlowDirections();
         omsflowdirections.inPit = getRaster(inPit);
+        omsflowdirections.pMaxThreads = pMaxThreads;
         omsflowdirections.pm = pm;
         omsflowdirections.doProcess = doProcess;
         omsflowdirections.doReset = doReset;
@@ -30,6 +30,10 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_out
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_pAzimuth_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_pElev_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_pMinDiffuse_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_doHorizonCache_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_inHorizonFile_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_pHorizonSectors_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSHILLSHADE_pMaxThreads_DESCRIPTION;
 import oms3.annotations.Author;
 import oms3.annotations.Description;
 import oms3.annotations.Execute;
@@ -41,6 +45,7 @@ import oms3.annotations.Name;
 import oms3.annotations.Status;
 import oms3.annotations.UI;
 
+import org.jgrasstools.gears.libs.modules.HorizonAngles;
 import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.hortonmachine.modules.hydrogeomorphology.hillshade.OmsHillshade;
@@ -71,6 +76,23 @@ public class Hillshade extends JGTModel {
     @In
     public double pElev = 90;
 
+    @Description(OMSHILLSHADE_doHorizonCache_DESCRIPTION)
+    @In
+    public boolean doHorizonCache = false;
+
+    @Description(OMSHILLSHADE_pHorizonSectors_DESCRIPTION)
+    @In
+    public int pHorizonSectors = HorizonAngles.DEFAULT_SECTORS;
+
+    @Description(OMSHILLSHADE_inHorizonFile_DESCRIPTION)
+    @UI(JGTConstants.FILEOUT_UI_HINT)
+    @In
+    public String inHorizonFile = null;
+
+    @Description(OMSHILLSHADE_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSHILLSHADE_outHill_DESCRIPTION)
     @UI(JGTConstants.FILEOUT_UI_HINT)
     @In
@@ -83,6 +105,10 @@ public class Hillshade extends JGTModel {
         hillshade.pMinDiffuse = pMinDiffuse;
         hillshade.pAzimuth = pAzimuth;
         hillshade.pElev = pElev;
+        hillshade.doHorizonCache = doHorizonCache;
+        hillshade.pHorizonSectors = pHorizonSectors;
+        hillshade.inHorizonFile = inHorizonFile;
+        hillshade.pMaxThreads = pMaxThreads;
         hillshade.pm = pm;
         hillshade.doProcess = doProcess;
         hillshade.doReset = doReset;
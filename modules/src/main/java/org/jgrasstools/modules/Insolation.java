@@ -29,6 +29,10 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_in
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_outIns_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_tEndDate_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_tStartDate_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_doHorizonCache_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_inHorizonFile_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_pHorizonSectors_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSINSOLATION_pMaxThreads_DESCRIPTION;
 import oms3.annotations.Author;
 import oms3.annotations.Description;
 import oms3.annotations.Execute;
@@ -40,6 +44,7 @@ import oms3.annotations.Name;
 import oms3.annotations.Status;
 import oms3.annotations.UI;
 
+import org.jgrasstools.gears.libs.modules.HorizonAngles;
 import org.jgrasstools.gears.libs.modules.JGTConstants;
 import org.jgrasstools.gears.libs.modules.JGTModel;
 import org.jgrasstools.hortonmachine.modules.hydrogeomorphology.insolation.OmsInsolation;
@@ -66,6 +71,23 @@ public class Insolation extends JGTModel {
     @In
     public String tEndDate = null;
 
+    @Description(OMSINSOLATION_doHorizonCache_DESCRIPTION)
+    @In
+    public boolean doHorizonCache = false;
+
+    @Description(OMSINSOLATION_pHorizonSectors_DESCRIPTION)
+    @In
+    public int pHorizonSectors = HorizonAngles.DEFAULT_SECTORS;
+
+    @Description(OMSINSOLATION_inHorizonFile_DESCRIPTION)
+    @UI(JGTConstants.FILEOUT_UI_HINT)
+    @In
+    public String inHorizonFile = null;
+
+    @Description(OMSINSOLATION_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSINSOLATION_outIns_DESCRIPTION)
     @UI(JGTConstants.FILEOUT_UI_HINT)
     @In
@@ -77,6 +99,10 @@ public class Insolation extends JGTModel {
         insolation.inElev = getRaster(inElev);
         insolation.tStartDate = tStartDate;
         insolation.tEndDate = tEndDate;
+        insolation.doHorizonCache = doHorizonCache;
+        insolation.pHorizonSectors = pHorizonSectors;
+        insolation.inHorizonFile = inHorizonFile;
+        insolation.pMaxThreads = pMaxThreads;
         insolation.pm = pm;
         insolation.doProcess = doProcess;
         insolation.doReset = doReset;
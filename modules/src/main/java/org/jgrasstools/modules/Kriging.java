@@ -39,6 +39,7 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_outGr
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pA_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pIntegralscale_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pMode_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pMaxThreads_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pNug_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pS_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSKRIGING_pSemivariogramType_DESCRIPTION;
@@ -150,6 +151,10 @@ public class Kriging extends JGTModel {
     @In
     public double pNug;
 
+    @Description(OMSKRIGING_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSKRIGING_outGrid_DESCRIPTION)
     @UI(JGTConstants.FILEOUT_UI_HINT)
     @In
@@ -204,6 +209,7 @@ public class Kriging extends JGTModel {
         kriging.pA = pA;
         kriging.pS = pS;
         kriging.pNug = pNug;
+        kriging.pMaxThreads = pMaxThreads;
         kriging.pm = pm;
         kriging.doProcess = doProcess;
         kriging.doReset = doReset;
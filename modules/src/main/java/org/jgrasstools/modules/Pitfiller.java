@@ -25,8 +25,11 @@ import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_LAB
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_LICENSE;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_NAME;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_STATUS;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_doEpsilon_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_doPriorityFlood_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_inElev_DESCRIPTION;
 import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_outPit_DESCRIPTION;
+import static org.jgrasstools.hortonmachine.i18n.HortonMessages.OMSPITFILLER_pMaxThreads_DESCRIPTION;
 import oms3.annotations.Author;
 import oms3.annotations.Description;
 import oms3.annotations.Execute;
@@ -55,6 +58,18 @@ public class Pitfiller extends JGTModel {
     @In
     public String inElev;
 
+    @Description(OMSPITFILLER_doPriorityFlood_DESCRIPTION)
+    @In
+    public boolean doPriorityFlood = false;
+
+    @Description(OMSPITFILLER_doEpsilon_DESCRIPTION)
+    @In
+    public boolean doEpsilon = false;
+
+    @Description(OMSPITFILLER_pMaxThreads_DESCRIPTION)
+    @In
+    public int pMaxThreads = 1;
+
     @Description(OMSPITFILLER_outPit_DESCRIPTION)
     @UI(JGTConstants.FILEOUT_UI_HINT)
     @In
@@ -64,6 +79,9 @@ public class Pitfiller extends JGTModel {
     public void process() throws Exception {
         OmsPitfiller pitfiller = new OmsPitfiller();
         pitfiller.inElev = getRaster(inElev);
+        pitfiller.doPriorityFlood = doPriorityFlood;
+        pitfiller.doEpsilon = doEpsilon;
+        pitfiller.pMaxThreads = pMaxThreads;
         pitfiller.pm = pm;
         pitfiller.doProcess = doProcess;
         pitfiller.doReset = doReset;
@@ -0,0 +1,33 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package ngmf.util.cosu.luca;
+
+import oms3.dsl.cosu.Step;
+
+/**
+ * An execution handle that evaluates several parameter sets at the same
+ * time, each one on its own model instance.
+ */
+public interface ParallelExecutionHandle extends ExecutionHandle {
+
+    /**
+     * Get the number of parameter sets evaluated at the same time.
+     * @return the number of model instances
+     */
+    int getPoolSize();
+
+    /**
+     * Runs the model with a parameter set and calculates the objective
+     * function value. Can be called from several threads, the step data is
+     * not modified.
+     *
+     * @param step the step with the objective functions
+     * @param stepData the step data with the parameters
+     * @param paramValues the values of the calibrated parameters
+     * @return the objective function value
+     * @throws Exception if the model fails
+     */
+    double evaluate(Step step, Step.Data stepData, double[] paramValues) throws Exception;
+}
@@ -65,6 +65,31 @@ public class ParameterData {
 
     }
 
+    /** Creates an exact copy, with the same offset and deviations from the
+     * mean. Unlike the copy constructor, the statistics are not recomputed
+     * from the current values, so generateValues() gives the same values
+     * on the copy and on the original.
+     * @return the copy
+     */
+    public ParameterData copy() {
+        ParameterData p = new ParameterData(name);
+        p.calibrationType = calibrationType;
+        p.data = data == null ? null : data.clone();
+        p.lowerBound = lowerBound;
+        p.upperBound = upperBound;
+        p.originalLowerBound = originalLowerBound;
+        p.originalUpperBound = originalUpperBound;
+        p.hasBounds = hasBounds;
+        p.min = min;
+        p.max = max;
+        p.offset = offset;
+        p.proportional_dev = proportional_dev == null ? null : proportional_dev.clone();
+        p.calibrationFlag = calibrationFlag == null ? null : calibrationFlag.clone();
+        p.calibrationDataSize = calibrationDataSize;
+        p.mean = mean;
+        return p;
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////
     // Methods to simply set each field or get each field
     ////////////////////////////////////////////////////////////////////////////////////
@@ -1,9 +1,17 @@
 package ngmf.util.cosu.luca;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import oms3.dsl.cosu.Step;
 
 /**
@@ -47,14 +55,6 @@ public class SCE {
     double[] objFuncValueOfX;
     //COORDINATES OF A SINGLE POINT IN X
     double[] pointInX;
-    //COORDINATES OF POINTS IN A COMPLEX
-    double[][] pointsInComplex;
-    //FUNCTION VALUES OF CX(.,.)
-    double[] objFuncValuesOfComplex;
-    //COORDINATES OF POINTS IN THE CURRENT SIMPLEX
-    double[][] pointsInSimplex;
-    //FUNCTION VALUES OF S(.,.)
-    double[] objFuncValuesOfSimplex;
     //WORST POINT AT CURRENT SHUFFLING LOOP
     double[] worstPoint;
     //FUNCTION VALUE OF WORSTX(.)
@@ -63,8 +63,6 @@ public class SCE {
     double[] stdDevOfPopulation;
     //NORMALIZED GEOMETRIC MEAN OF PARAMETER RANGES
     double normalizedGeometricMean;
-    //INDICES LOCATING POSITION OF S(.,.) IN X(.,.)
-    int[] indicesOfSimplex;
     //BOUND ON ITH VARIABLE BEING OPTIMIZED
     double[] bound;
     //NUMBER OF COMPLEXES IN CURRENT POPULATION
@@ -78,12 +76,16 @@ public class SCE {
     double[] initialPoint; // initial point == initialParameterSet
     //
     private ExecutionHandle executionHandle;
+    // set if the model runs concurrently
+    private ParallelExecutionHandle pool;
+    private ExecutorService executor;
     Step stepData;
     Step.Data data;
     int NLOOP = 0;
     int LOOP = 0;
     int IGS = 0;
-    int icall = 0;
+    volatile int icall = 0;
+    Random random = new Random();
     //
 
     PrintStream out = System.out;
@@ -120,16 +122,9 @@ public class SCE {
         pointsX = new double[initTotalNumOfPoints][numOfParams];
         objFuncValueOfX = new double[initTotalNumOfPoints];
         pointInX = new double[numOfParams];
-
-        pointsInComplex = new double[numOfPointsInComplex][numOfParams];
-        objFuncValuesOfComplex = new double[numOfPointsInComplex];
-
-        pointsInSimplex = new double[numOfPointsInSubComplex][numOfParams];
-        objFuncValuesOfSimplex = new double[numOfPointsInSubComplex];
         worstPoint = new double[numOfParams];
 
         stdDevOfPopulation = new double[numOfParams];
-        indicesOfSimplex = new int[numOfPointsInSubComplex];
         bound = new double[numOfParams];
         bestCriterion = new double[10];
         initialPoint = new double[numOfParams];
@@ -139,7 +134,36 @@ public class SCE {
         this.out = out;
     }
 
+    /** Sets the random numbers, set a seeded one for repeatable runs.
+     *
+     * The results of a seeded run are the same whether the model runs
+     * concurrently or not.
+     * @param random the random number generator
+     */
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
     public void run() throws Exception {
+        if (executionHandle instanceof ParallelExecutionHandle) {
+            ParallelExecutionHandle h = (ParallelExecutionHandle) executionHandle;
+            if (h.getPoolSize() > 1) {
+                pool = h;
+                executor = Executors.newFixedThreadPool(h.getPoolSize());
+            }
+        }
+        try {
+            search();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            pool = null;
+        }
+    }
+
+    private void search() throws Exception {
         currentNumOfComplexes = initNumOfComplexes;
         totalNumOfPoints = initTotalNumOfPoints;
         double objFuncValue;
@@ -174,7 +198,7 @@ public class SCE {
         } else {
 //            out.println("Initial point won't be included");
             for (int j = 0; j < numOfParams; j++) {
-                pointsX[0][j] = lowerBound[j] + bound[j] * Math.random();
+                pointsX[0][j] = lowerBound[j] + bound[j] * random.nextDouble();
                 pointInX[j] = pointsX[0][j];
             }
             // write pointInX in the 'newPARAMS' file, executes runMMS and SRobjfun()
@@ -185,21 +209,20 @@ public class SCE {
         data.setObjFuncValueOfBestPoint(objFuncValueOfX[0]);
         int outputType = 1;
         if (icall < maxNumOfTrials) {
-            for (int i = 1; i < totalNumOfPoints; i++) {
+            // only the points that fit into the maximum number of trials are
+            // generated, all of them before the model runs.
+            int points = Math.min(totalNumOfPoints, maxNumOfTrials - icall + 1);
+            for (int i = 1; i < points; i++) {
                 for (int j = 0; j < numOfParams; j++) {
-                    pointsX[i][j] = lowerBound[j] + bound[j] * Math.random();
-                    pointInX[j] = pointsX[i][j];
-                }
-
-                objFuncValueOfX[i] = execute(pointInX);
-                //ICALL++;
-                if (icall >= maxNumOfTrials) {
-                    totalNumOfPoints = i + 1;
-                    pointsX = copy(pointsX, totalNumOfPoints);
-                    objFuncValueOfX = copy(objFuncValueOfX, totalNumOfPoints);
-                    break;
+                    pointsX[i][j] = lowerBound[j] + bound[j] * random.nextDouble();
                 }
             }
+            execute(pointsX, objFuncValueOfX, 1, points);
+            if (icall >= maxNumOfTrials) {
+                totalNumOfPoints = points;
+                pointsX = copy(pointsX, totalNumOfPoints);
+                objFuncValueOfX = copy(objFuncValueOfX, totalNumOfPoints);
+            }
 //            out.println("size of pointsX = " + totalNumOfPoints + " (max size is " + pointsX.length + ")" +
 //                    ", max size of objFuncValueOfX = " + objFuncValueOfX.length);
 
@@ -281,75 +304,28 @@ public class SCE {
         int outputType = 1; // different output will be displayed depending on the value of ouputTYpe
         while (true) {
             NLOOP++;
-            for (IGS = 0; IGS < currentNumOfComplexes; IGS++) {
-                for (int k1 = 0; k1 < numOfPointsInComplex; k1++) {
-                    int k2 = k1 * currentNumOfComplexes + IGS;
-                    for (int j = 0; j < numOfParams; j++) {
-                        pointsInComplex[k1][j] = pointsX[k2][j];
-                    }
-                    objFuncValuesOfComplex[k1] = objFuncValueOfX[k2];
-                }
-                for (LOOP = 0; LOOP < numOfEvolutionSteps; LOOP++) {
-                    if (numOfPointsInSubComplex == numOfPointsInComplex) {
-                        for (int k = 0; k < numOfPointsInSubComplex; k++) {
-                            indicesOfSimplex[k] = k;
-                        }
-                    } else {
-                        //  k = 0 instead of k = 1 because the line above (indicesOfSimplex[0] = ....)
-                        // is removed.
-                        for (int k = 0; k < numOfPointsInSubComplex; k++) {
-                            boolean again = true;
-                            int lpos = -1;
-                            while (again) {
-                                again = false;
-                                lpos = (int) (numOfPointsInComplex + 0.5 -
-                                        Math.sqrt(Math.pow((numOfPointsInComplex + 0.5), 2) -
-                                        numOfPointsInComplex * (numOfPointsInComplex + 1) * Math.random()));
-                                // check if any element from indicesOfSimplex[0] to indicesOfSimplex[k-1]
-                                // is equal to LPOS. If not, get out of the for loop, finish the while(AGAIN) loop,
-                                // and set LPOS as a value of indicesOfSimplex[k]
-                                for (int k1 = 0; k1 < k; k1++) {
-                                    if (lpos == indicesOfSimplex[k1]) {
-                                        again = true;
-                                        break;
-                                    }
-                                }
-                            }
-                            indicesOfSimplex[k] = lpos;
-                        }
-                        // sort the indiciesOfSimplex array in increasing order
-                        Arrays.sort(indicesOfSimplex);
-                    }
-
-                    for (int k = 0; k < numOfPointsInSubComplex; k++) {
-                        for (int j = 0; j < numOfParams; j++) {
-                            pointsInSimplex[k][j] = pointsInComplex[indicesOfSimplex[k]][j];
-                        }
-                        objFuncValuesOfSimplex[k] = objFuncValuesOfComplex[indicesOfSimplex[k]];
-                    }
-                    cce();
-                    for (int k = 0; k < numOfPointsInSubComplex; k++) {
-                        for (int j = 0; j < numOfParams; j++) {
-                            pointsInComplex[indicesOfSimplex[k]][j] = pointsInSimplex[k][j];
-                        }
-                        objFuncValuesOfComplex[indicesOfSimplex[k]] = objFuncValuesOfSimplex[k];
-                    }
-                    sort_duan(pointsInComplex, objFuncValuesOfComplex);
+            // every complex evolves with its own random numbers.
+            Complex[] complexes = new Complex[currentNumOfComplexes];
+            for (int igs = 0; igs < complexes.length; igs++) {
+                complexes[igs] = new Complex(igs, random.nextLong());
+            }
+            // a complex evolution step runs the model at most 3 times. The
+            // complexes evolve concurrently only if none of them can reach
+            // the maximum number of trials, so the order does not matter.
+            if (executor != null && maxNumOfTrials - icall >= complexes.length * numOfEvolutionSteps * 3) {
+                evolve(complexes);
+                IGS = complexes.length;
+                LOOP = numOfEvolutionSteps;
+            } else {
+                for (IGS = 0; IGS < currentNumOfComplexes; IGS++) {
+                    complexes[IGS].evolve();
+                    complexes[IGS].store();
+                    LOOP = complexes[IGS].loop;
                     if (icall >= maxNumOfTrials) {
                         break;
                     }
-                } // end of loop with LOOP
-                for (int k1 = 0; k1 < numOfPointsInComplex; k1++) {
-                    int k2 = k1 * currentNumOfComplexes + IGS;
-                    for (int j = 0; j < numOfParams; j++) {
-                        pointsX[k2][j] = pointsInComplex[k1][j];
-                    }
-                    objFuncValueOfX[k2] = objFuncValuesOfComplex[k1];
-                }
-                if (icall >= maxNumOfTrials) {
-                    break;
-                }
-            } // end of for loop with IGS
+                } // end of for loop with IGS
+            }
 
             sort_duan(pointsX, objFuncValueOfX);
             // set the best point and its objective function value
@@ -417,11 +393,81 @@ public class SCE {
     //##  Other functions
     //########################################################################
     double execute(double[] array) throws Exception {
-        data.setParamValues(array);
-        executionHandle.execute(data);
-        icall++;
-        double of = stepData.calculateObjectiveFunctionValue(executionHandle);
-         double distribution = normdistForBestPoint();
+        double of;
+        if (pool != null) {
+            of = pool.evaluate(stepData, data, array);
+        } else {
+            data.setParamValues(array);
+            executionHandle.execute(data);
+            of = stepData.calculateObjectiveFunctionValue(executionHandle);
+        }
+        synchronized (this) {
+            icall++;
+            report(of);
+        }
+        return of;
+    }
+
+    /* Evaluates points[from] to points[to - 1], concurrently if there is a pool. */
+    void execute(double[][] points, double[] values, int from, int to) throws Exception {
+        if (executor == null) {
+            for (int i = from; i < to; i++) {
+                values[i] = execute(points[i]);
+            }
+            return;
+        }
+        List<Future<Double>> results = new ArrayList<Future<Double>>();
+        for (int i = from; i < to; i++) {
+            final double[] point = points[i];
+            results.add(executor.submit(new Callable<Double>() {
+
+                @Override
+                public Double call() throws Exception {
+                    return execute(point);
+                }
+            }));
+        }
+        for (int i = from; i < to; i++) {
+            values[i] = get(results, i - from);
+        }
+    }
+
+    /* Evolves all the complexes concurrently, and stores them in order. */
+    void evolve(Complex[] complexes) throws Exception {
+        List<Future<Double>> results = new ArrayList<Future<Double>>();
+        for (final Complex c : complexes) {
+            results.add(executor.submit(new Callable<Double>() {
+
+                @Override
+                public Double call() throws Exception {
+                    c.evolve();
+                    return null;
+                }
+            }));
+        }
+        for (int i = 0; i < complexes.length; i++) {
+            get(results, i);
+            complexes[i].store();
+        }
+    }
+
+    private static Double get(List<Future<Double>> results, int i) throws Exception {
+        try {
+            return results.get(i).get();
+        } catch (ExecutionException E) {
+            for (Future<Double> f : results) {
+                f.cancel(true);
+            }
+            Throwable cause = E.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw E;
+        }
+    }
+
+    private void report(double of) {
+        double distribution = normdistForBestPoint();
 //          out.println("loop " + NLOOP + "  ICALL = " + icall);
 //            out.println("Number of complexes in a current population: " + currentNumOfComplexes);
 //            out.println("Objective Function value of best point: " + data.getObjFuncValueOfBestPoint());
@@ -429,7 +475,6 @@ public class SCE {
 //            out.println("Normal Distribution of best point: " + distribution);
 
         out.print("\n    " + icall + ": " + of + " [" + data.getObjFuncValueOfBestPoint() + "/" + objFuncValueOfWorstPoint+"]" + " c:" + currentNumOfComplexes + " d:" + distribution);
-        return of;
     }
 
     void sort_duan(double[][] x, double[] y) {
@@ -538,125 +583,220 @@ public class SCE {
         }
     }
 
-    void cce() throws Exception {
-        double[] worstPointSimplex = new double[numOfParams]; // WO(.)
-        double[] centroid = new double[numOfParams]; //CE(.)
-        double[] newPoint = new double[numOfParams]; //SNEW(.)
-        double[] vector = new double[numOfParams]; //STEP(.)
-        double worstObjFuncValue; //FW
+    /* A complex of the population, it evolves with its own random numbers
+     * and arrays, so several complexes can evolve at the same time. */
+    class Complex {
+
+        final int igs;
+        final Random random;
+        //COORDINATES OF POINTS IN A COMPLEX
+        final double[][] pointsInComplex = new double[numOfPointsInComplex][numOfParams];
+        //FUNCTION VALUES OF CX(.,.)
+        final double[] objFuncValuesOfComplex = new double[numOfPointsInComplex];
+        //COORDINATES OF POINTS IN THE CURRENT SIMPLEX
+        final double[][] pointsInSimplex = new double[numOfPointsInSubComplex][numOfParams];
+        //FUNCTION VALUES OF S(.,.)
+        final double[] objFuncValuesOfSimplex = new double[numOfPointsInSubComplex];
+        //INDICES LOCATING POSITION OF S(.,.) IN X(.,.)
+        final int[] indicesOfSimplex = new int[numOfPointsInSubComplex];
+        int loop;
+
+        Complex(int igs, long seed) {
+            this.igs = igs;
+            this.random = new Random(seed);
+            for (int k1 = 0; k1 < numOfPointsInComplex; k1++) {
+                int k2 = k1 * currentNumOfComplexes + igs;
+                for (int j = 0; j < numOfParams; j++) {
+                    pointsInComplex[k1][j] = pointsX[k2][j];
+                }
+                objFuncValuesOfComplex[k1] = objFuncValueOfX[k2];
+            }
+        }
 
-        for (int j = 0; j < numOfParams; j++) {
-            // pointsInSimplex[] is sorted based on the objective functions values,
-            // so the element in the last index is the worst point.
-            worstPointSimplex[j] = pointsInSimplex[numOfPointsInSubComplex - 1][j];
-            centroid[j] = 0;
-            // exclude the last point (worst point) in this loop
-            for (int i = 0; i < (numOfPointsInSubComplex - 1); i++) {
-                centroid[j] += pointsInSimplex[i][j];
-            }
-            centroid[j] = centroid[j] / ((double) (numOfPointsInSubComplex - 1));
-            vector[j] = centroid[j] - worstPointSimplex[j];
-        }
-        worstObjFuncValue = objFuncValuesOfSimplex[numOfPointsInSubComplex - 1];
-        for (int j = 0; j < numOfParams; j++) {
-            newPoint[j] = worstPointSimplex[j] + 2 * vector[j];
+        void evolve() throws Exception {
+            for (loop = 0; loop < numOfEvolutionSteps; loop++) {
+                if (numOfPointsInSubComplex == numOfPointsInComplex) {
+                    for (int k = 0; k < numOfPointsInSubComplex; k++) {
+                        indicesOfSimplex[k] = k;
+                    }
+                } else {
+                    //  k = 0 instead of k = 1 because the line above (indicesOfSimplex[0] = ....)
+                    // is removed.
+                    for (int k = 0; k < numOfPointsInSubComplex; k++) {
+                        boolean again = true;
+                        int lpos = -1;
+                        while (again) {
+                            again = false;
+                            lpos = (int) (numOfPointsInComplex + 0.5 -
+                                    Math.sqrt(Math.pow((numOfPointsInComplex + 0.5), 2) -
+                                    numOfPointsInComplex * (numOfPointsInComplex + 1) * random.nextDouble()));
+                            // check if any element from indicesOfSimplex[0] to indicesOfSimplex[k-1]
+                            // is equal to LPOS. If not, get out of the for loop, finish the while(AGAIN) loop,
+                            // and set LPOS as a value of indicesOfSimplex[k]
+                            for (int k1 = 0; k1 < k; k1++) {
+                                if (lpos == indicesOfSimplex[k1]) {
+                                    again = true;
+                                    break;
+                                }
+                            }
+                        }
+                        indicesOfSimplex[k] = lpos;
+                    }
+                    // sort the indiciesOfSimplex array in increasing order
+                    Arrays.sort(indicesOfSimplex);
+                }
+
+                for (int k = 0; k < numOfPointsInSubComplex; k++) {
+                    for (int j = 0; j < numOfParams; j++) {
+                        pointsInSimplex[k][j] = pointsInComplex[indicesOfSimplex[k]][j];
+                    }
+                    objFuncValuesOfSimplex[k] = objFuncValuesOfComplex[indicesOfSimplex[k]];
+                }
+                cce();
+                for (int k = 0; k < numOfPointsInSubComplex; k++) {
+                    for (int j = 0; j < numOfParams; j++) {
+                        pointsInComplex[indicesOfSimplex[k]][j] = pointsInSimplex[k][j];
+                    }
+                    objFuncValuesOfComplex[indicesOfSimplex[k]] = objFuncValuesOfSimplex[k];
+                }
+                sort_duan(pointsInComplex, objFuncValuesOfComplex);
+                if (icall >= maxNumOfTrials) {
+                    break;
+                }
+            } // end of loop with LOOP
         }
-        boolean outOfBOUND = false;
-        for (int j = 0; j < numOfParams; j++) {
-            if ((newPoint[j] > upperBound[j]) || (newPoint[j] < lowerBound[j])) {
-                outOfBOUND = true;
-                break;
+
+        /* puts the evolved points back into the population. */
+        void store() {
+            for (int k1 = 0; k1 < numOfPointsInComplex; k1++) {
+                int k2 = k1 * currentNumOfComplexes + igs;
+                for (int j = 0; j < numOfParams; j++) {
+                    pointsX[k2][j] = pointsInComplex[k1][j];
+                }
+                objFuncValueOfX[k2] = objFuncValuesOfComplex[k1];
             }
         }
-        if (outOfBOUND) {
-            getNewPointAtRandom(newPoint);
-        }
-        double newObjFuncValue = execute(newPoint);
 
-        if ((stepData.maximizeObjectiveFunctionValue() && newObjFuncValue <= worstObjFuncValue) ||
-                (!stepData.maximizeObjectiveFunctionValue() && newObjFuncValue >= worstObjFuncValue)) {
-            if (icall >= maxNumOfTrials) {
-                return; //ICALL;
+        void cce() throws Exception {
+            double[] worstPointSimplex = new double[numOfParams]; // WO(.)
+            double[] centroid = new double[numOfParams]; //CE(.)
+            double[] newPoint = new double[numOfParams]; //SNEW(.)
+            double[] vector = new double[numOfParams]; //STEP(.)
+            double worstObjFuncValue; //FW
+
+            for (int j = 0; j < numOfParams; j++) {
+                // pointsInSimplex[] is sorted based on the objective functions values,
+                // so the element in the last index is the worst point.
+                worstPointSimplex[j] = pointsInSimplex[numOfPointsInSubComplex - 1][j];
+                centroid[j] = 0;
+                // exclude the last point (worst point) in this loop
+                for (int i = 0; i < (numOfPointsInSubComplex - 1); i++) {
+                    centroid[j] += pointsInSimplex[i][j];
+                }
+                centroid[j] = centroid[j] / ((double) (numOfPointsInSubComplex - 1));
+                vector[j] = centroid[j] - worstPointSimplex[j];
             }
+            worstObjFuncValue = objFuncValuesOfSimplex[numOfPointsInSubComplex - 1];
             for (int j = 0; j < numOfParams; j++) {
-                newPoint[j] = worstPointSimplex[j] + 0.5 * vector[j];
+                newPoint[j] = worstPointSimplex[j] + 2 * vector[j];
             }
-            newObjFuncValue = execute(newPoint);
-            if ((stepData.maximizeObjectiveFunctionValue() && newObjFuncValue < worstObjFuncValue) ||
-                    (!stepData.maximizeObjectiveFunctionValue() && newObjFuncValue > worstObjFuncValue)) {
-                if (icall >= maxNumOfTrials) {
-                    return;
+            boolean outOfBOUND = false;
+            for (int j = 0; j < numOfParams; j++) {
+                if ((newPoint[j] > upperBound[j]) || (newPoint[j] < lowerBound[j])) {
+                    outOfBOUND = true;
+                    break;
                 }
+            }
+            if (outOfBOUND) {
                 getNewPointAtRandom(newPoint);
+            }
+            double newObjFuncValue = execute(newPoint);
+
+            if ((stepData.maximizeObjectiveFunctionValue() && newObjFuncValue <= worstObjFuncValue) ||
+                    (!stepData.maximizeObjectiveFunctionValue() && newObjFuncValue >= worstObjFuncValue)) {
+                if (icall >= maxNumOfTrials) {
+                    return; //ICALL;
+                }
+                for (int j = 0; j < numOfParams; j++) {
+                    newPoint[j] = worstPointSimplex[j] + 0.5 * vector[j];
+                }
                 newObjFuncValue = execute(newPoint);
+                if ((stepData.maximizeObjectiveFunctionValue() && newObjFuncValue < worstObjFuncValue) ||
+                        (!stepData.maximizeObjectiveFunctionValue() && newObjFuncValue > worstObjFuncValue)) {
+                    if (icall >= maxNumOfTrials) {
+                        return;
+                    }
+                    getNewPointAtRandom(newPoint);
+                    newObjFuncValue = execute(newPoint);
 
-            }// end of the 2nd if ((newObjFuncValue > worstObjFuncValue) ... )
-        } // end of the 1st if ((newObjFuncValue > worstObjFuncValue) ... )
+                }// end of the 2nd if ((newObjFuncValue > worstObjFuncValue) ... )
+            } // end of the 1st if ((newObjFuncValue > worstObjFuncValue) ... )
 
-        for (int j = 0; j < numOfParams; j++) {
-            pointsInSimplex[numOfPointsInSubComplex - 1][j] = newPoint[j];
+            for (int j = 0; j < numOfParams; j++) {
+                pointsInSimplex[numOfPointsInSubComplex - 1][j] = newPoint[j];
+            }
+            objFuncValuesOfSimplex[numOfPointsInSubComplex - 1] = newObjFuncValue;
         }
-        objFuncValuesOfSimplex[numOfPointsInSubComplex - 1] = newObjFuncValue;
-    }
 
-    /* a new point is assigned to newPoint based on stdDevOfPopulation[],
-     *  gasdev(), bound[], and etc.*/
-    void getNewPointAtRandom(double[] newPoint) {
-        for (int j = 0; j < numOfParams; j++) {
-            int nnn = 0;
-            do {
-                double R = gasdev();
-                newPoint[j] = pointsInSimplex[0][j] + stdDevOfPopulation[j] * R * bound[j];
-                nnn++;
-                if (nnn == 1001) {
-                    out.println("SCE: getNewPointAtRandom(): Having hard time generating a new point in a feasible region");
-                }
-                if (nnn > 1000) {
-                    newPoint[j] = lowerBound[j] + Math.abs(R) * (0.5 * bound[j]);
-                    if (nnn % 100 == 1) {
-                        out.print("Attempt " + nnn + ": new point = " + newPoint[j] +
-                                ", lower bound = " + lowerBound[j] + ", upper bound = " + upperBound[j]);
+        /* a new point is assigned to newPoint based on stdDevOfPopulation[],
+         *  gasdev(), bound[], and etc.*/
+        void getNewPointAtRandom(double[] newPoint) {
+            for (int j = 0; j < numOfParams; j++) {
+                int nnn = 0;
+                do {
+                    double R = gasdev();
+                    newPoint[j] = pointsInSimplex[0][j] + stdDevOfPopulation[j] * R * bound[j];
+                    nnn++;
+                    if (nnn == 1001) {
+                        out.println("SCE: getNewPointAtRandom(): Having hard time generating a new point in a feasible region");
                     }
-                    if ((newPoint[j] > upperBound[j]) || (newPoint[j] < lowerBound[j])) {
-                        out.println(" ---> out of bound");
-                    } else {
-                        out.println(" ---> in bound!!");
+                    if (nnn > 1000) {
+                        newPoint[j] = lowerBound[j] + Math.abs(R) * (0.5 * bound[j]);
+                        if (nnn % 100 == 1) {
+                            out.print("Attempt " + nnn + ": new point = " + newPoint[j] +
+                                    ", lower bound = " + lowerBound[j] + ", upper bound = " + upperBound[j]);
+                        }
+                        if ((newPoint[j] > upperBound[j]) || (newPoint[j] < lowerBound[j])) {
+                            out.println(" ---> out of bound");
+                        } else {
+                            out.println(" ---> in bound!!");
+                        }
                     }
-                }
-            } while ((newPoint[j] > upperBound[j]) || (newPoint[j] < lowerBound[j]));
+                } while ((newPoint[j] > upperBound[j]) || (newPoint[j] < lowerBound[j]));
+            }
         }
-    }
-    //
-    boolean calculateGASDEV = true; // if true, gasdev() returns gasdevValue1
-    double gasdevValue1; // one of the two values generated in gasdev()
-    double gasdevValue2; // one of the two values generated in gasdev()
-
-    /* returns a normally distributed deviate with zero mean and unit variance,
-     *  using random number generator, as the source of uniform deviates.
-     */
-    double gasdev() {
-        double R, v1, v2;
-        if (calculateGASDEV) {
-            // if we don't have an extra deviate handy
-            do {
-                // pick two uniform numbers in the square extending from -1 to +1
-                // in each direction
-                v1 = 2 * Math.random() - 1;
-                v2 = 2 * Math.random() - 1;
-                // check if v1 and v2 are in the unit circle
-                R = v1 * v1 + v2 * v2;
-            } while (R >= 1); // if v1 and v2 are not in the unit circle
-
-            // make the Box-Muller transformation to get two normal deviates
-            double fac = Math.sqrt((-1) * ((2 * Math.log(R)) / R));
-            gasdevValue2 = v1 * fac; // one of the two normal deviates. gasdevValue2 is returned
-            // next time this function is called
-            gasdevValue1 = v2 * fac; // the other normal deviate, which will be returned at this time
-            calculateGASDEV = false;
-            return gasdevValue1;
-        } else {
-            calculateGASDEV = true;
-            return gasdevValue2;
+        //
+        boolean calculateGASDEV = true; // if true, gasdev() returns gasdevValue1
+        double gasdevValue1; // one of the two values generated in gasdev()
+        double gasdevValue2; // one of the two values generated in gasdev()
+
+        /* returns a normally distributed deviate with zero mean and unit variance,
+         *  using random number generator, as the source of uniform deviates.
+         */
+        double gasdev() {
+            double R, v1, v2;
+            if (calculateGASDEV) {
+                // if we don't have an extra deviate handy
+                do {
+                    // pick two uniform numbers in the square extending from -1 to +1
+                    // in each direction
+                    v1 = 2 * random.nextDouble() - 1;
+                    v2 = 2 * random.nextDouble() - 1;
+                    // check if v1 and v2 are in the unit circle
+                    R = v1 * v1 + v2 * v2;
+                } while (R >= 1); // if v1 and v2 are not in the unit circle
+
+                // make the Box-Muller transformation to get two normal deviates
+                double fac = Math.sqrt((-1) * ((2 * Math.log(R)) / R));
+                gasdevValue2 = v1 * fac; // one of the two normal deviates. gasdevValue2 is returned
+                // next time this function is called
+                gasdevValue1 = v2 * fac; // the other normal deviate, which will be returned at this time
+                calculateGASDEV = false;
+                return gasdevValue1;
+            } else {
+                calculateGASDEV = true;
+                return gasdevValue2;
+            }
         }
     }
 
@@ -46,6 +46,7 @@ import oms3.annotations.In;
 import oms3.annotations.Out;
 import oms3.annotations.Range;
 import oms3.annotations.Role;
+import oms3.gen.Accessors;
 import oms3.gen.MethodInvoker;
 import oms3.util.Annotations;
 
@@ -89,7 +90,7 @@ public class ComponentAccess {
         this.ens = ens;
         
         Method execute = getMethodOfInterest(comp, Execute.class);
-        exec = Utils.reflective(comp, execute);
+        exec = Accessors.invoker(comp, execute);
 //        exec = Utils.compiled(comp, execute);
         findAll(comp, ins, outs, ens);
     }
@@ -147,12 +148,24 @@ public class ComponentAccess {
     }
 
     final void exec() throws ComponentException {
+        exec(true);
+    }
+
+    /**
+     * Executes the component.
+     *
+     * @param sync if false the component runs in a static schedule, after
+     *        all the producers of its inputs, so the connected values are
+     *        exchanged without waiting and synchronization.
+     * @throws ComponentException
+     */
+    final void exec(boolean sync) throws ComponentException {
         try {
             ens.fireWait(this);
             // synchonized in()
             for (Access a : ins.values()) {     // wait for all inputs to arrive
                 if (a.getClass() == FieldAccess.class) {
-                    a.in();
+                    ((FieldAccess) a).in(sync);
                 }
             }
             // un synchonized in()
@@ -175,7 +188,7 @@ public class ComponentAccess {
             // synchronized out
             for (Access a : outs.values()) {    // notify for output.
                 if (a.getClass() == FieldAccess.class) {
-                    a.out();
+                    ((FieldAccess) a).out(sync);
                 }
             }
         } catch (InvocationTargetException ex) {
@@ -26,6 +26,7 @@ import java.lang.annotation.Annotation;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import oms3.util.Threads;
@@ -38,6 +39,8 @@ import oms3.util.Threads;
 class Controller {
 
     static boolean checkCircular = Boolean.getBoolean("oms.check.circular");
+    // one thread per component instead of the static schedule.
+    static boolean threaded = Boolean.getBoolean("oms.exec.threaded");
     //
     private static final Logger log = Logger.getLogger("oms3.sim");
     /** Execution event Notification */
@@ -332,7 +335,7 @@ class Controller {
         }
     }
     // something internal.
-    ComponentException E;
+    volatile ComponentException E;
     static ExecutorService executor = Executors.newCachedThreadPool();
 
     static void reload() {
@@ -380,6 +383,9 @@ class Controller {
     Latch latch = new Latch();
     Runnable[] rc;
     final Object l = new Object();
+    // the static schedule, built at the first execution.
+    Schedule schedule;
+    boolean scheduleBuilt;
 
     protected void internalExec() throws ComponentException {
         Collection<ComponentAccess> comps = oMap.values();
@@ -401,6 +407,52 @@ class Controller {
 //        final CountDownLatch latch = new CountDownLatch(comps.size());
         latch.reload(comps.size());
         ens.fireStart(ca);
+        if (!scheduleBuilt) {
+            scheduleBuilt = true;
+            if (!threaded) {
+                schedule = Schedule.build(this, comps);
+            }
+        }
+        if (schedule != null) {
+            if (E == null) {
+                schedule.run();
+            }
+        } else {
+            execThreaded(comps);
+        }
+
+        // some of the components left an
+        // exception.
+        if (E != null) {
+            ens.fireException(E);
+            throw E;
+        }
+
+        try {
+            ens.fireFinnish(ca);
+            // map the outputs.
+//            System.out.println("Comp " + ca.getComponent() + ": " + ca.outputs());
+            for (Access a : ca.outputs()) {
+                a.in();
+            }
+        } catch (Exception Ex) {
+            throw new ComponentException(Ex, ca.getComponent());
+        }
+    }
+
+    private void setException(ComponentException ce) {
+        synchronized (l) {
+            if (E == null) {
+                E = ce;
+            }
+        }
+    }
+
+    /**
+     * Runs every component in its own thread, the components
+     * wait for their inputs on the connections.
+     */
+    private void execThreaded(Collection<ComponentAccess> comps) {
         if (rc == null) {
             rc = new Runnable[comps.size()];
             int i = 0;
@@ -413,11 +465,7 @@ class Controller {
                             co.exec();
                             latch.countDown();
                         } catch (ComponentException ce) {
-                            synchronized (l) {
-                                if (E == null) {
-                                    E = ce;
-                                }
-                            }
+                            setException(ce);
                             latch.open();
                             executor.shutdownNow();
                         }
@@ -456,23 +504,220 @@ class Controller {
         } catch (InterruptedException IE) {
             // nothing to do here.
         }
+    }
 
-        // some of the components left an
-        // exception.
-        if (E != null) {
-            ens.fireException(E);
-            throw E;
+    /**
+     * Static dataflow schedule of the components.
+     *
+     * The graph of the components is built once from the connections: a
+     * component depends on the components that produce the values of its
+     * connected @In fields. Feedback connections read the last value without
+     * waiting, so their consumer is ordered before their producer, to read
+     * the value of the previous run as in a threaded execution. This is
+     * skipped if the producer already comes before the consumer, which
+     * then reads the current value. A component runs in the thread
+     * that completed its last dependency, chains run inline on the calling
+     * thread and only the extra components that get ready at a fan-out are
+     * forked to the executor. Values pass through the connections without
+     * synchronization, since a consumer always runs after its producer.
+     */
+    private static final class Schedule {
+
+        final Controller c;
+        final ComponentAccess[] comps;
+        // successors of each component
+        final int[][] next;
+        // number of dependencies of each component
+        final int[] deps;
+        final int[] roots;
+        final AtomicIntegerArray pending;
+
+        private Schedule(Controller c, ComponentAccess[] comps, int[][] next, int[] deps, int[] roots) {
+            this.c = c;
+            this.comps = comps;
+            this.next = next;
+            this.deps = deps;
+            this.roots = roots;
+            pending = new AtomicIntegerArray(comps.length);
         }
 
-        try {
-            ens.fireFinnish(ca);
-            // map the outputs.
-//            System.out.println("Comp " + ca.getComponent() + ": " + ca.outputs());
-            for (Access a : ca.outputs()) {
-                a.in();
+        /**
+         * Builds the schedule.
+         *
+         * @return the schedule or null, if the connections have a cycle.
+         */
+        static Schedule build(Controller c, Collection<ComponentAccess> all) {
+            ComponentAccess[] comps = all.toArray(new ComponentAccess[all.size()]);
+            int n = comps.length;
+            // who produces what
+            Map<FieldContent, Integer> producers = new IdentityHashMap<FieldContent, Integer>();
+            for (int i = 0; i < n; i++) {
+                for (Access a : comps[i].outputs()) {
+                    FieldContent data = null;
+                    if (a.getClass() == FieldAccess.class) {
+                        data = ((FieldAccess) a).data;
+                    } else if (a.getClass() == AsyncFieldAccess.class) {
+                        data = a.getData();
+                    }
+                    if (data != null) {
+                        producers.put(data, i);
+                    }
+                }
+            }
+            List<Set<Integer>> succ = new ArrayList<Set<Integer>>(n);
+            for (int i = 0; i < n; i++) {
+                succ.add(new LinkedHashSet<Integer>());
+            }
+            int[] deps = new int[n];
+            // consumer, producer pairs of the feedback connections
+            List<int[]> feedbacks = new ArrayList<int[]>();
+            for (int i = 0; i < n; i++) {
+                for (Access a : comps[i].inputs()) {
+                    if (a.getClass() == AsyncFieldAccess.class) {
+                        Integer from = a.getData() == null ? null : producers.get(a.getData());
+                        if (from != null && from != i) {
+                            feedbacks.add(new int[]{i, from});
+                        }
+                        continue;
+                    }
+                    // only these inputs wait for a producer
+                    if (a.getClass() != FieldAccess.class) {
+                        continue;
+                    }
+                    FieldContent data = ((FieldAccess) a).data;
+                    Integer from = data == null ? null : producers.get(data);
+                    if (from != null && from != i && succ.get(from).add(i)) {
+                        deps[i]++;
+                    }
+                }
+            }
+            for (int[] f : feedbacks) {
+                int consumer = f[0];
+                int producer = f[1];
+                if (!reaches(succ, producer, consumer) && succ.get(consumer).add(producer)) {
+                    deps[producer]++;
+                }
+            }
+            int[][] next = new int[n][];
+            List<Integer> roots = new ArrayList<Integer>();
+            for (int i = 0; i < n; i++) {
+                next[i] = new int[succ.get(i).size()];
+                int k = 0;
+                for (Integer s : succ.get(i)) {
+                    next[i][k++] = s;
+                }
+                if (deps[i] == 0) {
+                    roots.add(i);
+                }
+            }
+            // check for cycles
+            int[] left = deps.clone();
+            int[] queue = new int[n];
+            int head = 0;
+            int tail = 0;
+            for (Integer r : roots) {
+                queue[tail++] = r;
+            }
+            while (head < tail) {
+                for (int s : next[queue[head++]]) {
+                    if (--left[s] == 0) {
+                        queue[tail++] = s;
+                    }
+                }
+            }
+            if (tail < n) {
+                if (log.isLoggable(Level.CONFIG)) {
+                    log.config("Circular connections in " + c.ca.getComponent() + ", using threaded execution.");
+                }
+                return null;
+            }
+            int[] r = new int[roots.size()];
+            for (int i = 0; i < r.length; i++) {
+                r[i] = roots.get(i);
+            }
+            return new Schedule(c, comps, next, deps, r);
+        }
+
+        /**
+         * Checks if there is a path between two components.
+         */
+        private static boolean reaches(List<Set<Integer>> succ, int from, int to) {
+            boolean[] seen = new boolean[succ.size()];
+            Deque<Integer> stack = new ArrayDeque<Integer>();
+            stack.push(from);
+            seen[from] = true;
+            while (!stack.isEmpty()) {
+                for (int s : succ.get(stack.pop())) {
+                    if (s == to) {
+                        return true;
+                    }
+                    if (!seen[s]) {
+                        seen[s] = true;
+                        stack.push(s);
+                    }
+                }
+            }
+            return false;
+        }
+
+        void run() {
+            for (int i = 0; i < deps.length; i++) {
+                pending.set(i, deps[i]);
+            }
+            for (int i = 1; i < roots.length; i++) {
+                fork(roots[i]);
+            }
+            runFrom(roots[0]);
+            try {
+                c.latch.await();
+            } catch (InterruptedException IE) {
+                // nothing to do here.
+            }
+        }
+
+        private void fork(final int i) {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    runFrom(i);
+                }
+            });
+        }
+
+        /**
+         * Runs a component and then inline the first of its successors that gets ready.
+         */
+        private void runFrom(int i) {
+            while (i >= 0) {
+                if (c.E != null) {
+                    c.latch.open();
+                    return;
+                }
+                try {
+                    comps[i].exec(false);
+                } catch (ComponentException ce) {
+                    c.setException(ce);
+                    c.latch.open();
+                    return;
+                } catch (Throwable t) {
+                    c.setException(new ComponentException(t, comps[i].getComponent()));
+                    c.latch.open();
+                    return;
+                }
+                int inline = -1;
+                for (int s : next[i]) {
+                    if (pending.decrementAndGet(s) == 0) {
+                        if (inline < 0) {
+                            inline = s;
+                        } else {
+                            fork(s);
+                        }
+                    }
+                }
+                c.latch.countDown();
+                i = inline;
             }
-        } catch (Exception Ex) {
-            throw new ComponentException(Ex, ca.getComponent());
         }
     }
 
@@ -4,6 +4,7 @@ import java.lang.reflect.Field;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import oms3.Notification.DataflowEvent;
+import oms3.gen.Accessors;
 //import oms3.gen.Access;
 
 /** Field Access.
@@ -17,6 +18,10 @@ class FieldAccess implements Access {
     Field field;
     Object comp;
     FieldContent data;
+    // generated accessor, null if the field is not accessible through handles
+    Accessors.FieldAccessor accessor;
+    // the wrapper class of a primitive field, values of this class need no conversion
+    Class<?> wrapper;
     private static final Logger log = Logger.getLogger("oms3.sim");
 
 //    Access access;
@@ -27,6 +32,37 @@ class FieldAccess implements Access {
         this.ens = ens;
         field.setAccessible(true);   // just in case
 //        access = Utils.compiled(comp, field);
+        try {
+            accessor = Accessors.field(target, field);
+        } catch (IllegalArgumentException E) {
+            // i.e. a final field, stay with reflection.
+            accessor = null;
+        }
+        wrapper = wrapper(field.getType());
+    }
+
+    static Class<?> wrapper(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == double.class) {
+            return Double.class;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else if (type == char.class) {
+            return Character.class;
+        }
+        return type;
     }
 
     // called on 'out' access.
@@ -65,6 +101,17 @@ class FieldAccess implements Access {
      */
     @Override
     public void in() throws Exception {
+        in(true);
+    }
+
+    /**
+     * a field is receiving a new value (in)
+     *
+     * @param sync if false the producer of the value is known to have run
+     *        already, so the value is taken without synchronization.
+     * @throws java.lang.Exception
+     */
+    void in(boolean sync) throws Exception {
         if (data == null) {
 //             throw new ComponentException("Not connected: " + toString());
             if (log.isLoggable(Level.WARNING)) {
@@ -72,7 +119,10 @@ class FieldAccess implements Access {
             }
             return;
         }
-        Object val = data.getValue();
+        if (!sync && accessor != null && !ens.shouldFire() && inPrimitive()) {
+            return;
+        }
+        Object val = sync ? data.getValue() : data.getReadyValue();
         // fire only if there is a listener
         if (ens.shouldFire()) {
             DataflowEvent e = new DataflowEvent(ens.getController(), this, val);
@@ -84,7 +134,7 @@ class FieldAccess implements Access {
         
         // type conversion
         
-        if (val != null && field.getType() != val.getClass() && !field.getType().isAssignableFrom(val.getClass())) {
+        if (val != null && field.getType() != val.getClass() && wrapper != val.getClass() && !field.getType().isAssignableFrom(val.getClass())) {
 //            // default type conversion fails, we need to convert.
 //            // this will use the Conversions SPI.
             val = Conversions.convert(val, field.getType());
@@ -102,6 +152,21 @@ class FieldAccess implements Access {
      */
     @Override
     public void out() throws Exception {
+        out(true);
+    }
+
+    /**
+     * a field is sending a new value (out)
+     *
+     * @param sync if false the consumers of the value run after this
+     *        component, so nobody is waiting and the value is set without
+     *        synchronization.
+     * @throws java.lang.Exception
+     */
+    void out(boolean sync) throws Exception {
+        if (!sync && accessor != null && data != null && !ens.shouldFire() && outPrimitive()) {
+            return;
+        }
         Object val = getFieldValue();
 //        Object val = access;
 
@@ -114,10 +179,54 @@ class FieldAccess implements Access {
         }
         // if data==null this unconsumed @Out, its OK but we do not want to set it.
         if (data != null) {
-            data.setValue(val);
+            if (sync) {
+                data.setValue(val);
+            } else {
+                data.setValue0(val);
+            }
         }
     }
 
+    /*
+     * Takes a double, int or boolean value without boxing.
+     */
+    private boolean inPrimitive() {
+        if (accessor instanceof Accessors.DoubleField) {
+            if (data.holdsPrimitive(double.class)) {
+                ((Accessors.DoubleField) accessor).set(data.getDouble0());
+                return true;
+            }
+        } else if (accessor instanceof Accessors.IntField) {
+            if (data.holdsPrimitive(int.class)) {
+                ((Accessors.IntField) accessor).set(data.getInt0());
+                return true;
+            }
+        } else if (accessor instanceof Accessors.BooleanField) {
+            if (data.holdsPrimitive(boolean.class)) {
+                ((Accessors.BooleanField) accessor).set(data.getBoolean0());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Sends a double, int or boolean value without boxing.
+     */
+    private boolean outPrimitive() {
+        if (accessor instanceof Accessors.DoubleField) {
+            data.setDouble0(((Accessors.DoubleField) accessor).get());
+            return true;
+        } else if (accessor instanceof Accessors.IntField) {
+            data.setInt0(((Accessors.IntField) accessor).get());
+            return true;
+        } else if (accessor instanceof Accessors.BooleanField) {
+            data.setBoolean0(((Accessors.BooleanField) accessor).get());
+            return true;
+        }
+        return false;
+    }
+
     /** Get the command belonging to this Object
      *
      * @return the command object
@@ -144,6 +253,9 @@ class FieldAccess implements Access {
      */
     @Override
     final public Object getFieldValue() throws Exception {
+        if (accessor != null) {
+            return accessor.toObject();
+        }
         return field.get(comp);
     }
 
@@ -155,6 +267,10 @@ class FieldAccess implements Access {
      */
     @Override
     final public void setFieldValue(Object o) throws Exception {
+        if (accessor != null) {
+            accessor.set(o);
+            return;
+        }
         field.set(comp, o);
     }
 
@@ -23,6 +23,7 @@
 package oms3;
 
 import java.lang.reflect.Field;
+import oms3.gen.Accessors;
 
 /**
  * Generic Data Object for exchange
@@ -37,23 +38,38 @@ public class FieldContent {
 
         Field field;
         Object obj;
+        Accessors.FieldAccessor accessor;
 
         FA(Object obj, String name) throws Exception {
             this.obj = obj;
             field = obj.getClass().getField(name);
+            try {
+                accessor = Accessors.field(obj, field);
+            } catch (IllegalArgumentException E) {
+                accessor = null;
+            }
         }
 
         Object getFieldValue() throws Exception {
+            if (accessor != null) {
+                return accessor.toObject();
+            }
             return field.get(obj);
         }
 
         void setFieldValue(Object o) throws Exception {
+            if (accessor != null) {
+                accessor.set(o);
+                return;
+            }
             field.set(obj, o);
         }
     }
 
     /* The null object */
     private static final Object NULL = new Object();
+    /* The value is in the primitive slot */
+    private static final Object PRIMITIVE = new Object();
 
     /* No current acess */
     private static final int NONE = 0;
@@ -76,6 +92,9 @@ public class FieldContent {
     //
     private Object value;
     private Object shadow; // for now
+    /* The primitive slot, its type is one of double.class, int.class, boolean.class */
+    private long primitive;
+    private Class<?> primitiveType;
 
     // Invalidate the value in between iterations.
     // invalidate only if the input can be generated again.
@@ -119,7 +138,7 @@ public class FieldContent {
                 throw new RuntimeException(ex);
             }
         }
-        return value;
+        return box(value);
     }
 
     /**
@@ -128,11 +147,94 @@ public class FieldContent {
      * @return
      */
     Object getValue0() {
-        return value;
+        return box(value);
+    }
+
+    /**
+     * Unsynchronized getValue for a value whose producer already ran,
+     * as in a scheduled execution. If there is no value yet, this falls
+     * back to the blocking call.
+     *
+     * @return the value
+     */
+    Object getReadyValue() {
+        Object v = value;
+        if (v == NULL) {
+            return getValue();
+        }
+        return box(v);
     }
 
     Object getShadow() {
-        return shadow;
+        return box(shadow);
+    }
+
+    /*
+     * The primitive slot is used in scheduled executions only, where the
+     * producer runs before the consumers, so the values are not boxed at
+     * each exchange. Object readers get them boxed.
+     */
+    private Object box(Object v) {
+        if (v != PRIMITIVE) {
+            return v;
+        }
+        if (primitiveType == double.class) {
+            return Double.longBitsToDouble(primitive);
+        } else if (primitiveType == int.class) {
+            return (int) primitive;
+        }
+        return primitive != 0;
+    }
+
+    /**
+     * Unsynchronized set of a double value.
+     * @param v
+     */
+    void setDouble0(double v) {
+        primitive = Double.doubleToRawLongBits(v);
+        primitiveType = double.class;
+        value = shadow = PRIMITIVE;
+    }
+
+    /**
+     * Unsynchronized set of an int value.
+     * @param v
+     */
+    void setInt0(int v) {
+        primitive = v;
+        primitiveType = int.class;
+        value = shadow = PRIMITIVE;
+    }
+
+    /**
+     * Unsynchronized set of a boolean value.
+     * @param v
+     */
+    void setBoolean0(boolean v) {
+        primitive = v ? 1 : 0;
+        primitiveType = boolean.class;
+        value = shadow = PRIMITIVE;
+    }
+
+    /**
+     * Checks if the current value is in the primitive slot.
+     * @param type the primitive type
+     * @return true if a value of this type can be taken without boxing.
+     */
+    boolean holdsPrimitive(Class<?> type) {
+        return value == PRIMITIVE && primitiveType == type;
+    }
+
+    double getDouble0() {
+        return Double.longBitsToDouble(primitive);
+    }
+
+    int getInt0() {
+        return (int) primitive;
+    }
+
+    boolean getBoolean0() {
+        return primitive != 0;
     }
 
     void tagIn() {
@@ -65,6 +65,9 @@ public class SimConst {
     public static final int SIMPLE = 0;   // Simple output: outdir + simname
     public static final int NUMBERED = 1; // Numbered output: outdir + simname + next#
     public static final int TIME = 2; // Time stamp output: outdir + simname + time
+    //
+    public static final String CSV = "csv";       // Output format: text table
+    public static final String BINARY_TABLE = "binary"; // Output format: binary table
 
 // Efficiencies
     /**absolute difference */
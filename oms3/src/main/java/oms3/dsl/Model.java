@@ -39,6 +39,7 @@ public class Model implements Buildable {
     String controlClass = "oms3.Compound";
     //
     URLClassLoader modelClassLoader;
+    Class<?> componentClass;
 
     @Override
     public Buildable create(Object name, Object value) {
@@ -181,6 +182,15 @@ public class Model implements Buildable {
     }
 
     public Object getComponent() throws Exception {
+        return getComponentClass().newInstance();
+    }
+
+    /** The model class, loaded (or generated and compiled) only once.
+     */
+    private synchronized Class<?> getComponentClass() {
+        if (componentClass != null) {
+            return componentClass;
+        }
         URLClassLoader loader = getClassLoader();
         Class c = null;
         if (classname == null) {
@@ -194,7 +204,8 @@ public class Model implements Buildable {
                 throw new IllegalArgumentException("Component/Model not found '" + classname + "'");
             }
         }
-        return c.newInstance();
+        componentClass = c;
+        return c;
     }
 
     public List<Param> getParam() {
@@ -13,17 +13,15 @@ import java.lang.reflect.Array;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.EventObject;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
 import java.util.logging.Logger;
 import oms3.*;
 import oms3.Notification.*;
-import oms3.io.DataIO;
+import static oms3.SimConst.*;
 
 /**
  *
@@ -39,6 +37,7 @@ public class Output implements Buildable {
         String name;
         int[] idx;
         Object val;
+        int columns;
 
         V(String token, String name, int[] idx) {
             this.token = token;
@@ -50,68 +49,77 @@ public class Output implements Buildable {
             return (idx == null) ? val : Util.accessArray(name, val, idx);
         }
 
-        String token() {
-            if (idx == null && val.getClass().isArray()) {
-                int len = Array.getLength(val);
-                StringBuilder b = new StringBuilder();
-                for (int i = 0; i < len - 1; i++) {
-                    b.append(token + "[" + i + "],");
-                }
-                b.append(token + "[" + (len - 1) + "]");
-                return b.toString();
-            }
-            return token;
-        }
-
-        String valueString() {
+        /*
+         * Adds the output columns of the variable, one per element for
+         * whole arrays.
+         */
+        void columns(List<String> names, List<String> types, List<Integer> kinds, List<Boolean> grouped) {
             Object v = value();
             if (v == null) {
                 throw new IllegalArgumentException("Missing output: " + token);
             }
-            if (v.getClass() == Double.class) {
-                return String.format(Locale.US, fformat, v);
-            } else if (v instanceof Calendar) {
-                return dfmt.format(((Calendar) v).getTime());
-            } else if (v instanceof double[]) {
-                return dblfmt((double[]) v);
+            if (idx == null && v.getClass().isArray()) {
+                String t = v.getClass().getComponentType().getSimpleName();
+                int len = Array.getLength(v);
+                for (int i = 0; i < len; i++) {
+                    Object e = Array.get(v, i);
+                    names.add(token + "[" + i + "]");
+                    types.add(t);
+                    kinds.add(OutputWriter.kind(e));
+                    grouped.add(i > 0);
+                }
+                columns = len;
+            } else {
+                names.add(token);
+                types.add(v instanceof Calendar ? "Date" : v.getClass().getSimpleName());
+                kinds.add(OutputWriter.kind(v));
+                grouped.add(false);
+                columns = 1;
             }
-            return v.toString();
         }
 
-        String dblfmt(double[] d) {
-            StringBuilder b = new StringBuilder();
-            for (int i = 0; i < d.length - 1; i++) {
-                b.append(String.format(Locale.US, fformat, d[i]));
-                b.append(',');
+        /*
+         * Stages the current value, returns the next column.
+         */
+        int stage(OutputWriter w, int col) {
+            Object v = value();
+            if (v == null) {
+                throw new IllegalArgumentException("Missing output: " + token);
             }
-            b.append(String.format(Locale.US, fformat, d[d.length - 1]));
-            return b.toString();
-        }
-
-        String type() {
-            if (idx == null && val.getClass().isArray()) {
-                String t = val.getClass().getComponentType().getSimpleName();
-                int len = Array.getLength(val);
-                StringBuilder b = new StringBuilder();
-                for (int i = 0; i < len - 1; i++) {
-                    b.append(t + ",");
+            if (idx == null && v.getClass().isArray()) {
+                int len = Array.getLength(v);
+                if (len != columns) {
+                    throw new IllegalArgumentException("Output array size changed: " + token);
                 }
-                b.append(t);
-                return b.toString();
-            }
-            if (val != null && value() instanceof Calendar) {
-                return "Date";
+                if (v instanceof double[]) {
+                    double[] a = (double[]) v;
+                    for (int i = 0; i < len; i++) {
+                        w.put(col + i, a[i]);
+                    }
+                } else if (v instanceof int[]) {
+                    int[] a = (int[]) v;
+                    for (int i = 0; i < len; i++) {
+                        w.put(col + i, a[i]);
+                    }
+                } else {
+                    for (int i = 0; i < len; i++) {
+                        w.put(col + i, Array.get(v, i));
+                    }
+                }
+                return col + len;
             }
-            return val == null ? "null" : value().getClass().getSimpleName();
+            w.put(col, v);
+            return col + 1;
         }
     }
     final List<V> vars = new ArrayList<V>();
     Set<String> d = new TreeSet<String>();
     //
     String file;
+    String format = CSV;
+    int buffer = 1024;
     //
-    PrintWriter w;
-    boolean printHeader = true;
+    OutputWriter w;
     //
     String fformat = "%7.3f";
     String dformat = "%10d";
@@ -133,6 +141,29 @@ public class Output implements Buildable {
         this.file = file;
     }
 
+    /** Sets the output format, 'csv' (default) or 'binary'.
+     *
+     * @param format the format
+     * @see oms3.io.BinaryTable
+     */
+    public void setFormat(String format) {
+        if (!format.equals(CSV) && !format.equals(BINARY_TABLE)) {
+            throw new IllegalArgumentException(format);
+        }
+        this.format = format;
+    }
+
+    /** Sets the number of rows staged before they are written.
+     *
+     * @param buffer the row count
+     */
+    public void setBuffer(int buffer) {
+        if (buffer < 1) {
+            throw new IllegalArgumentException("buffer: " + buffer);
+        }
+        this.buffer = buffer;
+    }
+
     public void setVars(String varlist) {
         StringTokenizer t = new StringTokenizer(varlist, ";,:");
         while (t.hasMoreTokens()) {
@@ -143,13 +174,34 @@ public class Output implements Buildable {
         }
     }
 
+    /**
+     * Creates an output with the same variables and formats. The copy
+     * has its own writer, so it can be set up for another model instance
+     * running at the same time.
+     *
+     * @return the new output
+     */
+    public Output copy() {
+        Output o = new Output();
+        for (V v : vars) {
+            o.vars.add(o.new V(v.token, v.name, v.idx));
+        }
+        o.d.addAll(d);
+        o.file = file;
+        o.format = format;
+        o.buffer = buffer;
+        o.fformat = fformat;
+        o.dformat = dformat;
+        o.dfmt = (SimpleDateFormat) dfmt.clone();
+        return o;
+    }
+
     @Override
     public Buildable create(Object name, Object value) {
         return LEAF;
     }
 
     public void setup(Object comp, File dir, final String header) throws IOException {
-        printHeader = true;
         if (!dir.exists()) {
             dir.mkdirs();
         }
@@ -161,10 +213,17 @@ public class Output implements Buildable {
         if (comp instanceof Compound) {
             Compound c = (Compound) comp;
 
-            if (file != null) {
-                w = new PrintWriter(new FileWriter(new File(dir, file), false));
+            if (format.equals(BINARY_TABLE)) {
+                if (file == null) {
+                    throw new IllegalArgumentException("binary output needs a file.");
+                }
+                w = new OutputWriter.Binary(new File(dir, file), header, dfmt, buffer);
+            } else if (file != null) {
+                w = new OutputWriter.CSV(new PrintWriter(new FileWriter(new File(dir, file), false)), true,
+                        header, dfmt, fformat, buffer);
             } else {
-                w = new PrintWriter(new OutputStreamWriter(System.out));
+                w = new OutputWriter.CSV(new PrintWriter(new OutputStreamWriter(System.out)), false,
+                        header, dfmt, fformat, buffer);
             }
 
             c.addListener(new Listener() {
@@ -186,8 +245,8 @@ public class Output implements Buildable {
                                     }
                                 }
                                 if (count == vars_size) {
-                                    if (printHeader) {
-                                        printHeader(header);
+                                    if (!w.isStarted()) {
+                                        printHeader();
                                     }
                                     printRow();
                                     count = 0;
@@ -200,38 +259,53 @@ public class Output implements Buildable {
         }
     }
 
-    void printHeader(String header) {
-        w.println("@T, \"" + header + "\"");
-        w.println(" " + DataIO.KEY_CREATED_AT + ", \"" + new Date() + "\"");
-        w.println(" " + DataIO.DATE_FORMAT + ", " + dfmt.toPattern());
-        String dig = System.getProperty("oms3.digest");
-        if (dig != null) {
-            w.println(" " + DataIO.KEY_DIGEST + "," + dig);
-        }
-        w.print("@H");
+    void printHeader() {
+        List<String> names = new ArrayList<String>();
+        List<String> types = new ArrayList<String>();
+        List<Integer> kinds = new ArrayList<Integer>();
+        List<Boolean> grouped = new ArrayList<Boolean>();
         for (V v : vars) {
-            w.print(", " + v.token());
+            v.columns(names, types, kinds, grouped);
         }
-        w.println();
-        w.print(" " + DataIO.KEY_TYPE);
-        for (V v : vars) {
-            w.print(", " + v.type());
+        int[] k = new int[kinds.size()];
+        boolean[] g = new boolean[k.length];
+        for (int i = 0; i < k.length; i++) {
+            k[i] = kinds.get(i);
+            g[i] = grouped.get(i);
+        }
+        try {
+            w.start(names.toArray(new String[0]), types.toArray(new String[0]), k, g);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
         }
-        w.println();
-        printHeader = false;
     }
 
     void printRow() {
+        int col = 0;
         for (V v : vars) {
-            w.print(", " + v.valueString());
+            col = v.stage(w, col);
         }
-        w.println();
+        w.next();
     }
 
     public void done() throws IOException {
-        w.flush();
-        if (file != null) {
+        if (w == null) {
+            return;
+        }
+        synchronized (vars) {
             w.close();
         }
     }
+
+    /** Closes the output of a failed run. The staged rows are dropped,
+     * a binary output file is not written.
+     */
+    public void abort() {
+        if (w == null) {
+            return;
+        }
+        synchronized (vars) {
+            w.abort();
+        }
+    }
 }
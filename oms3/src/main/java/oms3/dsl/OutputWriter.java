@@ -0,0 +1,488 @@
+/*
+ * $Id$
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *  1. The origin of this software must not be misrepresented; you must not
+ *     claim that you wrote the original software. If you use this software
+ *     in a product, an acknowledgment in the product documentation would be
+ *     appreciated but is not required.
+ *
+ *  2. Altered source versions must be plainly marked as such, and must not be
+ *     misrepresented as being the original software.
+ *
+ *  3. This notice may not be removed or altered from any source
+ *     distribution.
+ */
+package oms3.dsl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import oms3.io.BinaryTable;
+import oms3.io.DataIO;
+
+/**
+ * Buffered writer of the output rows.
+ *
+ * The values of a row are staged in primitive column blocks. Full blocks
+ * are formatted and written by a background thread, while the model fills
+ * the next block. The blocks are reused in a ring; if the background
+ * thread falls behind, the model waits for a free block.
+ *
+ * The column kinds are taken from the first row. An int column that gets
+ * a double later on is widened to a double column.
+ *
+ * @version $Id$
+ */
+abstract class OutputWriter {
+
+    /** Column kinds, as the binary table column types */
+    static final int TEXT = BinaryTable.TEXT;
+    static final int DOUBLE = BinaryTable.DOUBLE;
+    static final int INT = BinaryTable.INT;
+    static final int DATE = BinaryTable.DATE;
+    //
+    private static final int RING = 4;
+
+    /** A block of rows, by column. */
+    static final class Block {
+
+        final int[] kinds;
+        // the leading rows of a widened column that were ints
+        final int[] ints;
+        final double[][] d;
+        final int[][] n;
+        final long[][] t;
+        final String[][] s;
+        int rows;
+
+        Block(int[] kinds, int size) {
+            this.kinds = kinds.clone();
+            ints = new int[kinds.length];
+            d = new double[kinds.length][];
+            n = new int[kinds.length][];
+            t = new long[kinds.length][];
+            s = new String[kinds.length][];
+            for (int i = 0; i < kinds.length; i++) {
+                switch (kinds[i]) {
+                    case DOUBLE:
+                        d[i] = new double[size];
+                        break;
+                    case INT:
+                        n[i] = new int[size];
+                        break;
+                    case DATE:
+                        t[i] = new long[size];
+                        break;
+                    default:
+                        s[i] = new String[size];
+                }
+            }
+        }
+
+        /*
+         * Turns an int column into a double column, with the staged values.
+         */
+        void widen(int column) {
+            d[column] = new double[n[column].length];
+            for (int r = 0; r < rows; r++) {
+                d[column][r] = n[column][r];
+            }
+            n[column] = null;
+            kinds[column] = DOUBLE;
+            ints[column] = rows;
+        }
+
+        void clear() {
+            rows = 0;
+            Arrays.fill(ints, 0);
+        }
+    }
+    private static final Block END = new Block(new int[0], 0);
+    //
+    final String title;
+    final int size;
+    String[] names;
+    String[] types;
+    int[] kinds;
+    boolean[] grouped;
+    //
+    private BlockingQueue<Block> free;
+    private BlockingQueue<Block> full;
+    private Block current;
+    private Thread thread;
+    private volatile Throwable error;
+    private volatile boolean aborted;
+    private boolean closed;
+
+    OutputWriter(String title, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("buffer: " + size);
+        }
+        this.title = title;
+        this.size = size;
+    }
+
+    /** Get the column kind of a value.
+     *
+     * @param o the value
+     * @return DOUBLE, INT, DATE or TEXT
+     */
+    static int kind(Object o) {
+        if (o instanceof Double) {
+            return DOUBLE;
+        } else if (o instanceof Integer) {
+            return INT;
+        } else if (o instanceof Calendar) {
+            return DATE;
+        }
+        return TEXT;
+    }
+
+    boolean isStarted() {
+        return thread != null;
+    }
+
+    /**
+     * Writes the header and starts the background thread.
+     *
+     * @param names the column names
+     * @param types the column type names
+     * @param kinds the column kinds
+     * @param grouped true for the columns that continue the array of the
+     *        previous column
+     * @throws IOException if the header cannot be written
+     */
+    void start(String[] names, String[] types, int[] kinds, boolean[] grouped) throws IOException {
+        this.names = names;
+        this.types = types;
+        this.kinds = kinds;
+        this.grouped = grouped;
+        writeHeader();
+
+        free = new ArrayBlockingQueue<Block>(RING);
+        full = new ArrayBlockingQueue<Block>(RING + 1);
+        for (int i = 0; i < RING; i++) {
+            free.add(new Block(kinds, size));
+        }
+        current = free.remove();
+        thread = new Thread("oms3 output " + title) {
+
+            @Override
+            public void run() {
+                try {
+                    for (Block b = full.take(); b != END; b = full.take()) {
+                        // after an error, only recycle the blocks.
+                        if (error == null && !aborted) {
+                            try {
+                                write(b);
+                            } catch (Throwable t) {
+                                error = t;
+                            }
+                        }
+                        b.clear();
+                        free.put(b);
+                    }
+                } catch (InterruptedException ex) {
+                    error = ex;
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void put(int column, double v) {
+        if (kinds[column] == INT) {
+            // double from now on, the blocks in use are widened when they come back.
+            kinds[column] = DOUBLE;
+            current.widen(column);
+        } else if (kinds[column] != DOUBLE) {
+            throw new IllegalArgumentException("Output type changed: " + names[column]);
+        }
+        current.d[column][current.rows] = v;
+    }
+
+    void put(int column, int v) {
+        if (kinds[column] == DOUBLE) {
+            current.d[column][current.rows] = v;
+            return;
+        }
+        if (kinds[column] != INT) {
+            throw new IllegalArgumentException("Output type changed: " + names[column]);
+        }
+        current.n[column][current.rows] = v;
+    }
+
+    void put(int column, Object o) {
+        int k = kind(o);
+        if (kinds[column] == TEXT) {
+            current.s[column][current.rows] = String.valueOf(o);
+        } else if (k == DOUBLE) {
+            put(column, ((Double) o).doubleValue());
+        } else if (k == INT) {
+            put(column, ((Integer) o).intValue());
+        } else if (k == DATE && kinds[column] == DATE) {
+            current.t[column][current.rows] = ((Calendar) o).getTimeInMillis();
+        } else {
+            throw new IllegalArgumentException("Output type changed: " + names[column]);
+        }
+    }
+
+    /** Ends the row. Hands the block over to the background thread if it is full.
+     */
+    void next() {
+        if (++current.rows == size) {
+            check();
+            try {
+                full.put(current);
+                current = free.take();
+                for (int i = 0; i < kinds.length; i++) {
+                    if (current.kinds[i] != kinds[i]) {
+                        current.widen(i);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    private void check() {
+        if (error != null) {
+            throw new RuntimeException("Output failed: " + title, error);
+        }
+    }
+
+    /** Writes the staged rows and closes the output.
+     *
+     * @throws IOException if the output failed.
+     */
+    void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (thread != null) {
+                try {
+                    if (current.rows > 0) {
+                        full.put(current);
+                    }
+                    full.put(END);
+                    thread.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(ex);
+                }
+            }
+        } finally {
+            finish(error != null);
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        check();
+    }
+
+    /** Closes the output after a failed run, without the staged rows.
+     * The background thread ends, a binary file is not written.
+     */
+    void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        aborted = true;
+        try {
+            if (thread != null) {
+                // the queue holds all the blocks and the end, this does not block.
+                full.put(END);
+                thread.join();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            finish(true);
+        } catch (IOException ex) {
+            // the run failed already.
+        }
+    }
+
+    /** Writes the header, once the columns are known. */
+    abstract void writeHeader() throws IOException;
+
+    /** Writes a block of rows, in the background thread. */
+    abstract void write(Block b) throws IOException;
+
+    /** Flushes and closes the output.
+     *
+     * @param failed true if a block could not be written
+     */
+    abstract void finish(boolean failed) throws IOException;
+
+    /**
+     * Text table output, as formatted before by the output itself.
+     */
+    static class CSV extends OutputWriter {
+
+        final PrintWriter w;
+        final boolean closeWriter;
+        final SimpleDateFormat dfmt;
+        final String fformat;
+
+        CSV(PrintWriter w, boolean closeWriter, String title, SimpleDateFormat dfmt, String fformat, int size) {
+            super(title, size);
+            this.w = w;
+            this.closeWriter = closeWriter;
+            this.dfmt = dfmt;
+            this.fformat = fformat;
+        }
+
+        @Override
+        void writeHeader() {
+            w.println("@T, \"" + title + "\"");
+            w.println(" " + DataIO.KEY_CREATED_AT + ", \"" + new Date() + "\"");
+            w.println(" " + DataIO.DATE_FORMAT + ", " + dfmt.toPattern());
+            String dig = System.getProperty("oms3.digest");
+            if (dig != null) {
+                w.println(" " + DataIO.KEY_DIGEST + "," + dig);
+            }
+            w.print("@H");
+            for (int i = 0; i < names.length; i++) {
+                w.print(grouped[i] ? "," : ", ");
+                w.print(names[i]);
+            }
+            w.println();
+            w.print(" " + DataIO.KEY_TYPE);
+            for (int i = 0; i < types.length; i++) {
+                w.print(grouped[i] ? "," : ", ");
+                w.print(types[i]);
+            }
+            w.println();
+        }
+
+        @Override
+        void write(Block b) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int r = 0; r < b.rows; r++) {
+                line.setLength(0);
+                for (int i = 0; i < b.kinds.length; i++) {
+                    line.append(grouped[i] ? "," : ", ");
+                    switch (b.kinds[i]) {
+                        case DOUBLE:
+                            if (r < b.ints[i]) {
+                                line.append((int) b.d[i][r]);
+                            } else {
+                                line.append(String.format(Locale.US, fformat, b.d[i][r]));
+                            }
+                            break;
+                        case INT:
+                            line.append(b.n[i][r]);
+                            break;
+                        case DATE:
+                            line.append(dfmt.format(new Date(b.t[i][r])));
+                            break;
+                        default:
+                            line.append(b.s[i][r]);
+                    }
+                }
+                w.println(line);
+            }
+            if (w.checkError()) {
+                throw new IOException("Cannot write output: " + title);
+            }
+        }
+
+        @Override
+        void finish(boolean failed) {
+            w.flush();
+            if (closeWriter) {
+                w.close();
+            }
+        }
+    }
+
+    /**
+     * Binary table output.
+     *
+     * @see BinaryTable
+     */
+    static class Binary extends OutputWriter {
+
+        final BinaryTable.Writer w;
+        int[] columns;
+
+        Binary(File file, String title, SimpleDateFormat dfmt, int size) {
+            super(title, size);
+            Map<String, String> info = new LinkedHashMap<String, String>();
+            info.put(DataIO.KEY_CREATED_AT, new Date().toString());
+            info.put(DataIO.DATE_FORMAT, dfmt.toPattern());
+            String dig = System.getProperty("oms3.digest");
+            if (dig != null) {
+                info.put(DataIO.KEY_DIGEST, dig);
+            }
+            w = new BinaryTable.Writer(file, title, info);
+        }
+
+        @Override
+        void writeHeader() throws IOException {
+            columns = kinds.clone();
+            for (int i = 0; i < names.length; i++) {
+                Map<String, String> info = new LinkedHashMap<String, String>();
+                info.put(DataIO.KEY_TYPE, types[i]);
+                w.addColumn(names[i], kinds[i], info);
+            }
+        }
+
+        @Override
+        void write(Block b) throws IOException {
+            for (int i = 0; i < b.kinds.length; i++) {
+                if (b.kinds[i] != columns[i]) {
+                    w.widen(i + 1);
+                    columns[i] = DOUBLE;
+                }
+                switch (b.kinds[i]) {
+                    case DOUBLE:
+                        w.writeDoubles(i + 1, b.d[i], b.rows);
+                        break;
+                    case INT:
+                        w.writeInts(i + 1, b.n[i], b.rows);
+                        break;
+                    case DATE:
+                        w.writeTimes(i + 1, b.t[i], b.rows);
+                        break;
+                    default:
+                        w.writeTexts(i + 1, b.s[i], b.rows);
+                }
+            }
+        }
+
+        @Override
+        void finish(boolean failed) throws IOException {
+            if (failed) {
+                w.discard();
+            } else {
+                w.close();
+            }
+        }
+    }
+}
@@ -206,42 +206,52 @@ public class Sim extends AbstractSimulation {
         for (Summary e : sum) {
             e.setup(comp);
         }
-        for (Output e : out) {
-            e.setup(comp, lastFolder, getName());
-        }
+        boolean done = false;
+        try {
+            for (Output e : out) {
+                e.setup(comp, lastFolder, getName());
+            }
 
-        // execute phases and be done.
-        if (log.isLoggable(Level.INFO)) {
-            log.info("Exec ...");
-        }
-        long t2 = System.currentTimeMillis();
-        ComponentAccess.callAnnotated(comp, Execute.class, false);
-        long t3 = System.currentTimeMillis();
+            // execute phases and be done.
+            if (log.isLoggable(Level.INFO)) {
+                log.info("Exec ...");
+            }
+            long t2 = System.currentTimeMillis();
+            ComponentAccess.callAnnotated(comp, Execute.class, false);
+            long t3 = System.currentTimeMillis();
 
 
-        if (log.isLoggable(Level.INFO)) {
-            log.info("Finalize ...");
-        }
-        ComponentAccess.callAnnotated(comp, Finalize.class, true);
+            if (log.isLoggable(Level.INFO)) {
+                log.info("Finalize ...");
+            }
+            ComponentAccess.callAnnotated(comp, Finalize.class, true);
 
-        if (comp instanceof Compound) {
-            Compound c = (Compound) comp;
-            c.shutdown();
-        }
+            if (comp instanceof Compound) {
+                Compound c = (Compound) comp;
+                c.shutdown();
+            }
         
         
-        for (Efficiency e : eff) {
-            e.printEff(lastFolder);
-        }
-        for (Summary e : sum) {
-            e.printSum(lastFolder);
-        }
-        for (Output e : out) {
-            e.done();
-        }
+            for (Efficiency e : eff) {
+                e.printEff(lastFolder);
+            }
+            for (Summary e : sum) {
+                e.printSum(lastFolder);
+            }
+            for (Output e : out) {
+                e.done();
+            }
+            done = true;
 
-        if (log.isLoggable(Level.INFO)) {
-            log.info("Finished [" + (t3 - t2) + " ms]");
+            if (log.isLoggable(Level.INFO)) {
+                log.info("Finished [" + (t3 - t2) + " ms]");
+            }
+        } finally {
+            if (!done) {
+                for (Output e : out) {
+                    e.abort();
+                }
+            }
         }
         
         if (post != null) {
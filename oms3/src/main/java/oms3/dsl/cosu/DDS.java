@@ -12,16 +12,17 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import oms3.Notification.*;
 import ngmf.util.OutputStragegy;
 import ngmf.util.cosu.luca.ParameterData;
-import oms3.ComponentAccess;
 import oms3.Conversions;
-import oms3.annotations.Execute;
-import oms3.annotations.Finalize;
-import oms3.annotations.Initialize;
 import oms3.io.CSTable;
 import oms3.io.DataIO;
 
@@ -33,6 +34,7 @@ public class DDS extends AbstractSimulation {
 
     int samples = 2000;
     int terms = 4;
+    int threads = 1;        // concurrent model runs, each in a worker-N sub folder
     Params params = new Params();
     Date sens_start;
     Date sens_end;
@@ -57,6 +59,11 @@ public class DDS extends AbstractSimulation {
             if (terms != 4 && terms != 6) {
                 throw new IllegalArgumentException("terms 4 or 6 !");
             }
+        } else if (name.equals("threads")) {
+            threads = (Integer) value;
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads: " + threads);
+            }
         } else if (name.equals("sens_start")) {
             sens_start = Conversions.convert(value, Date.class);
         } else if (name.equals("sens_end")) {
@@ -79,15 +86,30 @@ public class DDS extends AbstractSimulation {
 
         ObjFunc.adjustWeights(ofs);
 
-        run(getModel(), getOut(), lastFolder, getName());
-
+        ExecutorService executor = null;
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads);
+        }
+        try {
+            run(getModel(), getOut(), lastFolder, getName(), executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
         return null;
     }
 
     /// DDS
-    void run(Model model, List<Output> out, File folder, String name) throws Exception {
+    /* Returns the first order and the total sensitivity indexes. */
+    double[][] run(Model model, List<Output> out, File folder, String name, ExecutorService executor) throws Exception {
 
         List<Param> pList = params.getParam();
+        Map<String, Object> parameter = model.getParameter();
+        ModelPool pool = null;
+        if (executor != null) {
+            pool = new ModelPool(model, parameter, out, folder, name, threads, false);
+        }
 
         int npar = params.getCount();   // number of parameters
         int N = samples;    	        // number of samples
@@ -144,8 +166,16 @@ public class DDS extends AbstractSimulation {
                     Param par = pList.get(i);
                     x[j][i] = p * (par.getUpper() - par.getLower()) + par.getLower();
                 }
-                y[j] = run_model(model, out, folder, name, x[j]);
-                System.out.println("par:" + h + " N:" + j + " of:" + y[j]);
+                if (pool == null) {
+                    y[j] = run_model(model, out, folder, name, parameter, x[j]);
+                    System.out.println("par:" + h + " N:" + j + " of:" + y[j]);
+                }
+            }
+            if (pool != null) {
+                run_model(pool, executor, folder, parameter, x, y);
+                for (int j = 0; j < N; j++) {
+                    System.out.println("par:" + h + " N:" + j + " of:" + y[j]);
+                }
             }
             // Compute total variance
             V[h] = 0;
@@ -203,57 +233,52 @@ public class DDS extends AbstractSimulation {
         }
         b.append('\n');
         System.out.println(b.toString());
+        return new double[][]{S_par, Sex_par};
     }
 
-    private double run_model(Model model, List<Output> out, File folder, String simName, double[] x) throws Exception {
-
-        Map<String, Object> parameter = model.getParameter();
-        Object comp = model.getComponent();
-
-        // spatial params
-        ParameterData[] pd = Step.create(params, parameter);
-        for (int i = 0; i < pd.length; i++) {
-            pd[i].generateValues(x[i]);
-        }
-
-        for (int i = 0; i < pd.length; i++) {
-            String name = pd[i].getName();
-            double[] val = pd[i].getDataValue();
-            parameter.put(name, toValue(name, val, parameter));
-        }
-
-        ComponentAccess.callAnnotated(comp, Initialize.class, true);
+    private double run_model(Model model, List<Output> out, File folder, String simName, Map<String, Object> parameter, double[] x) throws Exception {
+        Map<String, Object> p = DataIO.properties(parameter);
+        ModelPool.put(create(parameter, x), p, false);
+        ModelPool.run(model, p, folder, out, simName);
+        return ObjFunc.calculateObjectiveFunctionValue(ofs, sens_start, sens_end, folder);
+    }
 
-        // setting the input data;
-        boolean success = ComponentAccess.setInputData(parameter, comp, log);
-        if (!success) {
-            throw new RuntimeException("There are Parameter problems. Simulation exits.");
-        }
+    /* Runs all the realizations on the model pool, the runs are independent. */
+    private void run_model(final ModelPool pool, ExecutorService executor, final File folder, Map<String, Object> parameter,
+            double[][] x, double[] y) throws Exception {
+        List<Future<Double>> results = new ArrayList<Future<Double>>();
+        for (int j = 0; j < x.length; j++) {
+            final ParameterData[] pd = create(parameter, x[j]);
+            results.add(executor.submit(new Callable<Double>() {
 
-        ComponentAccess.adjustOutputPath(folder, comp, log);
-        for (Output e : out) {
-            e.setup(comp, folder, simName);
+                @Override
+                public Double call() throws Exception {
+                    return pool.evaluate(pd, ofs, sens_start, sens_end, folder);
+                }
+            }));
         }
-        // execute phases and be done.
-        log.config("Exec ...");
-        ComponentAccess.callAnnotated(comp, Execute.class, false);
-        log.config("Finalize ...");
-        ComponentAccess.callAnnotated(comp, Finalize.class, true);
-
-        for (Output e : out) {
-            e.done();
+        try {
+            for (int j = 0; j < y.length; j++) {
+                y[j] = results.get(j).get();
+            }
+        } catch (ExecutionException E) {
+            for (Future<Double> f : results) {
+                f.cancel(true);
+            }
+            Throwable cause = E.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw E;
         }
-
-        return ObjFunc.calculateObjectiveFunctionValue(ofs, sens_start, sens_end, folder);
     }
 
-    private Object toValue(String name, double[] vals, Map<String, Object> parameter) {
-        Object orig = parameter.get(name);
-        if (orig.toString().indexOf('{') > -1) {
-            // this is an array (hopefully 1dim)
-            return Conversions.convert(vals, String.class);
-        } else {
-            return Double.toString(vals[0]);
+    // spatial params
+    private ParameterData[] create(Map<String, Object> parameter, double[] x) {
+        ParameterData[] pd = Step.create(params, parameter);
+        for (int i = 0; i < pd.length; i++) {
+            pd[i].generateValues(x[i]);
         }
+        return pd;
     }
 }
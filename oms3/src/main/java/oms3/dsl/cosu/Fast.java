@@ -227,17 +227,27 @@ public class Fast extends AbstractSimulation {
         }
 
         ComponentAccess.adjustOutputPath(folder, comp, log);
-        for (Output e : out) {
-            e.setup(comp, folder, simName);
-        }
-        // execute phases and be done.
-        log.config("Exec ...");
-        ComponentAccess.callAnnotated(comp, Execute.class, false);
-        log.config("Finalize ...");
-        ComponentAccess.callAnnotated(comp, Finalize.class, true);
-
-        for (Output e : out) {
-            e.done();
+        boolean done = false;
+        try {
+            for (Output e : out) {
+                e.setup(comp, folder, simName);
+            }
+            // execute phases and be done.
+            log.config("Exec ...");
+            ComponentAccess.callAnnotated(comp, Execute.class, false);
+            log.config("Finalize ...");
+            ComponentAccess.callAnnotated(comp, Finalize.class, true);
+
+            for (Output e : out) {
+                e.done();
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                for (Output e : out) {
+                    e.abort();
+                }
+            }
         }
         
         return ObjFunc.calculateObjectiveFunctionValue(ofs, sens_start, sens_end, folder);
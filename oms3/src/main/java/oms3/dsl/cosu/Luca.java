@@ -9,19 +9,16 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import ngmf.util.OutputStragegy;
-import ngmf.util.cosu.luca.ExecutionHandle;
+import ngmf.util.cosu.luca.ParallelExecutionHandle;
 import ngmf.util.cosu.luca.ParameterData;
 import ngmf.util.cosu.luca.SCE;
-import oms3.ComponentAccess;
 import oms3.ComponentException;
 import oms3.Compound;
 import oms3.Conversions;
-import oms3.annotations.Execute;
-import oms3.annotations.Finalize;
-import oms3.annotations.Initialize;
 import oms3.dsl.cosu.Step.Data;
 import oms3.io.DataIO;
 import ngmf.util.cosu.luca.ParameterData;
@@ -35,6 +32,8 @@ public class Luca extends AbstractSimulation {
     //
     Date calib_start;           // Calibration start date
     int rounds = 1;             // number of rounds
+    int threads = 1;            // number of concurrent model runs
+    Long seed;                  // random seed, for repeatable runs
 
     @Override
     public Buildable create(Object name, Object value) {
@@ -47,6 +46,13 @@ public class Luca extends AbstractSimulation {
             if (rounds < 1) {
                 throw new ComponentException("Illegal 'rounds': " + rounds);
             }
+        } else if (name.equals("threads")) {
+            threads = (Integer) value;
+            if (threads < 1) {
+                throw new ComponentException("Illegal 'threads': " + threads);
+            }
+        } else if (name.equals("seed")) {
+            seed = Conversions.convert(value, Long.class);
         } else if (name.equals("calibration_start")) {
             calib_start = Conversions.convert(value, Date.class);
         } else {
@@ -77,13 +83,16 @@ public class Luca extends AbstractSimulation {
             step.init(exec, calib_start, endTime, rounds);
         }
 
+        Random random = (seed == null) ? new Random() : new Random(seed);
         for (int r = 0; r < rounds; r++) {
             for (int s = 0; s < steps.size(); s++) {
                 Step step = steps.get(s);
                 Data stepData = step.round()[r];
                 System.out.println("\n\n>>>>>>>>>>>>>>  Round [" + (r + 1) + "]  Step [" + step.getName() + "] <<<<<<<<<<<<<<");
                 SCE sce = new SCE(exec, step, stepData);
+                sce.setRandom(random);
                 sce.run();
+                exec.runBest();
                 exec.writeParameterCopy(step, r);
                 step.post(r, stepData);
                 Runtime.getRuntime().gc();
@@ -93,10 +102,11 @@ public class Luca extends AbstractSimulation {
         return null;
     }
 
-    class ModelExecution implements ExecutionHandle {
+    class ModelExecution implements ParallelExecutionHandle {
 
         File lastFolder;
         Map<String, Object> parameter;
+        ModelPool pool;
 
         public ModelExecution() throws IOException {
             OutputStragegy st = getOutput().getOutputStrategy(getName());
@@ -108,6 +118,9 @@ public class Luca extends AbstractSimulation {
 
             parameter = getModel().getParameter();
             Logger.getLogger("oms3.model").setLevel(Level.WARNING);
+            if (threads > 1) {
+                pool = new ModelPool(getModel(), parameter, getOut(), lastFolder, getName(), threads, true);
+            }
         }
 
         Map<String, Object> getParameter() {
@@ -116,66 +129,38 @@ public class Luca extends AbstractSimulation {
 
         @Override
         public void execute(Step.Data step) throws Exception {
-
-            // Path
-            String libPath = getModel().getLibpath();
-            if (libPath != null) {
-                System.setProperty("jna.library.path", libPath);
-                if (log.isLoggable(Level.CONFIG)) {
-                    log.config("Setting jna.library.path to " + libPath);
-                }
-            }
-
-            Object comp = getModel().getComponent();
-
             writeParameterFile(step);
-            log.config("Init ...");
-            ComponentAccess.callAnnotated(comp, Initialize.class, true);
-
-            // setting the input data;
-            boolean success = ComponentAccess.setInputData(parameter, comp, log);
-            if (!success) {
-                throw new RuntimeException("There are Parameter problems. Simulation exits.");
-            }
+            ModelPool.run(getModel(), parameter, lastFolder, getOut(), getName());
+        }
 
-            boolean adjusted = ComponentAccess.adjustOutputPath(lastFolder, comp, log);
+        @Override
+        public void writeParameterFile(Step.Data step) {
+            ModelPool.put(step.paramData, parameter, true);
+        }
 
-            for (Output e : getOut()) {
-                e.setup(comp, lastFolder, getName());
-            }
-            // execute phases and be done.
-            log.config("Exec ...");
-            ComponentAccess.callAnnotated(comp, Execute.class, false);
-            log.config("Finalize ...");
-            ComponentAccess.callAnnotated(comp, Finalize.class, true);
-
-            for (Output e : getOut()) {
-                e.done();
+        /* The pool runs write into the worker folders, so the best parameter
+         * set is run once more to leave its outputs in the output folder. */
+        void runBest() throws Exception {
+            if (pool != null) {
+                ModelPool.run(getModel(), parameter, lastFolder, getOut(), getName());
             }
         }
 
         @Override
-        public void writeParameterFile(Step.Data step) {
-            ParameterData[] paramData = step.paramData;
-            for (int i = 0; i < paramData.length; i++) {
-                String name = paramData[i].getName();
-                int calibType = paramData[i].getCalibrationType();
-               // System.out.println("****** " + name + " is ctype " + calibType);
-                double[] val = paramData[i].getDataValue();
-                if (calibType == ParameterData.BINARY) {
-                  int [] ival = new int[val.length];
-                  
-                    for (int j=0; j< val.length; j++) {
-                        ival[j] = (int) val[j];
-                    }
-                    parameter.put(name, toValueI(name,ival));
-                }
-                else {      
-                    parameter.put(name, toValue(name, val));
-                }
+        public int getPoolSize() {
+            return pool == null ? 1 : pool.size();
+        }
+
+        @Override
+        public double evaluate(Step step, Step.Data stepData, double[] paramValues) throws Exception {
+            if (pool == null) {
+                stepData.setParamValues(paramValues);
+                execute(stepData);
+                return step.calculateObjectiveFunctionValue(this);
             }
+            return pool.evaluate(stepData.createParameterData(paramValues), step.ofs,
+                    step.calibStart, step.calibEnd, step.outFolder);
         }
-        
 
         public void writeParameterCopy(Step step, int round) throws FileNotFoundException {
             File params = new File(lastFolder, "round-" + (round + 1) + "_step-" + step.getName() + ".csv");
@@ -184,26 +169,5 @@ public class Luca extends AbstractSimulation {
             DataIO.print(parameter, "Parameter", pw);
             pw.close();
         }
-
-        private Object toValue(String name, double[] vals) {
-            Object orig = parameter.get(name);
-            if (orig.toString().indexOf('{') > -1) {
-                // this is an array (hopefully 1dim)
-                return Conversions.convert(vals, String.class);
-            } else {
-                return Double.toString(vals[0]);
-            }
-        }
-        
-        private Object toValueI(String name, int[] vals) {
-            Object orig = parameter.get(name);
-            if (orig.toString().indexOf('{') > -1) {
-                // this is an array (hopefully 1dim)
-                return Conversions.convert(vals, String.class);
-            } else {
-                return Integer.toString(vals[0]);
-            }
-        }
-        
     }
 }
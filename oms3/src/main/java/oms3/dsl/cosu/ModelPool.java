@@ -0,0 +1,247 @@
+/*
+ * $Id$
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *  1. The origin of this software must not be misrepresented; you must not
+ *     claim that you wrote the original software. If you use this software
+ *     in a product, an acknowledgment in the product documentation would be
+ *     appreciated but is not required.
+ *
+ *  2. Altered source versions must be plainly marked as such, and must not be
+ *     misrepresented as being the original software.
+ *
+ *  3. This notice may not be removed or altered from any source
+ *     distribution.
+ */
+package oms3.dsl.cosu;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import ngmf.util.cosu.luca.ParameterData;
+import oms3.ComponentAccess;
+import oms3.Conversions;
+import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
+import oms3.annotations.Initialize;
+import oms3.dsl.Model;
+import oms3.dsl.Output;
+import oms3.io.DataIO;
+
+/**
+ * Model runs for the calibration and sensitivity analysis.
+ *
+ * A pool evaluates parameter sets concurrently. Every slot of the pool
+ * has its own output folder and its own copies of the outputs. The
+ * parameter values are put into a copy of the model parameter and
+ * passed to a new model instance through
+ * {@link ComponentAccess#setInputData}; the model class and the
+ * parameter are loaded only once for all the runs.
+ *
+ * The runs write into the slot folders, the output folder itself gets
+ * no model output from the pool.
+ *
+ * @version $Id$
+ */
+class ModelPool {
+
+    private static final Logger log = Logger.getLogger("oms3.sim");
+
+    /** A model run folder with its outputs. */
+    private static class Slot {
+
+        final File folder;
+        final List<Output> out;
+
+        Slot(File folder, List<Output> out) {
+            this.folder = folder;
+            this.out = out;
+        }
+    }
+    private final Model model;
+    private final Map<String, Object> parameter;
+    private final String simName;
+    private final BlockingQueue<Slot> slots;
+    private final int size;
+    private final boolean binary;
+
+    /**
+     * Creates a pool.
+     *
+     * @param model the model
+     * @param parameter the model parameter, copied for every run.
+     * @param out the outputs, copied for every slot.
+     * @param folder the output folder, the slots are sub folders.
+     * @param simName the simulation name
+     * @param size the number of concurrent runs.
+     * @param binary true to set BINARY parameters as integers, see {@link #put}.
+     */
+    ModelPool(Model model, Map<String, Object> parameter, List<Output> out, File folder, String simName, int size,
+            boolean binary) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        this.model = model;
+        this.parameter = parameter;
+        this.simName = simName;
+        this.size = size;
+        this.binary = binary;
+        slots = new ArrayBlockingQueue<Slot>(size);
+        for (int i = 0; i < size; i++) {
+            File f = new File(folder, "worker-" + (i + 1));
+            f.mkdirs();
+            List<Output> o = new ArrayList<Output>();
+            for (Output e : out) {
+                o.add(e.copy());
+            }
+            slots.add(new Slot(f, o));
+        }
+    }
+
+    /**
+     * Get the number of concurrent runs.
+     * @return the pool size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Runs the model with a parameter set and calculates the objective
+     * function value. This method is thread safe, it waits for a free slot.
+     *
+     * @param paramData the parameter set, not modified.
+     * @param ofs the objective functions
+     * @param start the start date
+     * @param end the end date
+     * @param folder the folder the observed files are relative to
+     * @return the objective function value
+     * @throws Exception if the model fails
+     */
+    double evaluate(ParameterData[] paramData, List<ObjFunc> ofs, Date start, Date end, File folder) throws Exception {
+        Map<String, Object> p = DataIO.properties(parameter);
+        put(paramData, p, binary);
+        Slot slot = slots.take();
+        try {
+            run(model, p, slot.folder, slot.out, simName);
+            return ObjFunc.calculateObjectiveFunctionValue(ofs, start, end, folder, slot.folder);
+        } finally {
+            slots.put(slot);
+        }
+    }
+
+    /**
+     * Runs the model once, from initialize to finalize.
+     *
+     * @param model the model
+     * @param parameter the parameter
+     * @param folder the output folder
+     * @param out the outputs
+     * @param simName the simulation name
+     * @throws Exception if the model fails
+     */
+    static void run(Model model, Map<String, Object> parameter, File folder, List<Output> out, String simName) throws Exception {
+        // Path
+        String libPath = model.getLibpath();
+        if (libPath != null) {
+            System.setProperty("jna.library.path", libPath);
+            if (log.isLoggable(Level.CONFIG)) {
+                log.config("Setting jna.library.path to " + libPath);
+            }
+        }
+
+        Object comp = model.getComponent();
+
+        log.config("Init ...");
+        ComponentAccess.callAnnotated(comp, Initialize.class, true);
+
+        // setting the input data;
+        boolean success = ComponentAccess.setInputData(parameter, comp, log);
+        if (!success) {
+            throw new RuntimeException("There are Parameter problems. Simulation exits.");
+        }
+
+        ComponentAccess.adjustOutputPath(folder, comp, log);
+
+        boolean done = false;
+        try {
+            for (Output e : out) {
+                e.setup(comp, folder, simName);
+            }
+            // execute phases and be done.
+            log.config("Exec ...");
+            ComponentAccess.callAnnotated(comp, Execute.class, false);
+            log.config("Finalize ...");
+            ComponentAccess.callAnnotated(comp, Finalize.class, true);
+
+            for (Output e : out) {
+                e.done();
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                for (Output e : out) {
+                    e.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts the values of a parameter set into the model parameter.
+     *
+     * @param paramData the parameter set
+     * @param parameter the model parameter
+     * @param binary true to set the values of BINARY parameters as integers,
+     * false to set all the values as doubles.
+     */
+    static void put(ParameterData[] paramData, Map<String, Object> parameter, boolean binary) {
+        for (int i = 0; i < paramData.length; i++) {
+            String name = paramData[i].getName();
+            int calibType = paramData[i].getCalibrationType();
+            double[] val = paramData[i].getDataValue();
+            if (binary && calibType == ParameterData.BINARY) {
+                int[] ival = new int[val.length];
+                for (int j = 0; j < val.length; j++) {
+                    ival[j] = (int) val[j];
+                }
+                parameter.put(name, toValueI(name, ival, parameter));
+            } else {
+                parameter.put(name, toValue(name, val, parameter));
+            }
+        }
+    }
+
+    private static Object toValue(String name, double[] vals, Map<String, Object> parameter) {
+        Object orig = parameter.get(name);
+        if (orig.toString().indexOf('{') > -1) {
+            // this is an array (hopefully 1dim)
+            return Conversions.convert(vals, String.class);
+        } else {
+            return Double.toString(vals[0]);
+        }
+    }
+
+    private static Object toValueI(String name, int[] vals, Map<String, Object> parameter) {
+        Object orig = parameter.get(name);
+        if (orig.toString().indexOf('{') > -1) {
+            // this is an array (hopefully 1dim)
+            return Conversions.convert(vals, String.class);
+        } else {
+            return Integer.toString(vals[0]);
+        }
+    }
+}
@@ -141,6 +141,21 @@ public class ObjFunc implements Buildable {
     }
 
     public static double calculateObjectiveFunctionValue(List<ObjFunc> ofs, Date start, Date end, File folder) {
+        return calculateObjectiveFunctionValue(ofs, start, end, folder, folder);
+    }
+
+    /**
+     * Calculates the objective function value of a model run that wrote its
+     * output into its own folder.
+     *
+     * @param ofs the objective functions
+     * @param start the start date
+     * @param end the end date
+     * @param folder the folder the observed files are relative to
+     * @param simFolder the folder the simulated files are relative to
+     * @return the weighted objective function value
+     */
+    public static double calculateObjectiveFunctionValue(List<ObjFunc> ofs, Date start, Date end, File folder, File simFolder) {
         try {
             if (ofs.isEmpty()) {
                 throw new IllegalArgumentException("No Objective function(s) defined. ");
@@ -168,7 +183,7 @@ public class ObjFunc implements Buildable {
                 double[] obsval = DataIO.getColumnDoubleValuesInterval(start, end, tobs, obs.getColumn(), timeStep);
                 
                 CSVColumn sim = of.getSimulated();
-                CSTable tsim = DataIO.table(resolve(sim.getFile(), folder), sim.getTable());
+                CSTable tsim = DataIO.table(resolve(sim.getFile(), simFolder), sim.getTable());
                 double[] simval = DataIO.getColumnDoubleValuesInterval(start, end, tsim, sim.getColumn(), timeStep);
 
                 weight += of.getWeight();
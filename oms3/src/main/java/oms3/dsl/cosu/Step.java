@@ -205,6 +205,21 @@ public class Step implements Buildable {
 
         public void setParamValues(double[] paramValues) {
             this.paramValues = paramValues;
+            generateValues(paramData, paramValues);
+        }
+
+        /* A copy of the parameter data with the values of a parameter set,
+         * the parameter data of this step is not modified. */
+        ParameterData[] createParameterData(double[] paramValues) {
+            ParameterData[] pd = new ParameterData[paramData.length];
+            for (int i = 0; i < pd.length; i++) {
+                pd[i] = paramData[i].copy();
+            }
+            generateValues(pd, paramValues);
+            return pd;
+        }
+
+        private static void generateValues(ParameterData[] paramData, double[] paramValues) {
             int index = 0;
             for (int i = 0; i < paramData.length; i++) {
                 double[] data = new double[paramData[i].getCalibrationDataSize()];
@@ -291,6 +306,7 @@ public class Step implements Buildable {
         this.calibStart = calibStart;
         this.calibEnd = calibEnd;
         this.outFolder = model.lastFolder;
+        ObjFunc.adjustWeights(ofs);
 
         r = new Data[rounds];
         ParameterData[] p = create(params(), model.getParameter());
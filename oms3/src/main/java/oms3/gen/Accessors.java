@@ -0,0 +1,400 @@
+/*
+ * $Id$
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *  1. The origin of this software must not be misrepresented; you must not
+ *     claim that you wrote the original software. If you use this software
+ *     in a product, an acknowledgment in the product documentation would be
+ *     appreciated but is not required.
+ *
+ *  2. Altered source versions must be plainly marked as such, and must not be
+ *     misrepresented as being the original software.
+ *
+ *  3. This notice may not be removed or altered from any source
+ *     distribution.
+ */
+package oms3.gen;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/** Runtime accessor generator.
+ *
+ * Creates {@link Access} and {@link MethodInvoker} implementations from
+ * method handles. The handles are created once per field and method of a
+ * component class and are shared by all the component instances.
+ *
+ * double, int and boolean fields get the {@link doubleAccess}, {@link intAccess}
+ * and {@link booleanAccess} specializations, which move values without boxing.
+ * All the other fields get an {@link ObjectAccess}.
+ *
+ * @version $Id$
+ */
+public final class Accessors {
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private static final ConcurrentMap<Field, MethodHandle[]> fields = new ConcurrentHashMap<Field, MethodHandle[]>();
+    private static final ConcurrentMap<Method, MethodHandle> methods = new ConcurrentHashMap<Method, MethodHandle>();
+
+    private Accessors() {
+    }
+
+    /** Creates an invoker of a no argument method.
+     *
+     * Exceptions thrown by the method are wrapped into an
+     * {@link InvocationTargetException}, as with reflection.
+     *
+     * @param target the object to invoke the method on
+     * @param method the method
+     * @return the invoker
+     */
+    public static MethodInvoker invoker(Object target, Method method) {
+        MethodHandle h = methods.get(method);
+        if (h == null) {
+            h = handle(method);
+            MethodHandle old = methods.putIfAbsent(method, h);
+            if (old != null) {
+                h = old;
+            }
+        }
+        HandleInvoker i = new HandleInvoker(h);
+        i.setTarget(target);
+        return i;
+    }
+
+    /** Creates an accessor of a field.
+     *
+     * @param target the object holding the field
+     * @param field the field
+     * @return the accessor, a {@link FieldAccessor} implementing the typed
+     *         access interface of the field type.
+     */
+    public static FieldAccessor field(Object target, Field field) {
+        MethodHandle[] h = fields.get(field);
+        if (h == null) {
+            h = handles(field);
+            MethodHandle[] old = fields.putIfAbsent(field, h);
+            if (old != null) {
+                h = old;
+            }
+        }
+        Class<?> type = field.getType();
+        FieldAccessor a;
+        if (type == double.class) {
+            a = new DoubleField(field, h[0], h[1]);
+        } else if (type == int.class) {
+            a = new IntField(field, h[0], h[1]);
+        } else if (type == boolean.class) {
+            a = new BooleanField(field, h[0], h[1]);
+        } else {
+            a = new ObjectField(field, h[0], h[1]);
+        }
+        a.setTarget(target);
+        return a;
+    }
+
+    private static MethodHandle handle(Method method) {
+        try {
+            method.setAccessible(true);
+            return lookup.unreflect(method).asType(MethodType.methodType(void.class, Object.class));
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException("Cannot access method: " + method, ex);
+        }
+    }
+
+    /*
+     * The getter and setter, with an Object receiver and the exact field type.
+     */
+    private static MethodHandle[] handles(Field field) {
+        Class<?> type = field.getType();
+        if (!type.isPrimitive()) {
+            type = Object.class;
+        }
+        try {
+            field.setAccessible(true);
+            MethodHandle getter = lookup.unreflectGetter(field).asType(MethodType.methodType(type, Object.class));
+            MethodHandle setter = lookup.unreflectSetter(field).asType(
+                    MethodType.methodType(void.class, Object.class, type));
+            return new MethodHandle[]{getter, setter};
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException("Cannot access field: " + field, ex);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new RuntimeException(t);
+    }
+
+    private static final class HandleInvoker implements MethodInvoker {
+
+        final MethodHandle h;
+        Object target;
+
+        HandleInvoker(MethodHandle h) {
+            this.h = h;
+        }
+
+        @Override
+        public void invoke() throws Exception {
+            try {
+                h.invokeExact(target);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        @Override
+        public void setTarget(Object target) {
+            this.target = target;
+        }
+    }
+
+    /** A field accessor.
+     *
+     * Besides the typed get() of its access interface, every accessor can
+     * set its field from an object, unboxing it for primitive fields.
+     */
+    public static abstract class FieldAccessor implements Access {
+
+        final Field field;
+        final MethodHandle getter;
+        final MethodHandle setter;
+        Object t;
+
+        FieldAccessor(Field field, MethodHandle getter, MethodHandle setter) {
+            this.field = field;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        /*
+         * Reflective set, for the values that need a widening conversion or are not valid.
+         */
+        final void setReflective(Object o) {
+            try {
+                field.set(t, o);
+            } catch (IllegalAccessException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        @Override
+        public final void setTarget(Object t) {
+            this.t = t;
+        }
+
+        /** Sets the field.
+         *
+         * @param o the new value, a wrapper for primitive fields.
+         */
+        public abstract void set(Object o);
+    }
+
+    public static final class DoubleField extends FieldAccessor implements doubleAccess {
+
+        DoubleField(Field field, MethodHandle getter, MethodHandle setter) {
+            super(field, getter, setter);
+        }
+
+        @Override
+        public double get() {
+            try {
+                return (double) getter.invokeExact(t);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+
+        public void set(double v) {
+            try {
+                setter.invokeExact(t, v);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+
+        @Override
+        public void set(Object o) {
+            if (o instanceof Double) {
+                set(((Double) o).doubleValue());
+            } else {
+                setReflective(o);
+            }
+        }
+
+        @Override
+        public Object toObject() {
+            return get();
+        }
+
+        @Override
+        public void pass(Access from) {
+            if (from instanceof doubleAccess) {
+                set(((doubleAccess) from).get());
+            } else {
+                set(from.toObject());
+            }
+        }
+    }
+
+    public static final class IntField extends FieldAccessor implements intAccess {
+
+        IntField(Field field, MethodHandle getter, MethodHandle setter) {
+            super(field, getter, setter);
+        }
+
+        @Override
+        public int get() {
+            try {
+                return (int) getter.invokeExact(t);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+
+        public void set(int v) {
+            try {
+                setter.invokeExact(t, v);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+
+        @Override
+        public void set(Object o) {
+            if (o instanceof Integer) {
+                set(((Integer) o).intValue());
+            } else {
+                setReflective(o);
+            }
+        }
+
+        @Override
+        public Object toObject() {
+            return get();
+        }
+
+        @Override
+        public void pass(Access from) {
+            if (from instanceof intAccess) {
+                set(((intAccess) from).get());
+            } else {
+                set(from.toObject());
+            }
+        }
+    }
+
+    public static final class BooleanField extends FieldAccessor implements booleanAccess {
+
+        BooleanField(Field field, MethodHandle getter, MethodHandle setter) {
+            super(field, getter, setter);
+        }
+
+        @Override
+        public boolean get() {
+            try {
+                return (boolean) getter.invokeExact(t);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+
+        public void set(boolean v) {
+            try {
+                setter.invokeExact(t, v);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+
+        @Override
+        public void set(Object o) {
+            if (o instanceof Boolean) {
+                set(((Boolean) o).booleanValue());
+            } else {
+                setReflective(o);
+            }
+        }
+
+        @Override
+        public Object toObject() {
+            return get();
+        }
+
+        @Override
+        public void pass(Access from) {
+            if (from instanceof booleanAccess) {
+                set(((booleanAccess) from).get());
+            } else {
+                set(from.toObject());
+            }
+        }
+    }
+
+    /*
+     * All the other fields, primitives other than double, int and boolean go through reflection.
+     */
+    public static final class ObjectField extends FieldAccessor implements ObjectAccess {
+
+        final boolean primitive;
+
+        ObjectField(Field field, MethodHandle getter, MethodHandle setter) {
+            super(field, getter, setter);
+            primitive = field.getType().isPrimitive();
+        }
+
+        @Override
+        public Object get() {
+            try {
+                if (primitive) {
+                    return field.get(t);
+                }
+                return (Object) getter.invokeExact(t);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+
+        @Override
+        public void set(Object o) {
+            if (primitive || (o != null && !field.getType().isInstance(o))) {
+                setReflective(o);
+                return;
+            }
+            try {
+                setter.invokeExact(t, o);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+
+        @Override
+        public Object toObject() {
+            return get();
+        }
+
+        @Override
+        public void pass(Access from) {
+            set(from.toObject());
+        }
+    }
+}
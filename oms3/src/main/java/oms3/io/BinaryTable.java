@@ -0,0 +1,999 @@
+/*
+ * $Id:$
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *  1. The origin of this software must not be misrepresented; you must not
+ *     claim that you wrote the original software. If you use this software
+ *     in a product, an acknowledgment in the product documentation would be
+ *     appreciated but is not required.
+ *
+ *  2. Altered source versions must be plainly marked as such, and must not be
+ *     misrepresented as being the original software.
+ *
+ *  3. This notice may not be removed or altered from any source
+ *     distribution.
+ */
+package oms3.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/** A table stored in a binary, columnar file.
+ *
+ * The columns are typed (double, int, date or text) and memory mapped,
+ * so the values are read without parsing. If the table has a date column
+ * with ascending dates, it is the time index of the table and rows are
+ * found by binary search.
+ *
+ * As a {@link CSTable} the rows are returned as strings, like in a text
+ * table: numbers are printed as by {@link Double#toString(double)} and
+ * {@link Integer#toString(int)}, dates with the date format of their
+ * column. Missing values in number columns are stored as NaN.
+ *
+ * A file is written from any other table with {@link #write(CSTable, File)},
+ * or block by block with a {@link Writer}. It is written back to text with
+ * {@link DataIO#save(CSTable, File)}.
+ *
+ * @see DataIO#binaryTable(File)
+ */
+public class BinaryTable implements CSTable {
+
+    /** Column type: strings */
+    public static final int TEXT = 0;
+    /** Column type: doubles */
+    public static final int DOUBLE = 1;
+    /** Column type: ints */
+    public static final int INT = 2;
+    /** Column type: dates, as milliseconds */
+    public static final int DATE = 3;
+    //
+    private static final int MAGIC = 0x4f4d5342;  // OMSB
+    private static final int VERSION = 1;
+    private static final int BLOCK_ROWS = 4096;
+    //
+    private final String name;
+    private final Map<Integer, Map<String, String>> info = new HashMap<Integer, Map<String, String>>();
+    private final String[] columnNames;
+    private final int[] types;
+    private final int rowCount;
+    private final int timeColumn;
+    private final ByteBuffer[] data;
+    private final ByteBuffer[] text;
+
+    /**
+     * Checks if a file is a binary table, by its magic number or else its extension.
+     *
+     * @param file the file
+     * @return true if the file should be opened as binary table
+     */
+    static boolean isBinary(File file) {
+        if (file.length() >= 12) {
+            try {
+                DataInputStream in = new DataInputStream(new FileInputStream(file));
+                try {
+                    return in.readInt() == MAGIC;
+                } finally {
+                    in.close();
+                }
+            } catch (IOException E) {
+            }
+        }
+        return file.getName().endsWith("." + DataIO.CSTABLE_BINARY_EXT);
+    }
+
+    BinaryTable(File file) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            if (f.length() < 12 || f.readInt() != MAGIC) {
+                throw new IOException("Not a binary table: " + file);
+            }
+            int version = f.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary table version " + version + ": " + file);
+            }
+            byte[] header = new byte[f.readInt()];
+            f.readFully(header);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+            name = readString(in);
+            info.put(-1, readMap(in));
+            int cols = in.readInt();
+            columnNames = new String[cols + 1];
+            columnNames[0] = "ROW";
+            types = new int[cols + 1];
+            for (int i = 1; i <= cols; i++) {
+                columnNames[i] = in.readUTF();
+                types[i] = in.readByte();
+                info.put(i, readMap(in));
+            }
+            rowCount = in.readInt();
+            timeColumn = in.readInt();
+
+            // every column is mapped on its own, the file may be larger than a buffer.
+            FileChannel ch = f.getChannel();
+            data = new ByteBuffer[cols + 1];
+            text = new ByteBuffer[cols + 1];
+            long pos = align(12 + header.length);
+            for (int i = 1; i <= cols; i++) {
+                long size = (long) rowCount * (types[i] == INT ? 4 : 8);
+                if (types[i] == TEXT) {
+                    size = (rowCount + 1L) * 4;
+                }
+                data[i] = ch.map(FileChannel.MapMode.READ_ONLY, pos, size);
+                pos = align(pos + size);
+                if (types[i] == TEXT) {
+                    size = data[i].getInt(rowCount * 4) * 2L;
+                    text[i] = ch.map(FileChannel.MapMode.READ_ONLY, pos, size);
+                    pos = align(pos + size);
+                }
+            }
+        } finally {
+            // the mappings stay valid.
+            f.close();
+        }
+    }
+
+    /** Writes a table into a binary file.
+     *
+     * The columns with the type info "Date" are date columns, the first
+     * of them is the time index if its dates are ascending. All the other
+     * columns are int, double or text columns, depending on their values.
+     * A number column with empty or missing values is a double column,
+     * the missing values are NaN.
+     *
+     * @param src the table to write
+     * @param file the binary file (overwritten, if exists)
+     * @throws IOException if the file cannot be written or a date is invalid
+     */
+    public static void write(CSTable src, File file) throws IOException {
+        write(src, -1, file);
+    }
+
+    /** Writes a table into a binary file, with a given time column.
+     *
+     * @param src the table to write
+     * @param timeColumn the date column to use as time index, even without
+     *        a date type info. Its dates are parsed with the date format of the
+     *        column or the table. -1 for the first date column.
+     * @param file the binary file (overwritten, if exists)
+     * @throws IOException if the file cannot be written or a date is invalid
+     * @see DataIO#lookupDateFormat(CSTable, int)
+     */
+    public static void write(CSTable src, int timeColumn, File file) throws IOException {
+        int cols = src.getColumnCount();
+        if (timeColumn == 0 || timeColumn > cols) {
+            throw new IllegalArgumentException("timeColumn: " + timeColumn);
+        }
+        int[] types = new int[cols + 1];
+        SimpleDateFormat[] fmt = new SimpleDateFormat[cols + 1];
+        for (int i = 1; i <= cols; i++) {
+            String type = src.getColumnInfo(i).get(DataIO.KEY_TYPE);
+            if (i == timeColumn || (type != null && type.equalsIgnoreCase(DataIO.VAL_DATE))) {
+                types[i] = DATE;
+                fmt[i] = DataIO.lookupDateFormat(src, i);
+            } else {
+                types[i] = INT;
+            }
+        }
+
+        // first pass: the number types and the row count.
+        boolean[] numbers = new boolean[cols + 1];
+        int rows = 0;
+        for (String[] row : src.rows()) {
+            for (int i = 1; i <= cols; i++) {
+                String s = i < row.length ? row[i] : null;
+                if (isMissing(s)) {
+                    if (types[i] == INT) {
+                        types[i] = DOUBLE;
+                    }
+                    continue;
+                }
+                if (types[i] == INT && !isInt(s)) {
+                    types[i] = DOUBLE;
+                }
+                if (types[i] == DOUBLE && !isDouble(s)) {
+                    types[i] = TEXT;
+                }
+                numbers[i] = true;
+            }
+            rows++;
+        }
+        for (int i = 1; i <= cols; i++) {
+            // a column with empty values only is text.
+            if (rows > 0 && !numbers[i] && types[i] != DATE) {
+                types[i] = TEXT;
+            }
+        }
+
+        Writer w = new Writer(file, src.getName(), src.getInfo());
+        boolean written = false;
+        try {
+            for (int i = 1; i <= cols; i++) {
+                w.addColumn(src.getColumnName(i), types[i], src.getColumnInfo(i));
+            }
+            if (timeColumn != -1) {
+                w.setTimeColumn(timeColumn);
+            }
+
+            // second pass: the values, in blocks of rows.
+            int block = Math.max(1, Math.min(rows, BLOCK_ROWS));
+            double[][] d = new double[cols + 1][];
+            int[][] n = new int[cols + 1][];
+            long[][] t = new long[cols + 1][];
+            String[][] s = new String[cols + 1][];
+            for (int i = 1; i <= cols; i++) {
+                switch (types[i]) {
+                    case DOUBLE:
+                        d[i] = new double[block];
+                        break;
+                    case INT:
+                        n[i] = new int[block];
+                        break;
+                    case DATE:
+                        t[i] = new long[block];
+                        break;
+                    default:
+                        s[i] = new String[block];
+                }
+            }
+            int r = 0;
+            int len = 0;
+            for (String[] row : src.rows()) {
+                if (r == rows) {
+                    throw new IOException("Table changed while writing: " + src.getName());
+                }
+                for (int i = 1; i <= cols; i++) {
+                    String v = i < row.length ? row[i] : null;
+                    switch (types[i]) {
+                        case DOUBLE:
+                            d[i][len] = isMissing(v) ? Double.NaN : Double.parseDouble(v);
+                            break;
+                        case INT:
+                            n[i][len] = Integer.parseInt(v);
+                            break;
+                        case DATE:
+                            try {
+                                t[i][len] = fmt[i].parse(v).getTime();
+                            } catch (ParseException ex) {
+                                throw new IOException("Invalid date in column '" + src.getColumnName(i) + "': " + v);
+                            } catch (NullPointerException ex) {
+                                throw new IOException("Missing date in column '" + src.getColumnName(i) + "', row " + r);
+                            }
+                            break;
+                        default:
+                            s[i][len] = (v == null) ? "" : v;
+                    }
+                }
+                r++;
+                if (++len == block) {
+                    w.write(types, d, n, t, s, len);
+                    len = 0;
+                }
+            }
+            if (r != rows) {
+                throw new IOException("Table changed while writing: " + src.getName());
+            }
+            w.write(types, d, n, t, s, len);
+            w.close();
+            written = true;
+        } finally {
+            if (!written) {
+                w.discard();
+            }
+        }
+    }
+
+    private static boolean isMissing(String s) {
+        return s == null || s.isEmpty();
+    }
+
+    private static boolean isInt(String s) {
+        try {
+            // only the ints that print back the same.
+            return Integer.toString(Integer.parseInt(s)).equals(s);
+        } catch (NumberFormatException E) {
+            return false;
+        }
+    }
+
+    private static boolean isDouble(String s) {
+        try {
+            Double.parseDouble(s);
+            return true;
+        } catch (NumberFormatException E) {
+            return false;
+        }
+    }
+
+    private static long align(long pos) {
+        return (pos + 7) & ~7L;
+    }
+
+    private static long pad(DataOutputStream w, long pos) throws IOException {
+        long aligned = align(pos);
+        for (long i = pos; i < aligned; i++) {
+            w.writeByte(0);
+        }
+        return aligned;
+    }
+
+    private static void writeString(DataOutputStream w, String s) throws IOException {
+        w.writeBoolean(s != null);
+        if (s != null) {
+            w.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeMap(DataOutputStream w, Map<String, String> m) throws IOException {
+        w.writeInt(m.size());
+        for (Map.Entry<String, String> e : m.entrySet()) {
+            w.writeUTF(e.getKey());
+            writeString(w, e.getValue());
+        }
+    }
+
+    private static Map<String, String> readMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, String> m = new LinkedHashMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            m.put(in.readUTF(), readString(in));
+        }
+        return m;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Map<String, String> getInfo() {
+        return getColumnInfo(-1);
+    }
+
+    @Override
+    public Map<String, String> getColumnInfo(int column) {
+        return Collections.unmodifiableMap(info.get(column));
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length - 1;
+    }
+
+    /** Get the number of rows.
+     * @return the row count
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /** Get the type of a column.
+     *
+     * @param column the column, starting from 1.
+     * @return one of TEXT, DOUBLE, INT or DATE
+     */
+    public int getColumnType(int column) {
+        return types[column];
+    }
+
+    /** Get the time index column.
+     *
+     * @return the date column with ascending dates, or -1 if the table has none.
+     */
+    public int getTimeColumn() {
+        return timeColumn;
+    }
+
+    /** Checks if a column holds numbers.
+     *
+     * @param column the column
+     * @return true for double and int columns
+     */
+    public boolean isNumeric(int column) {
+        return types[column] == DOUBLE || types[column] == INT;
+    }
+
+    /** Get a number.
+     *
+     * @param column a double or int column
+     * @param row the row, starting from 0
+     * @return the value
+     */
+    public double getDouble(int column, int row) {
+        switch (types[column]) {
+            case DOUBLE:
+                return data[column].getDouble(row * 8);
+            case INT:
+                return data[column].getInt(row * 4);
+            default:
+                throw new IllegalArgumentException("Not a number column: " + columnNames[column]);
+        }
+    }
+
+    /** Get the numbers of a row range.
+     *
+     * @param column a double or int column
+     * @param from the first row
+     * @param to the row after the last one
+     * @return the values
+     */
+    public double[] getDoubles(int column, int from, int to) {
+        checkRange(from, to);
+        double[] v = new double[to - from];
+        if (types[column] == DOUBLE) {
+            ByteBuffer b = data[column].duplicate();
+            b.position(from * 8);
+            b.asDoubleBuffer().get(v);
+        } else {
+            for (int i = 0; i < v.length; i++) {
+                v[i] = getDouble(column, from + i);
+            }
+        }
+        return v;
+    }
+
+    /** Get a date.
+     *
+     * @param column a date column
+     * @param row the row
+     * @return the date in milliseconds
+     */
+    public long getTime(int column, int row) {
+        if (types[column] != DATE) {
+            throw new IllegalArgumentException("Not a date column: " + columnNames[column]);
+        }
+        return data[column].getLong(row * 8);
+    }
+
+    /** Get the dates of a row range.
+     *
+     * @param column a date column
+     * @param from the first row
+     * @param to the row after the last one
+     * @return the dates in milliseconds
+     */
+    public long[] getTimes(int column, int from, int to) {
+        if (types[column] != DATE) {
+            throw new IllegalArgumentException("Not a date column: " + columnNames[column]);
+        }
+        checkRange(from, to);
+        long[] v = new long[to - from];
+        ByteBuffer b = data[column].duplicate();
+        b.position(from * 8);
+        b.asLongBuffer().get(v);
+        return v;
+    }
+
+    /** Get a value as string, as it is returned by the rows.
+     *
+     * @param column the column
+     * @param row the row
+     * @return the value
+     */
+    public String getString(int column, int row) {
+        return format(column, row, types[column] == DATE ? DataIO.lookupDateFormat(this, column) : null);
+    }
+
+    private String format(int column, int row, SimpleDateFormat fmt) {
+        switch (types[column]) {
+            case DOUBLE:
+                return Double.toString(data[column].getDouble(row * 8));
+            case INT:
+                return Integer.toString(data[column].getInt(row * 4));
+            case DATE:
+                return fmt.format(new Date(data[column].getLong(row * 8)));
+            default:
+                int start = data[column].getInt(row * 4);
+                char[] c = new char[data[column].getInt(row * 4 + 4) - start];
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = text[column].getChar((start + i) * 2);
+                }
+                return new String(c);
+        }
+    }
+
+    /** Finds the first row at or after a date, in the time index.
+     *
+     * @param date the date
+     * @return the row, or the row count if all the rows are before the date
+     */
+    public int lowerBound(Date date) {
+        return search(date.getTime(), false);
+    }
+
+    /** Finds the first row after a date, in the time index.
+     *
+     * @param date the date
+     * @return the row, or the row count if no row is after the date
+     */
+    public int upperBound(Date date) {
+        return search(date.getTime(), true);
+    }
+
+    /** Finds the first row of a date.
+     *
+     * @param date the date
+     * @return the row, or -1 if there is no row with that date.
+     */
+    public int findRow(Date date) {
+        int row = lowerBound(date);
+        return (row < rowCount && getTime(timeColumn, row) == date.getTime()) ? row : -1;
+    }
+
+    /** Get the rows within a time window.
+     *
+     * @param start the start date, included
+     * @param end the end date, included
+     * @return the first row and the row after the last one. The rows are
+     *         empty if both are equal.
+     */
+    public int[] slice(Date start, Date end) {
+        int s = lowerBound(start);
+        return new int[]{s, Math.max(s, upperBound(end))};
+    }
+
+    private int search(long time, boolean after) {
+        if (timeColumn == -1) {
+            throw new IllegalStateException("No time index in table: " + name);
+        }
+        ByteBuffer b = data[timeColumn];
+        int lo = 0;
+        int hi = rowCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long t = b.getLong(mid * 8);
+            if (t < time || (after && t == time)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || to > rowCount || from > to) {
+            throw new IndexOutOfBoundsException(from + "-" + to);
+        }
+    }
+
+    @Override
+    public Iterable<String[]> rows() {
+        return rows(0);
+    }
+
+    @Override
+    public Iterable<String[]> rows(final int skipRow) {
+        if (skipRow < 0) {
+            throw new IllegalArgumentException("skipRow<0");
+        }
+        return new Iterable<String[]>() {
+
+            @Override
+            public Iterator<String[]> iterator() {
+                final int cols = getColumnCount();
+                final SimpleDateFormat[] fmt = new SimpleDateFormat[cols + 1];
+                for (int i = 1; i <= cols; i++) {
+                    if (types[i] == DATE) {
+                        fmt[i] = DataIO.lookupDateFormat(BinaryTable.this, i);
+                    }
+                }
+                return new Iterator<String[]>() {
+
+                    int row = skipRow;
+
+                    @Override
+                    public boolean hasNext() {
+                        return row < rowCount;
+                    }
+
+                    @Override
+                    public String[] next() {
+                        if (row >= rowCount) {
+                            throw new NoSuchElementException();
+                        }
+                        // like the data rows of a text table, numbered from 1 in the first column.
+                        String[] r = new String[cols + 1];
+                        r[0] = Integer.toString(row + 1);
+                        for (int i = 1; i <= cols; i++) {
+                            r[i] = format(i, row, fmt[i]);
+                        }
+                        row++;
+                        return r;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /** Writes a binary table in blocks of rows.
+     *
+     * The columns are added first, then their values are appended block
+     * by block. Every column goes to a temporary file next to the table
+     * file, the table file itself is written on {@link #close()}, once
+     * the row count is known. All the columns must have the same number
+     * of rows by then.
+     */
+    public static class Writer implements Closeable {
+
+        private static class Column {
+
+            final String name;
+            int type;
+            final Map<String, String> info;
+            File tmp;
+            DataOutputStream out;
+            int rows;
+            // text columns: the char offsets of the strings
+            int[] offsets;
+            // date columns
+            long last = Long.MIN_VALUE;
+            boolean ascending = true;
+
+            Column(String name, int type, Map<String, String> info, File tmp) throws IOException {
+                this.name = name;
+                this.type = type;
+                this.info = new LinkedHashMap<String, String>(info);
+                this.tmp = tmp;
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+                if (type == TEXT) {
+                    offsets = new int[1024];
+                }
+            }
+        }
+        private final File file;
+        private final String name;
+        private final Map<String, String> info;
+        private final List<Column> columns = new ArrayList<Column>();
+        private int timeColumn = -1;
+        private boolean appended;
+        private boolean closed;
+
+        /** Creates a writer.
+         *
+         * @param file the binary file (overwritten, if exists)
+         * @param name the table name, may be null
+         * @param info the table info
+         */
+        public Writer(File file, String name, Map<String, String> info) {
+            this.file = file;
+            this.name = name;
+            this.info = new LinkedHashMap<String, String>(info);
+        }
+
+        /** Adds a column.
+         *
+         * @param name the column name
+         * @param type one of TEXT, DOUBLE, INT or DATE
+         * @param info the column info
+         * @return the column, starting from 1.
+         * @throws IOException if the temporary file cannot be created
+         */
+        public int addColumn(String name, int type, Map<String, String> info) throws IOException {
+            if (type < TEXT || type > DATE) {
+                throw new IllegalArgumentException("type: " + type);
+            }
+            if (appended) {
+                throw new IllegalStateException("Column added after values: " + name);
+            }
+            File tmp = File.createTempFile("csb", ".tmp", file.getAbsoluteFile().getParentFile());
+            columns.add(new Column(name, type, info, tmp));
+            return columns.size();
+        }
+
+        /** Sets the time index column. By default it is the first date
+         * column. Either way, it is only the time index if its dates are
+         * ascending.
+         *
+         * @param column a date column
+         */
+        public void setTimeColumn(int column) {
+            if (column(column).type != DATE) {
+                throw new IllegalArgumentException("Not a date column: " + column);
+            }
+            timeColumn = column;
+        }
+
+        private Column column(int column) {
+            if (column < 1 || column > columns.size()) {
+                throw new IllegalArgumentException("invalid column: " + column);
+            }
+            return columns.get(column - 1);
+        }
+
+        private Column column(int column, int type) {
+            if (closed) {
+                throw new IllegalStateException("closed");
+            }
+            Column c = column(column);
+            if (c.type != type) {
+                throw new IllegalArgumentException("Invalid type for column: " + c.name);
+            }
+            appended = true;
+            return c;
+        }
+
+        /** Appends numbers to a double column.
+         *
+         * @param column the column
+         * @param v the values
+         * @param len the number of values to append
+         * @throws IOException
+         */
+        public void writeDoubles(int column, double[] v, int len) throws IOException {
+            Column c = column(column, DOUBLE);
+            for (int i = 0; i < len; i++) {
+                c.out.writeDouble(v[i]);
+            }
+            c.rows += len;
+        }
+
+        /** Appends numbers to an int column.
+         *
+         * @param column the column
+         * @param v the values
+         * @param len the number of values to append
+         * @throws IOException
+         */
+        public void writeInts(int column, int[] v, int len) throws IOException {
+            Column c = column(column, INT);
+            for (int i = 0; i < len; i++) {
+                c.out.writeInt(v[i]);
+            }
+            c.rows += len;
+        }
+
+        /** Appends dates to a date column.
+         *
+         * @param column the column
+         * @param v the dates in milliseconds
+         * @param len the number of dates to append
+         * @throws IOException
+         */
+        public void writeTimes(int column, long[] v, int len) throws IOException {
+            Column c = column(column, DATE);
+            for (int i = 0; i < len; i++) {
+                if (v[i] < c.last) {
+                    c.ascending = false;
+                }
+                c.last = v[i];
+                c.out.writeLong(v[i]);
+            }
+            c.rows += len;
+        }
+
+        /** Turns an int column into a double column. The values appended
+         * so far are converted.
+         *
+         * @param column an int column
+         * @throws IOException if the temporary file cannot be rewritten
+         */
+        public void widen(int column) throws IOException {
+            if (closed) {
+                throw new IllegalStateException("closed");
+            }
+            Column c = column(column);
+            if (c.type != INT) {
+                throw new IllegalArgumentException("Not an int column: " + c.name);
+            }
+            c.out.close();
+            File tmp = File.createTempFile("csb", ".tmp", file.getAbsoluteFile().getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+            boolean done = false;
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(c.tmp), 65536));
+                try {
+                    for (int i = 0; i < c.rows; i++) {
+                        out.writeDouble(in.readInt());
+                    }
+                } finally {
+                    in.close();
+                }
+                done = true;
+            } finally {
+                if (!done) {
+                    out.close();
+                    tmp.delete();
+                }
+            }
+            c.tmp.delete();
+            c.tmp = tmp;
+            c.out = out;
+            c.type = DOUBLE;
+        }
+
+        /** Appends strings to a text column.
+         *
+         * @param column the column
+         * @param v the strings
+         * @param len the number of strings to append
+         * @throws IOException
+         */
+        public void writeTexts(int column, String[] v, int len) throws IOException {
+            Column c = column(column, TEXT);
+            if (c.offsets.length < c.rows + len + 1) {
+                c.offsets = Arrays.copyOf(c.offsets, Math.max(c.offsets.length * 2, c.rows + len + 1));
+            }
+            for (int i = 0; i < len; i++) {
+                int offset = c.offsets[c.rows];
+                if (offset + v[i].length() < offset) {
+                    throw new IOException("Text column too large: " + c.name);
+                }
+                c.out.writeChars(v[i]);
+                c.offsets[++c.rows] = offset + v[i].length();
+            }
+        }
+
+        /*
+         * Appends a block of rows, from arrays indexed by column.
+         */
+        void write(int[] types, double[][] d, int[][] n, long[][] t, String[][] s, int len) throws IOException {
+            for (int i = 1; i < types.length; i++) {
+                switch (types[i]) {
+                    case DOUBLE:
+                        writeDoubles(i, d[i], len);
+                        break;
+                    case INT:
+                        writeInts(i, n[i], len);
+                        break;
+                    case DATE:
+                        writeTimes(i, t[i], len);
+                        break;
+                    default:
+                        writeTexts(i, s[i], len);
+                }
+            }
+        }
+
+        /** Writes the table file.
+         *
+         * @throws IOException if the file cannot be written or the columns
+         *         have different row counts.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                int rows = columns.isEmpty() ? 0 : columns.get(0).rows;
+                for (Column c : columns) {
+                    c.out.close();
+                    if (c.rows != rows) {
+                        throw new IOException("Column '" + c.name + "' has " + c.rows + " rows, not " + rows);
+                    }
+                }
+                int time = timeColumn;
+                for (int i = 0; time == -1 && i < columns.size(); i++) {
+                    if (columns.get(i).type == DATE) {
+                        time = i + 1;
+                    }
+                }
+                // only ascending dates can be searched.
+                if (time != -1 && !columns.get(time - 1).ascending) {
+                    time = -1;
+                }
+
+                ByteArrayOutputStream b = new ByteArrayOutputStream();
+                DataOutputStream h = new DataOutputStream(b);
+                writeString(h, name);
+                writeMap(h, info);
+                h.writeInt(columns.size());
+                for (Column c : columns) {
+                    h.writeUTF(c.name);
+                    h.writeByte(c.type);
+                    writeMap(h, c.info);
+                }
+                h.writeInt(rows);
+                h.writeInt(time);
+                h.close();
+                byte[] header = b.toByteArray();
+
+                DataOutputStream w = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+                try {
+                    w.writeInt(MAGIC);
+                    w.writeInt(VERSION);
+                    w.writeInt(header.length);
+                    w.write(header);
+                    long pos = pad(w, 12 + header.length);
+                    for (Column c : columns) {
+                        if (c.type == TEXT) {
+                            // the char offsets of the strings, then the chars.
+                            for (int i = 0; i <= rows; i++) {
+                                w.writeInt(c.offsets[i]);
+                            }
+                            pos = pad(w, pos + (rows + 1L) * 4);
+                        }
+                        pos = pad(w, pos + copy(c.tmp, w));
+                    }
+                } finally {
+                    w.close();
+                }
+            } finally {
+                delete();
+            }
+        }
+
+        /** Closes the writer without writing the table file.
+         */
+        public void discard() {
+            closed = true;
+            for (Column c : columns) {
+                try {
+                    c.out.close();
+                } catch (IOException ex) {
+                    // deleted anyway
+                }
+            }
+            delete();
+        }
+
+        private void delete() {
+            for (Column c : columns) {
+                c.tmp.delete();
+            }
+        }
+
+        private static long copy(File f, DataOutputStream w) throws IOException {
+            FileInputStream in = new FileInputStream(f);
+            try {
+                byte[] buf = new byte[65536];
+                long size = 0;
+                int len;
+                while ((len = in.read(buf)) != -1) {
+                    w.write(buf, 0, len);
+                    size += len;
+                }
+                return size;
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -299,6 +299,81 @@ class CSVParser {
         return ret;
     }
 
+    /**
+     * Parses the current line into the given buffers.
+     *
+     * The first <code>text.length</code> values are kept as strings, the
+     * following ones are scanned as numbers right from the token buffer,
+     * without creating a String per value. Empty values and values equal to
+     * <code>novalueToken</code> become <code>novalue</code>, as do the
+     * numbers missing at the end of a short line.
+     *
+     * @param text the buffer for the leading string values
+     * @param values the buffer for the numeric values
+     * @param novalueToken the text of the novalue in the file, may be null
+     * @param novalue the value used for the missing values
+     * @return the number of values in the line, -1 at the end of file
+     * @throws IOException on parse error or input read-failure
+     */
+    int getLine(String[] text, double[] values, String novalueToken, double novalue) throws IOException {
+        int count = 0;
+        boolean eof = false;
+        while (true) {
+            reusableToken.reset();
+            nextToken(reusableToken);
+            switch (reusableToken.type) {
+                case TT_TOKEN:
+                case TT_EORECORD:
+                    store(reusableToken.content, count++, text, values, novalueToken, novalue);
+                    break;
+                case TT_EOF:
+                    if (reusableToken.isReady) {
+                        store(reusableToken.content, count++, text, values, novalueToken, novalue);
+                    } else {
+                        eof = true;
+                    }
+                    break;
+                case TT_INVALID:
+                default:
+                    throw new IOException("(line " + getLineNumber() + ") invalid parse sequence");
+            }
+            if (reusableToken.type != TT_TOKEN) {
+                break;
+            }
+        }
+        if (eof && count == 0) {
+            return -1;
+        }
+        for (int i = count; i < text.length; i++) {
+            text[i] = null;
+        }
+        for (int i = Math.max(0, count - text.length); i < values.length; i++) {
+            values[i] = novalue;
+        }
+        return count;
+    }
+
+    private void store(CharBuffer content, int index, String[] text, double[] values, String novalueToken,
+            double novalue) throws IOException {
+        if (index < text.length) {
+            text[index] = content.toString();
+            return;
+        }
+        index -= text.length;
+        if (index >= values.length) {
+            return;
+        }
+        if (content.length() == 0 || content.contentEquals(novalueToken)) {
+            values[index] = novalue;
+        } else {
+            try {
+                values[index] = content.toDouble();
+            } catch (NumberFormatException e) {
+                throw new IOException("(line " + getLineNumber() + ") " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Returns the current line number in the input stream.
      * 
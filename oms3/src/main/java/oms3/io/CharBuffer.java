@@ -32,6 +32,12 @@ package oms3.io;
  */
 class CharBuffer {
 
+    /** Mantissas up to this number of digits are exact in a double. */
+    private static final int MAX_FAST_DIGITS = 15;
+    /** The powers of ten that are exact in a double. */
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
     private char[] c;
     /**
      * Actually used number of characters in the array. 
@@ -212,6 +218,115 @@ class CharBuffer {
         return new String(c, 0, length);
     }
 
+    /**
+     * Checks if the buffer holds the same characters as <code>s</code>,
+     * without creating a String.
+     * @param s the String to compare with
+     * @return true if the contents are equal
+     */
+    public boolean contentEquals(final String s) {
+        if (s == null || s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (c[i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the contents of the buffer as a double.
+     *
+     * Plain decimal numbers with up to 15 significant digits and a
+     * small exponent are scanned right from the buffer, all the other
+     * cases (NaN, Infinity, hex, long mantissas) are passed on to
+     * {@link Double#parseDouble(String)}, so the result is always the same.
+     * @return the parsed value
+     * @throws NumberFormatException if the contents are not a number
+     */
+    public double toDouble() {
+        int i = 0;
+        int end = length;
+        while (i < end && Character.isWhitespace(c[i])) {
+            i++;
+        }
+        while (end > i && Character.isWhitespace(c[end - 1])) {
+            end--;
+        }
+        boolean negative = false;
+        if (i < end && (c[i] == '-' || c[i] == '+')) {
+            negative = c[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int significant = 0;
+        int scale = 0;
+        boolean dot = false;
+        for (; i < end; i++) {
+            char ch = c[i];
+            if (ch >= '0' && ch <= '9') {
+                digits++;
+                if (significant > 0 || ch != '0') {
+                    significant++;
+                    if (significant > MAX_FAST_DIGITS) {
+                        return Double.parseDouble(toString());
+                    }
+                    mantissa = mantissa * 10 + (ch - '0');
+                }
+                if (dot) {
+                    scale--;
+                }
+            } else if (ch == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return Double.parseDouble(toString());
+        }
+        if (i < end) {
+            if (c[i] != 'e' && c[i] != 'E') {
+                return Double.parseDouble(toString());
+            }
+            i++;
+            boolean negativeExp = false;
+            if (i < end && (c[i] == '-' || c[i] == '+')) {
+                negativeExp = c[i] == '-';
+                i++;
+            }
+            if (i == end) {
+                return Double.parseDouble(toString());
+            }
+            int exp = 0;
+            for (; i < end; i++) {
+                char ch = c[i];
+                if (ch < '0' || ch > '9' || exp > 10000) {
+                    return Double.parseDouble(toString());
+                }
+                exp = exp * 10 + (ch - '0');
+            }
+            scale += negativeExp ? -exp : exp;
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (scale == 0) {
+            value = mantissa;
+        } else if (scale > 0 && scale < POW10.length) {
+            // both operands are exact, so the product is correctly rounded
+            value = mantissa * POW10[scale];
+        } else if (scale < 0 && -scale < POW10.length) {
+            value = mantissa / POW10[-scale];
+        } else {
+            return Double.parseDouble(toString());
+        }
+        return negative ? -value : value;
+    }
+
     /**
      * Copies the data into a new array of at least <code>capacity</code> size.
      * @param capacity
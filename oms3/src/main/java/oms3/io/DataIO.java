@@ -74,6 +74,7 @@ public class DataIO {
     //
     public static final String CSPROPERTIES_EXT = "csp";
     public static final String CSTABLE_EXT = "cst";
+    public static final String CSTABLE_BINARY_EXT = "csb";
     //
     private static final String ROOT_ANN = "___root___";
     private static final String COMMENT = "#";
@@ -116,31 +117,15 @@ public class DataIO {
         if (col == -1) {
             throw new IllegalArgumentException("No such column: " + columnName);
         }
+        if (timeStep < DAILY || timeStep > PERIOD_MAX) {
+            throw new IllegalArgumentException("timeStep " + timeStep + "not supported.");
+        }
 
-        DateFormat fmt = lookupDateFormat(t, 1);
+        List<Date> dates = new ArrayList<Date>();
+        double[] values = getColumnDoubleValuesInterval(start, end, t, col, dates);
 
-        boolean useOrigDaily = false;
         switch (timeStep) {
             case DAILY:
-                if (useOrigDaily) {
-                    List<Double> l = new ArrayList<Double>();
-                    for (String[] row : t.rows()) {
-                        try {
-                            Date d = fmt.parse(row[1]);
-                            if ((d.equals(start) || d.after(start)) && (d.equals(end) || d.before(end))) {
-                                l.add(new Double(row[col]));
-                            }
-                        } catch (ParseException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                    }
-                    double[] arr = new double[l.size()];
-                    for (int i = 0; i < arr.length; i++) {
-                        arr[i] = l.get(i);
-                    }
-                    return arr;
-                }
-
             case ANNUAL_MEAN:
             case MONTHLY_MEAN:
             case PERIOD_MEAN: {
@@ -150,7 +135,6 @@ public class DataIO {
                 int previousYear = -1;
                 int previousDay = -1;
                 boolean previousValid = false;
-                boolean lastRow = false;
 
                 boolean useYear = (timeStep == DAILY) || (timeStep == MONTHLY_MEAN) || (timeStep == ANNUAL_MEAN);
                 boolean useMonth = (timeStep == DAILY) || (timeStep == MONTHLY_MEAN);
@@ -160,42 +144,30 @@ public class DataIO {
                 double sum = 0;
                 int count = 0;
 
-
-                for (String[] row : t.rows()) {
-                    try {
-                        Date d = fmt.parse(row[1]);
-                        if ((d.equals(start) || d.after(start)) && (d.equals(end) || d.before(end))) {
-                            int month = d.getMonth();
-                            int year = d.getYear();
-                            int day = d.getDay();
-                            double data = Double.parseDouble(row[col]);
-
-
-
-                            boolean newEntry = (previousValid && ((useYear && (year != previousYear))
-                                    || (useMonth && (month != previousMonth))
-                                    || (useDay && (day != previousDay))));
-
-
-
-                            if (newEntry) {
-                                l.add(sum / count);
-                                sum = 0;
-                                count = 0;
-                            }
-
-                            sum += data;
-                            count++;
-
-                            previousValid = true;
-                            previousDay = day;
-                            previousMonth = month;
-                            previousYear = year;
-                        }
-                    } catch (ParseException ex) {
-                        throw new RuntimeException(ex);
+                for (int i = 0; i < values.length; i++) {
+                    Date d = dates.get(i);
+                    int month = d.getMonth();
+                    int year = d.getYear();
+                    int day = d.getDay();
+                    double data = values[i];
+
+                    boolean newEntry = (previousValid && ((useYear && (year != previousYear))
+                            || (useMonth && (month != previousMonth))
+                            || (useDay && (day != previousDay))));
+
+                    if (newEntry) {
+                        l.add(sum / count);
+                        sum = 0;
+                        count = 0;
                     }
 
+                    sum += data;
+                    count++;
+
+                    previousValid = true;
+                    previousDay = day;
+                    previousMonth = month;
+                    previousYear = year;
                 }
                 l.add(sum / count); // add the final entry which wasn't yet added
                 // since it never hit a newEntry.
@@ -212,30 +184,12 @@ public class DataIO {
 
             case MEAN_MONTHLY: {
                 double[] arr = new double[12]; // 1 per month
-
                 int[] count = new int[12];
 
-                for (int i = 0; i < 12; i++) {
-                    arr[i] = 0; // initialize data to 0
-                    count[i] = 0;
-                }
-
-
-                for (String[] row : t.rows()) {
-                    try {
-                        Date d = fmt.parse(row[1]);
-                        if ((d.equals(start) || d.after(start)) && (d.equals(end) || d.before(end))) {
-                            int month = d.getMonth();
-                            double data = Double.parseDouble(row[col]);
-                            arr[month] = arr[month] + data;
-                            count[month] = count[month] + 1;
-                            if (month > 11) {
-                                throw new RuntimeException("Month > 11 = " + month);
-                            }
-                        }
-                    } catch (ParseException ex) {
-                        throw new RuntimeException(ex);
-                    }
+                for (int i = 0; i < values.length; i++) {
+                    int month = dates.get(i).getMonth();
+                    arr[month] = arr[month] + values[i];
+                    count[month] = count[month] + 1;
                 }
 
                 for (int i = 0; i < 12; i++) {
@@ -252,25 +206,16 @@ public class DataIO {
                 double max = -1;
                 boolean previousValid = false;
 
-
-                for (String[] row : t.rows()) {
-                    try {
-                        Date d = fmt.parse(row[1]);
-                        if ((d.equals(start) || d.after(start)) && (d.equals(end) || d.before(end))) {
-                            double data = Double.parseDouble(row[col]);
-                            if (!previousValid) {
-                                min = data;
-                                max = data;
-                            } else if ((timeStep == PERIOD_MIN) && (data < min)) {
-                                min = data;
-                            } else if ((timeStep == PERIOD_MAX) && (data > max)) {
-                                max = data;
-                            }
-                            previousValid = true;
-                        }
-                    } catch (ParseException ex) {
-                        throw new RuntimeException(ex);
+                for (double data : values) {
+                    if (!previousValid) {
+                        min = data;
+                        max = data;
+                    } else if ((timeStep == PERIOD_MIN) && (data < min)) {
+                        min = data;
+                    } else if ((timeStep == PERIOD_MAX) && (data > max)) {
+                        max = data;
                     }
+                    previousValid = true;
                 }
                 double[] arr = new double[1];
                 arr[0] = (timeStep == PERIOD_MIN) ? min : max;
@@ -279,30 +224,11 @@ public class DataIO {
             }
 
             case PERIOD_MEDIAN: {
-                // Put entire table into ArrayList
-                List<Double> l = new ArrayList<Double>();
-                for (String[] row : t.rows()) {
-                    try {
-                        Date d = fmt.parse(row[1]);
-                        if ((d.equals(start) || d.after(start)) && (d.equals(end) || d.before(end))) {
-                            l.add(new Double(row[col]));
-                        }
-                    } catch (ParseException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                }
-
-                //Copy to array of double
-                int lSize = l.size();
+                int lSize = values.length;
                 if (lSize == 0) {
                     throw new RuntimeException("No data in file matched the specified period " + start + " to " + end);
                 }
-                double[] arr = new double[lSize];
-                for (int i = 0; i < arr.length; i++) {
-                    arr[i] = l.get(i);
-                }
-
-                l.clear();  // Don't need l anymore so clear it.
+                double[] arr = values;  // already a copy
 
                 // Sort the Array
                 Arrays.sort(arr);
@@ -325,29 +251,15 @@ public class DataIO {
                 //break;
             }
 
-            case PERIOD_STANDARD_DEVIATION: {
-                // kmolson TODO- is it better to read the file twice, or read
-                //   it once and store the data for the 2nd pass while
-                //   computing the mean?
-
-                // Read file to get mean.
+            default: {
+                // PERIOD_STANDARD_DEVIATION
                 double sum = 0;
                 double sq_sum = 0;
-                double data = 0;
                 int count = 0;
-                for (String[] row : t.rows()) {
-                    try {
-                        Date d = fmt.parse(row[1]);
-                        if ((d.equals(start) || d.after(start)) && (d.equals(end) || d.before(end))) {
-                            data = Double.parseDouble(row[col]);
-                            sum += data;
-                            sq_sum += (data * data);
-                            count++;
-                        }
-
-                    } catch (ParseException ex) {
-                        throw new RuntimeException(ex);
-                    }
+                for (double data : values) {
+                    sum += data;
+                    sq_sum += (data * data);
+                    count++;
                 }
 
                 double mean = sum / count;
@@ -358,11 +270,44 @@ public class DataIO {
                 arr[0] = standardDeviation;
                 return arr;
             }
+        }
+    }
+
+    /*
+     * The values of a column within [start, end] and their dates, from
+     * the date column 1. Binary tables indexed by column 1 are sliced,
+     * all the others are parsed row by row.
+     */
+    private static double[] getColumnDoubleValuesInterval(Date start, Date end, CSTable t, int col, List<Date> dates) {
+        if (t instanceof BinaryTable) {
+            BinaryTable b = (BinaryTable) t;
+            if (b.getTimeColumn() == 1 && b.isNumeric(col)) {
+                int[] rows = b.slice(start, end);
+                for (long time : b.getTimes(1, rows[0], rows[1])) {
+                    dates.add(new Date(time));
+                }
+                return b.getDoubles(col, rows[0], rows[1]);
+            }
+        }
 
-            default: {
-                throw new IllegalArgumentException("timeStep " + timeStep + "not supported.");
+        DateFormat fmt = lookupDateFormat(t, 1);
+        double[] values = new double[256];
+        int n = 0;
+        for (String[] row : t.rows()) {
+            try {
+                Date d = fmt.parse(row[1]);
+                if ((d.equals(start) || d.after(start)) && (d.equals(end) || d.before(end))) {
+                    if (n == values.length) {
+                        values = Arrays.copyOf(values, n * 2);
+                    }
+                    values[n++] = Double.parseDouble(row[col]);
+                    dates.add(d);
+                }
+            } catch (ParseException ex) {
+                throw new RuntimeException(ex);
             }
         }
+        return Arrays.copyOf(values, n);
     }
 
     public static SimpleDateFormat lookupDateFormat(CSTable table, int col) {
@@ -385,6 +330,14 @@ public class DataIO {
             throw new IllegalArgumentException();
         }
 
+        if (table instanceof BinaryTable && ((BinaryTable) table).getTimeColumn() == dateColumn) {
+            int rowNo = ((BinaryTable) table).findRow(date);
+            if (rowNo == -1) {
+                throw new IllegalArgumentException(date.toString());
+            }
+            return rowNo;
+        }
+
         DateFormat fmt = lookupDateFormat(table, dateColumn);
 
         int rowNo = 0;
@@ -472,6 +425,13 @@ public class DataIO {
         if (timeCol < 0) {
             throw new IllegalArgumentException("timeCol :" + timeCol);
         }
+        if (table instanceof BinaryTable && ((BinaryTable) table).getTimeColumn() == timeCol) {
+            BinaryTable b = (BinaryTable) table;
+            int s = b.lowerBound(start);
+            int e = b.lowerBound(end);
+            int rows = b.getRowCount();
+            return new int[]{s == rows ? -1 : s, e == rows ? -1 : e};
+        }
         int s = -1;
         int e = -1;
         int i = -1;
@@ -921,6 +881,16 @@ public class DataIO {
             throw new IllegalArgumentException("No such column: " + columnName);
         }
 
+        if (t instanceof BinaryTable && ((BinaryTable) t).getColumnType(col) == BinaryTable.DATE) {
+            BinaryTable b = (BinaryTable) t;
+            long[] time = b.getTimes(col, 0, b.getRowCount());
+            Date[] d = new Date[time.length];
+            for (int i = 0; i < d.length; i++) {
+                d[i] = new Date(time[i]);
+            }
+            return d;
+        }
+
         Conversions.Params p = new Conversions.Params();
         p.add(String.class, Date.class, lookupDateFormat(t, col));
 
@@ -943,6 +913,15 @@ public class DataIO {
         if (col == -1) {
             throw new IllegalArgumentException("No such column: " + columnName);
         }
+        if (t instanceof BinaryTable && ((BinaryTable) t).isNumeric(col)) {
+            BinaryTable b = (BinaryTable) t;
+            double[] v = b.getDoubles(col, 0, b.getRowCount());
+            Double[] d = new Double[v.length];
+            for (int i = 0; i < d.length; i++) {
+                d[i] = v[i];
+            }
+            return d;
+        }
         List<Double> l = new ArrayList<Double>();
         for (String[] s : t.rows()) {
             l.add(new Double(s[col]));
@@ -1084,6 +1063,17 @@ public class DataIO {
         w.close();
     }
 
+    /** Saves a table to a binary file.
+     *
+     * @param table the table to save
+     * @param file the file to store it in (overwritten, if exists)
+     * @throws IOException
+     * @see BinaryTable#write(CSTable, File)
+     */
+    public static void saveBinary(CSTable table, File file) throws IOException {
+        BinaryTable.write(table, file);
+    }
+
     /**
      * Parse properties from a reader
      * 
@@ -1177,12 +1167,23 @@ public class DataIO {
     }
 
     /** Parse a table from a given File.
+     * 
+     * A binary table, as written by {@link #saveBinary(CSTable, File)}, is
+     * opened as {@link BinaryTable}, it holds a single table.
+     * 
      * @param file
      * @param name
      * @return a CSTable.
      * @throws java.io.IOException
      */
     public static CSTable table(File file, String name) throws IOException {
+        if (BinaryTable.isBinary(file)) {
+            BinaryTable t = new BinaryTable(file);
+            if (name != null && !Pattern.compile(name).matcher(t.getName().trim()).matches()) {
+                throw new IllegalArgumentException("Not found : " + name);
+            }
+            return t;
+        }
         return new FileTable(file, name);
     }
 
@@ -1228,6 +1229,41 @@ public class DataIO {
         return new URLTable(url, name);
     }
 
+    /** Opens a binary table.
+     *
+     * The columns of the file are memory mapped, not read.
+     *
+     * @param file the binary file, as written by {@link #saveBinary(CSTable, File)}
+     * @return the BinaryTable
+     * @throws IOException
+     */
+    public static BinaryTable binaryTable(File file) throws IOException {
+        return new BinaryTable(file);
+    }
+
+    /** Opens a numeric row iterator on a table.
+     *
+     * The values past the leading <code>textColumns</code> columns are parsed
+     * as doubles while reading, without creating a String per value.
+     * 
+     * @param table the table, as returned by the table methods of this class
+     * @param textColumns the number of leading columns to keep as strings, including the row marker column
+     * @param novalueToken the text of the novalue in the table, may be null
+     * @param novalue the value to use for empty values and novalues
+     * @return the iterator, positioned before the first data row
+     * @throws IOException 
+     */
+    public static NumericRowIterator numericRows(CSTable table, int textColumns, String novalueToken, double novalue)
+            throws IOException {
+        if (!(table instanceof CSVTable)) {
+            throw new IllegalArgumentException("Not a csv table: " + table.getName());
+        }
+        if (textColumns < 1 || textColumns > table.getColumnCount() + 1) {
+            throw new IllegalArgumentException("textColumns: " + textColumns);
+        }
+        return ((CSVTable) table).numericRows(textColumns, novalueToken, novalue);
+    }
+
     /** Check if a column exist in table.
      * 
      * @param table the table to check
@@ -1739,6 +1775,13 @@ public class DataIO {
             };
         }
 
+        NumericRowIterator numericRows(int textColumns, String novalueToken, double novalue) throws IOException {
+            Reader r = newReader();
+            CSVParser csv = new CSVParser(r, strategy);
+            csv.skipLines(firstline);
+            return new NumericRowIterator(r, csv, textColumns, colCount + 1 - textColumns, novalueToken, novalue);
+        }
+
         private int readTableHeader(CSVParser csv) throws IOException {
             Map<String, String> tableInfo = new LinkedHashMap<String, String>();
             info.put(-1, tableInfo);
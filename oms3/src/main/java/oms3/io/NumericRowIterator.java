@@ -0,0 +1,127 @@
+/*
+ * $Id:$
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *  1. The origin of this software must not be misrepresented; you must not
+ *     claim that you wrote the original software. If you use this software
+ *     in a product, an acknowledgment in the product documentation would be
+ *     appreciated but is not required.
+ *
+ *  2. Altered source versions must be plainly marked as such, and must not be
+ *     misrepresented as being the original software.
+ *
+ *  3. This notice may not be removed or altered from any source
+ *     distribution.
+ */
+package oms3.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.NoSuchElementException;
+
+/** Iterates the data rows of a table with numeric columns.
+ *
+ * The leading columns (the row marker and e.g. the date) are kept as
+ * strings, all the others are scanned as doubles straight from the
+ * parser buffer. The buffers are owned by the iterator and are reused,
+ * so the values of a row are valid until the next call to {@link #next()}.
+ *
+ * @see DataIO#numericRows(CSTable, int, String, double)
+ */
+public class NumericRowIterator {
+
+    private final Reader r;
+    private final CSVParser csv;
+    private final String novalueToken;
+    private final double novalue;
+    private String[] text;
+    private double[] values;
+    private String[] nextText;
+    private double[] nextValues;
+    private boolean hasNext;
+    private int row;
+
+    NumericRowIterator(Reader r, CSVParser csv, int textColumns, int valueColumns, String novalueToken,
+            double novalue) throws IOException {
+        this.r = r;
+        this.csv = csv;
+        this.novalueToken = novalueToken;
+        this.novalue = novalue;
+        text = new String[textColumns];
+        values = new double[valueColumns];
+        nextText = new String[textColumns];
+        nextValues = new double[valueColumns];
+        readAhead();
+    }
+
+    private void readAhead() throws IOException {
+        int count = csv.getLine(nextText, nextValues, novalueToken, novalue);
+        // data rows start with an empty column, like in the string rows.
+        hasNext = count > 1 && nextText[0].isEmpty();
+        if (!hasNext) {
+            r.close();
+        }
+    }
+
+    /** Checks if there is another data row.
+     * @return true if {@link #next()} can be called.
+     */
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /** Moves to the next data row.
+     *
+     * @throws IOException on parse error or input read-failure
+     */
+    public void next() throws IOException {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+        String[] t = text;
+        text = nextText;
+        nextText = t;
+        double[] v = values;
+        values = nextValues;
+        nextValues = v;
+        row++;
+        readAhead();
+    }
+
+    /** Gets the number of the current row.
+     * @return the row number, starting from 1.
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /** Gets a leading string column of the current row.
+     *
+     * @param column the column, 0 is the (empty) row marker.
+     * @return the value, or null if the row is too short.
+     */
+    public String getText(int column) {
+        return text[column];
+    }
+
+    /** Gets the numeric columns of the current row.
+     *
+     * The array is reused for the following rows. Empty values and
+     * novalues are set to the novalue of the iterator.
+     * @return the values, following the leading columns.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    public void close() throws IOException {
+        r.close();
+    }
+}
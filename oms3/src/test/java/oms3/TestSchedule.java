@@ -0,0 +1,185 @@
+/*
+ * $Id$
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *  1. The origin of this software must not be misrepresented; you must not
+ *     claim that you wrote the original software. If you use this software
+ *     in a product, an acknowledgment in the product documentation would be
+ *     appreciated but is not required.
+ *
+ *  2. Altered source versions must be plainly marked as such, and must not be
+ *     misrepresented as being the original software.
+ *
+ *  3. This notice may not be removed or altered from any source
+ *     distribution.
+ */
+package oms3;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import oms3.annotations.Execute;
+import oms3.annotations.In;
+import oms3.annotations.Out;
+
+/**
+ * Test the scheduled execution of a compound against the threaded one.
+ *
+ * @version $Id$
+ */
+public class TestSchedule extends TestCase {
+
+    private static final int STEPS = 50;
+
+    public static class Src {
+
+        @In public int step;
+        @In public Double fb;
+        @Out public double x;
+        @Out public double y;
+
+        @Execute
+        public void exec() {
+            double last = fb == null ? 0 : fb;
+            x = step + last / 100;
+            y = step * 10;
+        }
+    }
+
+    public static class Split {
+
+        @In public int step;
+        @Out public double x;
+        @Out public double y;
+
+        @Execute
+        public void exec() {
+            x = step;
+            y = step * 10;
+        }
+    }
+
+    public static class Mul {
+
+        @In public double x;
+        @Out public double x2;
+        @Out public Double last;
+
+        @Execute
+        public void exec() {
+            x2 = x * 2;
+            last = x2;
+        }
+    }
+
+    public static class Add {
+
+        @In public double y;
+        @In public Double prev;
+        @Out public double y1;
+
+        @Execute
+        public void exec() {
+            y1 = y + 1 + (prev == null ? 0 : prev);
+        }
+    }
+
+    public static class Sink {
+
+        @In public double x2;
+        @In public double y1;
+        @Out public Double sum;
+
+        @Execute
+        public void exec() {
+            sum = x2 + y1;
+        }
+    }
+
+    /**
+     * Fan-out from src, fan-in at sink, the sum fed back to src and to add.
+     */
+    public static class Model extends Compound {
+
+        @In public int step;
+        @Out public Double sum;
+        Src s = new Src();
+        Mul m = new Mul();
+        Add a = new Add();
+        Sink k = new Sink();
+
+        public Model() {
+            in2in("step", s);
+            out2in(s, "x", m);
+            out2in(s, "y", a);
+            out2in(m, "x2", k);
+            out2in(a, "y1", k);
+            out2out("sum", k);
+            feedback(k, "sum", s, "fb");
+            feedback(k, "sum", a, "prev");
+        }
+    }
+
+    /**
+     * The feedback goes from one branch of a fan-out to the other.
+     */
+    public static class BranchModel extends Compound {
+
+        @In public int step;
+        @Out public Double sum;
+        Split s = new Split();
+        Mul m = new Mul();
+        Add a = new Add();
+        Sink k = new Sink();
+
+        public BranchModel() {
+            in2in("step", s);
+            out2in(s, "x", m);
+            out2in(s, "y", a);
+            out2in(m, "x2", k);
+            out2in(a, "y1", k);
+            out2out("sum", k);
+            feedback(m, "last", a, "prev");
+        }
+    }
+
+    private static List<Double> run(Compound model, boolean threaded) throws Exception {
+        boolean old = Controller.threaded;
+        Controller.threaded = threaded;
+        try {
+            List<Double> sums = new ArrayList<Double>();
+            for (int i = 0; i < STEPS; i++) {
+                model.getClass().getField("step").setInt(model, i);
+                model.execute();
+                sums.add((Double) model.getClass().getField("sum").get(model));
+            }
+            return sums;
+        } finally {
+            Controller.threaded = old;
+        }
+    }
+
+    public void testScheduledMatchesThreaded() throws Exception {
+        List<Double> threaded = run(new Model(), true);
+        List<Double> scheduled = run(new Model(), false);
+        assertEquals(threaded, scheduled);
+    }
+
+    public void testFeedbackBetweenBranches() throws Exception {
+        for (int r = 0; r < 20; r++) {
+            List<Double> sums = run(new BranchModel(), false);
+            for (int i = 0; i < STEPS; i++) {
+                // add reads the doubled x of the previous step
+                double expected = 2 * i + 10 * i + 1 + (i == 0 ? 0 : 2 * (i - 1));
+                assertEquals(expected, sums.get(i), 0.0);
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * $Id$
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *  1. The origin of this software must not be misrepresented; you must not
+ *     claim that you wrote the original software. If you use this software
+ *     in a product, an acknowledgment in the product documentation would be
+ *     appreciated but is not required.
+ *
+ *  2. Altered source versions must be plainly marked as such, and must not be
+ *     misrepresented as being the original software.
+ *
+ *  3. This notice may not be removed or altered from any source
+ *     distribution.
+ */
+package oms3.dsl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import junit.framework.TestCase;
+import oms3.Compound;
+import oms3.annotations.Execute;
+import oms3.annotations.In;
+import oms3.annotations.Out;
+import oms3.io.BinaryTable;
+import oms3.io.CSTable;
+import oms3.io.DataIO;
+
+/**
+ * Test the buffered output against the text layout of the former output,
+ * and the binary output.
+ *
+ * @version $Id$
+ */
+public class TestOutput extends TestCase {
+
+    private static final int STEPS = 50;
+
+    public static class Gen {
+
+        @In public int step;
+        @Out public Calendar date;
+        @Out public double q;
+        @Out public int n;
+        @Out public double[] a;
+        @Out public Object v;
+
+        @Execute
+        public void exec() {
+            date = new GregorianCalendar(2000, 0, 1);
+            date.add(Calendar.DATE, step);
+            q = step * 1.25 - 3;
+            n = step * 7;
+            a = new double[]{step, -step / 3.0};
+            // an int output that turns double after some steps
+            v = step < 23 ? (Object) Integer.valueOf(step) : (Object) Double.valueOf(step / 4.0);
+        }
+    }
+
+    public static class Model extends Compound {
+
+        @In public int step;
+        @Out public Calendar date;
+        @Out public double q;
+        @Out public int n;
+        @Out public double[] a;
+        @Out public Object v;
+        Gen g = new Gen();
+
+        public Model() {
+            in2in("step", g);
+            out2out("date", g);
+            out2out("q", g);
+            out2out("n", g);
+            out2out("a", g);
+            out2out("v", g);
+        }
+    }
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("output", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static Output output(String vars) {
+        Output o = new Output();
+        o.setVars(vars);
+        o.setFile("out.csv");
+        o.setDateformat("yyyy-MM-dd");
+        return o;
+    }
+
+    private static void run(Output o, File dir, int steps) throws Exception {
+        Model m = new Model();
+        o.setup(m, dir, "test");
+        for (int i = 0; i < steps; i++) {
+            m.step = i;
+            m.execute();
+        }
+    }
+
+    /*
+     * The data rows as the former output printed them.
+     */
+    private static List<String> formerRows(int steps) {
+        SimpleDateFormat dfmt = new SimpleDateFormat("yyyy-MM-dd");
+        Gen g = new Gen();
+        List<String> l = new ArrayList<String>();
+        for (int i = 0; i < steps; i++) {
+            g.step = i;
+            g.exec();
+            String v = (g.v instanceof Double) ? String.format(Locale.US, "%7.3f", g.v) : g.v.toString();
+            l.add(", " + dfmt.format(g.date.getTime())
+                    + ", " + String.format(Locale.US, "%7.3f", g.q)
+                    + ", " + g.n
+                    + ", " + String.format(Locale.US, "%7.3f", g.a[0]) + "," + String.format(Locale.US, "%7.3f", g.a[1])
+                    + ", " + v);
+        }
+        return l;
+    }
+
+    private static List<String> lines(File f) throws IOException {
+        List<String> l = new ArrayList<String>();
+        BufferedReader r = new BufferedReader(new FileReader(f));
+        try {
+            for (String line = r.readLine(); line != null; line = r.readLine()) {
+                l.add(line);
+            }
+        } finally {
+            r.close();
+        }
+        return l;
+    }
+
+    public void testCSV() throws Exception {
+        for (int buffer : new int[]{1, 7, 50, 1024}) {
+            Output o = output("date,q,n,a,v");
+            o.setBuffer(buffer);
+            run(o, dir, STEPS);
+            o.done();
+
+            List<String> l = lines(new File(dir, "out.csv"));
+            assertEquals("@T, \"test\"", l.get(0));
+            assertTrue(l.get(1).startsWith(" " + DataIO.KEY_CREATED_AT + ", "));
+            assertEquals(" " + DataIO.DATE_FORMAT + ", yyyy-MM-dd", l.get(2));
+            assertEquals("@H, date, q, n, a[0],a[1], v", l.get(3));
+            assertEquals(" type, Date, Double, Integer, double,double, Integer", l.get(4));
+            assertEquals("buffer " + buffer, formerRows(STEPS), l.subList(5, l.size()));
+        }
+    }
+
+    public void testBinary() throws Exception {
+        Output o = output("date,q,n,a,v");
+        o.setFormat("binary");
+        o.setFile("out.csb");
+        o.setBuffer(7);
+        run(o, dir, STEPS);
+        o.done();
+
+        CSTable t = DataIO.table(new File(dir, "out.csb"));
+        assertTrue(t instanceof BinaryTable);
+        BinaryTable b = (BinaryTable) t;
+        assertEquals("test", b.getName());
+        assertEquals(STEPS, b.getRowCount());
+        assertEquals(1, b.getTimeColumn());
+        assertEquals(BinaryTable.INT, b.getColumnType(3));
+        // widened, with the first int values
+        assertEquals(BinaryTable.DOUBLE, b.getColumnType(6));
+
+        Gen g = new Gen();
+        for (int i = 0; i < STEPS; i++) {
+            g.step = i;
+            g.exec();
+            assertEquals(g.date.getTimeInMillis(), b.getTime(1, i));
+            assertEquals(g.q, b.getDouble(2, i), 0);
+            assertEquals(g.n, b.getDouble(3, i), 0);
+            assertEquals(g.a[0], b.getDouble(4, i), 0);
+            assertEquals(g.a[1], b.getDouble(5, i), 0);
+            assertEquals(((Number) g.v).doubleValue(), b.getDouble(6, i), 0);
+        }
+        assertEquals(Arrays.asList("out.csb"), Arrays.asList(dir.list()));
+    }
+
+    public void testSettings() throws Exception {
+        Output o = new Output();
+        try {
+            o.setFormat("xls");
+            fail();
+        } catch (IllegalArgumentException E) {
+        }
+        try {
+            o.setBuffer(0);
+            fail();
+        } catch (IllegalArgumentException E) {
+        }
+        o.setVars("q");
+        o.setFormat("binary");
+        try {
+            o.setup(new Model(), dir, "test");
+            fail("binary output needs a file");
+        } catch (IllegalArgumentException E) {
+        }
+    }
+
+    public void testWriteError() throws Exception {
+        // the table file cannot be written over a folder.
+        new File(dir, "out.csb").mkdir();
+        Output o = output("date,q");
+        o.setFormat("binary");
+        o.setFile("out.csb");
+        o.setBuffer(7);
+        run(o, dir, STEPS);
+        try {
+            o.done();
+            fail();
+        } catch (IOException E) {
+        }
+        assertEquals(Arrays.asList("out.csb"), Arrays.asList(dir.list()));
+    }
+
+    public void testAbort() throws Exception {
+        Output o = output("date,q,n,a,v");
+        o.setFormat("binary");
+        o.setFile("out.csb");
+        o.setBuffer(3);
+        run(o, dir, STEPS);
+        o.abort();
+        // no table, no temporary files, no writer thread.
+        assertEquals(0, dir.list().length);
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            assertFalse(t.getName().startsWith("oms3 output"));
+        }
+        o.abort();
+        o.done();
+    }
+
+    public void testBinaryWriter() throws Exception {
+        File f = new File(dir, "w.csb");
+        BinaryTable.Writer w = new BinaryTable.Writer(f, "w", new HashMap<String, String>());
+        w.addColumn("a", BinaryTable.INT, new HashMap<String, String>());
+        w.addColumn("b", BinaryTable.DOUBLE, new HashMap<String, String>());
+        w.writeInts(1, new int[]{1, 2, 3}, 3);
+        w.widen(1);
+        w.writeDoubles(1, new double[]{4.5}, 1);
+        w.writeDoubles(2, new double[]{1, 2, 3, 4, 5}, 4);
+        w.close();
+        BinaryTable b = DataIO.binaryTable(f);
+        assertEquals(BinaryTable.DOUBLE, b.getColumnType(1));
+        assertTrue(Arrays.equals(new double[]{1, 2, 3, 4.5}, b.getDoubles(1, 0, 4)));
+
+        // the row counts differ.
+        w = new BinaryTable.Writer(new File(dir, "x.csb"), "x", new HashMap<String, String>());
+        w.addColumn("a", BinaryTable.INT, new HashMap<String, String>());
+        w.addColumn("b", BinaryTable.DOUBLE, new HashMap<String, String>());
+        w.writeInts(1, new int[]{1, 2, 3}, 3);
+        try {
+            w.close();
+            fail();
+        } catch (IOException E) {
+        }
+        assertEquals(Arrays.asList("w.csb"), Arrays.asList(dir.list()));
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * $Id$
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *  1. The origin of this software must not be misrepresented; you must not
+ *     claim that you wrote the original software. If you use this software
+ *     in a product, an acknowledgment in the product documentation would be
+ *     appreciated but is not required.
+ *
+ *  2. Altered source versions must be plainly marked as such, and must not be
+ *     misrepresented as being the original software.
+ *
+ *  3. This notice may not be removed or altered from any source
+ *     distribution.
+ */
+package oms3.dsl.cosu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import junit.framework.TestCase;
+import ngmf.util.cosu.luca.ExecutionHandle;
+import ngmf.util.cosu.luca.ParallelExecutionHandle;
+import ngmf.util.cosu.luca.ParameterData;
+import ngmf.util.cosu.luca.SCE;
+import oms3.SimConst;
+import oms3.annotations.Execute;
+import oms3.annotations.In;
+import oms3.annotations.Role;
+import oms3.dsl.Model;
+import oms3.dsl.Output;
+import oms3.dsl.Param;
+import oms3.dsl.Params;
+import oms3.io.DataIO;
+
+/**
+ * Test that seeded calibrations and sensitivity analyses give the same
+ * results with one and with several concurrent model runs.
+ *
+ * @version $Id$
+ */
+public class TestCalibrationThreads extends TestCase {
+
+    /** A model writing a linear daily series a * day + b. */
+    public static class Linear {
+
+        @In public double[] a;
+        @In public double[] b;
+        @Role(Role.OUTPUT)
+        @In public File out = new File("sim.csv");
+
+        @Execute
+        public void execute() throws IOException {
+            writeSeries(out, "sim", a[0], b[1]);
+        }
+    }
+
+    static void writeSeries(File file, String name, double a, double b) throws IOException {
+        PrintWriter w = new PrintWriter(file);
+        w.println("@T," + name);
+        w.println(DataIO.DATE_FORMAT + ",yyyy-MM-dd");
+        w.println("@H,date,q");
+        for (int day = 1; day <= 20; day++) {
+            w.println(String.format(",2000-01-%02d,%s", day, Double.toString(a * day + b)));
+        }
+        w.close();
+    }
+
+    /** Evaluates the Rosenbrock function instead of a model. */
+    static class Function implements ParallelExecutionHandle {
+
+        final int threads;
+        double last;
+
+        Function(int threads) {
+            this.threads = threads;
+        }
+
+        static double of(double[] x) {
+            double v = 0;
+            for (int i = 0; i < x.length - 1; i++) {
+                v += 100 * Math.pow(x[i + 1] - x[i] * x[i], 2) + Math.pow(1 - x[i], 2);
+            }
+            return v;
+        }
+
+        @Override
+        public void execute(Step.Data stepData) {
+            last = of(stepData.getParamValues());
+        }
+
+        @Override
+        public void writeParameterFile(Step.Data stepData) {
+        }
+
+        @Override
+        public int getPoolSize() {
+            return threads;
+        }
+
+        @Override
+        public double evaluate(Step step, Step.Data stepData, double[] paramValues) {
+            return of(paramValues);
+        }
+    }
+
+    private static Step.Data sce(int threads, long seed) throws Exception {
+        final Function function = new Function(threads);
+        Step step = new Step(1) {
+
+            @Override
+            public double calculateObjectiveFunctionValue(ExecutionHandle executionHandle) {
+                return function.last;
+            }
+
+            @Override
+            public boolean maximizeObjectiveFunctionValue() {
+                return false;
+            }
+        };
+        step.maxExec = 3000;
+        step.initComplexes = 4;
+        ParameterData p = new ParameterData("x");
+        p.set(new double[]{-1, 1.5, 0.5}, -2, 2, ParameterData.INDIVIDUAL, new boolean[]{true, true, true});
+        Step.Data data = new Step.Data();
+        data.init(new ParameterData[]{p});
+        data.createBestParamData();
+        step.NumOfParams = data.getParamValues().length;
+
+        SCE sce = new SCE(function, step, data);
+        sce.setOut(new PrintStream(new ByteArrayOutputStream()));
+        sce.setRandom(new Random(seed));
+        sce.run();
+        return data;
+    }
+
+    public void testSCE() throws Exception {
+        for (long seed = 1; seed <= 3; seed++) {
+            Step.Data one = sce(1, seed);
+            Step.Data four = sce(4, seed);
+            assertEquals(one.getObjFuncValueOfBestPoint(), four.getObjFuncValueOfBestPoint());
+            assertTrue(Arrays.equals(one.getBestParamDataArray(), four.getBestParamDataArray()));
+            assertTrue(one.getObjFuncValueOfBestPoint() < Function.of(new double[]{-1, 1.5, 0.5}));
+        }
+    }
+
+    private static File createFolder() throws IOException {
+        File folder = File.createTempFile("oms-dds", "");
+        folder.delete();
+        folder.mkdirs();
+        return folder;
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File c : files) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+
+    private static double[][] dds(int threads) throws Exception {
+        Model model = new Model() {
+
+            @Override
+            public String getLibpath() {
+                return null;
+            }
+
+            @Override
+            public Object getComponent() {
+                return new Linear();
+            }
+        };
+        Params modelParams = (Params) model.create("parameter", null);
+        // arrays, so that all their values are sampled
+        modelParams.create("a", "{1.0, 1.0}");
+        modelParams.create("b", "{0.0, 0.0}");
+
+        DDS dds = new DDS();
+        dds.samples = 257;
+        dds.threads = threads;
+        for (String name : new String[]{"a", "b"}) {
+            Param p = (Param) dds.params.create(name, null);
+            p.setLower(0.0);
+            p.setUpper(4.0);
+            p.create("calibration", null);
+        }
+        ObjFunc of = new ObjFunc();
+        of.setMethod(SimConst.ABSDIF);
+        ((CSVColumn) of.create("sim", null)).setFile("sim.csv");
+        of.getSimulated().setTable("sim");
+        of.getSimulated().setColumn("q");
+        ((CSVColumn) of.create("obs", null)).setFile("obs.csv");
+        of.getObserved().setTable("obs");
+        of.getObserved().setColumn("q");
+        dds.ofs.add(of);
+        ObjFunc.adjustWeights(dds.ofs);
+        dds.sens_start = new Date(100, 0, 1);
+        dds.sens_end = new Date(100, 0, 20);
+
+        File folder = createFolder();
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            writeSeries(new File(folder, "obs.csv"), "obs", 2.0, 1.0);
+            return dds.run(model, new ArrayList<Output>(), folder, "dds", executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            delete(folder);
+        }
+    }
+
+    public void testDDS() throws Exception {
+        double[][] one = dds(1);
+        double[][] four = dds(4);
+        assertFalse(Double.isNaN(one[0][0]));
+        assertTrue(Arrays.equals(one[0], four[0]));
+        assertTrue(Arrays.equals(one[1], four[1]));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * $Id$
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *  1. The origin of this software must not be misrepresented; you must not
+ *     claim that you wrote the original software. If you use this software
+ *     in a product, an acknowledgment in the product documentation would be
+ *     appreciated but is not required.
+ *
+ *  2. Altered source versions must be plainly marked as such, and must not be
+ *     misrepresented as being the original software.
+ *
+ *  3. This notice may not be removed or altered from any source
+ *     distribution.
+ */
+package oms3.dsl.cosu;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.TestCase;
+import oms3.Compound;
+import oms3.annotations.Execute;
+import oms3.annotations.In;
+import oms3.annotations.Out;
+import oms3.dsl.Model;
+import oms3.dsl.Output;
+
+/**
+ * Test that a failed model run closes its outputs.
+ *
+ * @version $Id$
+ */
+public class TestModelPool extends TestCase {
+
+    public static class Gen {
+
+        @Out public double q = 1.5;
+        @Out public double r = 2.5;
+
+        @Execute
+        public void execute() {
+        }
+    }
+
+    public static class Fail {
+
+        @In public double r;
+
+        @Execute
+        public void execute() {
+            throw new IllegalStateException("model failed");
+        }
+    }
+
+    public static class Failing extends Compound {
+
+        @Out public double q;
+        Gen g = new Gen();
+        Fail f = new Fail();
+
+        public Failing() {
+            out2in(g, "r", f);
+            out2out("q", g);
+        }
+    }
+
+    public void testFailedRun() throws Exception {
+        Model model = new Model() {
+
+            @Override
+            public String getLibpath() {
+                return null;
+            }
+
+            @Override
+            public Object getComponent() {
+                return new Failing();
+            }
+        };
+        Output o = new Output();
+        o.setVars("q");
+        o.setFormat("binary");
+        o.setFile("out.csb");
+
+        File folder = File.createTempFile("oms-pool", "");
+        folder.delete();
+        folder.mkdirs();
+        try {
+            ModelPool.run(model, new HashMap<String, Object>(), folder, Arrays.asList(o), "pool");
+            fail();
+        } catch (Exception E) {
+        }
+        try {
+            // no table, no temporary files, no writer thread.
+            assertEquals(0, folder.list().length);
+            for (Thread t : Thread.getAllStackTraces().keySet()) {
+                assertFalse(t.getName().startsWith("oms3 output"));
+            }
+        } finally {
+            for (File f : folder.listFiles()) {
+                f.delete();
+            }
+            folder.delete();
+        }
+    }
+}
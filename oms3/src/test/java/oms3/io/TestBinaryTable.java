@@ -0,0 +1,191 @@
+/*
+ * $Id$
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *  1. The origin of this software must not be misrepresented; you must not
+ *     claim that you wrote the original software. If you use this software
+ *     in a product, an acknowledgment in the product documentation would be
+ *     appreciated but is not required.
+ *
+ *  2. Altered source versions must be plainly marked as such, and must not be
+ *     misrepresented as being the original software.
+ *
+ *  3. This notice may not be removed or altered from any source
+ *     distribution.
+ */
+package oms3.io;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Test the binary tables against the text tables they are written from.
+ *
+ * @version $Id$
+ */
+public class TestBinaryTable extends TestCase {
+
+    private static final String TABLE = "@T,flow\n"
+            + "date_format,yyyy-MM-dd\n"
+            + "@H,date,q,n,name\n"
+            + "type,Date,,,\n"
+            + ",2000-01-01,1.5,1,a b\n"
+            + ",2000-01-02,2.5,2,c\n"
+            + ",2000-01-02,3.5,3,d\n"
+            + ",2000-01-04,-0.25,4,\n"
+            + ",2000-01-05,5.0,5,e\n"
+            + ",2000-01-05,6.0,6,f\n"
+            + ",2000-01-08,7.0,7,g\n";
+    private SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd");
+    private List<File> files = new ArrayList<File>();
+    private CSTable text;
+    private BinaryTable binary;
+
+    @Override
+    protected void setUp() throws Exception {
+        text = DataIO.table(write(TABLE, ".csv"));
+        File f = file(".csb");
+        DataIO.saveBinary(text, f);
+        binary = DataIO.binaryTable(f);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : files) {
+            f.delete();
+        }
+    }
+
+    public void testRoundTrip() throws Exception {
+        assertSame(BinaryTable.class, DataIO.table(files.get(1)).getClass());
+        assertEquals(BinaryTable.DATE, binary.getColumnType(1));
+        assertEquals(BinaryTable.DOUBLE, binary.getColumnType(2));
+        assertEquals(BinaryTable.INT, binary.getColumnType(3));
+        assertEquals(BinaryTable.TEXT, binary.getColumnType(4));
+        assertEquals(1, binary.getTimeColumn());
+
+        File f = file(".csv");
+        DataIO.save(binary, f);
+        CSTable back = DataIO.table(f);
+        assertEquals(text.getName(), back.getName());
+        assertEquals(text.getInfo(), back.getInfo());
+        assertEquals(text.getColumnCount(), back.getColumnCount());
+        for (int i = 1; i <= text.getColumnCount(); i++) {
+            assertEquals(text.getColumnName(i), back.getColumnName(i));
+            assertEquals(text.getColumnInfo(i), back.getColumnInfo(i));
+        }
+        assertEquals(rows(text), rows(back));
+        assertEquals(rows(text), rows(binary));
+    }
+
+    public void testMissingValues() throws Exception {
+        CSTable t = DataIO.table(write("@T,missing\n"
+                + "@H,a,b,c,d\n"
+                + ",1,,x,\n"
+                + ",2,2.5,,\n"
+                + ",,3,y,\n", ".csv"));
+        File f = file(".csb");
+        DataIO.saveBinary(t, f);
+        BinaryTable b = DataIO.binaryTable(f);
+
+        // the numbers stay numbers, the missing ones are NaN.
+        assertEquals(BinaryTable.DOUBLE, b.getColumnType(1));
+        assertEquals(BinaryTable.DOUBLE, b.getColumnType(2));
+        assertEquals(BinaryTable.TEXT, b.getColumnType(3));
+        assertEquals(BinaryTable.TEXT, b.getColumnType(4));
+        assertTrue(Arrays.equals(new double[]{1, 2, Double.NaN}, b.getDoubles(1, 0, 3)));
+        assertTrue(Arrays.equals(new double[]{Double.NaN, 2.5, 3}, b.getDoubles(2, 0, 3)));
+        assertEquals("", b.getString(3, 1));
+        assertEquals("", b.getString(4, 0));
+    }
+
+    public void testFindRowByDate() throws Exception {
+        for (String d : new String[]{"2000-01-01", "2000-01-02", "2000-01-05", "2000-01-08"}) {
+            Date date = fmt.parse(d);
+            assertEquals(d, DataIO.findRowByDate(date, 1, text), DataIO.findRowByDate(date, 1, binary));
+        }
+        // the first of the duplicates.
+        assertEquals(1, DataIO.findRowByDate(fmt.parse("2000-01-02"), 1, binary));
+        for (String d : new String[]{"1999-12-31", "2000-01-03", "2000-01-09"}) {
+            assertNotFound(fmt.parse(d), text);
+            assertNotFound(fmt.parse(d), binary);
+        }
+    }
+
+    public void testSliceByTime() throws Exception {
+        String[] dates = {"1999-12-01", "2000-01-01", "2000-01-02", "2000-01-03",
+            "2000-01-05", "2000-01-06", "2000-01-08", "2000-02-01"};
+        for (int i = 0; i < dates.length; i++) {
+            for (int j = i; j < dates.length; j++) {
+                Date start = fmt.parse(dates[i]);
+                Date end = fmt.parse(dates[j]);
+                assertEquals(dates[i] + " " + dates[j],
+                        Arrays.toString(DataIO.sliceByTime(text, 1, start, end)),
+                        Arrays.toString(DataIO.sliceByTime(binary, 1, start, end)));
+            }
+        }
+    }
+
+    public void testColumnValues() throws Exception {
+        String[] dates = {"1999-12-01", "2000-01-01", "2000-01-02", "2000-01-03",
+            "2000-01-05", "2000-01-08", "2000-02-01"};
+        for (int i = 0; i < dates.length; i++) {
+            for (int j = i; j < dates.length; j++) {
+                Date start = fmt.parse(dates[i]);
+                Date end = fmt.parse(dates[j]);
+                for (String col : new String[]{"q", "n"}) {
+                    assertTrue(dates[i] + " " + dates[j] + " " + col, Arrays.equals(
+                            DataIO.getColumnDoubleValuesInterval(start, end, text, col, DataIO.DAILY),
+                            DataIO.getColumnDoubleValuesInterval(start, end, binary, col, DataIO.DAILY)));
+                }
+            }
+        }
+        Date[] d = DataIO.getColumnDateValues(text, "date");
+        assertEquals(7, d.length);
+        assertTrue(Arrays.equals(d, DataIO.getColumnDateValues(binary, "date")));
+    }
+
+    private void assertNotFound(Date date, CSTable t) {
+        try {
+            DataIO.findRowByDate(date, 1, t);
+            fail(date.toString());
+        } catch (IllegalArgumentException E) {
+        }
+    }
+
+    private static List<String> rows(CSTable t) {
+        List<String> l = new ArrayList<String>();
+        for (String[] row : t.rows()) {
+            l.add(Arrays.toString(row));
+        }
+        return l;
+    }
+
+    private File write(String content, String ext) throws IOException {
+        File f = file(ext);
+        FileWriter w = new FileWriter(f);
+        w.write(content);
+        w.close();
+        return f;
+    }
+
+    private File file(String ext) throws IOException {
+        File f = File.createTempFile("table", ext);
+        files.add(f);
+        return f;
+    }
+}